@@ -1348,6 +1348,9 @@ public final class TeleInterpreter {
             throw TeleError.unexpected("Unsupported intrinsic: " + intrinsic);
         } else if (intrinsic == PAUSE) {
             // Nothing to do, since it can be no-op.
+        } else if (intrinsic == PREFETCH_READ) {
+            // Nothing to do but discarding the address, since it can be no-op.
+            pop();
         } else {
             // Could also opt to just execute the method in case it has an implementation, but for now be safe.
             throw ProgramError.unexpected("Unknown intrinsic: " + intrinsic);
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.tele.object;
+
+import com.sun.max.tele.*;
+import com.sun.max.tele.reference.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.heap.gcx.*;
+
+
+/**
+ * @see AgingRegionalizedNursery
+ */
+public class TeleAgingRegionalizedNursery extends TeleTupleObject {
+
+    private TeleBaseAtomicBumpPointerAllocator allocator;
+
+    private Address fromSurvivorStart = Address.zero();
+
+    private Address fromSurvivorTop = Address.zero();
+
+    public TeleAgingRegionalizedNursery(TeleVM vm, RemoteReference reference) {
+        super(vm, reference);
+    }
+
+    @Override
+    protected boolean updateObjectCache(long epoch, StatsPrinter statsPrinter) {
+        if (!super.updateObjectCache(epoch, statsPrinter)) {
+            return false;
+        }
+        if (allocator == null) {
+            final RemoteReference nurseryAllocatorRef = fields().AgingRegionalizedNursery_allocator.readRemoteReference(reference());
+            allocator = (TeleBaseAtomicBumpPointerAllocator) objects().makeTeleObject(nurseryAllocatorRef);
+        }
+        fromSurvivorStart = fields().AgingRegionalizedNursery_fromSurvivorStart.readWord(reference()).asAddress();
+        fromSurvivorTop = fields().AgingRegionalizedNursery_fromSurvivorTop.readWord(reference()).asAddress();
+        return true;
+    }
+
+    /**
+     * Allocator of eden.
+     */
+    public TeleBaseAtomicBumpPointerAllocator allocator() {
+        return allocator;
+    }
+
+    /**
+     * Start of the survivors of the last young collection.
+     */
+    public Address fromSurvivorStart() {
+        return fromSurvivorStart;
+    }
+
+    /**
+     * End of the survivors of the last young collection.
+     */
+    public Address fromSurvivorTop() {
+        return fromSurvivorTop;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+/*
+ * @Harness: java
+ * @Runs: (100000) = true;
+ */
+package test.bench.gc;
+
+import java.util.*;
+
+import test.bench.util.*;
+
+/**
+ * Measures the cost of marking a live object graph. Each run is a full collection of a heap holding a graph of
+ * small objects whose references point to objects allocated at random positions, so that tracing the graph visits
+ * the heap in no particular address order, as prefetching while marking is meant to help with.
+ * The encapsulating benchmark runs the same collection with an empty graph, so that the reported time is
+ * the time spent marking the graph, and the marking rate is the number of nodes divided by that time.
+ */
+public class Marking_rate extends RunBench {
+
+    protected static final int DEFAULT_NODES = 100000;
+
+    protected Marking_rate(int nodes) {
+        super(new Bench(nodes), new Bench(0));
+    }
+
+    public static boolean test(int nodes) {
+        return new Marking_rate(nodes).runBench();
+    }
+
+    static class Node {
+        Node left;
+        Node right;
+        long value;
+    }
+
+    static class Bench extends MicroBenchmark {
+        private final int nrNodes;
+        private Node[] graph;
+
+        Bench(int nodes) {
+            nrNodes = nodes;
+        }
+
+        @Override
+        public void prerun() {
+            if (graph == null) {
+                graph = buildGraph(nrNodes);
+            }
+        }
+
+        @Override
+        public long run() {
+            System.gc();
+            return defaultResult;
+        }
+    }
+
+    /**
+     * Builds a graph where every node is reachable from the first one and references nodes allocated far from it.
+     */
+    private static Node[] buildGraph(int nrNodes) {
+        final Node[] nodes = new Node[nrNodes];
+        for (int i = 0; i < nrNodes; i++) {
+            nodes[i] = new Node();
+            nodes[i].value = i;
+        }
+        final List<Node> shuffled = new ArrayList<Node>(Arrays.asList(nodes));
+        Collections.shuffle(shuffled, new Random(467673));
+        for (int i = 0; i < nrNodes; i++) {
+            final Node node = shuffled.get(i);
+            // A binary tree over the shuffled order, so that the graph is only reachable from its root.
+            if (2 * i + 1 < nrNodes) {
+                node.left = shuffled.get(2 * i + 1);
+            }
+            if (2 * i + 2 < nrNodes) {
+                node.right = shuffled.get(2 * i + 2);
+            }
+        }
+        if (nrNodes == 0) {
+            return new Node[0];
+        }
+        // Only keep the root, so that marking traces the graph rather than scanning an array of all its nodes.
+        return new Node[] {shuffled.get(0)};
+    }
+
+    public static void main(String[] args) {
+        int nodes = DEFAULT_NODES;
+        if (args.length > 0) {
+            nodes = Integer.parseInt(args[0]);
+        }
+        test(nodes);
+    }
+
+}
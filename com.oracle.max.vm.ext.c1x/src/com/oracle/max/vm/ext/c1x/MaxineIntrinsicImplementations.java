@@ -203,6 +203,17 @@ public class MaxineIntrinsicImplementations {
         }
     }
 
+    public static class PrefetchReadIntrinsic implements C1XIntrinsicImpl {
+        @Override
+        public Value createHIR(GraphBuilder b, RiMethod target, Value[] args, boolean isStatic, FrameState stateBefore) {
+            assert args.length == 1;
+            UnsafePrefetchRead prefetch = new UnsafePrefetchRead(args[0], b.append(new Constant(CiConstant.INT_0)));
+            prefetch.setFlag(Flag.LiveSideEffect); // ensure this instruction is not eliminated
+            b.append(prefetch);
+            return null;
+        }
+    }
+
     public static class BreakpointTrapIntrinsic implements C1XIntrinsicImpl {
         @Override
         public Value createHIR(GraphBuilder b, RiMethod target, Value[] args, boolean isStatic, FrameState stateBefore) {
@@ -273,6 +284,7 @@ public class MaxineIntrinsicImplementations {
         registry.add(UNCOMMON_TRAP, new InfopointIntrinsic(Infopoint.Op.UNCOMMON_TRAP));
 
         registry.add(PAUSE, new PauseIntrinsic());
+        registry.add(PREFETCH_READ, new PrefetchReadIntrinsic());
         registry.add(BREAKPOINT_TRAP, new BreakpointTrapIntrinsic());
         registry.add(ALLOCA, new AllocaIntrinsic());
 
@@ -241,6 +241,13 @@ public class MaxIntrinsics {
         }
     }
 
+    static class PrefetchReadIntrinsic extends MaxIntrinsicImpl {
+        public ValueNode create(FixedNode invoke, ResolvedJavaMethod method, ValueNode address) {
+            StructuredGraph graph = invoke.graph();
+            return graph.add(new MaxPrefetchNode(address));
+        }
+    }
+
     /**
      * Case where a Graal snippet with exactly the same signature already exists, so we simply
      * return the graph for that.
@@ -359,6 +366,7 @@ public class MaxIntrinsics {
         registry.add(HERE, new SafepointIntrinsic(MaxSafepointNode.Op.HERE));
         registry.add(ALLOCA, new AllocaIntrinsic());
         registry.add(MEMBAR, new MembarIntrinsic());
+        registry.add(PREFETCH_READ, new PrefetchReadIntrinsic());
 /*
         registry.add(UNCOMMON_TRAP, new UncommonTrapIntrinsic());
 
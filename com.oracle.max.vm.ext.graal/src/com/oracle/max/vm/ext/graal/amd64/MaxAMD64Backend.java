@@ -146,6 +146,11 @@ public class MaxAMD64Backend extends Backend {
             setResult(node, result);
         }
 
+        public void visitMaxPrefetch(MaxPrefetchNode node) {
+            AMD64AddressValue address = new AMD64AddressValue(Kind.Byte, load(operand(node.address())), 0);
+            append(new MaxAMD64PrefetchOp(address));
+        }
+
         @Override
         public void visitBreakpointNode(BreakpointNode i) {
             unimplemented("MaxAMD64LIRGenerator.visitBreakpointNode");
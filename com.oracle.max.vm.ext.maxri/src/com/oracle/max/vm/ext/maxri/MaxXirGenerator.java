@@ -80,7 +80,7 @@ public class MaxXirGenerator implements RiXirGenerator {
             return (XirWriteBarrierSpecification) heapScheme;
         }
         return new XirWriteBarrierSpecification() {
-            public XirWriteBarrierGenerator barrierGenerator(IntBitSet<WriteBarrierSpecification.WriteBarrierSpec> writeBarrierSpec) {
+            public XirWriteBarrierGenerator barrierGenerator(IntBitSet<WriteBarrierSpecification.WriteBarrierSpec> writeBarrierSpec, XirRuntimeCallStubs runtimeCallStubs) {
                 return XirWriteBarrierSpecification.NULL_WRITE_BARRIER_GEN;
             }
         };
@@ -117,6 +117,15 @@ public class MaxXirGenerator implements RiXirGenerator {
     private final HashMap<String, XirTemplate> runtimeCallStubs = new HashMap<String, XirTemplate>();
     private final HashMap<String, RiMethod> runtimeMethods = new HashMap<String, RiMethod>();
 
+    /**
+     * Runtime call stubs made available to the write barrier generators of the heap scheme.
+     */
+    private final XirWriteBarrierSpecification.XirRuntimeCallStubs barrierRuntimeCallStubs = new XirWriteBarrierSpecification.XirRuntimeCallStubs() {
+        public void callRuntimeThroughStub(CiXirAssembler asm, Class<?> runtimeCallsClass, String method, XirOperand result, XirOperand... args) {
+            MaxXirGenerator.this.callRuntimeThroughStub(asm, runtimeCallsClass, method, result, args);
+        }
+    };
+
     private XirTemplate epilogueTemplate;
     private XirPair[] putFieldTemplates;
     private XirPair[] getFieldTemplates;
@@ -759,11 +768,11 @@ public class MaxXirGenerator implements RiXirGenerator {
         asm.bindInline(store);
         int elemSize = target().sizeInBytes(kind);
         if (genWriteBarrier) {
-            writeBarrierSpecification.barrierGenerator(WriteBarrierSpecification.ARRAY_PRE_BARRIER).genWriteBarrier(asm, array, index);
+            writeBarrierSpecification.barrierGenerator(WriteBarrierSpecification.ARRAY_PRE_BARRIER, barrierRuntimeCallStubs).genWriteBarrier(asm, array, index);
         }
         asm.pstore(kind, array, index, value, offsetOfFirstArrayElement(), Scale.fromInt(elemSize), !genBoundsCheck && !genStoreCheck);
         if (genWriteBarrier) {
-            writeBarrierSpecification.barrierGenerator(WriteBarrierSpecification.ARRAY_POST_BARRIER).genWriteBarrier(asm, array, index);
+            writeBarrierSpecification.barrierGenerator(WriteBarrierSpecification.ARRAY_POST_BARRIER, barrierRuntimeCallStubs).genWriteBarrier(asm, array, index);
         }
         if (genBoundsCheck) {
             asm.bindOutOfLine(failBoundsCheck);
@@ -1341,11 +1350,11 @@ public class MaxXirGenerator implements RiXirGenerator {
             XirParameter value = asm.createInputParameter("value", kind);
             XirParameter fieldOffset = asm.createConstantInputParameter("fieldOffset", CiKind.Int);
             if (genWriteBarrier) {
-                writeBarrierSpecification.barrierGenerator(WriteBarrierSpecification.TUPLE_PRE_BARRIER).genWriteBarrier(asm, object);
+                writeBarrierSpecification.barrierGenerator(WriteBarrierSpecification.TUPLE_PRE_BARRIER, barrierRuntimeCallStubs).genWriteBarrier(asm, object, fieldOffset);
             }
             asm.pstore(kind, object, fieldOffset, value, true);
             if (genWriteBarrier) {
-                writeBarrierSpecification.barrierGenerator(WriteBarrierSpecification.TUPLE_POST_BARRIER).genWriteBarrier(asm, object);
+                writeBarrierSpecification.barrierGenerator(WriteBarrierSpecification.TUPLE_POST_BARRIER, barrierRuntimeCallStubs).genWriteBarrier(asm, object);
             }
             xirTemplate = finishTemplate(asm, "putfield<" + kind + ", " + genWriteBarrier + ">");
         } else {
@@ -1360,9 +1369,12 @@ public class MaxXirGenerator implements RiXirGenerator {
             } else {
                 callRuntimeThroughStub(asm, "resolvePutField", fieldOffset, guard);
             }
+            if (genWriteBarrier) {
+                writeBarrierSpecification.barrierGenerator(WriteBarrierSpecification.TUPLE_PRE_BARRIER, barrierRuntimeCallStubs).genWriteBarrier(asm, object, fieldOffset);
+            }
             asm.pstore(kind, object, fieldOffset, value, true);
             if (genWriteBarrier) {
-                writeBarrier(asm, object, null, value);
+                writeBarrierSpecification.barrierGenerator(WriteBarrierSpecification.TUPLE_POST_BARRIER, barrierRuntimeCallStubs).genWriteBarrier(asm, object);
             }
             xirTemplate = finishTemplate(asm, "putfield<" + kind + ", " + genWriteBarrier + ">-unresolved");
         }
@@ -1732,15 +1744,16 @@ public class MaxXirGenerator implements RiXirGenerator {
         return template;
     }
 
-    private void writeBarrier(CiXirAssembler asm, XirOperand object, XirOperand fieldOffset, XirOperand value) {
-        // XXX: add write barrier mechanism
+    @HOSTED_ONLY
+    private void callRuntimeThroughStub(CiXirAssembler asm, String method, XirOperand result, XirOperand... args) {
+        callRuntimeThroughStub(asm, runtimeCalls, method, result, args);
     }
 
     @HOSTED_ONLY
-    private void callRuntimeThroughStub(CiXirAssembler asm, String method, XirOperand result, XirOperand... args) {
+    private void callRuntimeThroughStub(CiXirAssembler asm, Class<?> runtimeCallsClass, String method, XirOperand result, XirOperand... args) {
         XirTemplate stub = runtimeCallStubs.get(method);
         if (stub == null) {
-            stub = addCallRuntimeThroughStub(stubs, runtimeCalls, runtimeCallStubs, asm, method, result, args);
+            stub = addCallRuntimeThroughStub(stubs, runtimeCallsClass, runtimeCallStubs, asm, method, result, args);
         }
         if (stub == null) {
             throw ProgramError.unexpected("could not find runtime call: " + method);
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+/*
+ * @Harness: java
+ * @Runs: (1)=true; (10)=true; (10000)=true;
+ */
+/**
+ */
+package jtt.max;
+
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.object.*;
+
+public final class Arena_allocation {
+    private Arena_allocation() {
+    }
+
+    public static boolean test(int nrObjects) {
+        final Arena arena = Arena.create();
+        try {
+            Object[] objects;
+            arena.enter();
+            try {
+                objects = new Object[nrObjects];
+                for (int i = 0; i < nrObjects; i++) {
+                    objects[i] = new int[] {i, i + 1};
+                }
+            } finally {
+                arena.exit();
+            }
+
+            if (arena.used().isZero() || !Arena.contains(ObjectAccess.toOrigin(objects))) {
+                return false;
+            }
+
+            System.gc();
+
+            for (int i = 0; i < nrObjects; i++) {
+                final int[] a = (int[]) objects[i];
+                if (!Arena.contains(ObjectAccess.toOrigin(a)) || a[0] != i || a[1] != i + 1) {
+                    return false;
+                }
+            }
+
+            objects = null;
+            arena.release();
+            return arena.used().isZero();
+        } finally {
+            arena.close();
+        }
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+/*
+ * @Harness: java
+ * @Runs: (1)=true; (10)=true; (10000)=true;
+ */
+/**
+ */
+package jtt.max;
+
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.heap.*;
+
+public final class ClassHistogram_count {
+    private ClassHistogram_count() {
+    }
+
+    private static final class Counted {
+        final int value;
+        Counted(int value) {
+            this.value = value;
+        }
+    }
+
+    public static boolean test(int nrObjects) {
+        if (!ClassHistogram.isEnabled()) {
+            ClassHistogram.RecordClassHistogram = true;
+            ClassHistogram.initialize();
+        }
+        final ClassActor classActor = ClassActor.fromJava(Counted.class);
+        final Counted[] objects = new Counted[nrObjects];
+        for (int i = 0; i < nrObjects; i++) {
+            objects[i] = new Counted(i);
+        }
+        final long publications = ClassHistogram.publicationCount();
+
+        System.gc();
+
+        if (ClassHistogram.publicationCount() == publications) {
+            // The heap scheme doesn't record class histograms.
+            return true;
+        }
+        final long[][] histogram = ClassHistogram.copyLastHistogram();
+        final long[] counts = histogram[0];
+        final long[] bytes = histogram[1];
+        for (int i = 0; i < nrObjects; i++) {
+            if (objects[i].value != i) {
+                return false;
+            }
+        }
+        return counts[classActor.id] == nrObjects && bytes[classActor.id] == nrObjects * classActor.dynamicTupleSize().toLong();
+    }
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+/*
+ * @Harness: java
+ * @Runs: 0=true
+ */
+/**
+ */
+package jtt.max;
+
+import static com.sun.max.vm.VMConfiguration.*;
+
+import com.sun.max.vm.heap.gcx.epsilon.*;
+
+/**
+ * Exhausts the heap of the {@link EpsilonHeapScheme} twice and checks that both {@link OutOfMemoryError}s can be caught.
+ * The heap is never collected, so the second exhaustion uses up the safety zone the first one opened.
+ * Passes trivially with other heap schemes.
+ */
+public final class EpsilonHeap_outOfMemory {
+    private EpsilonHeap_outOfMemory() {
+    }
+
+    private static final class Chain {
+        final Chain next;
+        final long[] payload = new long[8192];
+        Chain(Chain next) {
+            this.next = next;
+        }
+    }
+
+    public static boolean test(int arg) {
+        if (!(vmConfig().heapScheme() instanceof EpsilonHeapScheme)) {
+            return true;
+        }
+        if (exhaust() == 0) {
+            return false;
+        }
+        // Nothing was freed, so this exhausts the safety zone: the error must still be catchable.
+        exhaust();
+        return true;
+    }
+
+    /**
+     * Allocates until the heap is exhausted.
+     *
+     * @return the number of objects allocated
+     */
+    private static int exhaust() {
+        Chain chain = null;
+        int allocated = 0;
+        try {
+            while (true) {
+                chain = new Chain(chain);
+                allocated++;
+            }
+        } catch (OutOfMemoryError e) {
+            return allocated;
+        }
+    }
+
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+/*
+ * @Harness: java
+ * @Runs: (10)=true; (1000)=true;
+ */
+/**
+ */
+package jtt.max;
+
+import java.io.*;
+
+import com.sun.max.vm.heap.*;
+
+/**
+ * Dumps the heap, then parses the HPROF header and records of the dump and looks for an array allocated by the test.
+ */
+public final class HeapDump_format {
+    private HeapDump_format() {
+    }
+
+    private static final int TAG_UTF8 = 0x01;
+    private static final int TAG_LOAD_CLASS = 0x02;
+    private static final int TAG_STACK_TRACE = 0x05;
+    private static final int TAG_HEAP_DUMP_SEGMENT = 0x1C;
+    private static final int TAG_HEAP_DUMP_END = 0x2C;
+
+    private static final int ROOT_UNKNOWN = 0xFF;
+    private static final int ROOT_STICKY_CLASS = 0x05;
+    private static final int ROOT_THREAD_OBJECT = 0x08;
+    private static final int CLASS_DUMP = 0x20;
+    private static final int INSTANCE_DUMP = 0x21;
+    private static final int OBJECT_ARRAY_DUMP = 0x22;
+    private static final int PRIMITIVE_ARRAY_DUMP = 0x23;
+
+    private static final int TYPE_OBJECT = 2;
+    private static final int TYPE_INT = 10;
+
+    private static final int MARKER = 0xCAFE0000;
+
+    public static boolean test(int length) throws IOException {
+        final int[] marker = new int[length];
+        for (int i = 0; i < length; i++) {
+            marker[i] = MARKER + i;
+        }
+        final File file = File.createTempFile("HeapDump_format", ".hprof");
+        try {
+            if (!HprofHeapDumper.dumpHeap(file.getPath())) {
+                return false;
+            }
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                return parse(in, marker.length);
+            } finally {
+                in.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static boolean parse(DataInputStream in, int markerLength) throws IOException {
+        final StringBuilder format = new StringBuilder();
+        for (int c = in.readUnsignedByte(); c != 0; c = in.readUnsignedByte()) {
+            format.append((char) c);
+        }
+        if (!format.toString().equals("JAVA PROFILE 1.0.2")) {
+            return false;
+        }
+        final int idSize = in.readInt();
+        if (idSize != 4 && idSize != 8) {
+            return false;
+        }
+        in.readLong(); // time stamp
+
+        boolean seenUtf8 = false;
+        boolean seenLoadClass = false;
+        boolean seenSegment = false;
+        boolean foundMarker = false;
+        while (true) {
+            final int tag = in.read();
+            if (tag < 0) {
+                // The dump must end with a HEAP_DUMP_END record
+                return false;
+            }
+            in.readInt(); // time
+            final long length = in.readInt() & 0xFFFFFFFFL;
+            switch (tag) {
+                case TAG_UTF8:
+                    seenUtf8 = true;
+                    skip(in, length);
+                    break;
+                case TAG_LOAD_CLASS:
+                    if (length != 8 + 2 * idSize) {
+                        return false;
+                    }
+                    seenLoadClass = true;
+                    skip(in, length);
+                    break;
+                case TAG_STACK_TRACE:
+                    skip(in, length);
+                    break;
+                case TAG_HEAP_DUMP_SEGMENT:
+                    seenSegment = true;
+                    final int found = parseSegment(in, length, idSize, markerLength);
+                    if (found < 0) {
+                        return false;
+                    }
+                    foundMarker |= found > 0;
+                    break;
+                case TAG_HEAP_DUMP_END:
+                    return length == 0 && in.read() < 0 && seenUtf8 && seenLoadClass && seenSegment && foundMarker;
+                default:
+                    return false;
+            }
+        }
+    }
+
+    /**
+     * Parses the sub-records of a heap dump segment.
+     *
+     * @return -1 if the segment is malformed, 1 if it holds an array of ints with the marker pattern, 0 otherwise
+     */
+    private static int parseSegment(DataInputStream in, long length, int idSize, int markerLength) throws IOException {
+        long remaining = length;
+        int found = 0;
+        while (remaining > 0) {
+            final int subTag = in.readUnsignedByte();
+            long size = 1;
+            switch (subTag) {
+                case ROOT_UNKNOWN:
+                case ROOT_STICKY_CLASS:
+                    skip(in, idSize);
+                    size += idSize;
+                    break;
+                case ROOT_THREAD_OBJECT:
+                    skip(in, idSize + 8);
+                    size += idSize + 8;
+                    break;
+                case CLASS_DUMP: {
+                    skip(in, 7 * idSize + 8);
+                    size += 7 * idSize + 8;
+                    final int constantPoolSize = in.readUnsignedShort();
+                    size += 2;
+                    for (int i = 0; i < constantPoolSize; i++) {
+                        in.readUnsignedShort();
+                        final int type = in.readUnsignedByte();
+                        skip(in, valueSize(type, idSize));
+                        size += 3 + valueSize(type, idSize);
+                    }
+                    final int staticFields = in.readUnsignedShort();
+                    size += 2;
+                    for (int i = 0; i < staticFields; i++) {
+                        skip(in, idSize);
+                        final int type = in.readUnsignedByte();
+                        skip(in, valueSize(type, idSize));
+                        size += idSize + 1 + valueSize(type, idSize);
+                    }
+                    final int instanceFields = in.readUnsignedShort();
+                    size += 2;
+                    skip(in, instanceFields * (idSize + 1));
+                    size += instanceFields * (idSize + 1);
+                    break;
+                }
+                case INSTANCE_DUMP: {
+                    skip(in, 2 * idSize + 4);
+                    final long numberOfBytes = in.readInt() & 0xFFFFFFFFL;
+                    skip(in, numberOfBytes);
+                    size += 2 * idSize + 8 + numberOfBytes;
+                    break;
+                }
+                case OBJECT_ARRAY_DUMP: {
+                    skip(in, idSize + 4);
+                    final int arrayLength = in.readInt();
+                    skip(in, idSize + (long) arrayLength * idSize);
+                    size += 2 * idSize + 8 + (long) arrayLength * idSize;
+                    break;
+                }
+                case PRIMITIVE_ARRAY_DUMP: {
+                    skip(in, idSize + 4);
+                    final int arrayLength = in.readInt();
+                    final int type = in.readUnsignedByte();
+                    size += idSize + 9 + (long) arrayLength * valueSize(type, idSize);
+                    if (type == TYPE_INT && arrayLength == markerLength) {
+                        boolean isMarker = true;
+                        for (int i = 0; i < arrayLength; i++) {
+                            isMarker &= in.readInt() == MARKER + i;
+                        }
+                        if (isMarker) {
+                            found = 1;
+                        }
+                    } else {
+                        skip(in, (long) arrayLength * valueSize(type, idSize));
+                    }
+                    break;
+                }
+                default:
+                    return -1;
+            }
+            remaining -= size;
+        }
+        return remaining == 0 ? found : -1;
+    }
+
+    private static int valueSize(int type, int idSize) {
+        switch (type) {
+            case TYPE_OBJECT:
+                return idSize;
+            case 4: // boolean
+            case 8: // byte
+                return 1;
+            case 5: // char
+            case 9: // short
+                return 2;
+            case 6: // float
+            case TYPE_INT:
+                return 4;
+            case 7: // double
+            case 11: // long
+                return 8;
+            default:
+                throw new IllegalArgumentException("Unknown HPROF basic type " + type);
+        }
+    }
+
+    private static void skip(DataInputStream in, long n) throws IOException {
+        long remaining = n;
+        while (remaining > 0) {
+            final int skipped = in.skipBytes((int) Math.min(remaining, Integer.MAX_VALUE));
+            if (skipped <= 0) {
+                throw new EOFException();
+            }
+            remaining -= skipped;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+/*
+ * @Harness: java
+ * @Runs: (1)=true; (4)=true;
+ */
+/**
+ */
+package jtt.max;
+
+import static com.sun.max.vm.VMConfiguration.*;
+
+import com.sun.max.annotate.*;
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.heap.gcx.gen.mse.*;
+
+/**
+ * Allocates large arrays that die immediately and checks that young collections reclaim them when the {@link GenMSEHeapScheme}
+ * runs with {@code -XX:+EagerReclaimLargeObjects}. Passes trivially otherwise.
+ */
+public final class LargeObject_youngReclaim {
+    private LargeObject_youngReclaim() {
+    }
+
+    private static final int LARGE_ARRAY_SIZE = 2 * 1024 * 1024;
+
+    private static Object sink;
+
+    @NEVER_INLINE
+    private static void allocateDeadLargeArray() {
+        final byte[] array = new byte[LARGE_ARRAY_SIZE];
+        array[LARGE_ARRAY_SIZE - 1] = 1;
+    }
+
+    public static boolean test(int nrArrays) {
+        if (!(vmConfig().heapScheme() instanceof GenMSEHeapScheme)) {
+            return true;
+        }
+        final GenMSEHeapScheme heapScheme = (GenMSEHeapScheme) vmConfig().heapScheme();
+        if (!heapScheme.reclaimsLargeObjectsEagerly()) {
+            return true;
+        }
+        final long reclaimed = heapScheme.reclaimedLargeObjectBytes();
+        for (int i = 0; i < nrArrays; i++) {
+            allocateDeadLargeArray();
+        }
+        // Fill the nursery with small garbage until a young collection reclaims the arrays.
+        final long maxAllocated = 2 * Heap.maxSize().toLong();
+        long allocated = 0;
+        while (heapScheme.reclaimedLargeObjectBytes() - reclaimed < (long) nrArrays * LARGE_ARRAY_SIZE && allocated < maxAllocated) {
+            sink = new byte[1024];
+            allocated += 1024;
+        }
+        sink = null;
+        return heapScheme.reclaimedLargeObjectBytes() - reclaimed >= (long) nrArrays * LARGE_ARRAY_SIZE;
+    }
+
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package test.com.sun.max.vm.heap;
+
+import static com.sun.max.vm.VMConfiguration.*;
+
+import java.lang.ref.*;
+import java.util.*;
+
+import test.com.sun.max.vm.*;
+
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.actor.member.*;
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.layout.ohm.*;
+import com.sun.max.vm.type.*;
+
+/**
+ * Tests for {@link TupleReferenceMap} built from the field layouts of {@link OhmTupleLayout}, with and without
+ * {@linkplain OhmTupleLayout#packsFields() packing}.
+ * <p>
+ * The fields of the classes of small hierarchies are laid out again with the layout under test, and the reference map
+ * built from the new offsets is copied into the hub of the class to check the slots it visits. The offsets and
+ * reference maps of the configured layout are restored afterwards.
+ */
+public class TupleReferenceMapTest extends VmTestCase {
+
+    private static final String PACK_FIELDS_PROPERTY = "max.vm.layout.ohm.pack";
+
+    public TupleReferenceMapTest(String name) {
+        super(name);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(TupleReferenceMapTest.class);
+    }
+
+    static class Base {
+        byte b;
+        Object base;
+    }
+
+    static class Middle extends Base {
+        Object middle1;
+        int i;
+        Object middle2;
+    }
+
+    static class Leaf extends Middle {
+        short s;
+        Object leaf;
+        long l;
+        char c;
+    }
+
+    static class References {
+        Object first;
+        Object second;
+    }
+
+    static class MoreReferences extends References {
+        Object third;
+    }
+
+    static class WeakLeaf extends WeakReference<Object> {
+        Object weak;
+        boolean z;
+
+        WeakLeaf() {
+            super(null);
+        }
+    }
+
+    /**
+     * Hierarchies of classes, each listed from superclass to subclass.
+     */
+    private static final Class<?>[][] HIERARCHIES = {
+        {Base.class, Middle.class, Leaf.class},
+        {References.class, MoreReferences.class},
+        {WeakLeaf.class}
+    };
+
+    private static OhmTupleLayout newLayout(boolean packFields) {
+        final String previous = System.getProperty(PACK_FIELDS_PROPERTY);
+        System.setProperty(PACK_FIELDS_PROPERTY, String.valueOf(packFields));
+        try {
+            return new OhmTupleLayout();
+        } finally {
+            if (previous == null) {
+                System.clearProperty(PACK_FIELDS_PROPERTY);
+            } else {
+                System.setProperty(PACK_FIELDS_PROPERTY, previous);
+            }
+        }
+    }
+
+    /**
+     * Lays out the fields of a hierarchy, from superclass to subclass.
+     *
+     * @return the tuple size of each class of the hierarchy
+     */
+    private static int[] layOut(OhmTupleLayout layout, Class<?>[] hierarchy) {
+        final int[] tupleSizes = new int[hierarchy.length];
+        for (int i = 0; i < hierarchy.length; i++) {
+            final ClassActor classActor = ClassActor.fromJava(hierarchy[i]);
+            tupleSizes[i] = layout.layoutFields(classActor.superClassActor, classActor.localInstanceFieldActors()).toInt();
+        }
+        return tupleSizes;
+    }
+
+    /**
+     * Restores the offsets and reference maps of the configured layout.
+     */
+    private static void restore(Class<?>[] hierarchy) {
+        final int[] tupleSizes = layOut((OhmTupleLayout) vmConfig().layoutScheme().tupleLayout, hierarchy);
+        for (int i = 0; i < hierarchy.length; i++) {
+            final ClassActor classActor = ClassActor.fromJava(hierarchy[i]);
+            assertEquals(classActor.dynamicTupleSize().toInt(), tupleSizes[i]);
+            new TupleReferenceMap(classActor).copyIntoHub(classActor.dynamicHub());
+        }
+    }
+
+    private static List<FieldActor> instanceFields(ClassActor classActor) {
+        final List<FieldActor> fieldActors = new ArrayList<FieldActor>();
+        for (ClassActor c = classActor; c != null; c = c.superClassActor) {
+            fieldActors.addAll(Arrays.asList(c.localInstanceFieldActors()));
+        }
+        return fieldActors;
+    }
+
+    private static int wordIndex(FieldActor fieldActor) {
+        assertEquals(0, fieldActor.offset() % Word.size());
+        return fieldActor.offset() / Word.size();
+    }
+
+    /**
+     * Checks that the fields of a class and of its superclasses are naturally aligned, don't overlap, and fit in the tuple.
+     */
+    private static void checkFields(OhmTupleLayout layout, ClassActor classActor, int tupleSize) {
+        assertEquals(0, tupleSize % Word.size());
+        final boolean[] occupied = new boolean[tupleSize];
+        Arrays.fill(occupied, 0, layout.headerSize(), true);
+        for (FieldActor fieldActor : instanceFields(classActor)) {
+            final int offset = fieldActor.offset();
+            final int size = fieldActor.kind.width.numberOfBytes;
+            assertEquals(fieldActor.toString(), 0, offset % Math.min(size, Word.size()));
+            assertTrue(fieldActor.toString(), offset + size <= tupleSize);
+            for (int i = offset; i < offset + size; i++) {
+                assertFalse(fieldActor.toString(), occupied[i]);
+                occupied[i] = true;
+            }
+        }
+    }
+
+    /**
+     * Checks that the reference map of a class covers the references of the class and of its superclasses but the
+     * referent of {@link Reference}s, and that visiting it reports these references once each, in increasing order.
+     */
+    private static void checkReferenceMap(ClassActor classActor) {
+        final List<Integer> expected = new ArrayList<Integer>();
+        for (FieldActor fieldActor : instanceFields(classActor)) {
+            if (fieldActor.kind.isReference && fieldActor != ClassRegistry.JLRReference_referent) {
+                expected.add(wordIndex(fieldActor));
+            }
+        }
+        Collections.sort(expected);
+
+        final TupleReferenceMap referenceMap = new TupleReferenceMap(classActor);
+        final Hub hub = classActor.dynamicHub();
+        assertEquals(expected.size(), referenceMap.numberOfEntries());
+        assertEquals(hub.referenceMapLength, referenceMap.numberOfEntries());
+        referenceMap.copyIntoHub(hub);
+
+        final List<Integer> visited = new ArrayList<Integer>();
+        TupleReferenceMap.visitReferences(hub, Pointer.zero(), new PointerIndexVisitor() {
+            @Override
+            public void visit(Pointer pointer, int wordIndex) {
+                visited.add(wordIndex);
+            }
+        });
+        assertEquals(expected, visited);
+        if (instanceFields(classActor).contains(ClassRegistry.JLRReference_referent)) {
+            assertFalse(visited.contains(wordIndex(ClassRegistry.JLRReference_referent)));
+        }
+    }
+
+    public void test_referentExcluded() {
+        final ClassActor classActor = ClassActor.fromJava(WeakLeaf.class);
+        assertTrue(instanceFields(classActor).contains(ClassRegistry.JLRReference_referent));
+        try {
+            checkReferenceMap(classActor);
+        } finally {
+            restore(new Class<?>[] {WeakLeaf.class});
+        }
+    }
+
+    public void test_unpackedLayout() {
+        final OhmTupleLayout layout = newLayout(false);
+        assertFalse(layout.packsFields());
+        for (Class<?>[] hierarchy : HIERARCHIES) {
+            try {
+                final int[] tupleSizes = layOut(layout, hierarchy);
+                for (int i = 0; i < hierarchy.length; i++) {
+                    final ClassActor classActor = ClassActor.fromJava(hierarchy[i]);
+                    checkFields(layout, classActor, tupleSizes[i]);
+                    checkReferenceMap(classActor);
+                    // Classes are laid out one after the other.
+                    final int superTupleSize = i == 0 ? classActor.superClassActor.dynamicTupleSize().toInt() : tupleSizes[i - 1];
+                    for (FieldActor fieldActor : classActor.localInstanceFieldActors()) {
+                        assertTrue(fieldActor.toString(), fieldActor.offset() >= superTupleSize);
+                    }
+                    assertEquals(layout.unpackedTupleSize(classActor), tupleSizes[i]);
+                }
+            } finally {
+                restore(hierarchy);
+            }
+        }
+    }
+
+    public void test_packedLayout() {
+        final OhmTupleLayout layout = newLayout(true);
+        assertTrue(layout.packsFields());
+        for (Class<?>[] hierarchy : HIERARCHIES) {
+            try {
+                final int[] tupleSizes = layOut(layout, hierarchy);
+                int lastSuperReferenceIndex = -1;
+                for (int i = 0; i < hierarchy.length; i++) {
+                    final ClassActor classActor = ClassActor.fromJava(hierarchy[i]);
+                    checkFields(layout, classActor, tupleSizes[i]);
+                    checkReferenceMap(classActor);
+                    assertTrue(tupleSizes[i] <= layout.unpackedTupleSize(classActor));
+                    // The references declared by a class are consecutive words, above those of its superclasses.
+                    final List<Integer> references = new ArrayList<Integer>();
+                    for (FieldActor fieldActor : classActor.localInstanceFieldActors()) {
+                        if (fieldActor.kind.isReference) {
+                            references.add(wordIndex(fieldActor));
+                        }
+                    }
+                    Collections.sort(references);
+                    for (int j = 0; j < references.size(); j++) {
+                        assertEquals(references.get(0) + j, (int) references.get(j));
+                        assertTrue(references.get(j) > lastSuperReferenceIndex);
+                    }
+                    if (!references.isEmpty()) {
+                        lastSuperReferenceIndex = references.get(references.size() - 1);
+                    }
+                }
+            } finally {
+                restore(hierarchy);
+            }
+        }
+        // Sub-word fields of a subclass fill the holes its superclasses leave.
+        final int[] tupleSizes = layOut(layout, HIERARCHIES[0]);
+        try {
+            assertTrue(tupleSizes[2] < layout.unpackedTupleSize(ClassActor.fromJava(Leaf.class)));
+        } finally {
+            restore(HIERARCHIES[0]);
+        }
+    }
+}
@@ -760,11 +760,15 @@ public class JTConfig {
         jtt.exbytecode.EBC_uwgteq_01.class,
         jtt.exbytecode.EBC_uwlt_01.class,
         jtt.exbytecode.EBC_uwlteq_01.class,
+        jtt.max.Arena_allocation.class,
+        jtt.max.ClassHistogram_count.class,
         jtt.max.CodePointer01.class,
         jtt.max.CodePointer02.class,
+        jtt.max.EpsilonHeap_outOfMemory.class,
         jtt.max.Fold01.class,
         jtt.max.Fold02.class,
         jtt.max.Fold03.class,
+        jtt.max.HeapDump_format.class,
         jtt.max.Hub_Subtype01.class,
         jtt.max.Hub_Subtype02.class,
         jtt.max.ImmortalHeap_allocation.class,
@@ -772,6 +776,7 @@ public class JTConfig {
         jtt.max.ImmortalHeap_switching.class,
         jtt.max.Inline01.class,
         jtt.max.Invoke_except01.class,
+        jtt.max.LargeObject_youngReclaim.class,
         jtt.max.LeastSignificantBit.class,
         jtt.max.MostSignificantBit.class,
         jtt.max.Prototyping01.class,
@@ -807,25 +807,30 @@ public class JTRuns {
             case 725: jtt_exbytecode_EBC_uwgteq_01(); break;
             case 726: jtt_exbytecode_EBC_uwlt_01(); break;
             case 727: jtt_exbytecode_EBC_uwlteq_01(); break;
-            case 728: jtt_max_CodePointer01(); break;
-            case 729: jtt_max_CodePointer02(); break;
-            case 730: jtt_max_Fold01(); break;
-            case 731: jtt_max_Fold02(); break;
-            case 732: jtt_max_Fold03(); break;
-            case 733: jtt_max_Hub_Subtype01(); break;
-            case 734: jtt_max_Hub_Subtype02(); break;
-            case 735: jtt_max_ImmortalHeap_allocation(); break;
-            case 736: jtt_max_ImmortalHeap_gc(); break;
-            case 737: jtt_max_ImmortalHeap_switching(); break;
-            case 738: jtt_max_Inline01(); break;
-            case 739: jtt_max_Invoke_except01(); break;
-            case 740: jtt_max_LeastSignificantBit(); break;
-            case 741: jtt_max_MostSignificantBit(); break;
-            case 742: jtt_max_Prototyping01(); break;
-            case 743: jtt_max_Unsigned_idiv01(); break;
-            case 744: jtt_max_Unsigned_irem01(); break;
-            case 745: jtt_max_Unsigned_ldiv01(); break;
-            case 746: jtt_max_Unsigned_lrem01(); break;
+            case 728: jtt_max_Arena_allocation(); break;
+            case 729: jtt_max_ClassHistogram_count(); break;
+            case 730: jtt_max_CodePointer01(); break;
+            case 731: jtt_max_CodePointer02(); break;
+            case 732: jtt_max_EpsilonHeap_outOfMemory(); break;
+            case 733: jtt_max_Fold01(); break;
+            case 734: jtt_max_Fold02(); break;
+            case 735: jtt_max_Fold03(); break;
+            case 736: jtt_max_HeapDump_format(); break;
+            case 737: jtt_max_Hub_Subtype01(); break;
+            case 738: jtt_max_Hub_Subtype02(); break;
+            case 739: jtt_max_ImmortalHeap_allocation(); break;
+            case 740: jtt_max_ImmortalHeap_gc(); break;
+            case 741: jtt_max_ImmortalHeap_switching(); break;
+            case 742: jtt_max_Inline01(); break;
+            case 743: jtt_max_Invoke_except01(); break;
+            case 744: jtt_max_LargeObject_youngReclaim(); break;
+            case 745: jtt_max_LeastSignificantBit(); break;
+            case 746: jtt_max_MostSignificantBit(); break;
+            case 747: jtt_max_Prototyping01(); break;
+            case 748: jtt_max_Unsigned_idiv01(); break;
+            case 749: jtt_max_Unsigned_irem01(); break;
+            case 750: jtt_max_Unsigned_ldiv01(); break;
+            case 751: jtt_max_Unsigned_lrem01(); break;
         }
         return true;
     }
@@ -26805,6 +26810,62 @@ public class JTRuns {
             }
             pass();
         }
+        static void jtt_max_Arena_allocation() {
+            begin("jtt.max.Arena_allocation");
+            String runString = null;
+            try {
+            // (1) == true
+                runString = "(1)";
+                if (true != jtt.max.Arena_allocation.test(1)) {
+                    fail(runString);
+                    return;
+                }
+            // (10) == true
+                runString = "(10)";
+                if (true != jtt.max.Arena_allocation.test(10)) {
+                    fail(runString);
+                    return;
+                }
+            // (10000) == true
+                runString = "(10000)";
+                if (true != jtt.max.Arena_allocation.test(10000)) {
+                    fail(runString);
+                    return;
+                }
+            } catch (Throwable t) {
+                fail(runString, t);
+                return;
+            }
+            pass();
+        }
+        static void jtt_max_ClassHistogram_count() {
+            begin("jtt.max.ClassHistogram_count");
+            String runString = null;
+            try {
+            // (1) == true
+                runString = "(1)";
+                if (true != jtt.max.ClassHistogram_count.test(1)) {
+                    fail(runString);
+                    return;
+                }
+            // (10) == true
+                runString = "(10)";
+                if (true != jtt.max.ClassHistogram_count.test(10)) {
+                    fail(runString);
+                    return;
+                }
+            // (10000) == true
+                runString = "(10000)";
+                if (true != jtt.max.ClassHistogram_count.test(10000)) {
+                    fail(runString);
+                    return;
+                }
+            } catch (Throwable t) {
+                fail(runString, t);
+                return;
+            }
+            pass();
+        }
         static void jtt_max_CodePointer01() {
             begin("jtt.max.CodePointer01");
             String runString = null;
@@ -26873,6 +26934,22 @@ public class JTRuns {
             }
             pass();
         }
+        static void jtt_max_EpsilonHeap_outOfMemory() {
+            begin("jtt.max.EpsilonHeap_outOfMemory");
+            String runString = null;
+            try {
+            // (0) == true
+                runString = "(0)";
+                if (true != jtt.max.EpsilonHeap_outOfMemory.test(0)) {
+                    fail(runString);
+                    return;
+                }
+            } catch (Throwable t) {
+                fail(runString, t);
+                return;
+            }
+            pass();
+        }
         static void jtt_max_Fold01() {
             begin("jtt.max.Fold01");
             String runString = null;
@@ -26921,6 +26998,28 @@ public class JTRuns {
             }
             pass();
         }
+        static void jtt_max_HeapDump_format() {
+            begin("jtt.max.HeapDump_format");
+            String runString = null;
+            try {
+            // (10) == true
+                runString = "(10)";
+                if (true != jtt.max.HeapDump_format.test(10)) {
+                    fail(runString);
+                    return;
+                }
+            // (1000) == true
+                runString = "(1000)";
+                if (true != jtt.max.HeapDump_format.test(1000)) {
+                    fail(runString);
+                    return;
+                }
+            } catch (Throwable t) {
+                fail(runString, t);
+                return;
+            }
+            pass();
+        }
         static void jtt_max_Hub_Subtype01() {
             begin("jtt.max.Hub_Subtype01");
             String runString = null;
@@ -27171,6 +27270,28 @@ public class JTRuns {
             }
             pass();
         }
+        static void jtt_max_LargeObject_youngReclaim() {
+            begin("jtt.max.LargeObject_youngReclaim");
+            String runString = null;
+            try {
+            // (1) == true
+                runString = "(1)";
+                if (true != jtt.max.LargeObject_youngReclaim.test(1)) {
+                    fail(runString);
+                    return;
+                }
+            // (4) == true
+                runString = "(4)";
+                if (true != jtt.max.LargeObject_youngReclaim.test(4)) {
+                    fail(runString);
+                    return;
+                }
+            } catch (Throwable t) {
+                fail(runString, t);
+                return;
+            }
+            pass();
+        }
         static void jtt_max_LeastSignificantBit() {
             begin("jtt.max.LeastSignificantBit");
             String runString = null;
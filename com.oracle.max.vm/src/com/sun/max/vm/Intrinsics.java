@@ -73,6 +73,13 @@ public class Intrinsics {
     public static void pause() {
     }
 
+    /**
+     * @see MaxineIntrinsicIDs#PREFETCH_READ
+     */
+    @INTRINSIC(PREFETCH_READ)
+    public static void prefetchRead(Pointer address) {
+    }
+
     /**
      * @see MaxineIntrinsicIDs#BREAKPOINT_TRAP
      */
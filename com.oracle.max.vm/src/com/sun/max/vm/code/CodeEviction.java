@@ -588,6 +588,8 @@ public final class CodeEviction extends VmOperation {
             return;
         }
 
+        // return addresses into relocated code must not be hidden by the return barrier of a stack watermark
+        StackWatermark.remove(vmThread.tla());
         walker.setTLA(vmThread.tla());
 
         switch(phase) {
@@ -447,6 +447,8 @@ public class Deoptimization extends VmOperation {
          * @param thread the thread whose stack is to be walked
          */
         public void go(VmThread thread, Pointer ip, Pointer sp, Pointer fp) {
+            // The return address patched by a stack watermark may be the one to patch for deoptimization
+            StackWatermark.remove(thread.tla());
             VmStackFrameWalker sfw = new VmStackFrameWalker(thread.tla());
             sfw.inspect(ip, sp, fp, this);
 
@@ -106,6 +106,13 @@ public final class Stub extends TargetMethod {
          */
         TrapStub,
 
+        /**
+         * Transition when returning to the frame of a {@linkplain StackWatermark stack watermark}.
+         *
+         * @see Stubs#returnBarrierStub()
+         */
+        ReturnBarrierStub,
+
         /**
          * A place holder for invalid indexes of dispatch tables (virtual / interface).
          */
@@ -134,6 +141,21 @@ public final class Stub extends TargetMethod {
         }
     }
 
+    /**
+     * Determines if a given address in a given target method denotes the entry point of the {@linkplain Stubs#returnBarrierStub() return barrier}
+     * of stack watermarks.
+     *
+     * @param ip a code address
+     * @param tm the target method {@linkplain Code#codePointerToTargetMethod(Pointer) found} in the code cache based on {@code ip}
+     */
+    public static boolean isReturnBarrierStubEntry(Pointer ip, TargetMethod tm) {
+        if (tm != null && tm.is(ReturnBarrierStub)) {
+            return ip.asPointer().equals(tm.codeStart());
+        } else {
+            return false;
+        }
+    }
+
     public final Type type;
 
     @Override
@@ -51,6 +51,7 @@ import com.sun.max.vm.intrinsics.*;
 import com.sun.max.vm.object.*;
 import com.sun.max.vm.runtime.*;
 import com.sun.max.vm.runtime.amd64.*;
+import com.sun.max.vm.stack.*;
 import com.sun.max.vm.thread.*;
 
 /**
@@ -157,6 +158,11 @@ public class Stubs {
      */
     private Stub deoptStubForSafepointPoll;
 
+    /**
+     * The return barrier of {@linkplain StackWatermark stack watermarks}.
+     */
+    private Stub returnBarrierStub;
+
     private CriticalMethod resolveVirtualCall;
     private CriticalMethod resolveInterfaceCall;
     private CiValue[] resolveVirtualCallArgs;
@@ -200,6 +206,15 @@ public class Stubs {
         return deoptStubForSafepointPoll;
     }
 
+    /**
+     * Gets the stub a {@linkplain StackWatermark stack watermark} patches into the return address of the callee of the watermark frame.
+     *
+     * @see #genReturnBarrierStub()
+     */
+    public Stub returnBarrierStub() {
+        return returnBarrierStub;
+    }
+
     /**
      * Performs all stub-related runtime initialization.
      */
@@ -228,6 +243,7 @@ public class Stubs {
                 unroll.classMethodActor.compiledState = new Compilations(null, genUnroll(unrollArgs));
 
                 deoptStubForSafepointPoll = genDeoptStubWithCSA(null, registerConfigs.trapStub, false);
+                returnBarrierStub = genReturnBarrierStub();
                 for (CiKind kind : CiKind.VALUES) {
                     deoptStubs[kind.ordinal()] = genDeoptStub(kind);
                     deoptStubsForCompilerStubs[kind.ordinal()] = genDeoptStubWithCSA(kind, registerConfigs.compilerStub, true);
@@ -777,6 +793,35 @@ public class Stubs {
         }
     }
 
+    /**
+     * Generates the return barrier of {@linkplain StackWatermark stack watermarks}. The barrier is entered when a method returns
+     * to the frame of the watermark of the current thread. It clears the watermark and transfers control to the original
+     * return address, leaving the return value registers and the stack untouched.
+     */
+    @HOSTED_ONLY
+    private Stub genReturnBarrierStub() {
+        if (platform().isa == ISA.AMD64) {
+            /*
+             *   mov   scratch, [latch + ETLA]
+             *   mov   [scratch + STACK_WATERMARK], 0
+             *   jmp   [scratch + STACK_WATERMARK_RETURN_ADDRESS]
+             */
+            CiRegisterConfig registerConfig = registerConfigs.standard;
+            AMD64MacroAssembler asm = new AMD64MacroAssembler(target(), registerConfig);
+            CiRegister latch = AMD64SafepointPoll.LATCH_REGISTER;
+            CiRegister scratch = registerConfig.getScratchRegister();
+            int frameSize = platform().target.alignFrameSize(0);
+
+            asm.movq(scratch, new CiAddress(WordUtil.archKind(), latch.asValue(), ETLA.offset));
+            asm.movslq(new CiAddress(WordUtil.archKind(), scratch.asValue(), StackWatermark.STACK_WATERMARK.offset), 0);
+            asm.jmp(new CiAddress(WordUtil.archKind(), scratch.asValue(), StackWatermark.STACK_WATERMARK_RETURN_ADDRESS.offset));
+
+            byte[] code = asm.codeBuffer.close(true);
+            return new Stub(ReturnBarrierStub, "returnBarrierStub", frameSize, code, -1, 0, null, -1);
+        }
+        throw FatalError.unimplemented();
+    }
+
     /**
      * Generates a stub to deoptimize a method upon returning to it.
      *
@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.heap;
+
+import static com.sun.max.vm.heap.HeapSchemeWithTLAB.*;
+import static com.sun.max.vm.thread.VmThread.*;
+import static com.sun.max.vm.thread.VmThreadLocal.*;
+
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.MaxineVM.Phase;
+import com.sun.max.vm.thread.*;
+
+/**
+ * A TLAB refill policy that sizes each thread's TLABs after the thread's share of the allocation performed between two GCs.
+ * <p>
+ * Each thread's policy accounts for the space the thread allocated in its TLABs since the last GC. At GC time, the
+ * {@linkplain #resizeTLABs(boolean) resizing} accumulates these into a total, samples the thread's fraction of the total into an
+ * exponentially weighted average, and sizes the thread's next TLABs so that a thread allocating at the same rate refills its TLAB
+ * about {@link #targetRefills()} times between GCs. Mostly idle threads thus converge to small TLABs, and allocation-heavy
+ * threads to large ones, up to {@code -XX:MaxTLABSize}.
+ * <p>
+ * The refill waste limit is the amount of space left in a TLAB below which an allocation failure causes a refill. Above the limit, the
+ * object is allocated outside the TLAB and the limit is raised by {@code -XX:TLABWasteIncrement} words, so that a thread facing
+ * repeated failures eventually retires its TLAB. The limit is reset to a fraction of the TLAB size at every resizing.
+ * <p>
+ * Statistics are approximate: the space allocated in a TLAB is estimated as its requested size minus the space left at its retirement.
+ */
+public class AdaptiveTLABRefillPolicy extends TLABRefillPolicy {
+    static int TLABAllocationWeight = 35;
+    static int TLABWasteTargetPercent = 1;
+    static int TLABRefillWasteFraction = 64;
+    static int TLABWasteIncrement = 4;
+
+    /**
+     * Smallest size of a TLAB.
+     */
+    static final Size MIN_TLAB_SIZE = Size.K.times(2);
+
+    /**
+     * Largest size of a TLAB.
+     */
+    static Size MaxTLABSize = Size.M;
+
+    static {
+        VMOptions.addFieldOption("-XX:", "TLABAllocationWeight", AdaptiveTLABRefillPolicy.class,
+                        "Percentage weight of the last GC interval in the average fraction of allocation of a thread.", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "TLABWasteTargetPercent", AdaptiveTLABRefillPolicy.class,
+                        "Percentage of the space allocated between GCs that may be wasted by TLAB refills.", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "TLABRefillWasteFraction", AdaptiveTLABRefillPolicy.class,
+                        "Initial refill waste limit, as a fraction of the TLAB size.", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "TLABWasteIncrement", AdaptiveTLABRefillPolicy.class,
+                        "Number of words the refill waste limit is raised by on each allocation outside the TLAB.", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "MaxTLABSize", AdaptiveTLABRefillPolicy.class,
+                        "Largest size of a resized TLAB.", Phase.PRISTINE);
+    }
+
+    /**
+     * Space allocated in TLABs by all threads during the GC interval that ended with the last resizing.
+     */
+    private static long totalAllocated;
+
+    /**
+     * Number of threads that had a TLAB during the last GC interval.
+     */
+    private static int numThreads;
+
+    /**
+     * Size the TLAB should have on next refill.
+     */
+    private Size desiredSize;
+
+    /**
+     * Size of the current TLAB, zero if the thread has none.
+     */
+    private Size currentSize;
+
+    /**
+     * When space left in the TLAB is below this limit, an allocation failure causes a TLAB refill.
+     */
+    private Size refillWasteLimit;
+
+    /**
+     * Average fraction of the allocation performed by this thread between GCs, zero if not sampled yet.
+     */
+    private double allocationFraction;
+
+    /**
+     * Space allocated in TLABs since last GC.
+     */
+    private long allocated;
+
+    /**
+     * Space left unused in retired TLABs since last GC.
+     */
+    private long wasted;
+
+    /**
+     * Number of TLAB refills since last GC.
+     */
+    private int refills;
+
+    /**
+     * Number of allocations performed outside of the TLAB since last GC because the refill waste limit was exceeded.
+     */
+    private int slowAllocations;
+
+    public AdaptiveTLABRefillPolicy(Size initialTLABSize) {
+        desiredSize = initialTLABSize;
+        currentSize = initialTLABSize;
+        refillWasteLimit = initialRefillWasteLimit(initialTLABSize);
+    }
+
+    private static Size initialRefillWasteLimit(Size tlabSize) {
+        return tlabSize.dividedBy(TLABRefillWasteFraction).wordAligned();
+    }
+
+    /**
+     * Number of times a thread is expected to refill its TLAB between GCs. Each refill may waste up to a
+     * {@linkplain #TLABRefillWasteFraction fraction} of the TLAB, on average half of it, hence the factor 2.
+     */
+    private static int targetRefills() {
+        return Math.max(1, 100 / (2 * Math.max(1, TLABWasteTargetPercent)));
+    }
+
+    @Override
+    public boolean shouldRefill(Size size, Pointer allocationMark) {
+        if (allocationMark.isZero()) {
+            // No TLAB. Refill whatsoever
+            return true;
+        }
+        final Pointer tlabTop = TLAB_TOP.load(ETLA.load(currentTLA()));
+        if (tlabTop.lessEqual(allocationMark.plus(refillWasteLimit))) {
+            // Retiring the TLAB wastes less than the limit.
+            return true;
+        }
+        // Too much space left in the TLAB to retire it. Allocate outside of it, and be less picky next time.
+        refillWasteLimit = refillWasteLimit.plus(Word.size() * TLABWasteIncrement);
+        slowAllocations++;
+        return false;
+    }
+
+    @Override
+    public Size nextTlabSize() {
+        return desiredSize;
+    }
+
+    private void retire(Size leftover) {
+        if (currentSize.greaterThan(leftover)) {
+            allocated += currentSize.minus(leftover).toLong();
+        }
+        wasted += leftover.toLong();
+    }
+
+    @Override
+    public void doOnRefill(Size leftover) {
+        retire(leftover);
+        refills++;
+        currentSize = desiredSize;
+    }
+
+    @Override
+    public void doOnReset(Size leftover) {
+        retire(leftover);
+        currentSize = Size.zero();
+    }
+
+    /**
+     * Samples the fraction of the total allocation performed by this thread during the last GC interval, resizes its
+     * next TLABs accordingly, and resets the statistics for the next interval.
+     */
+    private void resize() {
+        final double fraction = (double) allocated / totalAllocated;
+        if (allocationFraction == 0.0) {
+            allocationFraction = fraction;
+        } else {
+            allocationFraction = (allocationFraction * (100 - TLABAllocationWeight) + fraction * TLABAllocationWeight) / 100;
+        }
+        final long size = (long) (allocationFraction * totalAllocated) / targetRefills();
+        desiredSize = Size.fromLong(Math.min(Math.max(size, MIN_TLAB_SIZE.toLong()), Math.max(MaxTLABSize.toLong(), MIN_TLAB_SIZE.toLong()))).wordAligned();
+        refillWasteLimit = initialRefillWasteLimit(desiredSize);
+    }
+
+    private void resetStatistics() {
+        allocated = 0L;
+        wasted = 0L;
+        refills = 0;
+        slowAllocations = 0;
+    }
+
+    private void printStatistics(VmThread vmThread) {
+        Log.print("TLAB: ");
+        Log.printThread(vmThread, false);
+        Log.print(" allocated: ");
+        Log.print(allocated >> 10);
+        Log.print(" K (");
+        Log.print((int) (100 * allocated / totalAllocated));
+        Log.print("%), refills: ");
+        Log.print(refills);
+        Log.print(", slow allocations: ");
+        Log.print(slowAllocations);
+        Log.print(", waste: ");
+        Log.print(wasted >> 10);
+        Log.print(" K, next size: ");
+        Log.print(desiredSize.unsignedShiftedRight(10).toLong());
+        Log.print(" K, refill waste limit: ");
+        Log.print(refillWasteLimit.toLong());
+        Log.println(" bytes");
+    }
+
+    private static AdaptiveTLABRefillPolicy policyOf(Pointer tla) {
+        final TLABRefillPolicy refillPolicy = TLABRefillPolicy.getForCurrentThread(ETLA.load(tla));
+        if (refillPolicy instanceof AdaptiveTLABRefillPolicy) {
+            return (AdaptiveTLABRefillPolicy) refillPolicy;
+        }
+        return null;
+    }
+
+    private static final Pointer.Procedure accumulator = new Pointer.Procedure() {
+        public void run(Pointer tla) {
+            final AdaptiveTLABRefillPolicy policy = policyOf(tla);
+            if (policy != null) {
+                totalAllocated += policy.allocated;
+                numThreads++;
+            }
+        }
+    };
+
+    private static boolean printStatistics;
+
+    private static final Pointer.Procedure resizer = new Pointer.Procedure() {
+        public void run(Pointer tla) {
+            final AdaptiveTLABRefillPolicy policy = policyOf(tla);
+            if (policy != null) {
+                policy.resize();
+                if (printStatistics) {
+                    policy.printStatistics(VmThread.fromTLA(tla));
+                }
+                policy.resetStatistics();
+            }
+        }
+    };
+
+    /**
+     * Resize the TLABs of all threads after the allocation they performed since the last resizing.
+     * Must be called by the GC, when mutator threads are stopped, and after TLABs were {@linkplain HeapSchemeWithTLAB.ResetTLAB reset}.
+     *
+     * @param print if true, print each thread's TLAB statistics and next TLAB size to the {@link Log}.
+     */
+    public static void resizeTLABs(boolean print) {
+        totalAllocated = 0L;
+        numThreads = 0;
+        VmThreadMap.ACTIVE.forAllThreadLocals(null, accumulator);
+        if (totalAllocated == 0L) {
+            // Nothing allocated in TLABs since last resizing.
+            return;
+        }
+        printStatistics = print;
+        if (print) {
+            final boolean lockDisabledSafepoints = Log.lock();
+            Log.print("TLAB resizing: ");
+            Log.print(numThreads);
+            Log.print(" threads allocated ");
+            Log.print(totalAllocated >> 10);
+            Log.println(" K in TLABs since last GC");
+            VmThreadMap.ACTIVE.forAllThreadLocals(null, resizer);
+            Log.unlock(lockDisabledSafepoints);
+        } else {
+            VmThreadMap.ACTIVE.forAllThreadLocals(null, resizer);
+        }
+    }
+}
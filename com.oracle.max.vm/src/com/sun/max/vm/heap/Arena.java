@@ -0,0 +1,471 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.heap;
+
+import static com.sun.max.vm.VMConfiguration.*;
+import static com.sun.max.vm.thread.VmThread.*;
+import static com.sun.max.vm.thread.VmThreadLocal.*;
+
+import com.sun.max.annotate.*;
+import com.sun.max.atomic.*;
+import com.sun.max.memory.*;
+import com.sun.max.platform.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.heap.debug.*;
+import com.sun.max.vm.layout.*;
+import com.sun.max.vm.reference.*;
+import com.sun.max.vm.runtime.*;
+import com.sun.max.vm.thread.*;
+
+/**
+ * A region of memory outside of the garbage collected heap that a thread can {@linkplain #enter() enter} to allocate objects
+ * into by bumping a pointer, and that is {@linkplain #release() released} in bulk. Meant for request-scoped allocations, e.g.:
+ * <pre>
+ *     arena.enter();
+ *     try {
+ *         <allocations are now performed in the arena>
+ *     } finally {
+ *         arena.exit();
+ *     }
+ *     ...
+ *     arena.release();
+ * </pre>
+ * An arena is a list of chunks of virtual memory. A chunk is added to the arena when its last chunk is exhausted, and all
+ * chunks but the first are freed when the arena is released. Allocation requests go through the
+ * {@linkplain HeapScheme#enableCustomAllocation(Address) custom allocation} path of {@link HeapSchemeWithTLAB}, with an identifier
+ * that is the address of the first chunk of the arena tagged with its lowest bit.
+ * <p>
+ * The objects of open arenas are roots of garbage collection, in the same way as the objects of the immortal heap:
+ * they are {@linkplain ImmortalHeap#visitCells(CellVisitor) visited} with the immortal heap. They are neither traced nor moved.
+ * The collectors don't track references from the heap to an arena, so objects allocated in an arena must not be
+ * reachable from outside the arena once it is released.
+ * <b>This is unchecked and unsafe in product builds:</b> there is no store check on references escaping an arena, and a
+ * reference left to a released object is a dangling pointer into memory that is reused by later allocations in the arena,
+ * or unmapped. Only debug builds check this, on release, by scanning the heap, and fail if a reference to the released
+ * objects is found.
+ * <p>
+ * An arena is used by one thread at a time: the thread that entered it, or the thread releasing or closing it.
+ * <p>
+ * The header of each chunk holds its allocation mark, its end, and the next chunk of the arena. The header of the first chunk
+ * also holds the chunk being allocated and the first chunk of the next open arena. The headers are only updated with single
+ * word stores ordered so that a collection stopping the updating thread always finds a consistent list of chunks.
+ */
+public final class Arena {
+
+    /**
+     * Default size of the chunks of an arena.
+     */
+    public static Size ArenaChunkSize = Size.M;
+
+    static {
+        VMOptions.addFieldOption("-XX:", "ArenaChunkSize", Arena.class, "Default size of the chunks of memory allocation arenas.");
+    }
+
+    private static final int MARK_INDEX = 0;
+    private static final int END_INDEX = 1;
+    private static final int NEXT_CHUNK_INDEX = 2;
+    private static final int CURRENT_CHUNK_INDEX = 3;
+    private static final int NEXT_ARENA_INDEX = 4;
+    private static final int HEADER_WORDS = 5;
+
+    /**
+     * Bit set in the custom allocator identifier of an arena.
+     */
+    private static final int ARENA_TAG_BIT = 0;
+
+    /**
+     * First chunk of the most recently created open arena.
+     */
+    private static Pointer arenas;
+
+    /**
+     * First chunk of this arena, zero once closed.
+     */
+    private Pointer firstChunk;
+
+    /**
+     * The thread that entered, or is releasing or closing, this arena, if any.
+     */
+    private final AtomicReference owner = new AtomicReference();
+
+    private Arena() {
+    }
+
+    /**
+     * Creates an arena whose chunks are {@link #ArenaChunkSize} big.
+     */
+    public static Arena create() {
+        return create(ArenaChunkSize);
+    }
+
+    /**
+     * Creates an arena.
+     *
+     * @param chunkSize the size of the chunks of the arena
+     * @throws UnsupportedOperationException if the heap scheme doesn't support arenas
+     * @throws OutOfMemoryError if the first chunk of the arena cannot be allocated
+     */
+    public static Arena create(Size chunkSize) {
+        if (!(vmConfig().heapScheme() instanceof HeapSchemeWithTLAB)) {
+            throw new UnsupportedOperationException("Arenas are not supported by the heap scheme");
+        }
+        final Arena arena = new Arena();
+        final Pointer first = allocateChunk(chunkSize);
+        if (first.isZero()) {
+            throw new OutOfMemoryError("Cannot allocate arena chunk");
+        }
+        first.setWord(CURRENT_CHUNK_INDEX, first);
+        synchronized (Arena.class) {
+            first.setWord(NEXT_ARENA_INDEX, arenas);
+            arenas = first;
+        }
+        arena.firstChunk = first;
+        return arena;
+    }
+
+    /**
+     * Allocates and initializes a chunk of memory.
+     *
+     * @param size the minimum size of the chunk
+     * @return the address of the chunk, or zero if it couldn't be allocated
+     */
+    private static Pointer allocateChunk(Size size) {
+        final Size chunkSize = size.alignUp(Platform.platform().pageSize);
+        final Pointer chunk = VirtualMemory.allocate(chunkSize, VirtualMemory.Type.HEAP);
+        if (!chunk.isZero()) {
+            chunk.setWord(MARK_INDEX, chunk.plusWords(HEADER_WORDS));
+            chunk.setWord(END_INDEX, chunk.plus(chunkSize));
+            chunk.setWord(NEXT_CHUNK_INDEX, Address.zero());
+        }
+        return chunk;
+    }
+
+    private static void freeChunk(Pointer chunk) {
+        final Size chunkSize = chunk.getWord(END_INDEX).asAddress().minus(chunk).asSize();
+        VirtualMemory.deallocate(chunk, chunkSize, VirtualMemory.Type.HEAP);
+    }
+
+    @INLINE
+    private static Pointer chunkStart(Pointer chunk) {
+        return chunk.plusWords(HEADER_WORDS);
+    }
+
+    /**
+     * Makes the current thread the owner of the arena.
+     *
+     * @param busyMessage the message of the exception thrown if another thread owns the arena
+     * @throws IllegalStateException if the arena is closed or owned by another thread
+     */
+    private void acquire(String busyMessage) {
+        if (!owner.compareAndSet(null, VmThread.current())) {
+            throw new IllegalStateException(busyMessage);
+        }
+        if (firstChunk.isZero()) {
+            owner.set(null);
+            throw new IllegalStateException("Arena is closed");
+        }
+    }
+
+    @INLINE
+    private Pointer customAllocator() {
+        return firstChunk.plus(1 << ARENA_TAG_BIT);
+    }
+
+    /**
+     * Makes the arena the allocator of all the allocations of the current thread, until it {@linkplain #exit() exits} the arena.
+     *
+     * @throws IllegalStateException if the arena is closed or already entered, or if the current thread uses another custom allocator
+     */
+    public void enter() {
+        if (!CUSTOM_ALLOCATION_ENABLED.load(ETLA.load(currentTLA())).isZero()) {
+            throw new IllegalStateException("Custom allocation already enabled");
+        }
+        acquire("Arena is already entered");
+        vmConfig().heapScheme().enableCustomAllocation(customAllocator());
+    }
+
+    /**
+     * Restores allocation in the heap for the current thread.
+     *
+     * @throws IllegalStateException if the current thread didn't enter the arena
+     */
+    public void exit() {
+        if (owner.get() != VmThread.current()) {
+            throw new IllegalStateException("Arena not entered by the current thread");
+        }
+        // Allocation in the heap is already restored if the arena ran out of memory.
+        if (CUSTOM_ALLOCATION_ENABLED.load(ETLA.load(currentTLA())).equals(customAllocator())) {
+            vmConfig().heapScheme().disableCustomAllocation();
+        }
+        owner.set(null);
+    }
+
+    /**
+     * Frees all the objects allocated in the arena at once. The arena is left open for further allocations.
+     * The caller must ensure that no reference to the freed objects remains outside the arena, which only debug builds check.
+     *
+     * @throws IllegalStateException if the arena is closed or entered
+     */
+    public void release() {
+        acquire("Arena is entered");
+        try {
+            releaseChunks();
+        } finally {
+            owner.set(null);
+        }
+    }
+
+    /**
+     * Releases the arena and frees its memory. The arena can't be used anymore.
+     * As for {@link #release()}, no reference to the objects of the arena may remain outside of it.
+     *
+     * @throws IllegalStateException if the arena is closed or entered
+     */
+    public void close() {
+        acquire("Arena is entered");
+        try {
+            releaseChunks();
+            final Pointer first = firstChunk;
+            synchronized (Arena.class) {
+                if (arenas.equals(first)) {
+                    arenas = first.getWord(NEXT_ARENA_INDEX).asPointer();
+                } else {
+                    Pointer arena = arenas;
+                    while (!arena.getWord(NEXT_ARENA_INDEX).equals(first)) {
+                        arena = arena.getWord(NEXT_ARENA_INDEX).asPointer();
+                    }
+                    arena.setWord(NEXT_ARENA_INDEX, first.getWord(NEXT_ARENA_INDEX));
+                }
+            }
+            firstChunk = Pointer.zero();
+            freeChunk(first);
+        } finally {
+            owner.set(null);
+        }
+    }
+
+    /**
+     * Empties the arena and frees all its chunks but the first. The current thread must own the arena.
+     */
+    private void releaseChunks() {
+        final Pointer first = firstChunk;
+        if (MaxineVM.isDebug()) {
+            danglingReferenceCheck.run(first);
+        }
+        final Pointer used = first.getWord(MARK_INDEX).asPointer();
+        Pointer chunk = first.getWord(NEXT_CHUNK_INDEX).asPointer();
+        // Empty the arena before clearing memory, so that collections don't find the cleared objects.
+        first.setWord(MARK_INDEX, chunkStart(first));
+        first.setWord(CURRENT_CHUNK_INDEX, first);
+        first.setWord(NEXT_CHUNK_INDEX, Address.zero());
+        while (!chunk.isZero()) {
+            final Pointer next = chunk.getWord(NEXT_CHUNK_INDEX).asPointer();
+            freeChunk(chunk);
+            chunk = next;
+        }
+        // Memory is allocated cleared.
+        Memory.clearWords(chunkStart(first), used.minus(chunkStart(first)).dividedBy(Word.size()).toInt());
+    }
+
+    /**
+     * Gets the number of bytes allocated in the arena since it was created or last released.
+     */
+    public Size used() {
+        Size used = Size.zero();
+        for (Pointer chunk = firstChunk; !chunk.isZero(); chunk = chunk.getWord(NEXT_CHUNK_INDEX).asPointer()) {
+            used = used.plus(chunk.getWord(MARK_INDEX).asAddress().minus(chunkStart(chunk)));
+        }
+        return used;
+    }
+
+    /**
+     * Determines if a custom allocator identifier denotes an arena.
+     */
+    @INLINE
+    static boolean isArena(Pointer customAllocator) {
+        return customAllocator.isBitSet(ARENA_TAG_BIT) && !customAllocator.equals(Word.allOnes());
+    }
+
+    /**
+     * Allocates a cell in an arena. Adds a chunk to the arena if its current chunk is exhausted.
+     * The caller must ensure that this allocation and the subsequent planting of object header in the allocated cell is atomic.
+     *
+     * @param customAllocator the custom allocator identifier of the arena
+     * @param size the size of the cell
+     * @return the allocated cell, which is cleared
+     */
+    @NO_SAFEPOINT_POLLS("object allocation and initialization must be atomic")
+    static Pointer allocate(Pointer customAllocator, Size size) {
+        final Pointer first = customAllocator.minus(1 << ARENA_TAG_BIT);
+        final Size sizeWordAligned = size.wordAligned();
+        Pointer chunk = first.getWord(CURRENT_CHUNK_INDEX).asPointer();
+        while (true) {
+            final Pointer cell = DebugHeap.adjustForDebugTag(chunk.getWord(MARK_INDEX).asPointer());
+            final Address end = cell.plus(sizeWordAligned);
+            if (end.lessEqual(chunk.getWord(END_INDEX).asAddress())) {
+                chunk.setWord(MARK_INDEX, end);
+                return cell;
+            }
+            final Size firstChunkSize = first.getWord(END_INDEX).asAddress().minus(first).asSize();
+            final Size minChunkSize = sizeWordAligned.plus(Word.size() * (HEADER_WORDS + 1));
+            final Pointer newChunk = allocateChunk(minChunkSize.greaterThan(firstChunkSize) ? minChunkSize : firstChunkSize);
+            if (newChunk.isZero()) {
+                throw outOfMemory();
+            }
+            chunk.setWord(NEXT_CHUNK_INDEX, newChunk);
+            first.setWord(CURRENT_CHUNK_INDEX, newChunk);
+            chunk = newChunk;
+        }
+    }
+
+    /**
+     * Restores allocation in the heap for the current thread, so that the {@link OutOfMemoryError} raised when an arena
+     * cannot grow isn't allocated in the exhausted arena. The thread remains the owner of the arena until it {@linkplain #exit() exits} it.
+     */
+    @NEVER_INLINE
+    private static OutOfMemoryError outOfMemory() {
+        vmConfig().heapScheme().disableCustomAllocation();
+        return new OutOfMemoryError("Cannot allocate arena chunk");
+    }
+
+    /**
+     * Visits the cells of the open arenas.
+     *
+     * @param cellVisitor the visitor to call back for each cell
+     */
+    static void visitCells(CellVisitor cellVisitor) {
+        for (Pointer arena = arenas; !arena.isZero(); arena = arena.getWord(NEXT_ARENA_INDEX).asPointer()) {
+            for (Pointer chunk = arena; !chunk.isZero(); chunk = chunk.getWord(NEXT_CHUNK_INDEX).asPointer()) {
+                final Pointer firstCell = chunkStart(chunk);
+                final Pointer lastCell = chunk.getWord(MARK_INDEX).asPointer();
+                Pointer cell = firstCell;
+                while (cell.isNotZero() && cell.lessThan(lastCell)) {
+                    cell = DebugHeap.checkDebugCellTag(firstCell, cell);
+                    cell = cellVisitor.visitCell(cell);
+                }
+            }
+        }
+    }
+
+    /**
+     * Determines if an address is in the allocated part of an open arena.
+     */
+    public static boolean contains(Address address) {
+        for (Pointer arena = arenas; !arena.isZero(); arena = arena.getWord(NEXT_ARENA_INDEX).asPointer()) {
+            if (contains(arena, address)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Determines if an address is in the allocated part of an arena.
+     *
+     * @param arena the first chunk of the arena
+     */
+    private static boolean contains(Pointer arena, Address address) {
+        for (Pointer chunk = arena; !chunk.isZero(); chunk = chunk.getWord(NEXT_CHUNK_INDEX).asPointer()) {
+            if (address.greaterEqual(chunkStart(chunk)) && address.lessThan(chunk.getWord(MARK_INDEX).asAddress())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final DanglingReferenceCheck danglingReferenceCheck = new DanglingReferenceCheck();
+
+    /**
+     * Debug check, run before an arena is released, that no object outside the arena references an object of the arena.
+     * Fails with a fatal error if one does.
+     */
+    private static final class DanglingReferenceCheck extends VmOperation {
+        private final DanglingReferenceFinder finder = new DanglingReferenceFinder();
+
+        DanglingReferenceCheck() {
+            super("ArenaDanglingReferenceCheck", null, Mode.Safepoint, false);
+        }
+
+        synchronized void run(Pointer arena) {
+            finder.arena = arena;
+            try {
+                submit();
+            } finally {
+                finder.arena = Pointer.zero();
+            }
+        }
+
+        @Override
+        protected void doIt() {
+            vmConfig().heapScheme().walkHeap(finder);
+        }
+    }
+
+    private static final class DanglingReferenceFinder extends CallbackCellVisitor {
+        /**
+         * First chunk of the arena being released.
+         */
+        Pointer arena = Pointer.zero();
+
+        private final PointerIndexVisitor referenceChecker = new PointerIndexVisitor() {
+            @Override
+            public void visit(Pointer pointer, int wordIndex) {
+                checkReference(pointer, wordIndex);
+            }
+        };
+
+        private void checkReference(Pointer pointer, int wordIndex) {
+            if (contains(arena, pointer.getWord(wordIndex).asAddress())) {
+                Log.print("Reference to a released arena object @ ");
+                Log.print(pointer);
+                Log.print(" + ");
+                Log.println(wordIndex);
+                FatalError.unexpected("Arena released while objects outside of it still reference its objects");
+            }
+        }
+
+        @Override
+        protected boolean callback(Object object) {
+            final Pointer origin = Reference.fromJava(object).toOrigin();
+            if (contains(arena, origin)) {
+                return true;
+            }
+            final Hub hub = Layout.getHub(origin);
+            final SpecificLayout specificLayout = hub.specificLayout;
+            if (specificLayout == Layout.tupleLayout() || specificLayout == Layout.hybridLayout()) {
+                hub.visitMappedReferences(origin, referenceChecker);
+                if (hub.isJLRReference) {
+                    checkReference(origin, SpecialReferenceManager.referentIndex());
+                }
+            } else if (specificLayout == Layout.referenceArrayLayout()) {
+                final int endIndex = Layout.firstElementIndex() + Layout.readArrayLength(origin);
+                for (int wordIndex = Layout.firstElementIndex(); wordIndex < endIndex; wordIndex++) {
+                    checkReference(origin, wordIndex);
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.heap;
+
+import java.util.*;
+
+import com.sun.max.annotate.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.layout.*;
+import com.sun.max.vm.management.*;
+
+/**
+ * Number of live objects and bytes per class, accumulated by a collector as a byproduct of tracing.
+ * The histogram is indexed by {@linkplain ClassIDManager class identifier}. A collector {@linkplain #begin() begins} a histogram
+ * before tracing, {@linkplain #record(Hub, Size) records} each live object once as it traces it, and {@linkplain #end() publishes}
+ * the histogram when tracing completes. The last published histogram is available through the {@link ClassHistogramMXBean} and
+ * {@linkplain #PrintClassHistogramAfterGC printed} after each collection on request.
+ * <p>
+ * Recording an object costs two array increments. Collectors must not allocate, so the arrays of all histograms
+ * are {@linkplain #ensureCapacity(int) grown} as class identifiers are allocated, outside of garbage collection.
+ * A collector tracing with several GC threads gives each thread a {@linkplain #newPart() part} of its histogram to record in,
+ * and the parts are merged when the histogram is published.
+ */
+public final class ClassHistogram {
+
+    /**
+     * Enables class histograms.
+     */
+    public static boolean RecordClassHistogram;
+
+    /**
+     * Prints the histogram of live objects after each collection, implies {@link #RecordClassHistogram}.
+     */
+    public static boolean PrintClassHistogramAfterGC;
+
+    /**
+     * Number of classes printed, by decreasing number of bytes.
+     */
+    public static int ClassHistogramPrintLimit = 30;
+
+    static {
+        VMOptions.addFieldOption("-XX:", "RecordClassHistogram", ClassHistogram.class,
+            "Record the number of live objects and bytes per class when tracing the heap.");
+        VMOptions.addFieldOption("-XX:", "PrintClassHistogramAfterGC", ClassHistogram.class,
+            "Print the number of live objects and bytes per class after each collection (implies -XX:+RecordClassHistogram).");
+        VMOptions.addFieldOption("-XX:", "ClassHistogramPrintLimit", ClassHistogram.class,
+            "Number of classes printed by -XX:+PrintClassHistogramAfterGC.");
+    }
+
+    /**
+     * Class histograms are recorded only once their arrays are {@linkplain #initialize() sized}.
+     */
+    private static boolean enabled;
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * All the histograms created, whose arrays are grown together.
+     */
+    private static ClassHistogram[] histograms = new ClassHistogram[0];
+
+    /**
+     * Object counts of the last published histogram.
+     */
+    private static long[] lastCounts = new long[0];
+
+    /**
+     * Byte counts of the last published histogram.
+     */
+    private static long[] lastBytes = new long[0];
+
+    /**
+     * The histogram that published last, or null if none has yet.
+     */
+    private static ClassHistogram lastPublisher;
+
+    /**
+     * Number of times a histogram started or completed publication.
+     * Odd while a publication is in progress, so that readers can detect a concurrent publication.
+     */
+    private static volatile long publications;
+
+    /**
+     * Name of the tracing the histogram is a byproduct of.
+     */
+    private final String name;
+
+    private long[] counts = new long[0];
+    private long[] bytes = new long[0];
+
+    /**
+     * Indicates whether objects are being recorded.
+     */
+    private boolean recording;
+
+    /**
+     * Histograms recorded in by other GC threads, merged into this one when it is published.
+     */
+    private ClassHistogram[] parts = new ClassHistogram[0];
+
+    public ClassHistogram(String name) {
+        this.name = name;
+        synchronized (ClassHistogram.class) {
+            counts = new long[lastCounts.length];
+            bytes = new long[lastBytes.length];
+            histograms = Arrays.copyOf(histograms, histograms.length + 1);
+            histograms[histograms.length - 1] = this;
+        }
+    }
+
+    /**
+     * Creates a part of this histogram for a GC thread to record in concurrently with the other threads.
+     * Parts are begun and published with this histogram. Must not be called while collecting garbage.
+     */
+    public ClassHistogram newPart() {
+        final ClassHistogram part = new ClassHistogram(name);
+        synchronized (ClassHistogram.class) {
+            parts = Arrays.copyOf(parts, parts.length + 1);
+            parts[parts.length - 1] = part;
+        }
+        return part;
+    }
+
+    /**
+     * Sizes the arrays of the histograms for the classes loaded so far, if histograms are enabled.
+     * Must be called at VM startup, once options are parsed.
+     */
+    public static void initialize() {
+        if (!RecordClassHistogram && !PrintClassHistogramAfterGC) {
+            return;
+        }
+        ensureCapacity(ClassIDManager.largestClassId() + 1);
+        enabled = true;
+        ClassHistogramManagement.register();
+    }
+
+    /**
+     * Grows the arrays of all the histograms so that they can record the instances of the classes with an identifier lower than
+     * a given value. This is called when class identifiers are allocated, as arrays can't be allocated while collecting garbage.
+     *
+     * @param numberOfClassIDs a number of class identifiers
+     */
+    public static synchronized void ensureCapacity(int numberOfClassIDs) {
+        if ((!RecordClassHistogram && !PrintClassHistogramAfterGC) || MaxineVM.isHosted() || numberOfClassIDs <= lastCounts.length) {
+            return;
+        }
+        final int capacity = Math.max(numberOfClassIDs, lastCounts.length << 1);
+        for (ClassHistogram histogram : histograms) {
+            histogram.counts = Arrays.copyOf(histogram.counts, capacity);
+            histogram.bytes = Arrays.copyOf(histogram.bytes, capacity);
+        }
+        lastCounts = Arrays.copyOf(lastCounts, capacity);
+        lastBytes = Arrays.copyOf(lastBytes, capacity);
+    }
+
+    /**
+     * Starts a new histogram. Must be called before the collector starts tracing.
+     */
+    public void begin() {
+        if (!enabled) {
+            return;
+        }
+        for (ClassHistogram part : parts) {
+            part.begin();
+        }
+        final long[] counts = this.counts;
+        final long[] bytes = this.bytes;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = 0L;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = 0L;
+        }
+        recording = true;
+    }
+
+    /**
+     * Records a live object.
+     *
+     * @param hub the hub of the object
+     * @param size the size of the object
+     */
+    @INLINE
+    public void record(Hub hub, Size size) {
+        if (recording) {
+            recordObject(hub, size);
+        }
+    }
+
+    /**
+     * Records a live object.
+     *
+     * @param origin the origin of the object
+     */
+    @INLINE
+    public void record(Pointer origin) {
+        if (recording) {
+            recordObject(UnsafeCast.asHub(Layout.readHubReference(origin).toJava()), Layout.size(origin));
+        }
+    }
+
+    private void recordObject(Hub hub, Size size) {
+        final int id = hub.classActor.id;
+        final long[] counts = this.counts;
+        final long[] bytes = this.bytes;
+        if (id < counts.length && id < bytes.length) {
+            counts[id]++;
+            bytes[id] += size.toLong();
+        }
+    }
+
+    /**
+     * Completes the histogram, makes it the last published histogram and prints it if {@link #PrintClassHistogramAfterGC} is set.
+     * Does nothing if the histogram wasn't {@linkplain #begin() begun}.
+     */
+    public void end() {
+        if (!recording) {
+            return;
+        }
+        recording = false;
+        publications++;
+        final long[] counts = this.counts;
+        final long[] bytes = this.bytes;
+        final long[] lastCounts = ClassHistogram.lastCounts;
+        final long[] lastBytes = ClassHistogram.lastBytes;
+        final int length = Math.min(Math.min(counts.length, bytes.length), Math.min(lastCounts.length, lastBytes.length));
+        for (int i = 0; i < length; i++) {
+            lastCounts[i] = counts[i];
+            lastBytes[i] = bytes[i];
+        }
+        for (ClassHistogram part : parts) {
+            part.recording = false;
+            final int partLength = Math.min(Math.min(part.counts.length, part.bytes.length), length);
+            for (int i = 0; i < partLength; i++) {
+                lastCounts[i] += part.counts[i];
+                lastBytes[i] += part.bytes[i];
+            }
+        }
+        lastPublisher = this;
+        publications++;
+        if (PrintClassHistogramAfterGC) {
+            print(length);
+        }
+    }
+
+    /**
+     * Prints the classes with the most bytes of the last published histogram. Classes are selected by repeated scans
+     * of the histogram, which don't allocate.
+     */
+    private void print(int length) {
+        long totalCount = 0L;
+        long totalBytes = 0L;
+        int numClasses = 0;
+        for (int i = 0; i < length; i++) {
+            if (lastCounts[i] != 0L) {
+                totalCount += lastCounts[i];
+                totalBytes += lastBytes[i];
+                numClasses++;
+            }
+        }
+        final boolean lockDisabledSafepoints = Log.lock();
+        Log.print("Class histogram after ");
+        Log.print(name);
+        Log.print(": ");
+        Log.print(numClasses);
+        Log.print(" classes, ");
+        Log.print(totalCount);
+        Log.print(" objects, ");
+        Log.print(totalBytes);
+        Log.println(" bytes");
+        // Print by decreasing (bytes, class id) order
+        long previousBytes = Long.MAX_VALUE;
+        int previousId = -1;
+        for (int n = 0; n < ClassHistogramPrintLimit; n++) {
+            int selected = -1;
+            for (int i = 0; i < length; i++) {
+                final long b = lastBytes[i];
+                if (lastCounts[i] == 0L || b > previousBytes || (b == previousBytes && i <= previousId)) {
+                    continue;
+                }
+                if (selected < 0 || b > lastBytes[selected]) {
+                    selected = i;
+                }
+            }
+            if (selected < 0) {
+                break;
+            }
+            Log.print("  ");
+            Log.print(lastBytes[selected]);
+            Log.print(" bytes  ");
+            Log.print(lastCounts[selected]);
+            Log.print(" objects  ");
+            final ClassActor classActor = ClassIDManager.toClassActor(selected);
+            Log.println(classActor == null ? "<unknown class>" : classActor.name.string);
+            previousBytes = lastBytes[selected];
+            previousId = selected;
+        }
+        Log.unlock(lockDisabledSafepoints);
+    }
+
+    /**
+     * Gets the name of the tracing the last published histogram is a byproduct of.
+     *
+     * @return null if no histogram was published yet
+     */
+    public static String lastPublisherName() {
+        final ClassHistogram publisher = lastPublisher;
+        return publisher == null ? null : publisher.name;
+    }
+
+    /**
+     * Gets the number of histograms published so far.
+     */
+    public static long publicationCount() {
+        return publications >> 1;
+    }
+
+    /**
+     * Copies the last published histogram. Retries if a histogram is published while copying.
+     *
+     * @return the object counts and the byte counts of the last published histogram, indexed by class identifier
+     */
+    public static long[][] copyLastHistogram() {
+        while (true) {
+            final long publication = publications;
+            if ((publication & 1L) == 0L) {
+                final long[] counts = lastCounts.clone();
+                final long[] bytes = lastBytes.clone();
+                if (publication == publications) {
+                    return new long[][] {counts, bytes};
+                }
+            }
+            Thread.yield();
+        }
+    }
+}
@@ -510,11 +510,16 @@ public final class Heap {
         gcWaitForDisablingThreads = false;
     }
 
+    /**
+     * Request direct access to an object, e.g., to the elements of an array in a JNI critical region.
+     * The object is pinned if the heap scheme supports it and succeeds pinning it. Otherwise, GC is disabled if {@link #OptimizeJNICritical} is set.
+     *
+     * @return true if the object can be accessed directly until {@link #releasedDirectPointer(Object)} is called
+     */
     @INLINE
     public static boolean useDirectPointer(Object object) {
         HeapScheme heapScheme = heapScheme();
-        if (heapScheme.supportsPinning(PIN_SUPPORT_FLAG.CAN_NEST)) {
-            heapScheme.pin(object);
+        if (heapScheme.supportsPinning(PIN_SUPPORT_FLAG.CAN_NEST) && heapScheme.pin(object)) {
             return true;
         }
         if (OptimizeJNICritical) {
@@ -524,10 +529,17 @@ public final class Heap {
         return false;
     }
 
+    /**
+     * Release the direct access to an object granted by {@link #useDirectPointer(Object)}.
+     * If the heap scheme can be queried for pinned objects, the object is unpinned only if it is pinned, as pinning it may have failed.
+     *
+     * @return true if direct access to the object was granted
+     */
     @INLINE
     public static boolean releasedDirectPointer(Object object) {
         HeapScheme heapScheme = VMConfiguration.vmConfig().heapScheme();
-        if (heapScheme.supportsPinning(PIN_SUPPORT_FLAG.CAN_NEST)) {
+        if (heapScheme.supportsPinning(PIN_SUPPORT_FLAG.CAN_NEST) &&
+                        (!heapScheme.supportsPinning(PIN_SUPPORT_FLAG.IS_QUERYABLE) || heapScheme.isPinned(object))) {
             heapScheme.unpin(object);
             return true;
         }
@@ -557,7 +569,7 @@ public final class Heap {
             return true;
         }
         Pointer origin = ref.toOrigin();
-        if (!bootHeapRegion.contains(origin) && !heapScheme().contains(origin) && !Code.contains(origin) && !ImmortalHeap.contains(origin)) {
+        if (!bootHeapRegion.contains(origin) && !heapScheme().contains(origin) && !Code.contains(origin) && !ImmortalHeap.contains(origin) && !Arena.contains(origin)) {
             return false;
         }
         if (DebugHeap.isTagging()) {
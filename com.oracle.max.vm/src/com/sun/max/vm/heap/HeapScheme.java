@@ -260,6 +260,14 @@ public interface HeapScheme extends VMScheme {
      */
     long maxObjectInspectionAge();
 
+    /**
+     * Gets the policy the {@link SpecialReferenceManager} uses to decide whether softly reachable referents are cleared
+     * or kept alive by the current collection.
+     *
+     * @return the soft reference policy of this heap scheme
+     */
+    SoftReferencePolicy softReferencePolicy();
+
     /**
      * A request for the heap scheme to attempt to reduce its memory usage.
      * This interface is optional and a default implementation can just return false.
@@ -311,6 +319,15 @@ public interface HeapScheme extends VMScheme {
 
     void postWriteBarrier(Reference ref,  int displacement, int index, Reference value);
 
+    /**
+     * Barrier applied to the referent of a {@link java.lang.ref.Reference} when it is read by the mutator.
+     * Heap schemes that trace the heap concurrently with mutators use it to keep alive referents that become strongly reachable
+     * while they are marking.
+     *
+     * @param referent the referent read, possibly null
+     */
+    void referentReadBarrier(Reference referent);
+
     enum PIN_SUPPORT_FLAG {
         /**
          * Just to indicate that the pin support flag has been initialized (makes the pinningSupportFlags treated as constant when not zero).
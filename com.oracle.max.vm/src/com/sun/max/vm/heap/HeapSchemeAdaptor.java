@@ -207,6 +207,9 @@ public abstract class HeapSchemeAdaptor extends AbstractVMScheme implements Heap
         super.initialize(phase);
         if (phase == MaxineVM.Phase.PRISTINE) {
             releaseUnusedReservedVirtualSpace();
+        } else if (phase == MaxineVM.Phase.RUNNING) {
+            ClassHistogram.initialize();
+            HprofHeapDumper.initialize();
         }
     }
 
@@ -313,6 +316,11 @@ public abstract class HeapSchemeAdaptor extends AbstractVMScheme implements Heap
         // do nothing
     }
 
+    @INLINE
+    public void referentReadBarrier(Reference referent) {
+        // do nothing
+    }
+
     public boolean isPinned(Object object) {
         FatalError.check(supportsPinning(PIN_SUPPORT_FLAG.IS_QUERYABLE), "Object pinning support doesn't support querying");
         FatalError.unexpected("Must be overriden if supported");
@@ -334,6 +342,10 @@ public abstract class HeapSchemeAdaptor extends AbstractVMScheme implements Heap
         return 0;
     }
 
+    public SoftReferencePolicy softReferencePolicy() {
+        return SoftReferencePolicy.LRU_CURRENT_HEAP;
+    }
+
     public GarbageCollectorMXBean getGarbageCollectorMXBean() {
         return new GarbageCollectorMXBeanAdaptor("Invalid") {
             @Override
@@ -82,7 +82,7 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
 
     static {
         VMOptions.addFieldOption("-XX:", "PrintTLABStats", Classes.getDeclaredField(HeapSchemeWithTLAB.class, "PrintTLABStats"),
-                        "Print TLAB statistics at end of program.", MaxineVM.Phase.PRISTINE);
+                        "Print TLAB statistics at end of program, and per-thread TLAB sizes at each GC if TLABs are resized.", MaxineVM.Phase.PRISTINE);
 
         // TODO: clean this up. Used just for testing with and without inlined XIR tlab allocation.
         VMOptions.addFieldOption("-XX:", "InlineTLAB", Classes.getDeclaredField(HeapSchemeWithTLAB.class, "GenInlinedTLABAlloc"),
@@ -97,8 +97,18 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
         VMOptions.addFieldOption("-XX:", "UseTLAB", HeapSchemeWithTLAB.class, "Use thread-local object allocation", MaxineVM.Phase.PRISTINE);
     }
 
+    /**
+     * A VM option for enabling adaptive, per-thread, TLAB sizing.
+     */
+    public static boolean ResizeTLAB = false;
+    static {
+        VMOptions.addFieldOption("-XX:", "ResizeTLAB", HeapSchemeWithTLAB.class,
+                        "Size each thread's TLABs after its share of allocation (see AdaptiveTLABRefillPolicy)", MaxineVM.Phase.PRISTINE);
+    }
+
     /**
      * A VM option for specifying the size of a TLAB. Default is 64 K.
+     * With {@link #ResizeTLAB}, this is the size of the first TLABs of a thread.
      */
     private static final VMSizeOption tlabSizeOption = register(new VMSizeOption("-XX:TLABSize=", Size.K.times(64),
         "The size of thread-local allocation buffers."), MaxineVM.Phase.PRISTINE);
@@ -153,16 +163,19 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
             if (logTLAB()) {
                 logger.logReset(UnsafeCast.asVmThread(VM_THREAD.loadRef(etla).toJava()), tlabTop, tlabMark);
             }
+            final TLABRefillPolicy refillPolicy = TLABRefillPolicy.getForCurrentThread(etla);
             if (tlabTop.equals(Address.zero())) {
                 // TLAB's top can be null in only two cases:
-                // (1) it has never been filled, in which case it's allocation mark is null too
+                // (1) it has never been filled (or was used up), in which case it's allocation mark is null too
                 if (tlabMark.equals(Address.zero()))  {
                     // No TLABs, so nothing to reset.
+                    if (refillPolicy != null) {
+                        refillPolicy.doOnReset(Size.zero());
+                    }
                     return;
                 }
                 // (2) allocation has been disabled for the thread.
                 FatalError.check(!ALLOCATION_DISABLED.load(currentTLA()).isZero(), "inconsistent TLAB state");
-                TLABRefillPolicy refillPolicy = TLABRefillPolicy.getForCurrentThread(etla);
                 if (refillPolicy != null) {
                     // Go fetch the actual TLAB top in case the heap scheme needs it for its doBeforeReset handler.
                     tlabTop = refillPolicy.getSavedTlabTop().asPointer();
@@ -170,6 +183,9 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
                     refillPolicy.saveTlabTop(Address.zero());
                 }
             }
+            if (refillPolicy != null) {
+                refillPolicy.doOnReset(tlabLeftover(tlabMark, tlabTop));
+            }
             doBeforeReset(etla, tlabMark, tlabTop);
             TLAB_TOP.store(etla, Address.zero());
             TLAB_MARK.store(etla, Address.zero());
@@ -178,6 +194,37 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
 
     protected abstract void tlabReset(Pointer tla);
 
+    /**
+     * Space left unused in a TLAB.
+     */
+    private static Size tlabLeftover(Pointer tlabMark, Pointer tlabTop) {
+        return tlabTop.greaterThan(tlabMark) ? tlabTop.minus(tlabMark).asSize() : Size.zero();
+    }
+
+    /**
+     * Reset the TLABs of all threads before a garbage collection. If TLABs are {@linkplain #ResizeTLAB resized},
+     * also size the next TLABs of each thread after the allocation it performed since the previous GC.
+     * Must be called by the GC thread while mutators are stopped.
+     *
+     * @param resetTLAB the procedure resetting a thread's TLAB
+     */
+    protected final void resetTLABsBeforeGC(ResetTLAB resetTLAB) {
+        VmThreadMap.ACTIVE.forAllThreadLocals(null, resetTLAB);
+        if (ResizeTLAB && useTLAB) {
+            AdaptiveTLABRefillPolicy.resizeTLABs(PrintTLABStats);
+        }
+    }
+
+    /**
+     * Create the refill policy of a thread's TLABs.
+     *
+     * @param initialTLABSize size of the thread's first TLAB
+     * @return a new TLAB refill policy
+     */
+    protected final TLABRefillPolicy newTLABRefillPolicy(Size initialTLABSize) {
+        return ResizeTLAB ? new AdaptiveTLABRefillPolicy(initialTLABSize) : new SimpleTLABRefillPolicy(initialTLABSize);
+    }
+
     /**
      * A TLAB policy that never refills. Just a convenience to disable TLAB use.
      */
@@ -230,6 +277,8 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
 
         void printTLABStats() {
             Log.println("\n\n Summary TLAB stats");
+            Log.print("   TLAB sizing                       : ");
+            Log.println(ResizeTLAB ? "adaptive (per-thread sizes printed at each GC)" : "fixed");
             Log.print("   inlined allocation slow-path count: ");
             Log.println(inlinedSlowPathAllocateCount);
             Log.print("   runtime allocation slow-path count: ");
@@ -345,12 +394,20 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
     public void refillTLAB(Pointer etla, Pointer tlab, Size size) {
         final Pointer tlabTop = tlab.plus(size); // top of the new TLAB
         final Pointer allocationMark = TLAB_MARK.load(etla);
+        final TLABRefillPolicy refillPolicy = TLABRefillPolicy.getForCurrentThread(etla);
         if (!allocationMark.isZero()) {
             final Pointer oldTop = TLAB_TOP.load(etla);
             globalTlabStats.leftover += oldTop.minus(allocationMark).toLong();
+            if (refillPolicy != null) {
+                refillPolicy.doOnRefill(tlabLeftover(allocationMark, oldTop));
+            }
             // It is a refill, not an initial fill. So invoke handler.
             doBeforeTLABRefill(allocationMark, oldTop);
         } else {
+            if (refillPolicy != null) {
+                // The previous TLAB was used up.
+                refillPolicy.doOnRefill(Size.zero());
+            }
             ProgramError.check(CUSTOM_ALLOCATION_ENABLED.load(etla).isZero(),
                 "Must not refill TLAB when in custom allocator is set");
         }
@@ -454,6 +511,9 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
 
         final Pointer customAllocator = CUSTOM_ALLOCATION_ENABLED.load(etla);
         if (!customAllocator.isZero()) {
+            if (Arena.isArena(customAllocator)) {
+                return Arena.allocate(customAllocator, size);
+            }
             return customAllocate(customAllocator, size);
         }
         globalTlabStats.tlabOverflowCount++;
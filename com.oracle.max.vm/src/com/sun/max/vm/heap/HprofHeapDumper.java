@@ -0,0 +1,526 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.heap;
+
+import static com.sun.max.vm.VMConfiguration.*;
+import static com.sun.max.vm.heap.HprofWriter.*;
+
+import java.io.*;
+
+import com.sun.max.annotate.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.actor.member.*;
+import com.sun.max.vm.layout.*;
+import com.sun.max.vm.reference.*;
+import com.sun.max.vm.runtime.*;
+import com.sun.max.vm.thread.*;
+import com.sun.max.vm.type.*;
+
+/**
+ * Dumps the heap to a file in the binary HPROF format read by heap analysis tools, on request or when the first
+ * {@link OutOfMemoryError} is raised.
+ * <p>
+ * The dump is streamed to the file by a single pass over the heap with {@link HeapScheme#walkHeap(CallbackCellVisitor)},
+ * while all threads are stopped at a safepoint. Records are written through a buffer allocated ahead of time,
+ * and the class mirrors referenced by the dump are created before stopping the threads, so that walking the heap doesn't allocate.
+ * Any allocation that may still happen while walking is served by the immortal heap.
+ * <p>
+ * Classes are dumped as sticky roots, the objects of the boot and immortal heaps as unknown roots, and the {@link Thread} of each
+ * thread as a thread root. The references on thread stacks are not reported, as their reference maps are not prepared
+ * outside of garbage collection. Objects found dead but not yet reclaimed by the heap scheme may appear in the dump.
+ */
+public final class HprofHeapDumper extends VmOperation {
+
+    /**
+     * Dumps the heap when the first {@link OutOfMemoryError} is raised.
+     */
+    public static boolean HeapDumpOnOutOfMemoryError;
+
+    /**
+     * Path of the file written by {@link #HeapDumpOnOutOfMemoryError}.
+     */
+    public static String HeapDumpPath = "maxine_heap.hprof";
+
+    static {
+        VMOptions.addFieldOption("-XX:", "HeapDumpOnOutOfMemoryError", HprofHeapDumper.class,
+            "Dump the heap to an HPROF file when the first OutOfMemoryError is raised.");
+        VMOptions.addFieldOption("-XX:", "HeapDumpPath", HprofHeapDumper.class,
+            "Path of the HPROF file written by -XX:+HeapDumpOnOutOfMemoryError.");
+    }
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * Serial number of the empty stack trace the dumped objects refer to.
+     */
+    private static final int STACK_TRACE_SERIAL = 1;
+
+    private static final HprofHeapDumper instance = new HprofHeapDumper();
+
+    private static boolean dumpedOnOutOfMemoryError;
+
+    private HprofWriter writer;
+
+    /**
+     * Number of class identifiers whose class records have been written. The class identifiers are read before stopping the threads,
+     * as {@link ClassIDManager#largestClassId()} takes a lock that a stopped thread may hold. Objects of classes loaded while the dump
+     * is being requested are left out.
+     */
+    private int classRecordsWritten;
+
+    /**
+     * The first I/O error raised while the threads are stopped, if any.
+     */
+    private IOException failure;
+
+    final class ThreadRootWriter implements Pointer.Procedure {
+        public void run(Pointer tla) {
+            if (failure != null) {
+                return;
+            }
+            final VmThread vmThread = VmThread.fromTLA(tla);
+            final Thread javaThread = vmThread.javaThread();
+            if (javaThread == null) {
+                return;
+            }
+            try {
+                writer.beginSubRecord();
+                writer.u1(ROOT_THREAD_OBJECT);
+                writer.id(Reference.fromJava(javaThread).toOrigin());
+                writer.u4(vmThread.id());
+                writer.u4(STACK_TRACE_SERIAL);
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+    }
+
+    private final ThreadRootWriter threadRootWriter = new ThreadRootWriter();
+
+    final class ObjectWriter extends CallbackCellVisitor {
+        @Override
+        protected boolean callback(Object object) {
+            // Never abort the walk: not all cell walkers stop on an aborted visit.
+            if (failure == null) {
+                try {
+                    writeObject(Reference.fromJava(object));
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            return true;
+        }
+    }
+
+    private final ObjectWriter objectWriter = new ObjectWriter();
+
+    private HprofHeapDumper() {
+        super("HeapDump", null, Mode.Safepoint, false);
+    }
+
+    /**
+     * Allocates the buffer used for dumping on {@link OutOfMemoryError} ahead of time, if requested.
+     * Must be called at VM startup, once options are parsed.
+     */
+    public static void initialize() {
+        if (HeapDumpOnOutOfMemoryError) {
+            synchronized (HprofHeapDumper.class) {
+                instance.writer = new HprofWriter(BUFFER_SIZE);
+            }
+        }
+    }
+
+    /**
+     * Dumps the heap to a file.
+     *
+     * @param path the path of the file
+     * @return true if the heap was dumped, false if an I/O error occurred, in which case it is logged
+     */
+    public static synchronized boolean dumpHeap(String path) {
+        return instance.dump(path);
+    }
+
+    /**
+     * Dumps the heap to {@link #HeapDumpPath} if {@link #HeapDumpOnOutOfMemoryError} is set and the heap wasn't already dumped
+     * on an {@link OutOfMemoryError}. Allocations needed to start the dump are served by the immortal heap.
+     * Does nothing if called by the VM operation thread, i.e., if the heap is exhausted while the threads are stopped.
+     */
+    public static synchronized void dumpOnOutOfMemoryError() {
+        if (!HeapDumpOnOutOfMemoryError || dumpedOnOutOfMemoryError || VmThread.current().isVmOperationThread()) {
+            return;
+        }
+        dumpedOnOutOfMemoryError = true;
+        Heap.enableImmortalMemoryAllocation();
+        try {
+            instance.dump(HeapDumpPath);
+        } finally {
+            Heap.disableImmortalMemoryAllocation();
+        }
+    }
+
+    private boolean dump(String path) {
+        final long start = System.currentTimeMillis();
+        Log.print("Dumping heap to ");
+        Log.print(path);
+        Log.println(" ...");
+        if (writer == null) {
+            writer = new HprofWriter(BUFFER_SIZE);
+        }
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(path);
+            writer.open(out.getChannel());
+            writer.header(start);
+            writer.record(TAG_STACK_TRACE, 12);
+            writer.u4(STACK_TRACE_SERIAL);
+            writer.u4(0);
+            writer.u4(0);
+            // Write the records of the classes loaded so far while allocation is still possible,
+            // which also creates their mirrors and warms up the channel.
+            writeClassRecords();
+            failure = null;
+            submit();
+            if (failure != null) {
+                throw failure;
+            }
+            writer.close();
+            final long size = out.getChannel().size();
+            final boolean lockDisabledSafepoints = Log.lock();
+            Log.print("Heap dump file created [");
+            Log.print(size);
+            Log.print(" bytes in ");
+            Log.print(System.currentTimeMillis() - start);
+            Log.println(" ms]");
+            Log.unlock(lockDisabledSafepoints);
+            return true;
+        } catch (IOException e) {
+            final boolean lockDisabledSafepoints = Log.lock();
+            Log.print("Heap dump to ");
+            Log.print(path);
+            Log.print(" failed: ");
+            Log.println(e.getMessage());
+            Log.unlock(lockDisabledSafepoints);
+            return false;
+        } finally {
+            failure = null;
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    @Override
+    protected void doIt() {
+        Heap.enableImmortalMemoryAllocation();
+        try {
+            for (int id = 0; id < classRecordsWritten; id++) {
+                final ClassActor classActor = ClassIDManager.toClassActor(id);
+                if (isDumped(classActor)) {
+                    writeClassDump(classActor);
+                }
+            }
+            VmThreadMap.ACTIVE.forAllThreadLocals(null, threadRootWriter);
+            vmConfig().heapScheme().walkHeap(objectWriter);
+            if (failure == null) {
+                writer.endSegment();
+                writer.record(TAG_HEAP_DUMP_END, 0);
+                writer.flush();
+            }
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            Heap.disableImmortalMemoryAllocation();
+        }
+    }
+
+    private static boolean isDumped(ClassActor classActor) {
+        return classActor != null && !classActor.isPrimitiveClassActor();
+    }
+
+    @INLINE
+    private static Pointer mirror(ClassActor classActor) {
+        return classActor == null ? Pointer.zero() : Reference.fromJava(classActor.javaClass()).toOrigin();
+    }
+
+    @INLINE
+    private static Pointer id(Object object) {
+        return Reference.fromJava(object).toOrigin();
+    }
+
+    /**
+     * Writes the name and load records of the classes loaded so far.
+     */
+    private void writeClassRecords() throws IOException {
+        final int largestClassId = ClassIDManager.largestClassId();
+        for (int id = 0; id <= largestClassId; id++) {
+            final ClassActor classActor = ClassIDManager.toClassActor(id);
+            if (!isDumped(classActor)) {
+                continue;
+            }
+            // Class names are in internal form, e.g., "java/lang/String" or "[I"
+            final String descriptor = classActor.typeDescriptor.string;
+            if (classActor.isArrayClass()) {
+                writer.utf8Record(id(classActor), descriptor, 0, descriptor.length());
+            } else {
+                writer.utf8Record(id(classActor), descriptor, 1, descriptor.length() - 1);
+            }
+            for (FieldActor fieldActor : classActor.localStaticFieldActors()) {
+                writer.utf8Record(id(fieldActor), fieldActor.name.string, 0, fieldActor.name.string.length());
+            }
+            for (FieldActor fieldActor : classActor.localInstanceFieldActors()) {
+                writer.utf8Record(id(fieldActor), fieldActor.name.string, 0, fieldActor.name.string.length());
+            }
+            writer.record(TAG_LOAD_CLASS, 8 + 2 * Word.size());
+            writer.u4(id + 1);
+            writer.id(mirror(classActor));
+            writer.u4(STACK_TRACE_SERIAL);
+            writer.id(id(classActor));
+        }
+        classRecordsWritten = largestClassId + 1;
+    }
+
+    private void writeClassDump(ClassActor classActor) throws IOException {
+        final Pointer mirror = mirror(classActor);
+        writer.beginSubRecord();
+        writer.u1(ROOT_STICKY_CLASS);
+        writer.id(mirror);
+
+        writer.beginSubRecord();
+        writer.u1(CLASS_DUMP);
+        writer.id(mirror);
+        writer.u4(STACK_TRACE_SERIAL);
+        writer.id(mirror(classActor.superClassActor));
+        writer.id(id(classActor.classLoader));
+        writer.id(Pointer.zero()); // signers
+        writer.id(Pointer.zero()); // protection domain
+        writer.id(Pointer.zero()); // reserved
+        writer.id(Pointer.zero()); // reserved
+        writer.u4(classActor.isTupleClass() ? classActor.dynamicTupleSize().toInt() : 0);
+        writer.u2(0); // constant pool
+        final Object staticTuple = classActor.staticTuple();
+        if (staticTuple == null) {
+            writer.u2(0);
+        } else {
+            final Pointer staticTupleOrigin = id(staticTuple);
+            final FieldActor[] staticFieldActors = classActor.localStaticFieldActors();
+            writer.u2(staticFieldActors.length);
+            for (FieldActor fieldActor : staticFieldActors) {
+                writer.id(id(fieldActor));
+                writer.u1(type(fieldActor.kind));
+                writeValue(fieldActor.kind, staticTupleOrigin, fieldActor.offset());
+            }
+        }
+        final FieldActor[] instanceFieldActors = classActor.localInstanceFieldActors();
+        writer.u2(instanceFieldActors.length);
+        for (FieldActor fieldActor : instanceFieldActors) {
+            writer.id(id(fieldActor));
+            writer.u1(type(fieldActor.kind));
+        }
+    }
+
+    private void writeObject(Reference reference) throws IOException {
+        final Pointer origin = reference.toOrigin();
+        final Hub hub = UnsafeCast.asHub(Layout.readHubReference(origin).toJava());
+        final ClassActor classActor = hub.classActor;
+        if (hub instanceof StaticHub || classActor == ClassRegistry.CLASS || classActor.id >= classRecordsWritten) {
+            // Static tuples and class mirrors are dumped with their class, classes loaded concurrently with the dump are not dumped
+            return;
+        }
+        if (Heap.bootHeapRegion.contains(origin) || ImmortalHeap.contains(origin)) {
+            writer.beginSubRecord();
+            writer.u1(ROOT_UNKNOWN);
+            writer.id(origin);
+        }
+        writer.beginSubRecord();
+        final SpecificLayout specificLayout = hub.specificLayout;
+        if (specificLayout.isTupleLayout() || specificLayout.isHybridLayout()) {
+            writer.u1(INSTANCE_DUMP);
+            writer.id(origin);
+            writer.u4(STACK_TRACE_SERIAL);
+            writer.id(mirror(classActor));
+            int numberOfBytes = 0;
+            for (ClassActor c = classActor; c != null; c = c.superClassActor) {
+                for (FieldActor fieldActor : c.localInstanceFieldActors()) {
+                    numberOfBytes += size(fieldActor.kind);
+                }
+            }
+            writer.u4(numberOfBytes);
+            for (ClassActor c = classActor; c != null; c = c.superClassActor) {
+                for (FieldActor fieldActor : c.localInstanceFieldActors()) {
+                    writeValue(fieldActor.kind, origin, fieldActor.offset());
+                }
+            }
+        } else if (specificLayout.isReferenceArrayLayout()) {
+            final int length = Layout.readArrayLength(reference);
+            writer.u1(OBJECT_ARRAY_DUMP);
+            writer.id(origin);
+            writer.u4(STACK_TRACE_SERIAL);
+            writer.u4(length);
+            writer.id(mirror(classActor));
+            for (int i = 0; i < length; i++) {
+                writer.id(Layout.getReference(reference, i).toOrigin());
+            }
+        } else {
+            final Kind<?> elementKind = classActor.componentClassActor().kind;
+            final int length = Layout.readArrayLength(reference);
+            writer.u1(PRIMITIVE_ARRAY_DUMP);
+            writer.id(origin);
+            writer.u4(STACK_TRACE_SERIAL);
+            writer.u4(length);
+            writer.u1(type(elementKind));
+            writeElements(elementKind, reference, length);
+        }
+    }
+
+    private void writeElements(Kind<?> elementKind, Reference array, int length) throws IOException {
+        switch (elementKind.asEnum) {
+            case BOOLEAN:
+            case BYTE:
+                for (int i = 0; i < length; i++) {
+                    writer.u1(Layout.getByte(array, i));
+                }
+                break;
+            case SHORT:
+                for (int i = 0; i < length; i++) {
+                    writer.u2(Layout.getShort(array, i));
+                }
+                break;
+            case CHAR:
+                for (int i = 0; i < length; i++) {
+                    writer.u2(Layout.getChar(array, i));
+                }
+                break;
+            case INT:
+                for (int i = 0; i < length; i++) {
+                    writer.u4(Layout.getInt(array, i));
+                }
+                break;
+            case FLOAT:
+                for (int i = 0; i < length; i++) {
+                    writer.u4(Float.floatToRawIntBits(Layout.getFloat(array, i)));
+                }
+                break;
+            case LONG:
+                for (int i = 0; i < length; i++) {
+                    writer.u8(Layout.getLong(array, i));
+                }
+                break;
+            case DOUBLE:
+                for (int i = 0; i < length; i++) {
+                    writer.u8(Double.doubleToRawLongBits(Layout.getDouble(array, i)));
+                }
+                break;
+            case WORD:
+                for (int i = 0; i < length; i++) {
+                    writer.id(Layout.getWord(array, i));
+                }
+                break;
+            default:
+                throw FatalError.unexpected("Unexpected array element kind");
+        }
+    }
+
+    private void writeValue(Kind<?> kind, Pointer origin, int offset) throws IOException {
+        switch (kind.asEnum) {
+            case BOOLEAN:
+            case BYTE:
+                writer.u1(origin.readByte(offset));
+                break;
+            case SHORT:
+            case CHAR:
+                writer.u2(origin.readShort(offset));
+                break;
+            case INT:
+            case FLOAT:
+                writer.u4(origin.readInt(offset));
+                break;
+            case LONG:
+            case DOUBLE:
+                writer.u8(origin.readLong(offset));
+                break;
+            case REFERENCE:
+            case WORD:
+                writer.id(origin.readWord(offset));
+                break;
+            default:
+                throw FatalError.unexpected("Unexpected field kind");
+        }
+    }
+
+    /**
+     * Gets the HPROF basic type of a kind. Words are dumped as integers of the same size.
+     */
+    private static int type(Kind<?> kind) {
+        switch (kind.asEnum) {
+            case BOOLEAN:
+                return TYPE_BOOLEAN;
+            case BYTE:
+                return TYPE_BYTE;
+            case SHORT:
+                return TYPE_SHORT;
+            case CHAR:
+                return TYPE_CHAR;
+            case INT:
+                return TYPE_INT;
+            case FLOAT:
+                return TYPE_FLOAT;
+            case LONG:
+                return TYPE_LONG;
+            case DOUBLE:
+                return TYPE_DOUBLE;
+            case REFERENCE:
+                return TYPE_OBJECT;
+            case WORD:
+                return Word.size() == 8 ? TYPE_LONG : TYPE_INT;
+            default:
+                throw FatalError.unexpected("Unexpected kind");
+        }
+    }
+
+    /**
+     * Gets the number of bytes of a value of a given kind in the dump.
+     */
+    private static int size(Kind<?> kind) {
+        switch (kind.asEnum) {
+            case BOOLEAN:
+            case BYTE:
+                return 1;
+            case SHORT:
+            case CHAR:
+                return 2;
+            case INT:
+            case FLOAT:
+                return 4;
+            case LONG:
+            case DOUBLE:
+                return 8;
+            default:
+                return Word.size();
+        }
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.heap;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+import com.sun.max.unsafe.*;
+
+/**
+ * Writes the records of a binary HPROF file to a file channel through a direct buffer allocated ahead of time,
+ * so that records can be written while the heap is being walked without allocating.
+ * Heap dump sub-records are written in {@code HEAP_DUMP_SEGMENT} records whose length is patched in the file
+ * when the segment is {@linkplain #endSegment() ended}, so that the dump is streamed to the file in a single pass.
+ */
+final class HprofWriter {
+    static final int TAG_UTF8 = 0x01;
+    static final int TAG_LOAD_CLASS = 0x02;
+    static final int TAG_STACK_TRACE = 0x05;
+    static final int TAG_HEAP_DUMP_SEGMENT = 0x1C;
+    static final int TAG_HEAP_DUMP_END = 0x2C;
+
+    static final int ROOT_UNKNOWN = 0xFF;
+    static final int ROOT_STICKY_CLASS = 0x05;
+    static final int ROOT_THREAD_OBJECT = 0x08;
+    static final int CLASS_DUMP = 0x20;
+    static final int INSTANCE_DUMP = 0x21;
+    static final int OBJECT_ARRAY_DUMP = 0x22;
+    static final int PRIMITIVE_ARRAY_DUMP = 0x23;
+
+    static final int TYPE_OBJECT = 2;
+    static final int TYPE_BOOLEAN = 4;
+    static final int TYPE_CHAR = 5;
+    static final int TYPE_FLOAT = 6;
+    static final int TYPE_DOUBLE = 7;
+    static final int TYPE_BYTE = 8;
+    static final int TYPE_SHORT = 9;
+    static final int TYPE_INT = 10;
+    static final int TYPE_LONG = 11;
+
+    /**
+     * A heap dump segment is ended once it grows over this size, well below the 4 GB limit of a record length.
+     */
+    private static final long SEGMENT_SIZE_LIMIT = 1L << 30;
+
+    private final ByteBuffer buffer;
+
+    /**
+     * Buffer used to patch the length of heap dump segments.
+     */
+    private final ByteBuffer lengthBuffer;
+
+    private FileChannel channel;
+
+    /**
+     * Number of bytes written to the channel.
+     */
+    private long flushed;
+
+    /**
+     * Position in the file of the first sub-record of the current heap dump segment, or -1 if no segment is open.
+     */
+    private long segmentStart = -1L;
+
+    HprofWriter(int bufferSize) {
+        buffer = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.BIG_ENDIAN);
+        lengthBuffer = ByteBuffer.allocateDirect(4).order(ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * Starts writing a new file.
+     */
+    void open(FileChannel channel) {
+        this.channel = channel;
+        buffer.clear();
+        flushed = 0L;
+        segmentStart = -1L;
+    }
+
+    /**
+     * Flushes the buffer and forgets the channel, which the caller closes.
+     */
+    void close() throws IOException {
+        flush();
+        channel = null;
+    }
+
+    /**
+     * Gets the position in the file of the next byte written.
+     */
+    long position() {
+        return flushed + buffer.position();
+    }
+
+    void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            flushed += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void ensure(int numberOfBytes) throws IOException {
+        if (buffer.remaining() < numberOfBytes) {
+            flush();
+        }
+    }
+
+    void u1(int value) throws IOException {
+        ensure(1);
+        buffer.put((byte) value);
+    }
+
+    void u2(int value) throws IOException {
+        ensure(2);
+        buffer.putShort((short) value);
+    }
+
+    void u4(int value) throws IOException {
+        ensure(4);
+        buffer.putInt(value);
+    }
+
+    void u8(long value) throws IOException {
+        ensure(8);
+        buffer.putLong(value);
+    }
+
+    /**
+     * Writes an identifier, which is a word-sized value.
+     */
+    void id(Word value) throws IOException {
+        if (Word.size() == 8) {
+            u8(value.asAddress().toLong());
+        } else {
+            u4(value.asAddress().toInt());
+        }
+    }
+
+    /**
+     * Writes the file header.
+     *
+     * @param time the time of the dump, in milliseconds since the epoch
+     */
+    void header(long time) throws IOException {
+        final String format = "JAVA PROFILE 1.0.2";
+        for (int i = 0; i < format.length(); i++) {
+            u1(format.charAt(i));
+        }
+        u1(0);
+        u4(Word.size());
+        u8(time);
+    }
+
+    /**
+     * Writes the header of a top-level record.
+     *
+     * @param tag the tag of the record
+     * @param length the number of bytes of the record following the header
+     */
+    void record(int tag, int length) throws IOException {
+        u1(tag);
+        u4(0);
+        u4(length);
+    }
+
+    /**
+     * Gets the number of bytes of the modified UTF-8 encoding of a range of the characters of a string.
+     */
+    static int utf8Length(String string, int start, int end) {
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            final char c = string.charAt(i);
+            if (c != 0 && c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Writes the modified UTF-8 encoding of a range of the characters of a string.
+     */
+    void utf8(String string, int start, int end) throws IOException {
+        for (int i = start; i < end; i++) {
+            final char c = string.charAt(i);
+            if (c != 0 && c < 0x80) {
+                u1(c);
+            } else if (c < 0x800) {
+                u1(0xC0 | (c >> 6));
+                u1(0x80 | (c & 0x3F));
+            } else {
+                u1(0xE0 | (c >> 12));
+                u1(0x80 | ((c >> 6) & 0x3F));
+                u1(0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    /**
+     * Writes a {@code UTF8} record for a range of the characters of a string.
+     *
+     * @param id the identifier of the string
+     */
+    void utf8Record(Word id, String string, int start, int end) throws IOException {
+        record(TAG_UTF8, Word.size() + utf8Length(string, start, end));
+        id(id);
+        utf8(string, start, end);
+    }
+
+    /**
+     * Starts a new heap dump segment if the current one is over the size limit, or if none is open.
+     * Must be called before writing a heap dump sub-record.
+     */
+    void beginSubRecord() throws IOException {
+        if (segmentStart >= 0L && position() - segmentStart < SEGMENT_SIZE_LIMIT) {
+            return;
+        }
+        endSegment();
+        record(TAG_HEAP_DUMP_SEGMENT, 0);
+        segmentStart = position();
+    }
+
+    /**
+     * Ends the current heap dump segment, if any, by writing its length in its record header.
+     */
+    void endSegment() throws IOException {
+        if (segmentStart < 0L) {
+            return;
+        }
+        final long length = position() - segmentStart;
+        flush();
+        lengthBuffer.clear();
+        lengthBuffer.putInt((int) length);
+        lengthBuffer.flip();
+        long lengthPosition = segmentStart - 4;
+        while (lengthBuffer.hasRemaining()) {
+            lengthPosition += channel.write(lengthBuffer, lengthPosition);
+        }
+        segmentStart = -1L;
+    }
+}
@@ -142,7 +142,7 @@ public final class ImmortalHeap {
     }
 
     /**
-     * Visit the cells in the immortal heap.
+     * Visit the cells in the immortal heap and in the open {@linkplain Arena arenas}, which are roots of garbage collection in the same way.
      *
      * @param cellVisitor the visitor to call back for each cell in each region
      */
@@ -154,6 +154,7 @@ public final class ImmortalHeap {
             cell = DebugHeap.checkDebugCellTag(firstCell, cell);
             cell = cellVisitor.visitCell(cell);
         }
+        Arena.visitCells(cellVisitor);
     }
 
     public static MemoryManagerMXBean getMemoryManagerMXBean() {
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.heap;
+
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.MaxineVM.Phase;
+
+/**
+ * Policy deciding whether the {@link SpecialReferenceManager} clears a {@link java.lang.ref.SoftReference} whose referent
+ * is only softly reachable, or keeps the referent alive for the current collection.
+ * <p>
+ * Soft references are time-stamped by {@link java.lang.ref.SoftReference#get()} with a global clock that the special reference manager
+ * advances at every GC. The LRU policies keep a softly reachable referent if it was accessed less than
+ * {@code -XX:SoftRefLRUPolicyMSPerMB} milliseconds per megabyte of free heap ago, so that soft-reference caches survive
+ * collections as long as the heap isn't under pressure.
+ * <p>
+ * A heap scheme selects its policy via {@link HeapScheme#softReferencePolicy()}. The policy is {@linkplain #setup() set up} once
+ * per processing of the discovered references, and is then queried for every softly reachable referent.
+ * Policies must therefore not allocate.
+ */
+public abstract class SoftReferencePolicy {
+
+    static int SoftRefLRUPolicyMSPerMB = 1000;
+
+    static {
+        VMOptions.addFieldOption("-XX:", "SoftRefLRUPolicyMSPerMB", SoftReferencePolicy.class,
+                        "Number of milliseconds per MB of free heap a softly reachable object is kept alive since its last access.", Phase.PRISTINE);
+    }
+
+    /**
+     * Policy clearing every softly reachable referent, i.e., treating soft references like weak references.
+     */
+    public static final SoftReferencePolicy ALWAYS_CLEAR = new AlwaysClearPolicy();
+
+    /**
+     * LRU policy sizing the time a softly reachable referent is kept alive on the heap's current free space.
+     */
+    public static final SoftReferencePolicy LRU_CURRENT_HEAP = new LRUCurrentHeapPolicy();
+
+    /**
+     * LRU policy sizing the time a softly reachable referent is kept alive on the space the heap can still grow into, i.e.,
+     * the maximum heap size minus the space currently in use. Better suited to heap schemes that collect when a small part of the heap
+     * (e.g., a nursery) is full, or that grow the heap on demand.
+     */
+    public static final SoftReferencePolicy LRU_MAX_HEAP = new LRUMaxHeapPolicy();
+
+    /**
+     * Prepare the policy for processing the special references discovered by the current GC.
+     */
+    public void setup() {
+    }
+
+    /**
+     * Determines whether a soft reference whose referent is only softly reachable should be cleared.
+     *
+     * @param timestamp the value of the soft reference clock when the soft reference was last accessed
+     * @param clock the current value of the soft reference clock, i.e., the time of the previous GC
+     * @return true if the soft reference should be cleared, false if its referent should be kept alive
+     */
+    public abstract boolean shouldClear(long timestamp, long clock);
+
+    static final class AlwaysClearPolicy extends SoftReferencePolicy {
+        @Override
+        public boolean shouldClear(long timestamp, long clock) {
+            return true;
+        }
+    }
+
+    abstract static class LRUPolicy extends SoftReferencePolicy {
+        /**
+         * Maximum number of milliseconds since its last access a softly reachable referent is kept alive.
+         */
+        private long maxInterval;
+
+        /**
+         * Amount of free heap space the LRU interval is computed from.
+         */
+        abstract Size freeSpace();
+
+        @Override
+        public void setup() {
+            maxInterval = freeSpace().unsignedShiftedRight(20).toLong() * SoftRefLRUPolicyMSPerMB;
+        }
+
+        @Override
+        public boolean shouldClear(long timestamp, long clock) {
+            return clock - timestamp > maxInterval;
+        }
+    }
+
+    static final class LRUCurrentHeapPolicy extends LRUPolicy {
+        @Override
+        Size freeSpace() {
+            return Size.fromLong(Heap.reportFreeSpace());
+        }
+    }
+
+    static final class LRUMaxHeapPolicy extends LRUPolicy {
+        @Override
+        Size freeSpace() {
+            final Size maxSize = Heap.maxSize();
+            final Size used = Size.fromLong(Heap.reportUsedSpace());
+            return used.greaterThan(maxSize) ? Size.zero() : maxSize.minus(used);
+        }
+    }
+}
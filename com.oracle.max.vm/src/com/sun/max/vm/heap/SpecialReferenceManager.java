@@ -23,6 +23,7 @@
 package com.sun.max.vm.heap;
 
 
+import static com.sun.max.vm.VMConfiguration.*;
 import static com.sun.max.vm.intrinsics.MaxineIntrinsicIDs.*;
 import static com.sun.max.vm.jdk.JDK_java_lang_ref_ReferenceQueue.*;
 
@@ -83,6 +84,13 @@ public class SpecialReferenceManager {
          * @return true if live objects may have relocated.
          */
         boolean mayRelocateLiveObjects();
+
+        /**
+         * Completes the trace of the object graphs rooted at the references {@linkplain #preserve(Reference) preserved} so far,
+         * so that the reachability of the referents of the remaining special references can be decided.
+         * Special references found while tracing must be {@linkplain SpecialReferenceManager#discoverSpecialReference(Pointer) discovered}.
+         */
+        void traceFromPreserved();
     }
 
     /**
@@ -204,6 +212,21 @@ public class SpecialReferenceManager {
     @INTRINSIC(UNSAFE_CAST)
     public static native java.lang.ref.Reference asJLRR(Object o);
 
+    /**
+     * An alias type for accessing the fields in java.lang.ref.SoftReference.
+     */
+    static class JLRSRAlias {
+        /**
+         * Value of the soft reference {@linkplain SpecialReferenceManager#clock clock} when the soft reference was created or last
+         * accessed via {@link java.lang.ref.SoftReference#get()}.
+         */
+        @ALIAS(declaringClass = java.lang.ref.SoftReference.class)
+        long timestamp;
+    }
+
+    @INTRINSIC(UNSAFE_CAST)
+    static native JLRSRAlias asJLRSRAlias(Object o);
+
     /**
      * This method is called by the GC during heap exploration, when it finds a special
      * reference object. This method checks to see whether the object has been processed previously,
@@ -239,6 +262,13 @@ public class SpecialReferenceManager {
         }
     }
 
+    /**
+     * Processing phases of the discovered special references, in the order they run (see {@link #processDiscoveredSpecialReferences(GC)}).
+     */
+    private static final int SOFT_AND_WEAK_PHASE = 0;
+    private static final int FINAL_PHASE = 1;
+    private static final int PHANTOM_PHASE = 2;
+
     /**
      * Processes the special reference objects that were {@linkplain #discoverSpecialReference(Pointer) discovered}
      * during heap scanning.
@@ -248,13 +278,24 @@ public class SpecialReferenceManager {
      * and add them to their respective queues later.
      * The reference handler lock is notified by the thread that {@linkplain VmOperationThread#submit(VmOperation) submitted}
      * the GC operation as it holds the lock. See {@link GCOperation#doItEpilogue(boolean)}.
+     * <p>
+     * References are processed by strength, as an object may only be reachable through a referent kept alive by a stronger reference:
+     * <ol>
+     * <li>Soft references whose referent is only softly reachable are cleared only if the heap scheme's
+     * {@linkplain HeapScheme#softReferencePolicy() soft reference policy} says so. The other referents are preserved, the soft references
+     * are left active, and everything they keep alive is {@linkplain GC#traceFromPreserved() traced}.</li>
+     * <li>Soft and weak references to unreachable referents are then cleared and enqueued.</li>
+     * <li>Final references to unreachable referents are enqueued, and their referents and what they reach are preserved.</li>
+     * <li>Last, phantom references to unreachable referents are enqueued.</li>
+     * </ol>
+     * References discovered while tracing from the referents preserved by a phase are processed after the phantom references.
+     * The soft reference {@link #clock} is advanced once all discovered references are processed.
      *
      * @param gc interface to the GC implementation
      */
     public static void processDiscoveredSpecialReferences(GC gc) {
-        java.lang.ref.Reference head = discoveredList;
-        java.lang.ref.Reference end = sentinel;
-        final boolean updateReachableReferent = gc.mayRelocateLiveObjects();
+        final SoftReferencePolicy softReferencePolicy = vmConfig().heapScheme().softReferencePolicy();
+        softReferencePolicy.setup();
 
         if (specialReferenceLogger.enabled()) {
             specialReferenceLogger.logProcessDiscoveredInit(
@@ -262,16 +303,96 @@ public class SpecialReferenceManager {
                             Reference.fromJava(JDK_java_lang_ref_ReferenceQueue.ENQUEUED).toOrigin());
         }
 
+        while (preserveSoftReferents(gc, softReferencePolicy)) {
+            gc.traceFromPreserved();
+        }
+        processDiscovered(gc, SOFT_AND_WEAK_PHASE);
+        processDiscovered(gc, FINAL_PHASE);
+        processDiscovered(gc, PHANTOM_PHASE);
+        // Tracing from the referents preserved by the final and phantom phases may have discovered references of any strength.
+        while (discoveredList != sentinel) {
+            processDiscovered(gc, -1);
+        }
+
+        final long now = System.currentTimeMillis();
+        if (now > clock) {
+            clock = now;
+        }
+    }
+
+    /**
+     * Preserves the referents of the discovered soft references that are only softly reachable and that the soft reference policy
+     * keeps alive. The references stay on the discovered list.
+     *
+     * @return true if any referent was preserved, in which case the caller must trace from it before looking for more
+     */
+    private static boolean preserveSoftReferents(GC gc, SoftReferencePolicy softReferencePolicy) {
+        boolean preservedAny = false;
+        java.lang.ref.Reference ref = discoveredList;
+        while (ref != sentinel) {
+            final JLRRAlias refAlias = asJLRRAlias(ref);
+            if (ref instanceof java.lang.ref.SoftReference) {
+                final Reference referent = Reference.fromJava(refAlias.referent);
+                if (!referent.isZero() && !gc.isReachable(referent) && !softReferencePolicy.shouldClear(asJLRSRAlias(ref).timestamp, clock)) {
+                    // Recently used softly reachable referent: keep it alive and leave the soft reference active.
+                    // The following line MUST run the mutator write barrier
+                    refAlias.referent = gc.preserve(referent).toJava();
+                    preservedAny = true;
+                }
+            }
+            ref = refAlias.discovered;
+        }
+        return preservedAny;
+    }
+
+    /**
+     * Determines whether a discovered reference is processed by a given phase.
+     *
+     * @param phase a processing phase, or -1 for all references
+     */
+    private static boolean isProcessedBy(java.lang.ref.Reference ref, int phase, ClassActor finalizerClassActor) {
+        switch (phase) {
+            case SOFT_AND_WEAK_PHASE:
+                return ref instanceof java.lang.ref.SoftReference || ref instanceof java.lang.ref.WeakReference;
+            case FINAL_PHASE:
+                return ObjectAccess.readClassActor(ref) == finalizerClassActor;
+            case PHANTOM_PHASE:
+                return ref instanceof java.lang.ref.PhantomReference;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Removes the references processed by a given phase from the discovered list and processes them, then traces from the referents
+     * the phase preserved. The other references are left on the discovered list.
+     *
+     * @param phase a processing phase, or -1 for all the discovered references
+     */
+    private static void processDiscovered(GC gc, int phase) {
+        final boolean updateReachableReferent = gc.mayRelocateLiveObjects();
+        final ClassActor finalizerClassActor = JDK.java_lang_ref_Finalizer.classActor();
+        java.lang.ref.Reference remaining = sentinel;
+        boolean preservedAny = false;
+
         // Process the discovered list until it is empty (new elements may be
         // prepended while processing).
-        do {
-            java.lang.ref.Reference ref = head;
+        while (discoveredList != sentinel) {
+            java.lang.ref.Reference ref = discoveredList;
+            discoveredList = sentinel;
             java.lang.ref.Reference pending = JLRRAlias.pending;
 
-            while (ref != end) {
+            while (ref != sentinel) {
+                JLRRAlias refAlias = asJLRRAlias(ref);
+                if (!isProcessedBy(ref, phase, finalizerClassActor)) {
+                    final java.lang.ref.Reference next = refAlias.discovered;
+                    refAlias.discovered = remaining;
+                    remaining = ref;
+                    ref = next;
+                    continue;
+                }
                 boolean preserved = false;
                 boolean addedToPending = false;
-                JLRRAlias refAlias = asJLRRAlias(ref);
                 final Reference referent = Reference.fromJava(refAlias.referent);
                 if (referent.isZero()) {
                     // Do not add 'ref' to the pending list as weak references
@@ -289,6 +410,7 @@ public class SpecialReferenceManager {
                             // The following line MUST run the mutator write barrier
                             refAlias.referent = gc.preserve(referent).toJava();
                             preserved = true;
+                            preservedAny = true;
                         }
 
                         // Add active reference whose reachability has changed to pending list
@@ -329,16 +451,11 @@ public class SpecialReferenceManager {
                 }
             }
             JLRRAlias.pending = pending;
-
-            if (head == discoveredList) {
-                // No further special references were discovered
-                discoveredList = sentinel;
-                break;
-            }
-
-            end = head;
-            head = discoveredList;
-        } while (true);
+        }
+        discoveredList = remaining;
+        if (preservedAny) {
+            gc.traceFromPreserved();
+        }
     }
 
     @ALIAS(declaringClassName = "java.lang.ref.Finalizer")
@@ -390,6 +507,10 @@ public class SpecialReferenceManager {
         }
     }
 
+    /**
+     * Soft reference clock, i.e., the time in milliseconds of the last processing of discovered special references.
+     * {@link java.lang.ref.SoftReference#get()} stamps soft references with it.
+     */
     @ALIAS(declaringClass = java.lang.ref.SoftReference.class)
     private static long clock;
 
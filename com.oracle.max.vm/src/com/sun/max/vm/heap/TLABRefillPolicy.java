@@ -65,6 +65,23 @@ public abstract class TLABRefillPolicy {
      */
     public abstract Size nextTlabSize();
 
+    /**
+     * Notifies the policy that the current TLAB is replaced with a new one of {@linkplain #nextTlabSize() the next TLAB size}.
+     * Called by the thread owning the TLAB.
+     *
+     * @param leftover space left unused in the retired TLAB
+     */
+    public void doOnRefill(Size leftover) {
+    }
+
+    /**
+     * Notifies the policy that the current TLAB is reset, typically before a GC.
+     *
+     * @param leftover space left unused in the reset TLAB
+     */
+    public void doOnReset(Size leftover) {
+    }
+
     @INTRINSIC(UNSAFE_CAST)
     private static native TLABRefillPolicy asTLABRefillPolicy(Object object);
 
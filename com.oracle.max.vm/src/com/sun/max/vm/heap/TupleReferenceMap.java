@@ -115,13 +115,29 @@ public class TupleReferenceMap {
 
     /**
      * Visits all the references in a given object described by a given hub.
+     * As the map is ordered by strictly increasing offsets, the references are in consecutive words when the last and
+     * first offsets are as far apart as the length of the map. Such a map, e.g., of a class whose fields were laid out
+     * with {@linkplain com.sun.max.vm.layout.ohm.OhmTupleLayout#packsFields() packing}, is visited as a single range
+     * without reading the map entries in between.
      *
      * @param hub a hub describing where the references are in the object at {@code origin}
      * @param origin the origin of an object
      * @param visitor the visitor to notify of each reference in the object denoted by {@code origin}
      */
     public static void visitReferences(Hub hub, Pointer origin, PointerIndexVisitor visitor) {
-        final int n = hub.referenceMapStartIndex + hub.referenceMapLength;
+        final int l = hub.referenceMapLength;
+        if (l == 0) {
+            return;
+        }
+        final int n = hub.referenceMapStartIndex + l;
+        final int firstIndex = hub.getInt(hub.referenceMapStartIndex);
+        final int lastIndex = hub.getInt(n - 1);
+        if (lastIndex - firstIndex == l - 1) {
+            for (int index = firstIndex; index <= lastIndex; index++) {
+                visitor.visit(origin, index);
+            }
+            return;
+        }
         for (int i = hub.referenceMapStartIndex; i < n; i++) {
             final int index = hub.getInt(i);
             visitor.visit(origin, index);
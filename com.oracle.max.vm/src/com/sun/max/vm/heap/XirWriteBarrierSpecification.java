@@ -51,6 +51,21 @@ public interface XirWriteBarrierSpecification extends WriteBarrierSpecification
         void genWriteBarrier(CiXirAssembler asm, XirOperand ... operands);
     }
 
+    /**
+     * Interface to the XIR generator's runtime call stubs, for write barriers with out-of-line slow paths calling into the runtime.
+     */
+    public interface XirRuntimeCallStubs {
+        /**
+         * Generate a call to a public static method of the specified class through a stub.
+         * @param asm
+         * @param runtimeCalls class holding the method to call
+         * @param method name of the method to call
+         * @param result operand receiving the result of the call, or null if the method returns void
+         * @param args arguments to the call
+         */
+        void callRuntimeThroughStub(CiXirAssembler asm, Class<?> runtimeCalls, String method, XirOperand result, XirOperand... args);
+    }
+
     XirWriteBarrierGenerator NULL_WRITE_BARRIER_GEN = new XirWriteBarrierGenerator() {
 
         public void genWriteBarrier(CiXirAssembler asm, XirOperand... operands) {
@@ -61,6 +76,7 @@ public interface XirWriteBarrierSpecification extends WriteBarrierSpecification
      * Return a XIR write-barrier generator that implements the specification encoded in a bit set whose elements correspond to enum-based flags.
      *
      * @param writeBarrierSpec a bit set encoding a write barrier specification.
+     * @param runtimeCallStubs runtime call stubs the generated barrier may use for its slow path
      */
-    XirWriteBarrierGenerator barrierGenerator(IntBitSet<WriteBarrierSpecification.WriteBarrierSpec> writeBarrierSpec);
+    XirWriteBarrierGenerator barrierGenerator(IntBitSet<WriteBarrierSpecification.WriteBarrierSpec> writeBarrierSpec, XirRuntimeCallStubs runtimeCallStubs);
 }
@@ -337,7 +337,7 @@ public class DebugHeap {
                 return;
             }
             final Pointer origin = ref.toOrigin();
-            if (Heap.bootHeapRegion.contains(origin) || Code.contains(origin) || ImmortalHeap.contains(origin)) {
+            if (Heap.bootHeapRegion.contains(origin) || Code.contains(origin) || ImmortalHeap.contains(origin) || Arena.contains(origin)) {
                 return;
             }
             if (space1 != null && space1.contains(origin)) {
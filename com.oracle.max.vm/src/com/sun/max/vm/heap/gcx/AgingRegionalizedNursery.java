@@ -0,0 +1,826 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.heap.gcx;
+
+import static com.sun.max.vm.VMConfiguration.*;
+
+import com.oracle.max.cri.intrinsics.*;
+import com.sun.max.annotate.*;
+import com.sun.max.memory.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.MaxineVM.Phase;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.heap.HeapScheme.GCRequest;
+import com.sun.max.vm.layout.*;
+import com.sun.max.vm.monitor.modal.modehandlers.lightweight.*;
+import com.sun.max.vm.reference.*;
+import com.sun.max.vm.runtime.*;
+
+/**
+ * A nursery made of an eden, where objects are allocated, and of two survivor spaces. Minor collections evacuate the survivors of eden
+ * and of the from-survivor space to the to-survivor space, unless they are old enough to be tenured or the to-survivor space is full,
+ * in which case they are promoted to the next generation. The two survivor spaces swap roles after each minor collection.
+ * <p>
+ * The age of an object, i.e., the number of minor collections it survived, is kept in spare bits of its misc word (see {@link LightweightLockword64#getGCAge()}).
+ * Objects whose misc word is an inflated monitor lock word have no room for an age and are tenured at the first minor collection they survive.
+ * If the monitor scheme doesn't leave spare bits in the misc word, or if {@link #MaxTenuringThreshold} is zero, the nursery has no survivor spaces
+ * and all survivors are promoted.
+ * <p>
+ * The tenuring threshold adapts to the occupancy of the survivor spaces. After each minor collection, it is set to the lowest age such that
+ * the survivors of that age or younger fill more than {@link #TargetSurvivorRatio} percent of a survivor space, up to {@link #MaxTenuringThreshold}.
+ * <p>
+ * The nursery occupies a contiguous range of regions: the two survivor spaces come first, followed by eden.
+ * References from the next generation to survivors are recorded in the card table like any other references to the nursery.
+ * <p>
+ * Objects of eden can be pinned: a young collection keeps in place the cells overlapping {@linkplain HeapRegionInfo#isPinned() pinned} regions of eden,
+ * and treats them as survivors (see {@link #inPinnedRange(Address)}). Allocation then resumes in the largest range of eden left free.
+ * Objects of the survivor spaces can't be pinned, as they are copied from one survivor space to the other by every young collection.
+ * <p>
+ * With {@code -XX:+BackgroundZeroing}, a {@link BackgroundZeroer} zeroes the free space of eden ahead of the allocation hand, and allocations
+ * falling in the zeroed range aren't cleared (see {@link #zeroNextChunk()}).
+ */
+public final class AgingRegionalizedNursery implements HeapSpace {
+    /**
+     * Maximum age that can be recorded in the misc word of an object.
+     */
+    public static final int MAX_AGE = (1 << LightweightLockword64.GC_AGE_FIELD_WIDTH) - 1;
+
+    static int MaxTenuringThreshold = 7;
+    static int InitialTenuringThreshold = 7;
+    static int TargetSurvivorRatio = 50;
+    static Size SurvivorLABSize = Size.K.times(16);
+    private static boolean PrintTenuringDistribution = false;
+    static {
+        VMOptions.addFieldOption("-XX:", "MaxTenuringThreshold", AgingRegionalizedNursery.class,
+                        "Maximum number of minor collections an object survives before being tenured (0 disables aging, at most " + MAX_AGE + ")", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "InitialTenuringThreshold", AgingRegionalizedNursery.class, "Tenuring threshold before the first minor collection", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "TargetSurvivorRatio", AgingRegionalizedNursery.class,
+                        "Desired percentage of a survivor space filled after a minor collection", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "SurvivorLABSize", AgingRegionalizedNursery.class, "Size of the buffers evacuators allocate survivors from", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "PrintTenuringDistribution", AgingRegionalizedNursery.class,
+                        "Print the tenuring threshold and the amount of survivors of each age after each minor collection", Phase.PRISTINE);
+    }
+
+    final class NurseryRefiller extends Refiller {
+        @Override
+        public Address allocateRefill(Size requestedSize, Pointer startOfSpaceLeft, Size spaceLeft) {
+            GCRequest.setGCRequest(requestedSize);
+            if (!Heap.collectGarbage()) {
+                throw new OutOfMemoryError();
+            }
+            // We're out of safepoint. The current thread hold the refill lock and will do the refill of the allocator.
+            return Address.zero();
+        }
+
+        @Override
+        protected void doBeforeGC() {
+            // Nothing to do.
+        }
+
+        @Override
+        public Address allocateLargeRaw(Size size) {
+            FatalError.unimplemented();
+            return Address.zero();
+        }
+    }
+
+    /**
+     * The heap account space for this nursery is allocated from.
+     */
+    private final HeapAccount<? extends HeapAccountOwner> heapAccount;
+
+    private final int regionTag;
+    /**
+     * List of region allocated to the nursery.
+     */
+    private HeapRegionList nurseryRegionsList;
+    /**
+     * List of regions allocated to the nursery but uncommitted.
+     */
+    private HeapRegionList uncommitedNurseryRegionsList;
+
+    /**
+     * Atomic bump pointer allocator over eden. The current bounds and size of eden are obtained from the allocator's start and end addresses.
+     */
+    @INSPECTED
+    private final AtomicBumpPointerAllocator<NurseryRefiller> allocator = new AtomicBumpPointerAllocator<NurseryRefiller>(new NurseryRefiller());
+
+    /**
+     * Start of the nursery, which is also the start of the first survivor space.
+     */
+    private Address start;
+
+    /**
+     * Bounds of eden. Eden is larger than the allocator's contiguous chunk if cells of pinned regions were kept in place by the last young collection.
+     */
+    private Address edenStart;
+    private Address edenEnd;
+
+    /**
+     * Range of eden zeroed by the background zeroer. Allocations falling within it aren't cleared.
+     * The range is only extended by the zeroer, and moved past the allocation hand when allocation catches up with it.
+     * The start is always updated before the end, and read after it, so that readers never see a range larger than the one zeroed.
+     */
+    private volatile Address zeroedStart = Address.zero();
+    private volatile Address zeroedEnd = Address.zero();
+
+    /**
+     * End of the chunk claimed by the background zeroer. Greater than {@link #zeroedEnd} while the zeroer is zeroing a chunk.
+     */
+    private volatile Address zeroingEnd = Address.zero();
+
+    /**
+     * Ranges of cells of eden overlapping pinned regions, as pairs of start and end addresses sorted by address.
+     * Computed before a young collection, which keeps these cells in place.
+     */
+    private long[] pinnedRanges;
+
+    /**
+     * Number of ranges recorded in {@link #pinnedRanges}.
+     */
+    private int numPinnedRanges;
+
+    /**
+     * Size of each survivor space. Zero if the nursery doesn't age objects.
+     */
+    private Size survivorSize;
+
+    /**
+     * Start of the survivor space holding the survivors of the last minor collection.
+     */
+    @INSPECTED
+    private Address fromSurvivorStart;
+
+    /**
+     * End of the survivors of the last minor collection.
+     */
+    @INSPECTED
+    private Address fromSurvivorTop;
+
+    /**
+     * Start of the survivor space the next minor collection evacuates survivors to.
+     */
+    private Address toSurvivorStart;
+
+    /**
+     * Allocation hand of the to-survivor space. Evacuators allocate their survivor buffers concurrently during minor collections.
+     */
+    private volatile Address toSurvivorTop;
+
+    /**
+     * Current tenuring threshold: survivors younger than this are copied to the to-survivor space.
+     */
+    private int tenuringThreshold;
+
+    /**
+     * Number of bytes of survivors of each age copied to the to-survivor space by the last minor collection.
+     */
+    private final long[] survivorBytesPerAge = new long[MAX_AGE + 1];
+
+    private final SpaceBounds bounds;
+
+    @FOLD
+    private static int toSurvivorTopOffset() {
+        return ClassActor.fromJava(AgingRegionalizedNursery.class).findLocalInstanceFieldActor("toSurvivorTop").offset();
+    }
+
+    public AgingRegionalizedNursery(HeapAccount<? extends HeapAccountOwner> heapAccount, int regionTag) {
+        this.heapAccount = heapAccount;
+        this.regionTag = regionTag;
+        this.bounds = new SpaceBounds() {
+            @Override
+            Address lowestAddress() {
+                return start;
+            }
+
+            /**
+             * Only eden and the from-survivor space are evacuated.
+             */
+            @Override
+            boolean isIn(Address address) {
+                return (address.greaterEqual(edenStart) && address.lessThan(edenEnd)) ||
+                    (address.greaterEqual(fromSurvivorStart) && address.lessThan(fromSurvivorTop));
+            }
+
+            @Override
+            boolean isContiguous() {
+                return false;
+            }
+
+            @Override
+            Address highestAddress() {
+                return edenEnd;
+            }
+        };
+    }
+
+    public AgingRegionalizedNursery(HeapAccount<? extends HeapAccountOwner> heapAccount) {
+        this(heapAccount, 0);
+    }
+
+    private static boolean isAgingSupported() {
+        FatalError.check(MaxTenuringThreshold >= 0 && MaxTenuringThreshold <= MAX_AGE, "Not a valid maximum tenuring threshold");
+        return MaxTenuringThreshold > 0 && vmConfig().monitorScheme().hasSpareMiscBitsForGCAge();
+    }
+
+    public void initialize(AgingGenHeapSizingPolicy genSizingPolicy) {
+        initialize(genSizingPolicy, true);
+    }
+
+    /**
+     * Initializes the nursery.
+     *
+     * @param genSizingPolicy the policy sizing the nursery and its survivor spaces
+     * @param aging if false, the nursery has no survivor spaces and all survivors are promoted, as if aging wasn't supported
+     */
+    public void initialize(AgingGenHeapSizingPolicy genSizingPolicy, boolean aging) {
+        survivorSize = aging && isAgingSupported() ? genSizingPolicy.survivorSize() : Size.zero();
+        nurseryRegionsList = HeapRegionList.RegionListUse.OWNERSHIP.createList();
+        uncommitedNurseryRegionsList = HeapRegionList.RegionListUse.OWNERSHIP.createList();
+        if (!heapAccount.allocateContiguous(HeapRegionConstants.numberOfRegions(genSizingPolicy.maxYoungGenSize()), nurseryRegionsList, false, false, regionTag)) {
+            FatalError.unexpected("Couldn't allocate contiguous range to the nursery");
+        }
+        int regionID = nurseryRegionsList.head();
+        int numCommittedRegions = HeapRegionConstants.numberOfRegions(genSizingPolicy.initialYoungGenSize());
+        heapAccount.commit(RegionRange.from(regionID, numCommittedRegions));
+
+        int lastCommittedRegion = regionID + numCommittedRegions - 1;
+        while (nurseryRegionsList.tail() != lastCommittedRegion) {
+            uncommitedNurseryRegionsList.prepend(nurseryRegionsList.removeTail());
+        }
+        start = RegionTable.theRegionTable().regionAddress(regionID);
+        fromSurvivorStart = start;
+        fromSurvivorTop = start;
+        toSurvivorStart = start.plus(survivorSize);
+        toSurvivorTop = toSurvivorStart;
+        tenuringThreshold = survivorSize.isZero() ? 0 : Math.min(InitialTenuringThreshold, MaxTenuringThreshold);
+
+        final Size survivorSpacesSize = survivorSize.times(2);
+        allocator.initialize(start.plus(survivorSpacesSize), genSizingPolicy.initialYoungGenSize().minus(survivorSpacesSize), Size.fromInt(HeapRegionConstants.regionSizeInBytes));
+        edenStart = allocator.start();
+        edenEnd = allocator.hardLimit();
+        // At most one range per region of the nursery.
+        pinnedRanges = new long[HeapRegionConstants.numberOfRegions(genSizingPolicy.maxYoungGenSize()) * 2];
+        numPinnedRanges = 0;
+    }
+
+    /**
+     * Gets the age of an object of the nursery.
+     * @param origin origin of the object
+     * @return the number of minor collections the object survived, or {@link #MAX_AGE} if its misc word has no room for an age.
+     */
+    @INLINE
+    static int age(Pointer origin) {
+        final LightweightLockword64 lockword = LightweightLockword64.from(Layout.readMisc(Reference.fromOrigin(origin)));
+        return lockword.isInflated() ? MAX_AGE : lockword.getGCAge();
+    }
+
+    /**
+     * Sets the age of an object whose misc word has room for an age.
+     * @param origin origin of the object
+     * @param age the new age
+     */
+    @INLINE
+    static void setAge(Pointer origin, int age) {
+        final LightweightLockword64 lockword = LightweightLockword64.from(Layout.readMisc(Reference.fromOrigin(origin)));
+        Layout.writeMisc(origin, lockword.asWithGCAge(age));
+    }
+
+    /**
+     * Indicates whether the nursery keeps survivors of minor collections in survivor spaces.
+     */
+    public boolean hasSurvivorSpaces() {
+        return !survivorSize.isZero();
+    }
+
+    /**
+     * Objects younger than the tenuring threshold are copied to the to-survivor space by minor collections.
+     */
+    @INLINE
+    int tenuringThreshold() {
+        return tenuringThreshold;
+    }
+
+    /**
+     * Allocate a buffer in the to-survivor space. Can be called concurrently by multiple evacuators.
+     *
+     * @param size size of the buffer in bytes
+     * @return the address of the buffer, or zero if the to-survivor space hasn't enough space left.
+     */
+    Pointer allocateSurvivorBuffer(Size size) {
+        final Pointer thisAddress = Reference.fromJava(this).toOrigin();
+        final Address end = toSurvivorStart.plus(survivorSize);
+        Address buffer;
+        Address newTop;
+        do {
+            buffer = toSurvivorTop;
+            newTop = buffer.plus(size);
+            if (newTop.greaterThan(end)) {
+                return Pointer.zero();
+            }
+        } while (!thisAddress.compareAndSwapWord(toSurvivorTopOffset(), buffer, newTop).equals(buffer));
+        return buffer.asPointer();
+    }
+
+    /**
+     * Indicates whether an address is in the to-survivor space.
+     */
+    @INLINE
+    boolean inToSurvivorSpace(Address address) {
+        return address.greaterEqual(toSurvivorStart) && address.lessThan(toSurvivorTop);
+    }
+
+    /**
+     * Indicates whether an address is in any part of the nursery.
+     */
+    @INLINE
+    public boolean inNursery(Address address) {
+        return address.greaterEqual(start) && address.lessThan(edenEnd);
+    }
+
+    /**
+     * Indicates whether an address is in one of the survivor spaces.
+     */
+    public boolean inSurvivorSpaces(Address address) {
+        return address.greaterEqual(start) && address.lessThan(edenStart);
+    }
+
+    /**
+     * Indicates whether an address is in a range of cells of eden kept in place by the current young collection because they overlap pinned regions.
+     */
+    @INLINE
+    boolean inPinnedRange(Address address) {
+        if (numPinnedRanges == 0) {
+            return false;
+        }
+        for (int i = 0; i < numPinnedRanges << 1; i += 2) {
+            if (address.lessThan(Address.fromLong(pinnedRanges[i]))) {
+                return false;
+            }
+            if (address.lessThan(Address.fromLong(pinnedRanges[i + 1]))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Visit the ranges of cells of eden kept in place because they overlap pinned regions.
+     */
+    void visitPinnedRanges(CellRangeVisitor visitor) {
+        for (int i = 0; i < numPinnedRanges << 1; i += 2) {
+            visitor.visitCells(Address.fromLong(pinnedRanges[i]), Address.fromLong(pinnedRanges[i + 1]));
+        }
+    }
+
+    private static Size cellSize(Pointer cell) {
+        final Pointer origin = Layout.cellToOrigin(cell);
+        return HeapFreeChunk.isHeapFreeChunkOrigin(origin) ? HeapFreeChunk.getFreechunkSize(cell) : Layout.size(origin);
+    }
+
+    @INLINE
+    private static boolean isPinned(Address address) {
+        return RegionTable.theRegionTable().inHeapAddressRegionInfo(address).isPinned();
+    }
+
+    /**
+     * Record the ranges of cells of eden that overlap pinned regions. Eden must be iterable.
+     * A cell straddling a pinned region and the region before it extends the range, so that the range can be iterated from its start.
+     */
+    private void findPinnedRanges() {
+        numPinnedRanges = 0;
+        final RegionTable regionTable = RegionTable.theRegionTable();
+        final int firstRegionID = regionTable.regionID(edenStart);
+        int lastPinnedRegionID = regionTable.regionID(edenEnd.minus(1));
+        while (lastPinnedRegionID >= firstRegionID && !HeapRegionInfo.fromRegionID(lastPinnedRegionID).isPinned()) {
+            lastPinnedRegionID--;
+        }
+        if (lastPinnedRegionID < firstRegionID) {
+            return;
+        }
+        Address limit = regionTable.regionAddress(lastPinnedRegionID).plus(HeapRegionConstants.regionSizeInBytes);
+        if (limit.greaterThan(edenEnd)) {
+            limit = edenEnd;
+        }
+        Pointer cell = edenStart.asPointer();
+        while (cell.lessThan(limit)) {
+            final Pointer next = cell.plus(cellSize(cell));
+            if (isPinned(cell) || isPinned(next.minus(1))) {
+                final int last = (numPinnedRanges << 1) - 1;
+                if (numPinnedRanges > 0 && pinnedRanges[last] == cell.toLong()) {
+                    pinnedRanges[last] = next.toLong();
+                } else {
+                    pinnedRanges[last + 1] = cell.toLong();
+                    pinnedRanges[last + 2] = next.toLong();
+                    numPinnedRanges++;
+                }
+            }
+            cell = next;
+        }
+    }
+
+    /**
+     * Keep the pinned ranges in place after a young collection. The rest of eden is formatted as dark matter,
+     * and the allocator is refilled with the largest range of eden between pinned ranges.
+     */
+    private void keepPinnedRanges() {
+        Address largestGap = edenStart;
+        Size largestGapSize = Size.zero();
+        Address gapStart = edenStart;
+        for (int i = 0; i <= numPinnedRanges << 1; i += 2) {
+            final Address gapEnd = i < numPinnedRanges << 1 ? Address.fromLong(pinnedRanges[i]) : edenEnd;
+            final Size gapSize = gapEnd.minus(gapStart).asSize();
+            if (!gapSize.isZero()) {
+                DarkMatter.format(gapStart, gapSize);
+                if (gapSize.greaterThan(largestGapSize)) {
+                    largestGap = gapStart;
+                    largestGapSize = gapSize;
+                }
+            }
+            if (i < numPinnedRanges << 1) {
+                gapStart = Address.fromLong(pinnedRanges[i + 1]);
+            }
+        }
+        allocator.refill(largestGap, largestGapSize);
+    }
+
+    /**
+     * Format as dark matter the cells of the pinned ranges that a full marking of the heap found unreachable.
+     * The pinned ranges are kept in place by young collections, and their dead cells may otherwise keep references to reclaimed cells.
+     * Must be called once marking is complete, before the marked space is swept.
+     *
+     * @param heapMarker the heap marker that marked the heap
+     */
+    public void clearDeadPinnedCells(TricolorHeapMarker heapMarker) {
+        for (int i = 0; i < numPinnedRanges << 1; i += 2) {
+            final Address end = Address.fromLong(pinnedRanges[i + 1]);
+            Pointer cell = Pointer.fromLong(pinnedRanges[i]);
+            Pointer deadStart = Pointer.zero();
+            while (cell.lessThan(end)) {
+                final Pointer next = cell.plus(cellSize(cell));
+                if (heapMarker.isBlackWhenNoGreys(cell)) {
+                    if (!deadStart.isZero()) {
+                        DarkMatter.format(deadStart, cell.minus(deadStart).asSize());
+                        deadStart = Pointer.zero();
+                    }
+                } else if (deadStart.isZero()) {
+                    deadStart = cell;
+                }
+                cell = next;
+            }
+            if (!deadStart.isZero()) {
+                DarkMatter.format(deadStart, end.minus(deadStart).asSize());
+            }
+        }
+    }
+
+    /**
+     * Account for survivors copied to the to-survivor space. Must be called by each evacuator once evacuation is done, before the
+     * nursery's {@link #doAfterGC()} computes the next tenuring threshold.
+     *
+     * @param bytesPerAge number of bytes of survivors of each age the evacuator copied to the to-survivor space
+     */
+    void recordSurvivorBytes(long[] bytesPerAge) {
+        for (int age = 1; age <= MAX_AGE; age++) {
+            survivorBytesPerAge[age] += bytesPerAge[age];
+        }
+    }
+
+    private void adjustTenuringThreshold() {
+        final long desiredSurvivorBytes = survivorSize.toLong() / 100 * TargetSurvivorRatio;
+        long survivorBytes = 0L;
+        int age = 1;
+        while (age < MaxTenuringThreshold) {
+            survivorBytes += survivorBytesPerAge[age];
+            if (survivorBytes > desiredSurvivorBytes) {
+                break;
+            }
+            age++;
+        }
+        tenuringThreshold = age;
+        if (PrintTenuringDistribution) {
+            final boolean lockDisabledSafepoints = Log.lock();
+            Log.print("Desired survivor size ");
+            Log.print(desiredSurvivorBytes);
+            Log.print(" bytes, new threshold ");
+            Log.print(tenuringThreshold);
+            Log.print(" (max ");
+            Log.print(MaxTenuringThreshold);
+            Log.println(")");
+            for (int i = 1; i <= MAX_AGE; i++) {
+                if (survivorBytesPerAge[i] != 0L) {
+                    Log.print("- age ");
+                    Log.print(i);
+                    Log.print(": ");
+                    Log.print(survivorBytesPerAge[i]);
+                    Log.println(" bytes");
+                }
+            }
+            Log.unlock(lockDisabledSafepoints);
+        }
+        for (int i = 0; i <= MAX_AGE; i++) {
+            survivorBytesPerAge[i] = 0L;
+        }
+    }
+
+    public Pointer allocate(Size size) {
+        if (!BackgroundZeroer.isEnabled()) {
+            return allocator.allocateCleared(size);
+        }
+        return allocateZeroed(size);
+    }
+
+    /**
+     * Allocate a zero-filled cell, only clearing it if it isn't in the range of eden zeroed in the background.
+     */
+    @NO_SAFEPOINT_POLLS("object allocation and initialization must be atomic")
+    private Pointer allocateZeroed(Size size) {
+        final Pointer cell = allocator.allocateRaw(size);
+        final Address cellEnd = cell.plus(size);
+        // The compare-and-swap of the allocator's top orders the reads below after the allocation.
+        // If the zeroer claimed a chunk the cell overlaps, wait for it to finish zeroing it, or give it up (see zeroNextChunk).
+        if (zeroingEnd.greaterThan(zeroedEnd) && cellEnd.greaterThan(zeroedEnd)) {
+            HeapRegionStatistics.recordAllocationZeroingWait();
+            while (zeroingEnd.greaterThan(zeroedEnd)) {
+                Intrinsics.pause();
+            }
+        }
+        final Address end = zeroedEnd;
+        if (cellEnd.greaterThan(end) || cell.lessThan(zeroedStart)) {
+            Memory.clearWords(cell, size.unsignedShiftedRight(Word.widthValue().log2numberOfBytes).toInt());
+        }
+        return cell;
+    }
+
+    /**
+     * Reset the range of eden zeroed in the background. Must be called when eden is emptied or resized, with mutators stopped.
+     */
+    private void resetZeroedRange() {
+        final Address top = allocator.unsafeTop();
+        zeroedStart = top;
+        zeroedEnd = top;
+        zeroingEnd = top;
+    }
+
+    /**
+     * Zero the next chunk of eden above the allocation hand. Called by the {@link BackgroundZeroer} with safepoints disabled.
+     * <p>
+     * The zeroer claims a chunk by setting {@link #zeroingEnd}, then checks that allocation hasn't reached the chunk. Allocating threads
+     * update the allocator's top before checking for a claim. Either the zeroer sees that a thread allocated in the chunk and gives it up,
+     * or the thread sees the claim and waits for the chunk to be zeroed before initializing its cell.
+     *
+     * @return false if there's nothing left to zero in eden
+     */
+    boolean zeroNextChunk() {
+        final Address limit = allocator.hardLimit();
+        Address chunkStart = zeroedEnd;
+        final Address top = allocator.unsafeTop();
+        if (top.greaterThan(chunkStart)) {
+            // Allocation caught up with the zeroed range: restart it at the allocation hand.
+            chunkStart = top;
+            zeroedStart = chunkStart;
+            zeroedEnd = chunkStart;
+            zeroingEnd = chunkStart;
+        }
+        if (chunkStart.greaterEqual(limit)) {
+            return false;
+        }
+        Address chunkEnd = chunkStart.plus(HeapRegionConstants.regionSizeInBytes).roundedDownBy(HeapRegionConstants.regionSizeInBytes);
+        if (chunkEnd.greaterThan(limit)) {
+            chunkEnd = limit;
+        }
+        zeroingEnd = chunkEnd;
+        MemoryBarriers.barrier(MemoryBarriers.STORE_LOAD);
+        if (allocator.unsafeTop().greaterThan(chunkStart)) {
+            zeroingEnd = chunkStart;
+            HeapRegionStatistics.recordAbandonedChunk();
+            return true;
+        }
+        final Size chunkSize = chunkEnd.minus(chunkStart).asSize();
+        Memory.clearWords(chunkStart.asPointer(), chunkSize.unsignedShiftedRight(Word.widthValue().log2numberOfBytes).toInt());
+        zeroedEnd = chunkEnd;
+        HeapRegionStatistics.recordZeroedChunk(chunkSize);
+        return true;
+    }
+
+    /**
+     * Indicates whether eden can be resized, i.e., whether a minor collection just emptied it and didn't keep any pinned cells in place.
+     */
+    private boolean isEdenResizable() {
+        return numPinnedRanges == 0 && allocator.start().equals(edenStart) && allocator.usedSpace().isZero();
+    }
+
+    private void resizeEden(Address newEdenEnd) {
+        edenEnd = newEdenEnd;
+        allocator.refill(edenStart, edenEnd.minus(edenStart).asSize());
+        resetZeroedRange();
+    }
+
+    /**
+     * Grow eden by committing regions of the nursery's reserve. Eden can only grow right after a minor collection emptied it.
+     */
+    @Override
+    public Size increaseSize(Size delta) {
+        if (!isEdenResizable()) {
+            return Size.zero();
+        }
+        final int numRegions = Math.min(HeapRegionConstants.numberOfRegions(delta), uncommitedNurseryRegionsList.size());
+        if (numRegions == 0) {
+            return Size.zero();
+        }
+        final int firstRegion = uncommitedNurseryRegionsList.head();
+        for (int i = 0; i < numRegions; i++) {
+            nurseryRegionsList.append(uncommitedNurseryRegionsList.removeHead());
+        }
+        heapAccount.commit(RegionRange.from(firstRegion, numRegions));
+        final Size growth = Size.fromInt(numRegions).shiftedLeft(HeapRegionConstants.log2RegionSizeInBytes);
+        resizeEden(edenEnd.plus(growth));
+        return growth;
+    }
+
+    /**
+     * Shrink eden by uncommitting its last regions, keeping at least one region. Eden can only shrink right after a minor collection emptied it.
+     */
+    @Override
+    public Size decreaseSize(Size delta) {
+        if (!isEdenResizable()) {
+            return Size.zero();
+        }
+        final int numEdenRegions = HeapRegionConstants.numberOfRegions(edenEnd.minus(edenStart).asSize());
+        final int numRegions = Math.min(HeapRegionConstants.numberOfRegions(delta), numEdenRegions - 1);
+        if (numRegions <= 0) {
+            return Size.zero();
+        }
+        for (int i = 0; i < numRegions; i++) {
+            uncommitedNurseryRegionsList.prepend(nurseryRegionsList.removeTail());
+        }
+        heapAccount.uncommit(RegionRange.from(uncommitedNurseryRegionsList.head(), numRegions));
+        final Size shrinkage = Size.fromInt(numRegions).shiftedLeft(HeapRegionConstants.log2RegionSizeInBytes);
+        resizeEden(edenEnd.minus(shrinkage));
+        return shrinkage;
+    }
+
+    /**
+     * Uncommit the regions at the end of eden that the allocator hasn't reached yet, keeping at least one region.
+     * Unlike {@link #decreaseSize(Size)}, this doesn't require eden to be empty, but it must be called at a safepoint.
+     * Eden can grow back with {@link #increaseSize(Size)} once the next minor collection has emptied it.
+     *
+     * @return the number of bytes uncommitted
+     */
+    public Size uncommitUnusedEden() {
+        if (numPinnedRanges > 0) {
+            return Size.zero();
+        }
+        final Address minEdenEnd = edenStart.plus(HeapRegionConstants.regionSizeInBytes);
+        Address newEdenEnd = allocator.top.plus(BaseAtomicBumpPointerAllocator.headroom().times(2)).roundedUpBy(HeapRegionConstants.regionSizeInBytes);
+        if (newEdenEnd.lessThan(minEdenEnd)) {
+            newEdenEnd = minEdenEnd;
+        }
+        if (newEdenEnd.greaterEqual(edenEnd)) {
+            return Size.zero();
+        }
+        final Size shrinkage = edenEnd.minus(newEdenEnd).asSize();
+        if (!allocator.shrink(shrinkage)) {
+            return Size.zero();
+        }
+        final int numRegions = shrinkage.unsignedShiftedRight(HeapRegionConstants.log2RegionSizeInBytes).toInt();
+        for (int i = 0; i < numRegions; i++) {
+            uncommitedNurseryRegionsList.prepend(nurseryRegionsList.removeTail());
+        }
+        heapAccount.uncommit(RegionRange.from(uncommitedNurseryRegionsList.head(), numRegions));
+        edenEnd = newEdenEnd;
+        resetZeroedRange();
+        return shrinkage;
+    }
+
+    /**
+     * Space a minor collection may have to promote in the worst case, i.e., eden and a full survivor space.
+     */
+    @Override
+    public Size totalSpace() {
+        return edenEnd.minus(edenStart).asSize().plus(survivorSize);
+    }
+
+    @Override
+    public Size capacity() {
+        return Size.fromInt(HeapRegionConstants.regionSizeInBytes).times(uncommitedNurseryRegionsList.size()).plus(edenEnd.minus(edenStart)).plus(survivorSize.times(2));
+    }
+
+    @Override
+    public Pointer allocateTLAB(Size size) {
+        final Pointer tlab = allocator.allocateRaw(size);
+        HeapFreeChunk.format(tlab, size);
+        return tlab;
+    }
+
+    public void retireTLAB(Pointer start, Size size) {
+        FatalError.check(allocator.inCurrentContiguousChunk(start), "Retired TLAB Space must be in allocating space");
+        if (!allocator.retireTop(start, size)) {
+            DarkMatter.format(start, size);
+        }
+    }
+
+    /**
+     * Indicates whether an address is in eden, outside of the cells kept in place because they overlap pinned regions.
+     * Use {@link #bounds()} to test whether an address is in the evacuated part of the nursery.
+     */
+    @Override
+    public boolean contains(Address address) {
+        return address.greaterEqual(edenStart) && address.lessThan(edenEnd) && !inPinnedRange(address);
+    }
+
+    @Override
+    public void doBeforeGC() {
+        allocator.doBeforeGC();
+        toSurvivorTop = toSurvivorStart;
+        findPinnedRanges();
+    }
+
+    @Override
+    public void doAfterGC() {
+        if (numPinnedRanges > 0) {
+            keepPinnedRanges();
+        } else {
+            if (!allocator.start().equals(edenStart)) {
+                allocator.refill(edenStart, edenEnd.minus(edenStart).asSize());
+            }
+            if (MaxineVM.isDebug()) {
+                allocator.zap();
+            }
+            allocator.reset();
+        }
+        resetZeroedRange();
+        if (hasSurvivorSpaces()) {
+            // The to-survivor space now holds all the survivors that weren't tenured: swap the survivor spaces.
+            final Address survivorStart = fromSurvivorStart;
+            fromSurvivorStart = toSurvivorStart;
+            fromSurvivorTop = toSurvivorTop;
+            toSurvivorStart = survivorStart;
+            toSurvivorTop = survivorStart;
+            adjustTenuringThreshold();
+        }
+    }
+
+    @Override
+    public Size freeSpace() {
+        return allocator.freeSpace();
+    }
+
+    @Override
+    public Size usedSpace() {
+        // Eden outside of the allocator's chunk holds the cells kept in place by the last minor collection.
+        final Size keptSpace = edenEnd.minus(edenStart).minus(allocator.size()).asSize();
+        return allocator.usedSpace().plus(keptSpace).plus(fromSurvivorTop.minus(fromSurvivorStart));
+    }
+
+    /**
+     * Visit the survivors of the last minor collection, including the cells of eden it kept in place because they overlap pinned regions.
+     */
+    public void visitSurvivors(CellRangeVisitor visitor) {
+        if (fromSurvivorTop.greaterThan(fromSurvivorStart)) {
+            visitor.visitCells(fromSurvivorStart, fromSurvivorTop);
+        }
+        visitPinnedRanges(visitor);
+    }
+
+    @Override
+    public void visit(CellRangeVisitor visitor) {
+        if (fromSurvivorTop.greaterThan(fromSurvivorStart)) {
+            visitor.visitCells(fromSurvivorStart, fromSurvivorTop);
+        }
+        if (allocator.start().greaterThan(edenStart)) {
+            visitor.visitCells(edenStart, allocator.start());
+        }
+        visitor.visitCells(allocator.start(), allocator.top);
+        if (allocator.hardLimit().lessThan(edenEnd)) {
+            visitor.visitCells(allocator.hardLimit(), edenEnd);
+        }
+    }
+
+    @Override
+    public SpaceBounds bounds() {
+        return bounds;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.heap.gcx;
+
+import com.sun.max.annotate.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.MaxineVM.Phase;
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.monitor.modal.sync.*;
+import com.sun.max.vm.runtime.*;
+
+/**
+ * Thread zeroing in the background the free space of an {@link AgingRegionalizedNursery}'s eden, ahead of the allocation hand,
+ * so that the allocations of mutators, and TLAB refills in particular, don't have to clear the space they obtain.
+ * The thread is woken up after each collection and zeroes eden one region-sized chunk at a time (see {@link AgingRegionalizedNursery#zeroNextChunk()}).
+ * It is a regular thread that stops at safepoints, but never while zeroing a chunk. Zeroing times are recorded in the {@link HeapRegionStatistics}.
+ */
+public final class BackgroundZeroer extends Thread {
+    /**
+     * Enables the zeroing of eden in the background.
+     */
+    static boolean BackgroundZeroing = false;
+    static {
+        VMOptions.addFieldOption("-XX:", "BackgroundZeroing", BackgroundZeroer.class,
+                        "Zero the free space of the young generation in the background, ahead of allocation", Phase.PRISTINE);
+    }
+
+    private static final Object BACKGROUND_ZEROER_LOCK = JavaMonitorManager.newVmLock("BACKGROUND_ZEROER_LOCK");
+
+    private final AgingRegionalizedNursery nursery;
+
+    /**
+     * Number of collections the zeroer was notified of. Incremented under the {@link #BACKGROUND_ZEROER_LOCK}.
+     */
+    private long notifications;
+
+    public BackgroundZeroer(AgingRegionalizedNursery nursery) {
+        super("BackgroundZeroer");
+        setDaemon(true);
+        this.nursery = nursery;
+    }
+
+    @INLINE
+    public static boolean isEnabled() {
+        return BackgroundZeroing;
+    }
+
+    @Override
+    public void run() {
+        long lastNotification = 0L;
+        while (true) {
+            synchronized (BACKGROUND_ZEROER_LOCK) {
+                while (notifications == lastNotification) {
+                    try {
+                        BACKGROUND_ZEROER_LOCK.wait();
+                    } catch (InterruptedException e) {
+                    }
+                }
+                lastNotification = notifications;
+            }
+            while (zeroNextChunk()) {
+                // keep zeroing
+            }
+            if (Heap.verbose()) {
+                HeapRegionStatistics.reportZeroingStats();
+            }
+        }
+    }
+
+    private boolean zeroNextChunk() {
+        final boolean wasDisabled = SafepointPoll.disable();
+        final long start = System.nanoTime();
+        final boolean moreChunks = nursery.zeroNextChunk();
+        HeapRegionStatistics.recordZeroingTime(System.nanoTime() - start);
+        if (!wasDisabled) {
+            SafepointPoll.enable();
+        }
+        return moreChunks;
+    }
+
+    /**
+     * Start the zeroer if {@link #BackgroundZeroing} is enabled. Must be called once the VM reached the {@link Phase#STARTING} phase.
+     */
+    public void startIfEnabled() {
+        if (BackgroundZeroing) {
+            start();
+            notifyZeroer();
+        }
+    }
+
+    /**
+     * Wake up the zeroer. Must not be called by the VM operation thread: it is meant to be called by the thread that requested a GC, once the GC is over.
+     */
+    public void notifyZeroer() {
+        if (BackgroundZeroing) {
+            synchronized (BACKGROUND_ZEROER_LOCK) {
+                notifications++;
+                BACKGROUND_ZEROER_LOCK.notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.heap.gcx;
+
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.MaxineVM.Phase;
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.heap.gcx.EvacuatingSpace.SpaceBounds;
+import com.sun.max.vm.heap.gcx.rset.ctbl.*;
+import com.sun.max.vm.runtime.*;
+
+/**
+ * Concurrent refinement of the cards dirtied by mutators, to shorten the card scanning of minor collections.
+ * <p>
+ * While refinement is enabled, the post-write barrier records on the {@link DirtyCardQueue} the cards it turns dirty.
+ * Refinement threads poll the queue's completed buffers and {@linkplain CardTableRSet#refineCard refine} each recorded card:
+ * cards whose words don't refer to the young generation are cleaned, the others are left dirty. The card table remains the remembered set,
+ * so that a minor collection only scans the cards left dirty by the refinement, and the cards recorded but not refined yet.
+ * The queue is emptied at the beginning of each collection, since the evacuation cleans all the cards it scans anyway.
+ * <p>
+ * Refinement threads are regular daemon threads that stop at safepoints, but never while refining a buffer,
+ * so that a collection never finds a card in the transient {@link CardState#REFINING_CARD refining} state, nor moves the young generation
+ * while a card is compared against it.
+ */
+public final class ConcurrentCardRefiner {
+    /**
+     * Number of refinement threads. Zero disables concurrent refinement.
+     */
+    static int ConcurrentRefinementThreads = 0;
+    /**
+     * Interval, in milliseconds, at which idle refinement threads poll the dirty card queue.
+     */
+    static int ConcurrentRefinementIntervalMillis = 10;
+    static {
+        VMOptions.addFieldOption("-XX:", "ConcurrentRefinementThreads", ConcurrentCardRefiner.class,
+                        "Number of threads refining the cards dirtied by mutators concurrently (0 to disable)", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "ConcurrentRefinementIntervalMillis", ConcurrentCardRefiner.class,
+                        "Interval, in milliseconds, at which idle refinement threads check for dirty cards to refine", Phase.PRISTINE);
+    }
+
+    private final CardTableRSet cardTableRSet;
+
+    /**
+     * Bounds of the young generation. Cards referring to it are left dirty.
+     */
+    private final SpaceBounds youngBounds;
+
+    private RefinementThread [] refinementThreads;
+
+    private final class RefinementThread extends Thread implements Pointer.Procedure {
+        private Address youngStart;
+        private Address youngEnd;
+        long refinedCards;
+        long cleanedCards;
+
+        RefinementThread(int id) {
+            super("ConcurrentCardRefiner-" + id);
+            setDaemon(true);
+        }
+
+        public void run(Pointer cardEntry) {
+            refinedCards++;
+            if (cardTableRSet.refineCard(cardEntry, youngStart, youngEnd)) {
+                cleanedCards++;
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                while (refineNextBuffer()) {
+                    // keep refining
+                }
+                try {
+                    Thread.sleep(ConcurrentRefinementIntervalMillis);
+                } catch (InterruptedException e) {
+                }
+            }
+        }
+
+        private boolean refineNextBuffer() {
+            // Safepoints are disabled while refining a buffer, so that the young generation doesn't change under the refinement.
+            final boolean wasDisabled = SafepointPoll.disable();
+            youngStart = youngBounds.lowestAddress();
+            youngEnd = youngBounds.highestAddress().plus(1);
+            final boolean refined = DirtyCardQueue.drainOne(this);
+            if (!wasDisabled) {
+                SafepointPoll.enable();
+            }
+            return refined;
+        }
+    }
+
+    public ConcurrentCardRefiner(CardTableRSet cardTableRSet, EvacuatingSpace youngSpace) {
+        this.cardTableRSet = cardTableRSet;
+        this.youngBounds = youngSpace.bounds();
+    }
+
+    public static boolean isEnabled() {
+        return ConcurrentRefinementThreads > 0;
+    }
+
+    /**
+     * Activate the dirty card queue and start the refinement threads if {@link #ConcurrentRefinementThreads} is set.
+     * Must be called once the VM reached the {@link Phase#STARTING} phase.
+     */
+    public void start() {
+        if (isEnabled() && refinementThreads == null) {
+            DirtyCardQueue.activate();
+            refinementThreads = new RefinementThread[ConcurrentRefinementThreads];
+            for (int i = 0; i < refinementThreads.length; i++) {
+                refinementThreads[i] = new RefinementThread(i);
+                refinementThreads[i].start();
+            }
+        }
+    }
+
+    /**
+     * Discard the cards recorded but not refined. Must be called at the beginning of a collection, when mutators are stopped.
+     */
+    public void discardRecordedCards() {
+        if (refinementThreads != null) {
+            if (Heap.verbose()) {
+                long refinedCards = 0L;
+                long cleanedCards = 0L;
+                for (RefinementThread thread : refinementThreads) {
+                    refinedCards += thread.refinedCards;
+                    cleanedCards += thread.cleanedCards;
+                }
+                final boolean lockDisabledSafepoints = Log.lock();
+                Log.print("--Concurrent refinement, refined cards: ");
+                Log.print(refinedCards);
+                Log.print(", cleaned: ");
+                Log.print(cleanedCards);
+                Log.print(", pending buffers: ");
+                Log.println(DirtyCardQueue.numCompletedBuffers());
+                Log.unlock(lockDisabledSafepoints);
+            }
+            DirtyCardQueue.discardAll();
+        }
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.heap.gcx;
+
+import com.sun.max.memory.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.MaxineVM.Phase;
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.monitor.modal.sync.*;
+import com.sun.max.vm.runtime.*;
+import com.sun.max.vm.thread.*;
+
+/**
+ * Snapshot-at-the-beginning (SATB) concurrent marking of a mark-sweep space with a {@link TricolorHeapMarker}.
+ * <p>
+ * A cycle begins with a short stop-the-world <em>initial mark</em> that clears the color map, marks grey the cells referenced
+ * from the roots and activates the {@link SATBQueue SATB pre-write barrier}. A dedicated marker thread then traces the heap
+ * concurrently with the mutators, repeatedly draining the completed SATB buffers until no new grey cells are found. The cycle
+ * ends with a short stop-the-world <em>remark</em> that flushes and drains the SATB buffers of all threads, completes the trace,
+ * deactivates the barrier and processes the special references discovered during the cycle. The space can then be swept using the color map.
+ * <p>
+ * Cells of a nursery collected while the cycle is in progress are excluded from the trace (see {@link TricolorHeapMarker#setUntracedArea(Address, Address)}).
+ * Cells promoted from the nursery during the cycle are marked black by the evacuator, so the objects allocated in the marked space during the cycle
+ * all survive it. The survivors an {@linkplain AgingRegionalizedNursery aging nursery} keeps across young collections are scanned as roots by the initial mark.
+ * <p>
+ * The marker thread is a GC worker thread: it isn't stopped at safepoints and its stack isn't scanned. Instead, stop-the-world collections
+ * {@linkplain #pauseTracing() pause} tracing, which the marker thread only lets happen between two grey cells, while it isn't holding any
+ * reference to a movable object. Special references are not discovered while tracing concurrently: they are recorded in an off-heap array and
+ * handed over to the {@link SpecialReferenceManager} at remark time.
+ */
+public final class ConcurrentMarker {
+    /**
+     * Capacity of the array recording the special references discovered during a concurrent marking cycle.
+     */
+    static int ConcurrentMarkingDeferredReferences = 16 * 1024;
+    static {
+        VMOptions.addFieldOption("-XX:", "ConcurrentMarkingDeferredReferences", ConcurrentMarker.class,
+                        "Maximum number of special references whose discovery can be deferred during a concurrent marking cycle. " +
+                        "Referents of special references beyond that number are treated as strongly reachable for the cycle", Phase.PRISTINE);
+    }
+
+    private static enum CycleState {
+        /**
+         * No concurrent marking cycle is in progress.
+         */
+        IDLE,
+        /**
+         * The initial mark is done and the marker thread is tracing the heap.
+         */
+        TRACING,
+        /**
+         * The marker thread reached the end of the trace. The cycle is ready for remark.
+         */
+        FINISHED
+    }
+
+    /**
+     * Thrown by the marker thread to itself to abandon an aborted cycle.
+     */
+    private static final class AbortedCycle extends Error {
+        private static final long serialVersionUID = 1L;
+
+        private AbortedCycle() {
+            super("concurrent marking cycle aborted");
+        }
+    }
+
+    private static final AbortedCycle abortedCycle = new AbortedCycle();
+
+    private final class MarkerThread extends Thread {
+        MarkerThread() {
+            super("ConcurrentMarker");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            // Immortal allocation is enabled per thread: the marker thread must enable it for itself, for its whole lifetime,
+            // so that whatever it allocates between cycles (e.g., when waiting on the lock) isn't left in the heap.
+            Heap.enableImmortalMemoryAllocation();
+            VmThread.current().setAsGCWorkerThread();
+            while (true) {
+                synchronized (lock) {
+                    while (state != CycleState.TRACING || markerCycle == cycle) {
+                        try {
+                            lock.wait();
+                        } catch (InterruptedException e) {
+                        }
+                    }
+                    markerCycle = cycle;
+                }
+                Heap.disableAllocationForCurrentThread();
+                trace();
+                Heap.enableAllocationForCurrentThread();
+            }
+        }
+    }
+
+    private static final Object lock = JavaMonitorManager.newVmLock("CONCURRENT_MARKER_LOCK");
+
+    private final TricolorHeapMarker heapMarker;
+
+    /**
+     * Account of the space being marked. The trace covers the regions committed to it.
+     */
+    private final HeapAccount<?> heapAccount;
+
+    private final HeapRegionRangeIterable regionsRanges = new HeapRegionRangeIterable();
+
+    private MarkerThread markerThread;
+
+    private volatile CycleState state = CycleState.IDLE;
+
+    /**
+     * Number of concurrent marking cycles started so far, including the current one.
+     */
+    private volatile int cycle;
+
+    /**
+     * Cycle being traced by the marker thread.
+     */
+    private int markerCycle;
+
+    /**
+     * Set when a stop-the-world pause waits for the marker thread to stop tracing.
+     */
+    private volatile boolean pauseRequested;
+
+    /**
+     * Held by the marker thread while it traces, and by the VM operation thread while tracing is paused.
+     */
+    private final SpinLock tracingLock = new SpinLock();
+
+    /**
+     * Indicates whether the heap marker must defer the discovery of special references.
+     */
+    private boolean deferSpecialReferences;
+
+    /**
+     * Off-heap array of the cells of the special references discovered during the current cycle.
+     */
+    private Pointer deferredReferences = Pointer.zero();
+
+    private int numDeferredReferences;
+
+    public ConcurrentMarker(TricolorHeapMarker heapMarker, HeapAccount<?> heapAccount) {
+        this.heapMarker = heapMarker;
+        this.heapAccount = heapAccount;
+    }
+
+    /**
+     * Start the marker thread. Must be called once the VM reached the {@link Phase#STARTING} phase.
+     */
+    public void start() {
+        FatalError.check(markerThread == null, "concurrent marker already started");
+        final Size size = Size.fromInt(Math.max(ConcurrentMarkingDeferredReferences, 1)).shiftedLeft(Word.widthValue().log2numberOfBytes);
+        deferredReferences = Memory.allocate(size);
+        if (deferredReferences.isZero()) {
+            MaxineVM.reportPristineMemoryFailure("concurrent marking deferred references", "allocate", size);
+        }
+        heapMarker.concurrentMarker = this;
+        // The thread and its VmThread must be immortal as they aren't visited by the GC.
+        Heap.enableImmortalMemoryAllocation();
+        markerThread = new MarkerThread();
+        markerThread.start();
+        Heap.disableImmortalMemoryAllocation();
+    }
+
+    /**
+     * Indicates whether a concurrent marking cycle is in progress.
+     */
+    public boolean isMarking() {
+        return state != CycleState.IDLE;
+    }
+
+    /**
+     * Indicates whether the marker thread completed the trace of the current cycle, which is therefore ready for {@linkplain #remark() remark}.
+     */
+    public boolean isFinished() {
+        return state == CycleState.FINISHED;
+    }
+
+    boolean defersSpecialReferences() {
+        return deferSpecialReferences;
+    }
+
+    /**
+     * Record a special reference discovered by the trace.
+     *
+     * @param cell cell of the special reference
+     * @return false if there is no room left to record the special reference
+     */
+    boolean deferSpecialReference(Pointer cell) {
+        if (numDeferredReferences >= ConcurrentMarkingDeferredReferences) {
+            return false;
+        }
+        deferredReferences.setWord(numDeferredReferences++, cell);
+        return true;
+    }
+
+    /**
+     * Called by the heap marker before visiting a grey cell. Blocks the marker thread while a stop-the-world pause is in progress.
+     */
+    void yieldIfPauseRequested() {
+        if (pauseRequested && VmThread.current() == VmThread.fromJava(markerThread)) {
+            tracingLock.unlock();
+            synchronized (lock) {
+                while (pauseRequested) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                    }
+                }
+            }
+            tracingLock.lock();
+            if (markerCycle != cycle || state != CycleState.TRACING) {
+                throw abortedCycle;
+            }
+        }
+    }
+
+    /**
+     * Trace the heap concurrently with the mutators until the completed SATB buffers don't yield any new grey cells.
+     */
+    private void trace() {
+        tracingLock.lock();
+        try {
+            if (markerCycle == cycle && state == CycleState.TRACING) {
+                do {
+                    regionsRanges.initialize(heapAccount.committedRegions());
+                    heapMarker.visitGreyObjectsFromFinger(regionsRanges);
+                } while (heapMarker.markSATBEntriesGrey());
+                state = CycleState.FINISHED;
+            }
+        } catch (AbortedCycle e) {
+            // The cycle was aborted while the marker thread was paused.
+        } finally {
+            tracingLock.unlock();
+        }
+    }
+
+    /**
+     * Stop the marker thread from tracing until {@link #resumeTracing()} is called. Must be called by the VM operation thread
+     * before any stop-the-world collection of the heap.
+     */
+    public void pauseTracing() {
+        if (markerThread == null) {
+            return;
+        }
+        pauseRequested = true;
+        tracingLock.lock();
+    }
+
+    /**
+     * Let the marker thread resume tracing after a stop-the-world collection.
+     */
+    public void resumeTracing() {
+        if (markerThread == null) {
+            return;
+        }
+        tracingLock.unlock();
+        synchronized (lock) {
+            pauseRequested = false;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Initial mark of a new concurrent marking cycle. Must be called with mutators stopped, and tracing {@linkplain #pauseTracing() paused}.
+     *
+     * @param nursery a contiguous nursery, whose cells are excluded from the trace
+     * @param promotedCellsMarker evacuator promoting cells to the marked space during the cycle
+     */
+    public void initialMark(EvacuatingSpace nursery, EvacuatorToCardSpace promotedCellsMarker) {
+        FatalError.check(state == CycleState.IDLE, "concurrent marking cycle already in progress");
+        final EvacuatingSpace.SpaceBounds nurseryBounds = nursery.bounds();
+        FatalError.check(nurseryBounds.isContiguous(), "concurrent marking requires a contiguous nursery");
+        // The highest address of the space bounds is inclusive.
+        heapMarker.setUntracedArea(nurseryBounds.lowestAddress(), nurseryBounds.highestAddress().plus(1));
+        startCycle(null, promotedCellsMarker);
+    }
+
+    /**
+     * Initial mark of a new concurrent marking cycle with an aging nursery. The whole nursery, survivor spaces included, is excluded from the trace,
+     * and the survivors of the nursery are treated as roots. Must be called with mutators stopped, and tracing {@linkplain #pauseTracing() paused}.
+     *
+     * @param nursery an aging nursery, whose cells are excluded from the trace
+     * @param promotedCellsMarker evacuator promoting cells to the marked space during the cycle
+     */
+    public void initialMark(AgingRegionalizedNursery nursery, EvacuatorToCardSpace promotedCellsMarker) {
+        FatalError.check(state == CycleState.IDLE, "concurrent marking cycle already in progress");
+        final EvacuatingSpace.SpaceBounds nurseryBounds = nursery.bounds();
+        heapMarker.setUntracedArea(nurseryBounds.lowestAddress(), nurseryBounds.highestAddress().plus(1));
+        startCycle(nursery, promotedCellsMarker);
+    }
+
+    private void startCycle(AgingRegionalizedNursery nursery, EvacuatorToCardSpace promotedCellsMarker) {
+        numDeferredReferences = 0;
+        deferSpecialReferences = true;
+        heapMarker.markRootsOfConcurrentCycle(nursery);
+        SATBQueue.activate();
+        promotedCellsMarker.setPromotedCellsMarker(heapMarker);
+        synchronized (lock) {
+            cycle++;
+            state = CycleState.TRACING;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Remark ending the current concurrent marking cycle. Completes the trace of the marked space, which can be swept afterwards.
+     * Must be called with mutators stopped, and tracing {@linkplain #pauseTracing() paused}, once the cycle {@linkplain #isFinished() is finished}.
+     *
+     * @param promotedCellsMarker evacuator promoting cells to the marked space during the cycle
+     */
+    public void remark(EvacuatorToCardSpace promotedCellsMarker) {
+        FatalError.check(state == CycleState.FINISHED, "concurrent marking cycle must be finished");
+        regionsRanges.initialize(heapAccount.committedRegions());
+        SATBQueue.flushAll();
+        while (heapMarker.markSATBEntriesGrey()) {
+            regionsRanges.reset();
+            heapMarker.visitGreyObjectsFromFinger(regionsRanges);
+        }
+        SATBQueue.deactivate();
+        deferSpecialReferences = false;
+        for (int i = 0; i < numDeferredReferences; i++) {
+            SpecialReferenceManager.discoverSpecialReference(deferredReferences.getWord(i).asPointer());
+        }
+        numDeferredReferences = 0;
+        heapMarker.processSpecialReferencesOfConcurrentCycle(regionsRanges);
+        endCycle(promotedCellsMarker);
+    }
+
+    /**
+     * Abandon the current concurrent marking cycle, if any. Used when a full collection of the marked space must take place
+     * before the end of the cycle. Must be called with mutators stopped, and tracing {@linkplain #pauseTracing() paused}.
+     *
+     * @param promotedCellsMarker evacuator promoting cells to the marked space during the cycle
+     */
+    public void abort(EvacuatorToCardSpace promotedCellsMarker) {
+        if (state == CycleState.IDLE) {
+            return;
+        }
+        SATBQueue.deactivate();
+        deferSpecialReferences = false;
+        numDeferredReferences = 0;
+        endCycle(promotedCellsMarker);
+    }
+
+    private void endCycle(EvacuatorToCardSpace promotedCellsMarker) {
+        heapMarker.clearUntracedArea();
+        promotedCellsMarker.setPromotedCellsMarker(null);
+        synchronized (lock) {
+            state = CycleState.IDLE;
+        }
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.heap.gcx;
+
+import static com.sun.max.platform.Platform.*;
+import static com.sun.max.vm.runtime.amd64.AMD64SafepointPoll.*;
+import static com.sun.max.vm.thread.VmThread.*;
+import static com.sun.max.vm.thread.VmThreadLocal.*;
+
+import com.sun.cri.ci.*;
+import com.sun.cri.xir.*;
+import com.sun.cri.xir.CiXirAssembler.XirConstant;
+import com.sun.cri.xir.CiXirAssembler.XirLabel;
+import com.sun.cri.xir.CiXirAssembler.XirOperand;
+import com.sun.max.annotate.*;
+import com.sun.max.memory.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.compiler.*;
+import com.sun.max.vm.heap.XirWriteBarrierSpecification.XirRuntimeCallStubs;
+import com.sun.max.vm.runtime.*;
+import com.sun.max.vm.thread.*;
+import com.sun.max.vm.thread.VmThreadLocal.Nature;
+
+/**
+ * Dirty card queue for concurrent card refinement.
+ * <p>
+ * While concurrent refinement is active, the post-write barrier of reference stores records the address of the card table entry
+ * of each card it turns dirty, so that {@linkplain ConcurrentCardRefiner refinement threads} can clean the cards that don't
+ * refer to the young generation before the next minor collection has to scan them. A card is recorded once each time it turns dirty:
+ * stores to an already dirty card aren't recorded.
+ * Entries are recorded on per-thread buffers organized as those of the {@link SATBQueue}: a buffer occupies a page
+ * and ends with a self-pointing sentinel, and full buffers are handed over to a global list of completed buffers.
+ * <p>
+ * The barrier is implemented twice: in Java, for the VM's own reference stores (see {@link #enqueue(Pointer)}),
+ * and in XIR for the code compiled by the optimizing compiler (see {@link #genEnqueue}).
+ * Both share the same out-of-line slow path.
+ */
+public final class DirtyCardQueue {
+    public static final String DIRTY_CARD_QUEUE_TAIL_THREAD_LOCAL_NAME = "DIRTY_CARD_QUEUE_TAIL";
+
+    /**
+     * Tail of the thread-local dirty card buffer of a thread. If zero, the thread wasn't allocated a buffer yet.
+     */
+    public static final VmThreadLocal DIRTY_CARD_QUEUE_TAIL
+        = new VmThreadLocal(DIRTY_CARD_QUEUE_TAIL_THREAD_LOCAL_NAME, false, "DirtyCardQueue: tail of the thread's dirty card buffer", Nature.Single);
+
+    public static final int BUFFER_SIZE = platform().pageSize;
+    private static final long BUFFER_HEAD_MASK = ~((long) BUFFER_SIZE - 1);
+
+    /**
+     * Index of the header word linking the buffer to the next one in the list of completed or free buffers.
+     */
+    private static final int LINK_WORD_INDEX = 0;
+    /**
+     * Index of the header word holding the end of the recorded entries of a completed buffer.
+     */
+    private static final int END_WORD_INDEX = 1;
+    private static final int BUFFER_HEADER_SIZE = 2 * Word.size();
+
+    /**
+     * Non-zero while refinement threads consume the recorded cards. Only changed when mutators are stopped.
+     */
+    private static int active;
+
+    private static final SpinLock lock = new SpinLock();
+
+    /**
+     * List of buffers filled by mutators and not yet refined.
+     */
+    private static Pointer completedBuffers = Pointer.zero();
+
+    /**
+     * Number of buffers in the {@link #completedBuffers} list.
+     */
+    private static volatile int numCompletedBuffers;
+
+    /**
+     * List of buffers available for reuse.
+     */
+    private static Pointer freeBuffers = Pointer.zero();
+
+    private DirtyCardQueue() {
+    }
+
+    @FOLD
+    private static int activeOffset() {
+        return ClassActor.fromJava(DirtyCardQueue.class).findLocalStaticFieldActor("active").offset();
+    }
+
+    @INLINE
+    public static boolean isActive() {
+        return active != 0;
+    }
+
+    public static int numCompletedBuffers() {
+        return numCompletedBuffers;
+    }
+
+    @INLINE
+    private static Pointer bufferHead(Pointer tail) {
+        return tail.and(BUFFER_HEAD_MASK);
+    }
+
+    @INLINE
+    private static Pointer bufferStart(Pointer head) {
+        return head.plus(BUFFER_HEADER_SIZE);
+    }
+
+    /**
+     * Slow path of the XIR post-write barrier, taken when the current thread's buffer is full or not allocated yet.
+     * @param cardEntry address of the card table entry of a card that just turned dirty
+     */
+    public static void recordDirtyCard(Pointer cardEntry) {
+        enqueue(cardEntry);
+    }
+
+    /**
+     * Record a card that just turned dirty. Must only be called when the queue {@linkplain #isActive() is active}.
+     * @param cardEntry address of the card table entry of the card
+     */
+    @NEVER_INLINE
+    public static void enqueue(Pointer cardEntry) {
+        final Pointer etla = ETLA.load(currentTLA());
+        Pointer tail = DIRTY_CARD_QUEUE_TAIL.load(etla);
+        if (tail.isZero() || tail.getWord().asPointer().equals(tail)) {
+            final boolean wasDisabled = SafepointPoll.disable();
+            if (!tail.isZero()) {
+                complete(tail);
+            }
+            tail = bufferStart(allocateBuffer());
+            if (!wasDisabled) {
+                SafepointPoll.enable();
+            }
+        }
+        tail.setWord(cardEntry);
+        DIRTY_CARD_QUEUE_TAIL.store(etla, tail.plus(Word.size()));
+    }
+
+    /**
+     * Get a buffer from the free list, or allocate a new one if the free list is empty.
+     * Must be called with safepoints disabled.
+     * @return the head of a buffer
+     */
+    private static Pointer allocateBuffer() {
+        lock.lock();
+        Pointer head = freeBuffers;
+        if (!head.isZero()) {
+            freeBuffers = head.getWord(LINK_WORD_INDEX).asPointer();
+        }
+        lock.unlock();
+        if (head.isZero()) {
+            head = VirtualMemory.allocate(Size.fromInt(BUFFER_SIZE), VirtualMemory.Type.DATA);
+            if (head.isZero()) {
+                throw FatalError.unexpected("Failed to allocate dirty card buffer");
+            }
+            final Pointer sentinel = head.plus(BUFFER_SIZE - Word.size());
+            sentinel.setWord(sentinel);
+        }
+        return head;
+    }
+
+    private static void complete(Pointer tail) {
+        final Pointer head = bufferHead(tail);
+        head.setWord(END_WORD_INDEX, tail);
+        lock.lock();
+        head.setWord(LINK_WORD_INDEX, completedBuffers);
+        completedBuffers = head;
+        numCompletedBuffers++;
+        lock.unlock();
+    }
+
+    private static void release(Pointer head) {
+        lock.lock();
+        head.setWord(LINK_WORD_INDEX, freeBuffers);
+        freeBuffers = head;
+        lock.unlock();
+    }
+
+    private static void retire(Pointer etla) {
+        final Pointer tail = DIRTY_CARD_QUEUE_TAIL.load(etla);
+        if (!tail.isZero()) {
+            DIRTY_CARD_QUEUE_TAIL.store(etla, Pointer.zero());
+            if (tail.equals(bufferStart(bufferHead(tail)))) {
+                release(bufferHead(tail));
+            } else {
+                complete(tail);
+            }
+        }
+    }
+
+    /**
+     * Retire the buffer of the current thread. Called when the thread detaches from the VM.
+     */
+    public static void retireCurrentThread() {
+        final boolean wasDisabled = SafepointPoll.disable();
+        retire(ETLA.load(currentTLA()));
+        if (!wasDisabled) {
+            SafepointPoll.enable();
+        }
+    }
+
+    private static final Pointer.Procedure bufferRetirer = new Pointer.Procedure() {
+        public void run(Pointer tla) {
+            retire(ETLA.load(tla));
+        }
+    };
+
+    /**
+     * Apply a procedure to the card table entries recorded in one completed buffer, and recycle the buffer.
+     * Must be called with safepoints disabled, so that the recorded entries aren't discarded by a collection while the procedure runs.
+     *
+     * @param procedure procedure applied to each recorded card table entry
+     * @return false if there was no completed buffer
+     */
+    public static boolean drainOne(Pointer.Procedure procedure) {
+        lock.lock();
+        final Pointer head = completedBuffers;
+        if (!head.isZero()) {
+            completedBuffers = head.getWord(LINK_WORD_INDEX).asPointer();
+            numCompletedBuffers--;
+        }
+        lock.unlock();
+        if (head.isZero()) {
+            return false;
+        }
+        final Pointer end = head.getWord(END_WORD_INDEX).asPointer();
+        Pointer p = bufferStart(head);
+        while (p.lessThan(end)) {
+            procedure.run(p.getWord().asPointer());
+            p = p.plus(Word.size());
+        }
+        release(head);
+        return true;
+    }
+
+    /**
+     * Discard all recorded cards. Cards recorded but not refined are still dirty, so that the minor collection that calls this
+     * scans them along with those the refinement left dirty. Must be called when mutators are stopped.
+     */
+    public static void discardAll() {
+        VmThreadMap.ACTIVE.forAllThreadLocals(null, bufferRetirer);
+        lock.lock();
+        Pointer head = completedBuffers;
+        completedBuffers = Pointer.zero();
+        numCompletedBuffers = 0;
+        lock.unlock();
+        while (!head.isZero()) {
+            final Pointer next = head.getWord(LINK_WORD_INDEX).asPointer();
+            release(head);
+            head = next;
+        }
+    }
+
+    /**
+     * Start recording dirtied cards. Must be called when mutators are stopped.
+     */
+    public static void activate() {
+        active = 1;
+    }
+
+    /**
+     * Generate the recording of a card that the post-write barrier just turned dirty, if the queue is active.
+     * The fast path stores the entry inline; the slow path, taken when the buffer is full or not allocated yet, calls {@link #recordDirtyCard(Pointer)}.
+     *
+     * @param asm
+     * @param stubs runtime call stubs
+     * @param cardEntry address of the card table entry of the card
+     * @param done label the barrier continues from
+     */
+    @HOSTED_ONLY
+    public static void genEnqueue(CiXirAssembler asm, XirRuntimeCallStubs stubs, XirOperand cardEntry, XirLabel done) {
+        final XirLabel slowPath = asm.createOutOfLineLabel("dirtyCardSlowPath");
+        final XirOperand isActive = asm.createTemp("dirtyCardQueueActive", CiKind.Int);
+        final XirOperand staticTuple = asm.createConstant(CiConstant.forObject(ClassActor.fromJava(DirtyCardQueue.class).staticTuple()));
+        final XirOperand tla = asm.createRegisterTemp("TLA", WordUtil.archKind(), LATCH_REGISTER);
+        final XirOperand etla = asm.createTemp("ETLA", WordUtil.archKind());
+        final XirOperand tail = asm.createTemp("dirtyCardTail", WordUtil.archKind());
+        final XirOperand endMark = asm.createTemp("dirtyCardEndMark", WordUtil.archKind());
+        final XirConstant offsetToTail = asm.i(DIRTY_CARD_QUEUE_TAIL.offset);
+
+        asm.pload(CiKind.Int, isActive, staticTuple, asm.i(activeOffset()), false);
+        asm.jeq(done, isActive, asm.i(0));
+        asm.pload(WordUtil.archKind(), etla, tla, asm.i(ETLA.offset), false);
+        asm.pload(WordUtil.archKind(), tail, etla, offsetToTail, false);
+        asm.jeq(slowPath, tail, asm.i(0));
+        asm.pload(WordUtil.archKind(), endMark, tail, false);
+        asm.jeq(slowPath, endMark, tail);
+        asm.pstore(WordUtil.archKind(), tail, cardEntry, false);
+        asm.add(tail, tail, asm.i(Word.size()));
+        asm.pstore(WordUtil.archKind(), etla, offsetToTail, tail, false);
+        asm.bindInline(done);
+        asm.bindOutOfLine(slowPath);
+        stubs.callRuntimeThroughStub(asm, DirtyCardQueue.class, "recordDirtyCard", null, cardEntry);
+        asm.jmp(done);
+    }
+}
@@ -85,6 +85,24 @@ public abstract class Evacuator extends PointerIndexVisitor implements CellVisit
 
     protected DetailLogger detailLogger;
 
+    /**
+     * Evacuated objects per class.
+     */
+    private final ClassHistogram classHistogram;
+
+    /**
+     * Large objects outside of the evacuated area whose references are tracked by the evacuation, or null.
+     */
+    private LargeObjectCandidates largeObjectCandidates;
+
+    /**
+     * Set the large object candidates the next evacuation must mark when it visits references to them, or null if none.
+     * Referents of special references that are unreferenced candidates are deemed unreachable.
+     */
+    public void setLargeObjectCandidates(LargeObjectCandidates largeObjectCandidates) {
+        this.largeObjectCandidates = largeObjectCandidates;
+    }
+
     public void setGCOperation(GCOperation gcOperation) {
         currentGCOperation = gcOperation;
         if (MaxineVM.isDebug() && gcOperation != null) {
@@ -96,9 +114,18 @@ public abstract class Evacuator extends PointerIndexVisitor implements CellVisit
         return currentGCOperation;
     }
 
+    /**
+     * Record a special reference discovered while scanning cells.
+     * Evacuators that scan cells in parallel must serialize calls to the {@link SpecialReferenceManager}.
+     * @param origin origin of the special reference
+     */
+    protected void discoverSpecialReference(Pointer origin) {
+        SpecialReferenceManager.discoverSpecialReference(origin);
+    }
+
     private void updateSpecialReference(Pointer origin) {
         if (refDiscoveryEnabled) {
-            SpecialReferenceManager.discoverSpecialReference(origin);
+            discoverSpecialReference(origin);
         } else {
             // Treat referent as strong reference.
             if (traceEvacVisitedCell()) {
@@ -120,6 +147,10 @@ public abstract class Evacuator extends PointerIndexVisitor implements CellVisit
         refDiscoveryEnabled = false;
     }
 
+    final boolean isSpecialRefDiscoveryEnabled() {
+        return refDiscoveryEnabled;
+    }
+
     @INLINE
     private void updateReferenceArray(Pointer refArrayOrigin, final int firstIndex, final int length) {
         for (int index = firstIndex; index < length; index++) {
@@ -145,6 +176,15 @@ public abstract class Evacuator extends PointerIndexVisitor implements CellVisit
     protected DebugHeap.ReferenceFinder referenceFinder = new ReferenceFinder(false);
 
     protected Evacuator() {
+        classHistogram = new ClassHistogram("evacuation");
+    }
+
+    /**
+     * Creates an evacuator recording evacuated objects in a part of the class histogram of another evacuator
+     * it evacuates in parallel with.
+     */
+    protected Evacuator(Evacuator coordinator) {
+        classHistogram = coordinator.classHistogram.newPart();
     }
 
     public void setDumper(HeapRangeDumper dumper) {
@@ -183,7 +223,7 @@ public abstract class Evacuator extends PointerIndexVisitor implements CellVisit
     /**
      * Evacuate the cell at the specified origin. The destination of the cell is
      * @param origin origin of the cell to evacuate
-     * @return origin of the cell after evacuation
+     * @return origin of the cell after evacuation, which is the specified origin if the evacuator keeps the cell in place
      */
     @NEVER_INLINE
     abstract Pointer evacuate(Pointer origin);
@@ -211,8 +251,13 @@ public abstract class Evacuator extends PointerIndexVisitor implements CellVisit
         Reference forwardRef = Layout.readForwardRef(origin);
         if (forwardRef.isZero()) {
             final Pointer toOrigin = evacuate(origin);
+            if (toOrigin.equals(origin)) {
+                // The cell is kept in place. Don't install a forwarding reference, which would overwrite its hub.
+                return Reference.fromOrigin(origin);
+            }
             forwardRef = Reference.fromOrigin(toOrigin);
             Layout.writeForwardRef(origin, forwardRef);
+            classHistogram.record(toOrigin);
         }
         return forwardRef;
     }
@@ -242,8 +287,13 @@ public abstract class Evacuator extends PointerIndexVisitor implements CellVisit
         Reference forwardRef = Layout.readForwardRef(origin);
         if (forwardRef.isZero()) {
             final Pointer toOrigin = evacuate(origin);
+            if (toOrigin.equals(origin)) {
+                // The cell is kept in place. Don't install a forwarding reference, which would overwrite its hub.
+                return Reference.fromOrigin(origin);
+            }
             forwardRef = Reference.fromOrigin(toOrigin);
             Layout.writeForwardRef(origin, forwardRef);
+            classHistogram.record(toOrigin);
             if (MaxineVM.isDebug()) {
                 Reference hubRef = Layout.readHubReference(forwardRef);
                 if (DarkMatter.isDarkMatterHub(hubRef.toOrigin())) {
@@ -272,6 +322,8 @@ public abstract class Evacuator extends PointerIndexVisitor implements CellVisit
             final Reference forwardRef = MaxineVM.isDebug() ? getForwardRef(origin, refHolderOrigin.plusWords(wordIndex)) : getForwardRef(origin);
             refHolderOrigin.setReference(wordIndex, forwardRef);
             updateRSet(refHolderOrigin, wordIndex, forwardRef);
+        } else if (largeObjectCandidates != null) {
+            largeObjectCandidates.markReferenced(origin);
         }
     }
 
@@ -291,7 +343,7 @@ public abstract class Evacuator extends PointerIndexVisitor implements CellVisit
         if (inEvacuatedArea(origin)) {
             return !Layout.readForwardRef(origin).isZero();
         }
-        return true;
+        return largeObjectCandidates == null || !largeObjectCandidates.isUnreferenced(origin);
     }
 
     @Override
@@ -300,6 +352,9 @@ public abstract class Evacuator extends PointerIndexVisitor implements CellVisit
         if (inEvacuatedArea(origin)) {
             return getForwardRef(origin);
         }
+        if (largeObjectCandidates != null) {
+            largeObjectCandidates.markReferenced(origin);
+        }
         return ref;
     }
 
@@ -308,6 +363,11 @@ public abstract class Evacuator extends PointerIndexVisitor implements CellVisit
         return true;
     }
 
+    @Override
+    public void traceFromPreserved() {
+        evacuateReachables();
+    }
+
     /**
      * Evacuate all objects of the evacuated area directly reachable from roots (thread stacks, monitors, etc.).
      */
@@ -503,6 +563,7 @@ public abstract class Evacuator extends PointerIndexVisitor implements CellVisit
     }
 
     public final void evacuate(boolean logPhases) {
+        classHistogram.begin();
         currentEvacuationOperation = PROLOGUE;
         timers.start(PROLOGUE);
         doBeforeEvacuation();
@@ -586,10 +647,9 @@ public abstract class Evacuator extends PointerIndexVisitor implements CellVisit
         }
         currentEvacuationOperation = WEAK_REF;
         timers.start(WEAK_REF);
-        disableSpecialRefDiscovery();
+        // Special references found while evacuating what the preserved referents reach are discovered and processed
+        // by the special reference manager before it returns.
         SpecialReferenceManager.processDiscoveredSpecialReferences(this);
-        evacuateReachables();
-        enableSpecialRefDiscovery();
         timers.stop(WEAK_REF);
         doAfterOperation(WEAK_REF);
         if (logPhases) {
@@ -601,6 +661,7 @@ public abstract class Evacuator extends PointerIndexVisitor implements CellVisit
         doAfterEvacuation();
         timers.stop(EPILOGUE);
         doAfterOperation(EPILOGUE);
+        classHistogram.end();
     }
 
 
@@ -28,12 +28,15 @@ import com.sun.max.annotate.*;
 import com.sun.max.memory.*;
 import com.sun.max.unsafe.*;
 import com.sun.max.vm.*;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.heap.*;
 import com.sun.max.vm.heap.gcx.EvacuatingSpace.SpaceBounds;
 import com.sun.max.vm.heap.gcx.EvacuationTimers.TIMED_OPERATION;
 import com.sun.max.vm.heap.gcx.rset.ctbl.*;
 import com.sun.max.vm.layout.*;
 import com.sun.max.vm.log.VMLog.Record;
 import com.sun.max.vm.log.hosted.*;
+import com.sun.max.vm.reference.*;
 import com.sun.max.vm.runtime.*;
 /**
  * A heap space evacuator that evacuates objects from one space to a card-table covered space.
@@ -142,11 +145,56 @@ public class EvacuatorToCardSpace extends Evacuator {
      */
     private SurvivorRangesQueue survivorRanges;
 
+    /**
+     * Lock protecting the survivor ranges queue when other evacuators may steal ranges from it.
+     * Null if ranges are never stolen.
+     */
+    private SpinLock survivorRangesLock;
+
     /**
      * Bounds of the evacuated space. For fast in-bound testing.
      */
     private EvacuatingSpace.SpaceBounds evacuatedAreaBounds;
 
+    /**
+     * Heap marker of a concurrent marking cycle of the to-space in progress, or null if none is in progress.
+     * Cells promoted while a cycle is in progress are marked black so that the sweep ending the cycle doesn't reclaim them.
+     */
+    private TricolorHeapMarker promotedCellsMarker;
+
+    /**
+     * Nursery keeping survivors younger than its tenuring threshold in survivor spaces, or null if all survivors are promoted to the to-space.
+     */
+    private AgingRegionalizedNursery agingNursery;
+
+    /**
+     * The evacuated space if it is an aging nursery, whether it has survivor spaces or not, or null. Cells of the nursery in
+     * {@linkplain AgingRegionalizedNursery#inPinnedRange(Address) pinned ranges} are kept in place and scanned as roots.
+     */
+    private AgingRegionalizedNursery evacuatedNursery;
+
+    /**
+     * Number of bytes of survivors of each age this evacuator copied to the to-survivor space of the aging nursery.
+     */
+    private long[] survivorBytesPerAge;
+
+    /**
+     * Allocation hand to the evacuator's buffer in the to-survivor space of the aging nursery.
+     */
+    @INSPECTED
+    private Pointer stop;
+
+    /**
+     * End of the evacuator's buffer in the to-survivor space, minus the evacuation buffer headroom.
+     */
+    @INSPECTED
+    private Pointer send;
+
+    /**
+     * Mark to keep track of survivor ranges in the to-survivor space.
+     */
+    private Address survivorRangeStart;
+
     private final EvacuationLogger logger;
 
     private long [] opEvacuationMarks = new long[TIMED_OPERATION.values().length];
@@ -166,12 +214,49 @@ public class EvacuatorToCardSpace extends Evacuator {
         this.logger = new EvacuationLogger(name);
     }
 
+    /**
+     * Creates an evacuator evacuating the same spaces as another evacuator, and sharing its evacuation logger and class histogram.
+     * Loggers can only be created at image build time, so evacuators created at run-time must use this constructor.
+     */
+    EvacuatorToCardSpace(EvacuatorToCardSpace coordinator) {
+        super(coordinator);
+        this.fromSpace = coordinator.fromSpace;
+        this.toSpace = coordinator.toSpace;
+        this.rset = coordinator.rset;
+        this.cfoTable = coordinator.cfoTable;
+        this.evacuationBufferProvider = coordinator.evacuationBufferProvider;
+        this.evacuatedAreaBounds = coordinator.evacuatedAreaBounds;
+        this.logger = coordinator.logger;
+    }
+
+    final EvacuationLogger logger() {
+        return logger;
+    }
+
+    final EvacuationBufferProvider evacuationBufferProvider() {
+        return evacuationBufferProvider;
+    }
+
     public void setEvacuationSpace(EvacuatingSpace fromSpace,  HeapSpace toSpace) {
         this.fromSpace = fromSpace;
         this.toSpace = toSpace;
         evacuatedAreaBounds = fromSpace.bounds();
     }
 
+    /**
+     * Set the nursery whose survivors younger than the nursery's tenuring threshold are copied to its to-survivor space instead of being promoted.
+     * Must be called once the evacuator is initialized.
+     *
+     * @param agingNursery an aging nursery, which must be the evacuated space
+     */
+    public void setAgingNursery(AgingRegionalizedNursery agingNursery) {
+        evacuatedNursery = agingNursery;
+        if (agingNursery.hasSurvivorSpaces()) {
+            this.agingNursery = agingNursery;
+            survivorBytesPerAge = new long[AgingRegionalizedNursery.MAX_AGE + 1];
+        }
+    }
+
     /**
      * Initialize the evacuator.
      *
@@ -187,6 +272,14 @@ public class EvacuatorToCardSpace extends Evacuator {
         this.retireAfterEvacuation = retireAfterEvacuation;
     }
 
+    /**
+     * Allow other evacuators to {@linkplain #stealSurvivorRange(EvacuatorToCardSpace) steal} survivor ranges from this evacuator.
+     * Must be called once the evacuator is initialized.
+     */
+    void enableSurvivorRangesStealing() {
+        survivorRangesLock = new SpinLock();
+    }
+
     /**
      * Number of bytes evacuated in the last evacuation.
      * @return a number of bytes
@@ -210,6 +303,17 @@ public class EvacuatorToCardSpace extends Evacuator {
     @Override
     protected void doBeforeEvacuation() {
         fromSpace.doBeforeGC();
+        initializeEvacuationBuffer();
+        if (logger.enabled()) {
+            SpaceBounds toSpaceBounds = toSpace.bounds();
+            logger.logBeginEvacuation(evacuatedAreaBounds.lowestAddress(), evacuatedAreaBounds.highestAddress(), toSpaceBounds.lowestAddress(), toSpaceBounds.highestAddress());
+        }
+    }
+
+    /**
+     * Reset the evacuation statistics and make sure the evacuator has an evacuation buffer to allocate survivors from.
+     */
+    final void initializeEvacuationBuffer() {
         evacuatedBytes = Size.zero();
         lastOverflowAllocatedRangeStart = Pointer.zero();
         lastOverflowAllocatedRangeEnd = Pointer.zero();
@@ -224,16 +328,27 @@ public class EvacuatorToCardSpace extends Evacuator {
         }
         initialEvacuationMark = ptop;
         allocatedRangeStart = ptop;
-        if (logger.enabled()) {
-            SpaceBounds toSpaceBounds = toSpace.bounds();
-            logger.logBeginEvacuation(evacuatedAreaBounds.lowestAddress(), evacuatedAreaBounds.highestAddress(), toSpaceBounds.lowestAddress(), toSpaceBounds.highestAddress());
-        }
     }
 
     @Override
     protected void doAfterEvacuation() {
-        survivorRanges.clear();
+        // Release first, so that the evacuated space is notified once all survivors are accounted for.
+        releaseEvacuationBuffer();
         fromSpace.doAfterGC();
+    }
+
+    /**
+     * Leave the space left in the evacuation buffer in an iterable state, and retire the buffer if it isn't kept across evacuations.
+     */
+    final void releaseEvacuationBuffer() {
+        survivorRanges.clear();
+        if (agingNursery != null) {
+            retireSurvivorBuffer();
+            agingNursery.recordSurvivorBytes(survivorBytesPerAge);
+            for (int age = 0; age < survivorBytesPerAge.length; age++) {
+                survivorBytesPerAge[age] = 0L;
+            }
+        }
         Pointer limit = pend.plus(evacuationBufferHeadroom());
         if (logger.enabled()) {
             logger.logEndEvacuation(limit);
@@ -267,11 +382,21 @@ public class EvacuatorToCardSpace extends Evacuator {
         if (rangeSize.isZero()) {
             return;
         }
+        evacuatedBytes = evacuatedBytes.plus(rangeSize);
+        addSurvivorRange(start, end);
+    }
+
+    /**
+     * Add a range of survivors to the survivor ranges. Unlike {@link #recordRange(Address, Address)}, this doesn't account
+     * for the range in the number of evacuated bytes, and is used for survivors kept in the nursery.
+     */
+    private void addSurvivorRange(Address start, Address end) {
         if (MaxineVM.isDebug() && checkDarkMatterRefs) {
             DarkMatter.checkNoDarkMatterRef(start, end);
         }
-        evacuatedBytes = evacuatedBytes.plus(rangeSize);
+        lockSurvivorRanges();
         survivorRanges.add(start, end);
+        unlockSurvivorRanges();
         if (logger.enabled()) {
             logger.logUpdateSurvivorRange(start, end);
         }
@@ -287,6 +412,10 @@ public class EvacuatorToCardSpace extends Evacuator {
             recordRange(lastOverflowAllocatedRangeStart, lastOverflowAllocatedRangeEnd);
             lastOverflowAllocatedRangeStart = lastOverflowAllocatedRangeEnd;
         }
+        if (stop.greaterThan(survivorRangeStart)) {
+            addSurvivorRange(survivorRangeStart, stop);
+            survivorRangeStart = stop;
+        }
     }
 
     /**
@@ -356,7 +485,7 @@ public class EvacuatorToCardSpace extends Evacuator {
             return Pointer.zero();
         }
         // Overflow allocate
-        final Pointer cell = toSpace.allocate(size);
+        final Pointer cell = overflowAllocate(size);
         // Allocator must have already fire a notifySplitLive event to the space's DeadSpaceListener (i.e., the CardTableRSet in this case).
         if (!cell.equals(lastOverflowAllocatedRangeEnd)) {
             if (lastOverflowAllocatedRangeEnd.greaterThan(lastOverflowAllocatedRangeStart)) {
@@ -367,6 +496,15 @@ public class EvacuatorToCardSpace extends Evacuator {
         lastOverflowAllocatedRangeEnd = cell.plus(size);
         return cell;
     }
+    /**
+     * Allocate space for a survivor directly from the to-space, bypassing the evacuation buffer.
+     * @param size number of bytes to allocate
+     * @return a pointer to the allocated cell
+     */
+    protected Pointer overflowAllocate(Size size) {
+        return toSpace.allocate(size);
+    }
+
     @INLINE
     @Override
     final boolean inEvacuatedArea(Pointer origin) {
@@ -395,35 +533,308 @@ public class EvacuatorToCardSpace extends Evacuator {
         return cell;
     }
 
+    /**
+     * Allocate space in the evacuator's buffer in the to-survivor space of the aging nursery.
+     *
+     * @param size number of bytes to allocate
+     * @return a pointer to the allocated cell, or zero if the to-survivor space is full
+     */
+    private Pointer allocateSurvivor(Size size) {
+        final Pointer cell = stop;
+        final Pointer newTop = cell.plus(size);
+        if (newTop.greaterThan(send)) {
+            if (cell.isZero() || !newTop.equals(send.plus(evacuationBufferHeadroom()))) {
+                return refillSurvivorBufferAndAllocate(size);
+            }
+        }
+        stop = newTop;
+        return cell;
+    }
+
+    private Pointer refillSurvivorBufferAndAllocate(Size size) {
+        retireSurvivorBuffer();
+        Size bufferSize = size.greaterThan(AgingRegionalizedNursery.SurvivorLABSize) ? size : AgingRegionalizedNursery.SurvivorLABSize;
+        Pointer buffer = agingNursery.allocateSurvivorBuffer(bufferSize);
+        if (buffer.isZero()) {
+            // Try to use what's left of the to-survivor space before giving up.
+            bufferSize = size;
+            buffer = agingNursery.allocateSurvivorBuffer(bufferSize);
+            if (buffer.isZero()) {
+                return Pointer.zero();
+            }
+        }
+        survivorRangeStart = buffer;
+        stop = buffer.plus(size);
+        send = buffer.plus(bufferSize).minus(evacuationBufferHeadroom()).asPointer();
+        return buffer;
+    }
+
+    /**
+     * Record the survivors of the evacuator's buffer in the to-survivor space and leave the space left in the buffer in an iterable state.
+     */
+    private void retireSurvivorBuffer() {
+        if (stop.isZero()) {
+            return;
+        }
+        if (stop.greaterThan(survivorRangeStart)) {
+            addSurvivorRange(survivorRangeStart, stop);
+        }
+        final Pointer limit = send.plus(evacuationBufferHeadroom());
+        if (limit.greaterThan(stop)) {
+            DarkMatter.format(stop, limit.minus(stop).asSize());
+        }
+        stop = Pointer.zero();
+        send = Pointer.zero();
+        survivorRangeStart = Address.zero();
+    }
+
+    /**
+     * Copy a cell younger than the tenuring threshold of the aging nursery to the to-survivor space, and increment the age of the copy.
+     *
+     * @param fromCell the cell to copy
+     * @param size size of the cell
+     * @param age age of the cell
+     * @return the copy of the cell, or zero if the to-survivor space is full and the cell must be promoted
+     */
+    private Pointer copyToSurvivorSpace(Pointer fromCell, Size size, int age) {
+        final Pointer toCell = allocateSurvivor(size);
+        if (!toCell.isZero()) {
+            Memory.copyBytes(fromCell, toCell, size);
+            AgingRegionalizedNursery.setAge(Layout.cellToOrigin(toCell), age + 1);
+        }
+        return toCell;
+    }
+
     @Override
-    final Pointer evacuate(Pointer fromOrigin) {
+    Pointer evacuate(Pointer fromOrigin) {
+        if (evacuatedNursery != null && evacuatedNursery.inPinnedRange(fromOrigin)) {
+            // Kept in place. No forwarding reference is installed, so the cell remains intact.
+            return fromOrigin;
+        }
         if (MaxineVM.isDebug() && checkDarkMatterRefs) {
             DarkMatter.scanCellForDarkMatter(fromOrigin);
         }
         final Pointer fromCell = Layout.originToCell(fromOrigin);
         final Size size = Layout.size(fromOrigin);
+        if (agingNursery != null) {
+            final int age = AgingRegionalizedNursery.age(fromOrigin);
+            if (age < agingNursery.tenuringThreshold()) {
+                final Pointer toCell = copyToSurvivorSpace(fromCell, size, age);
+                if (!toCell.isZero()) {
+                    survivorBytesPerAge[age + 1] += size.toLong();
+                    return toCell;
+                }
+            }
+        }
         final Pointer toCell = allocate(size);
         Memory.copyBytes(fromCell, toCell, size);
+        if (promotedCellsMarker != null) {
+            markPromotedCell(toCell);
+        }
         return toCell;
     }
 
+    /**
+     * Record in the card table references to survivors kept in the nursery that are stored outside of the nursery,
+     * as the card holding the reference may have been cleaned when the reference was visited.
+     * Cells kept in place in pinned ranges are survivors kept in the nursery too.
+     */
+    @Override
+    void updateRSet(Pointer refHolderOrigin, int wordIndex, Reference ref) {
+        if (evacuatedNursery != null && (evacuatedNursery.inToSurvivorSpace(ref.toOrigin()) || evacuatedNursery.inPinnedRange(ref.toOrigin())) &&
+                        !evacuatedNursery.inNursery(refHolderOrigin) && rset.cardTable.isCovered(refHolderOrigin)) {
+            rset.record(Reference.fromOrigin(refHolderOrigin), 0, wordIndex);
+        }
+    }
+
+    /**
+     * Cells kept in place in pinned ranges are never forwarded, but are all reachable.
+     */
+    @Override
+    public boolean isReachable(Reference ref) {
+        return super.isReachable(ref) || (evacuatedNursery != null && evacuatedNursery.inPinnedRange(ref.toOrigin()));
+    }
+
+    private final CellRangeVisitor pinnedRangeEvacuationClosure = new CellRangeVisitor() {
+        public void visitCells(Address start, Address end) {
+            evacuateRange(start.asPointer(), end.asPointer());
+        }
+    };
+
+    /**
+     * Evacuate the cells referenced from the cells of the evacuated nursery kept in place because they overlap pinned regions.
+     * The cells of the pinned ranges are all treated as roots, whether they are reachable or not.
+     */
+    final void evacuateFromPinnedRanges() {
+        if (evacuatedNursery != null) {
+            evacuatedNursery.visitPinnedRanges(pinnedRangeEvacuationClosure);
+        }
+    }
+
+    /**
+     * Set the heap marker of a concurrent marking cycle of the to-space, or null once the cycle is over.
+     * See {@link ConcurrentMarker}.
+     */
+    public void setPromotedCellsMarker(TricolorHeapMarker heapMarker) {
+        promotedCellsMarker = heapMarker;
+    }
+
+    /**
+     * Mark black a cell promoted while a concurrent marking cycle of the to-space is in progress.
+     * If the cell is a special reference, its referent is recorded in the SATB queue, as the heap marker will neither visit
+     * the black cell nor discover the special reference.
+     */
+    private void markPromotedCell(Pointer toCell) {
+        promotedCellsMarker.atomicMarkBlack(toCell);
+        final Pointer toOrigin = Layout.cellToOrigin(toCell);
+        final Hub hub = UnsafeCast.asHub(Layout.readHubReference(toOrigin).toJava());
+        if (hub.isJLRReference) {
+            SATBQueue.preWrite(Layout.getReference(toOrigin, SpecialReferenceManager.referentIndex()));
+        }
+    }
+
+    /**
+     * Size of a cell computed from a hub read ahead of time, as the hub word of the cell may be overwritten concurrently by a forwarding reference.
+     */
+    private static Size cellSize(Pointer origin, Hub hub) {
+        switch (hub.layoutCategory) {
+            case TUPLE:
+                return hub.tupleSize;
+            case ARRAY:
+                return Layout.getArraySize(hub.classActor.componentClassActor().kind, Layout.readArrayLength(origin));
+            case HYBRID:
+                return Layout.hybridLayout().getArraySize(Layout.readArrayLength(origin));
+        }
+        throw FatalError.unexpected("unknown layout category");
+    }
+
+    /**
+     * Same as {@link #evacuate(Pointer)}, but for evacuators running concurrently on the same evacuated area.
+     * The cell is copied first, then the forwarding reference to the copy is installed with a compare-and-swap.
+     * If another evacuator installed its forwarding reference first, the copy is discarded: the allocation is undone if the copy is the last cell of the
+     * evacuation buffer, otherwise the copy is formatted as dark matter.
+     * The evacuator that wins the race installs the forwarding reference; the caller may still write it back to the evacuated cell
+     * (see {@link Evacuator#getForwardRef(Pointer)}), which is harmless since the value is the same.
+     *
+     * @param fromOrigin origin of the cell to evacuate
+     * @return origin of the evacuated cell's copy that was installed as forwarding reference
+     */
+    final Pointer evacuateAtomically(Pointer fromOrigin) {
+        // The hub must be read before checking for a forwarding reference: if the cell isn't forwarded after the hub was read, the hub is valid.
+        final Reference hubRef = Layout.readHubReference(fromOrigin);
+        final Reference forwardRef = Layout.readForwardRef(fromOrigin);
+        if (!forwardRef.isZero()) {
+            return forwardRef.toOrigin();
+        }
+        if (evacuatedNursery != null && evacuatedNursery.inPinnedRange(fromOrigin)) {
+            return fromOrigin;
+        }
+        if (MaxineVM.isDebug() && checkDarkMatterRefs) {
+            DarkMatter.scanCellForDarkMatter(fromOrigin);
+        }
+        final Size size = cellSize(fromOrigin, UnsafeCast.asHub(hubRef.toJava()));
+        final Pointer fromCell = Layout.originToCell(fromOrigin);
+        int age = -1;
+        Pointer toCell = Pointer.zero();
+        if (agingNursery != null) {
+            age = AgingRegionalizedNursery.age(fromOrigin);
+            if (age < agingNursery.tenuringThreshold()) {
+                toCell = copyToSurvivorSpace(fromCell, size, age);
+            }
+        }
+        final boolean survivor = !toCell.isZero();
+        if (!survivor) {
+            toCell = allocate(size);
+            Memory.copyBytes(fromCell, toCell, size);
+        }
+        final Pointer toOrigin = Layout.cellToOrigin(toCell);
+        final Reference witness = Layout.compareAndSwapForwardRef(fromOrigin, hubRef, Reference.fromOrigin(toOrigin));
+        if (witness.toOrigin().equals(hubRef.toOrigin())) {
+            if (survivor) {
+                survivorBytesPerAge[age + 1] += size.toLong();
+            } else if (promotedCellsMarker != null) {
+                markPromotedCell(toCell);
+            }
+            return toOrigin;
+        }
+        // Lost the race.
+        if (survivor && toCell.plus(size).equals(stop)) {
+            stop = toCell;
+        } else if (!survivor && toCell.plus(size).equals(ptop)) {
+            ptop = toCell;
+        } else {
+            DarkMatter.format(toCell, size);
+        }
+        return Layout.readForwardRef(fromOrigin).toOrigin();
+    }
+
     private boolean checkDarkMatterRefs = false;
     public void enableDarkMatterRefCheck(boolean b) {
         checkDarkMatterRefs = MaxineVM.isDebug() && b;
     }
 
+    @INLINE
+    private void lockSurvivorRanges() {
+        if (survivorRangesLock != null) {
+            survivorRangesLock.lock();
+        }
+    }
+
+    @INLINE
+    private void unlockSurvivorRanges() {
+        if (survivorRangesLock != null) {
+            survivorRangesLock.unlock();
+        }
+    }
+
+    /**
+     * Indicates whether the evacuator has survivor ranges left to process.
+     */
+    final boolean hasSurvivorRanges() {
+        return !survivorRanges.isEmpty();
+    }
+
+    /**
+     * Remove the oldest survivor range of an evacuator and evacuate the cells the range refers to.
+     * Survivors are allocated in this evacuator's buffer, and the ranges they occupy are added to this evacuator's survivor ranges.
+     *
+     * @param owner the evacuator whose survivor ranges the range is removed from
+     * @return true if a range was processed, false if the owner had no survivor ranges left
+     */
+    private boolean evacuateSurvivorRange(EvacuatorToCardSpace owner) {
+        owner.lockSurvivorRanges();
+        if (owner.survivorRanges.isEmpty()) {
+            owner.unlockSurvivorRanges();
+            return false;
+        }
+        final Pointer start = owner.survivorRanges.start();
+        final Pointer end = owner.survivorRanges.end();
+        owner.survivorRanges.remove();
+        owner.unlockSurvivorRanges();
+        if (logger.enabled()) {
+            logger.logEvacuateSurvivorRange(start, end);
+        }
+        evacuateRange(start, end);
+        updateSurvivorRanges();
+        return true;
+    }
+
+    /**
+     * Steal a survivor range from another evacuator and process it.
+     * Both evacuators must have {@linkplain #enableSurvivorRangesStealing() enabled stealing}.
+     *
+     * @param victim the evacuator to steal from
+     * @return true if a range was stolen
+     */
+    final boolean stealSurvivorRange(EvacuatorToCardSpace victim) {
+        return victim.hasSurvivorRanges() && evacuateSurvivorRange(victim);
+    }
+
     @Override
-    final protected void evacuateReachables() {
+    protected void evacuateReachables() {
         updateSurvivorRanges();
-        while (!survivorRanges.isEmpty()) {
-            final Pointer start = survivorRanges.start();
-            final Pointer end = survivorRanges.end();
-            survivorRanges.remove();
-            if (logger.enabled()) {
-                logger.logEvacuateSurvivorRange(start, end);
-            }
-            evacuateRange(start, end);
-            updateSurvivorRanges();
+        while (evacuateSurvivorRange(this)) {
+            // keep going until no survivor ranges are left.
         }
     }
 
@@ -24,8 +24,10 @@ package com.sun.max.vm.heap.gcx;
 
 import static com.sun.max.vm.heap.gcx.HeapRegionConstants.*;
 import static com.sun.max.vm.heap.gcx.HeapRegionInfo.*;
+import static com.sun.max.vm.heap.gcx.HeapRegionManager.*;
 import static com.sun.max.vm.heap.gcx.HeapRegionState.*;
 
+import com.sun.max.annotate.*;
 import com.sun.max.memory.*;
 import com.sun.max.unsafe.*;
 import com.sun.max.vm.*;
@@ -35,11 +37,24 @@ import com.sun.max.vm.heap.HeapScheme.GCRequest;
 import com.sun.max.vm.heap.gcx.HeapRegionInfo.Flag;
 import com.sun.max.vm.heap.gcx.rset.*;
 import com.sun.max.vm.layout.*;
+import com.sun.max.vm.monitor.modal.sync.*;
 import com.sun.max.vm.runtime.*;
 /**
  * A region-based, mark-sweep heap space, with bump pointer allocation only.
  * Each partially occupied region has a list of addressed ordered free chunks, used to allocate TLAB refills.
  * An overflow allocator avoids refilling too frequently.
+ * <p>
+ * With {@link #LazySweep} enabled, the space can be {@linkplain #sweepLazily(TricolorHeapMarker, boolean, Size) swept lazily}: only enough regions are swept
+ * during the GC pause to provide a specified amount of free space. The other regions are left on the sweep list, and are swept in address order when
+ * allocators need a new region, and by a {@linkplain #startBackgroundSweeper() background sweeper thread}. Unswept regions remain iterable, as
+ * their dead objects are left untouched until swept.
+ * <p>
+ * With {@link #CompactSparseRegions} enabled, the sparsest regions of the space can be {@linkplain #beginCompaction() selected for compaction} after a full
+ * collection. The live objects of the selected regions are evacuated to the other regions of the space by an evacuator of the heap scheme (see
+ * {@link SparseRegionsEvacuator}), after which the emptied regions are returned to the {@link HeapRegionManager}.
+ * <p>
+ * Once {@linkplain #enableLargeObjectCandidates() enabled}, large objects can be allocated in regions of their own as {@link LargeObjectCandidates},
+ * which the heap scheme may {@linkplain #reclaimUnreferencedLargeObjects() reclaim} right after the next evacuation of its young generation.
  */
 public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends HeapRegionSweeper implements HeapSpace, RegionProvider {
     /* For simplicity at the moment. Should be able to allocate this in GC's own heap (i.e., the HeapRegionManager's allocator).
@@ -47,10 +62,25 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
     private static final OutOfMemoryError outOfMemoryError = new OutOfMemoryError();
 
     public static boolean TraceLargeObjectAllocations = false;
+    static boolean LazySweep = false;
+    static boolean CompactSparseRegions = false;
+    static int CompactionLiveThresholdPercent = 30;
+    static int MaxCompactedRegions = 8;
     static {
         VMOptions.addFieldOption("-XX:", "TraceLargeObjectAllocations", FirstFitMarkSweepSpace.class, "Trace allocation of large multi-regions objects", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "LazySweep", FirstFitMarkSweepSpace.class, "Sweep regions of mark-sweep spaces that support it on demand and in a background thread instead of during GC pauses", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "CompactSparseRegions", FirstFitMarkSweepSpace.class,
+                        "Evacuate the live objects of the sparsest regions of mark-sweep spaces that support it after full collections, and release the emptied regions", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "CompactionLiveThresholdPercent", FirstFitMarkSweepSpace.class,
+                        "Maximum percentage of a region occupied by live objects for the region to be compacted", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "MaxCompactedRegions", FirstFitMarkSweepSpace.class, "Maximum number of regions compacted per full collection", Phase.PRISTINE);
     }
 
+    /**
+     * Lock the background sweeper waits on for regions to sweep.
+     */
+    private static final Object BACKGROUND_SWEEPER_LOCK = JavaMonitorManager.newVmLock("BACKGROUND_SWEEPER_LOCK");
+
     /**
      * Heap account regions from this space are allocated from.
      */
@@ -84,6 +114,49 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
      */
     private HeapRegionList sweepList;
 
+    /**
+     * List of regions selected for compaction. Empty unless a compaction is in progress.
+     */
+    private HeapRegionList compactionRegions;
+
+    /**
+     * Indicates, for each region of the heap region manager, whether the region is in the {@link #compactionRegions} list.
+     * Null if {@link #CompactSparseRegions} is disabled.
+     */
+    private boolean [] isCompactionRegion;
+
+    /**
+     * Statistics on the free space of the regions of the space, used to select the sparsest regions for compaction.
+     */
+    private HeapRegionStatistics compactionStats;
+
+    /**
+     * Large objects allocated since the last evacuation of the young generation that may be reclaimed eagerly.
+     * Null unless {@linkplain #enableLargeObjectCandidates() enabled}.
+     */
+    private LargeObjectCandidates largeObjectCandidates;
+
+    /**
+     * The regions selected for compaction, seen as an evacuated space.
+     */
+    private final CompactedRegions compactedRegions;
+
+    /**
+     * Heap marker whose color map drives the sweeping of the regions left on the {@link #sweepList} by a lazy sweep.
+     * Null if all regions are swept.
+     */
+    private volatile TricolorHeapMarker lazySweepMarker;
+
+    /**
+     * Indicates whether the current lazy sweep is imprecise.
+     */
+    private boolean lazySweepIsImprecise;
+
+    /**
+     * Thread sweeping the regions left unswept by a lazy sweep. Null if lazy sweeping is disabled.
+     */
+    private BackgroundSweeper backgroundSweeper;
+
     /**
      * Total number of regions currently allocated to this heap space.
      */
@@ -182,7 +255,7 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
     private int debug_firstRegion;
     private int debug_lastRegion;
 
-    private Pointer allocateLarge(Size size) {
+    private Pointer allocateLarge(Size size, boolean reclaimable) {
         final Size roundedUpSize = size.alignUp(regionSizeInBytes);
         final Size tailSize = roundedUpSize.minus(size);
         final int extraRegion = tailSize.greaterThan(0) && tailSize.lessThan(HeapSchemeAdaptor.minObjectSize())  ? 1 : 0;
@@ -206,8 +279,11 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
                         final HeapRegionInfo rinfo = regionInfoIterable.next();
                         if (rinfo.isEmpty()) {
                             allocationRegionsFreeSpace = allocationRegionsFreeSpace.minus(regionSizeInBytes);
+                            if (reclaimable) {
+                                largeObjectCandidates.add(rinfo.toRegionID(), 1);
+                            }
                             return allocateSingleRegionLargeObject(rinfo, rinfo.regionStart().asPointer(), size, Size.fromInt(regionSizeInBytes));
-                        } else if (!rinfo.isAllocating() && rinfo.numFreeChunks() == 1 && rinfo.freeBytesInChunks() >= numBytesNeeded) {
+                        } else if (!reclaimable && !rinfo.isAllocating() && rinfo.numFreeChunks() == 1 && rinfo.freeBytesInChunks() >= numBytesNeeded) {
                             allocationRegionsFreeSpace = allocationRegionsFreeSpace.minus(rinfo.freeBytesInChunks());
                             return allocateSingleRegionLargeObject(rinfo,  rinfo.firstFreeBytes().asPointer(), size, Size.fromInt(rinfo.freeBytesInChunks()));
                         }
@@ -283,6 +359,9 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
                                         }
                                         allocationRegionsFreeSpace = allocationRegionsFreeSpace.minus(size);
                                     }
+                                    if (reclaimable) {
+                                        largeObjectCandidates.add(firstRegion, numContiguousRegionNeeded);
+                                    }
                                     return largeObjectCell.asPointer();
                                 }
                             } else {
@@ -294,18 +373,123 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
                 if (MaxineVM.isDebug()) {
                     checkForSuspisciousGC(gcCount++);
                 }
-            } while(Heap.collectGarbage()); // Always collect for at least one region.
+                // Regions left unswept by a lazy sweep are swept before resorting to GC.
+            } while(completeSweep() || Heap.collectGarbage()); // Always collect for at least one region.
             // Not enough freed memory.
             throw outOfMemoryError;
         }
     }
 
     Pointer allocateLargeCleared(Size size) {
-        Pointer cell = allocateLarge(size);
+        Pointer cell = allocateLarge(size, false);
         Memory.clearWords(cell, size.unsignedShiftedRight(Word.widthValue().log2numberOfBytes).toInt());
         return cell;
     }
 
+    /**
+     * Enable the allocation of {@link LargeObjectCandidates}. Must be called once the space is initialized.
+     * The heap scheme must then {@linkplain #reclaimUnreferencedLargeObjects() reclaim} or drop the candidates after each evacuation of
+     * its young generation, whose evacuator must track the references to the candidates.
+     */
+    public void enableLargeObjectCandidates() {
+        largeObjectCandidates = new LargeObjectCandidates(theHeapRegionManager().regionAllocator().capacity());
+    }
+
+    /**
+     * Indicates whether the allocation of {@link LargeObjectCandidates} is {@linkplain #enableLargeObjectCandidates() enabled}.
+     */
+    public boolean largeObjectCandidatesEnabled() {
+        return largeObjectCandidates != null;
+    }
+
+    /**
+     * Indicates whether a request for the specified size is allocated as a large object candidate for eager reclamation.
+     */
+    public boolean isReclaimableLarge(Size size) {
+        return largeObjectCandidates != null && isLarge(size);
+    }
+
+    /**
+     * Allocate a large object in regions of its own and record it as a candidate for eager reclamation.
+     * The space left in the last region after the object is formatted as dark matter, so that reclaiming the object
+     * frees all its regions without sweeping them.
+     *
+     * @param size the size of the large object, which must be {@linkplain #isReclaimableLarge(Size) reclaimable}
+     * @return a pointer to the cleared cell allocated
+     */
+    public Pointer allocateReclaimableLarge(Size size) {
+        Size regionsSize = size.alignUp(regionSizeInBytes);
+        Size tailSize = regionsSize.minus(size);
+        if (tailSize.greaterThan(0) && tailSize.lessThan(HeapSchemeAdaptor.minObjectSize())) {
+            regionsSize = regionsSize.plus(regionSizeInBytes);
+            tailSize = tailSize.plus(regionSizeInBytes);
+        }
+        final Pointer cell = allocateLarge(regionsSize, true);
+        Memory.clearWords(cell, size.unsignedShiftedRight(Word.widthValue().log2numberOfBytes).toInt());
+        if (!tailSize.isZero()) {
+            final Pointer tail = cell.plus(size);
+            DarkMatter.format(tail, tailSize);
+            deadSpaceListener.notifyRetireDeadSpace(tail, tailSize);
+        }
+        return cell;
+    }
+
+    /**
+     * Gets the large object candidates allocated since the last evacuation of the young generation.
+     *
+     * @return null if there are no candidates
+     */
+    public LargeObjectCandidates largeObjectCandidates() {
+        return largeObjectCandidates == null || largeObjectCandidates.isEmpty() ? null : largeObjectCandidates;
+    }
+
+    /**
+     * Return to the allocation regions the regions of the large object candidates that weren't found referenced by the
+     * evacuation of the young generation that just completed, then drop all the candidates.
+     * Must be called at a safepoint, once the evacuation is over. Pinned candidates are not reclaimed.
+     *
+     * @return the number of bytes reclaimed
+     */
+    public Size reclaimUnreferencedLargeObjects() {
+        if (largeObjectCandidates == null) {
+            return Size.zero();
+        }
+        int numReclaimedRegions = 0;
+        for (int i = 0; i < largeObjectCandidates.size(); i++) {
+            final int firstRegion = largeObjectCandidates.firstRegion(i);
+            if (largeObjectCandidates.isReferenced(i) || HeapRegionInfo.fromRegionID(firstRegion).isPinned()) {
+                continue;
+            }
+            final int endRegion = firstRegion + largeObjectCandidates.numRegions(i);
+            if (TraceLargeObjectAllocations) {
+                Log.print("reclaim unreferenced large object regions [");
+                Log.print(firstRegion);
+                Log.print(", ");
+                Log.print(endRegion - 1);
+                Log.println("]");
+            }
+            for (int regionID = firstRegion; regionID < endRegion; regionID++) {
+                final HeapRegionInfo rinfo = HeapRegionInfo.fromRegionID(regionID);
+                unavailableRegions.remove(regionID);
+                deadSpaceListener.notifyCoalescing(rinfo.regionStart(), Size.fromInt(regionSizeInBytes));
+                EMPTY_REGION.setState(rinfo);
+                HeapFreeChunk.format(rinfo.regionStart(), regionSizeInBytes);
+                rinfo.resetOccupancy();
+                allocationRegions.append(regionID);
+            }
+            numReclaimedRegions += endRegion - firstRegion;
+        }
+        largeObjectCandidates.clear();
+        if (numReclaimedRegions == 0) {
+            return Size.zero();
+        }
+        // Keep the allocation regions address-ordered for the allocation of large objects.
+        allocationRegions.sort();
+        final Size reclaimedSpace = Size.fromInt(numReclaimedRegions).shiftedLeft(log2RegionSizeInBytes);
+        allocationRegionsFreeSpace = allocationRegionsFreeSpace.plus(reclaimedSpace);
+        return reclaimedSpace;
+    }
+
     /**
      * The lock on which refill and region allocation to object spaces synchronize on.
      */
@@ -363,6 +547,7 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
                 return Address.zero();
             }
         };
+        compactedRegions = new CompactedRegions();
     }
 
     public HeapAccount<T> heapAccount() {
@@ -380,6 +565,7 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
         allocationRegions = HeapRegionList.RegionListUse.OWNERSHIP.createList();
         unavailableRegions = HeapRegionList.RegionListUse.OWNERSHIP.createList();
         sweepList = HeapRegionList.RegionListUse.OWNERSHIP.createList();
+        compactionRegions = HeapRegionList.RegionListUse.OWNERSHIP.createList();
 
         maxRegionsInSpace = numberOfRegions(maxSize);
         FatalError.check(maxRegionsInSpace <= heapAccount.reserve(), "under provisioned heap account");
@@ -410,6 +596,10 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
         // Initialize the tlab allocator with a first region.
         tlabAllocator.initialize(regionSize, regionSize);
         overflowAllocator.initialize(Address.zero(), Size.zero(), Size.zero());
+        if (CompactSparseRegions) {
+            isCompactionRegion = new boolean[theHeapRegionManager().regionAllocator().capacity()];
+            compactionStats = new HeapRegionStatistics(minReclaimableSpace);
+        }
     }
 
     public Pointer allocate(Size size) {
@@ -465,6 +655,12 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
     }
 
     public void doBeforeGC() {
+        if (largeObjectCandidates != null) {
+            // Candidates are only reclaimed by evacuations of the young generation.
+            largeObjectCandidates.clear();
+        }
+        // The heap marker's color map is about to be reused.
+        completeSweep();
         overflowAllocator.doBeforeGC();
         tlabAllocator.doBeforeGC();
         FatalError.check(tlabAllocator.refillManager.allocatingRegion() == INVALID_REGION_ID, "TLAB allocating region must have been retired");
@@ -495,6 +691,153 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
         FatalError.check(sweepList.isEmpty(), "Sweeping list must be empty");
     }
 
+    /**
+     * Sweep the space lazily if {@link #LazySweep} is enabled, or entirely otherwise. Regions are swept in address order until the space has at least
+     * the specified amount of free space. The remaining regions are swept on demand, or by the background sweeper.
+     * The heap marker's color map must be left untouched until the space is entirely swept, which is guaranteed for collections
+     * of the space as {@link #doBeforeGC()} {@linkplain #completeSweep() completes} any pending lazy sweep.
+     *
+     * @param heapMarker heap marker that marked the space
+     * @param doImprecise true if sweeping should be imprecise
+     * @param minFreeSpace amount of free space to sweep for before returning
+     */
+    public void sweepLazily(TricolorHeapMarker heapMarker, boolean doImprecise, Size minFreeSpace) {
+        if (!LazySweep) {
+            sweep(heapMarker, doImprecise);
+            return;
+        }
+        if (MaxineVM.isDebug()) {
+            sweepList.checkIsAddressOrdered();
+        }
+        allocationRegionsFreeSpace = Size.zero();
+        csrIsLiveMultiRegionObjectTail = false;
+        lazySweepIsImprecise = doImprecise;
+        lazySweepMarker = heapMarker;
+        sweepForFreeSpace(minFreeSpace);
+    }
+
+    /**
+     * Indicates whether regions were left unswept by a lazy sweep.
+     */
+    public boolean hasUnsweptRegions() {
+        return lazySweepMarker != null;
+    }
+
+    /**
+     * Sweep the next unswept region. Must be called with the {@link #refillLock()} held, or with mutators stopped.
+     * @return true if there are more regions to sweep
+     */
+    private boolean sweepNextRegion() {
+        if (lazySweepMarker.sweepNextRegion(this, lazySweepIsImprecise)) {
+            return true;
+        }
+        FatalError.check(sweepList.isEmpty(), "Sweeping list must be empty");
+        lazySweepMarker = null;
+        return false;
+    }
+
+    /**
+     * Sweep unswept regions until the space has at least the specified amount of free space, or until all regions are swept.
+     * Must be called with the {@link #refillLock()} held, or with mutators stopped.
+     *
+     * @param minFreeSpace amount of free space needed
+     * @return the free space of the space
+     */
+    public Size sweepForFreeSpace(Size minFreeSpace) {
+        while (hasUnsweptRegions() && freeSpace().lessThan(minFreeSpace)) {
+            sweepNextRegion();
+        }
+        return freeSpace();
+    }
+
+    /**
+     * Sweep all the regions left unswept by a lazy sweep.
+     * Must be called with the {@link #refillLock()} held, or with mutators stopped.
+     * @return true if any region was swept
+     */
+    public boolean completeSweep() {
+        if (!hasUnsweptRegions()) {
+            return false;
+        }
+        while (sweepNextRegion()) {
+            // keep sweeping
+        }
+        return true;
+    }
+
+    /**
+     * Sweep unswept regions until one is available for allocation.
+     */
+    private void sweepForAllocationRegion() {
+        while (hasUnsweptRegions() && tlabAllocationRegions.isEmpty() && allocationRegions.isEmpty()) {
+            sweepNextRegion();
+        }
+    }
+
+    /**
+     * Thread sweeping in the background the regions left unswept by a lazy sweep.
+     * The thread is a regular thread that stops at safepoints, but never while sweeping a region, so that GC never finds a region half-swept.
+     */
+    private final class BackgroundSweeper extends Thread {
+        BackgroundSweeper() {
+            super("BackgroundSweeper");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                synchronized (BACKGROUND_SWEEPER_LOCK) {
+                    while (!hasUnsweptRegions()) {
+                        try {
+                            BACKGROUND_SWEEPER_LOCK.wait();
+                        } catch (InterruptedException e) {
+                        }
+                    }
+                }
+                while (sweepNextRegionInBackground()) {
+                    // keep sweeping
+                }
+            }
+        }
+    }
+
+    private boolean sweepNextRegionInBackground() {
+        // Safepoints are disabled while sweeping the region. The refill lock is released before safepoints are enabled again,
+        // so that the sweeper never stops at a safepoint while holding it.
+        final boolean wasDisabled = SafepointPoll.disable();
+        final boolean moreRegions;
+        synchronized (refillLock()) {
+            moreRegions = hasUnsweptRegions() && sweepNextRegion();
+        }
+        if (!wasDisabled) {
+            SafepointPoll.enable();
+        }
+        return moreRegions;
+    }
+
+    /**
+     * Start the background sweeper if {@link #LazySweep} is enabled. Must be called once the VM reached the {@link Phase#STARTING} phase.
+     */
+    public void startBackgroundSweeper() {
+        if (LazySweep && backgroundSweeper == null) {
+            backgroundSweeper = new BackgroundSweeper();
+            backgroundSweeper.start();
+        }
+    }
+
+    /**
+     * Wake up the background sweeper if regions were left unswept.
+     * Must not be called by the VM operation thread: it is meant to be called by the thread that requested a GC, once the GC is over.
+     */
+    public void notifyBackgroundSweeper() {
+        if (backgroundSweeper != null && hasUnsweptRegions()) {
+            synchronized (BACKGROUND_SWEEPER_LOCK) {
+                BACKGROUND_SWEEPER_LOCK.notifyAll();
+            }
+        }
+    }
+
     private HeapRegionInfo nextRegionToSweep() {
         return RegionTable.theRegionTable().regionInfo(sweepList.removeHead());
     }
@@ -657,20 +1000,218 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
     }
 
 
+    /**
+     * The regions selected for compaction by {@link FirstFitMarkSweepSpace#beginCompaction()}, seen as an evacuated space.
+     * The regions are released once evacuated, i.e., when {@link #doAfterGC()} is called.
+     */
+    private final class CompactedRegions implements EvacuatingSpace {
+        private final SpaceBounds compactedRegionsBounds = new SpaceBounds() {
+            @Override
+            Address lowestAddress() {
+                return RegionTable.theRegionTable().regionAddress(compactionRegions.head());
+            }
+
+            @Override
+            boolean isIn(Address address) {
+                return isInCompactionRegion(address);
+            }
+
+            @Override
+            boolean isContiguous() {
+                return false;
+            }
+
+            @Override
+            Address highestAddress() {
+                return RegionTable.theRegionTable().regionAddress(compactionRegions.tail()).plus(regionSizeInBytes - 1);
+            }
+        };
+
+        @Override
+        public SpaceBounds bounds() {
+            return compactedRegionsBounds;
+        }
+
+        @Override
+        public boolean contains(Address address) {
+            return isInCompactionRegion(address);
+        }
+
+        @Override
+        public void doBeforeGC() {
+        }
+
+        @Override
+        public void doAfterGC() {
+            releaseCompactionRegions();
+        }
+    }
+
+    /**
+     * The regions selected for compaction, seen as an evacuated space. The live objects of this space must be evacuated to this
+     * space once {@link #beginCompaction()} has selected the regions. Evacuation must end with a call to the evacuated space's {@link EvacuatingSpace#doAfterGC()}.
+     */
+    public EvacuatingSpace compactedRegions() {
+        return compactedRegions;
+    }
+
+    @INLINE
+    private boolean isInCompactionRegion(Address address) {
+        final int regionID = RegionTable.theRegionTable().regionID(address);
+        return regionID != INVALID_REGION_ID && isCompactionRegion[regionID];
+    }
+
+    /**
+     * Select the sparsest regions of the space for compaction if {@link #CompactSparseRegions} is enabled.
+     * Must be called with mutators stopped, after the space is swept and while the color map of the heap marker that marked the space
+     * is still valid. Any pending lazy sweep is completed first, as the selection needs the free space of all the regions.
+     * <p>
+     * The selected regions are removed from the allocation lists, so that evacuating their live objects never allocates in them.
+     * Fewer regions are selected if their live objects might not fit in half of the free space left in the other regions.
+     *
+     * @return true if regions were selected, in which case the live objects of the {@linkplain #compactedRegions() compacted regions} must be evacuated
+     */
+    public boolean beginCompaction() {
+        if (!CompactSparseRegions) {
+            return false;
+        }
+        completeSweep();
+        compactionStats.clear();
+        addCompactionStats(allocationRegions);
+        addCompactionStats(tlabAllocationRegions);
+        final int minLiveThresholdFreeSpace = (int) ((long) regionSizeInBytes * (100 - CompactionLiveThresholdPercent) / 100);
+        final int minFreeSpace = Math.max(compactionStats.sparsestRegionsMinFreeSpace(MaxCompactedRegions), minLiveThresholdFreeSpace);
+        // The histogram is only precise to the nearest power of 2: pick the regions with at least twice the threshold first.
+        Size compactedLiveBytes = selectCompactionRegions(allocationRegions, minFreeSpace << 1, Size.zero());
+        compactedLiveBytes = selectCompactionRegions(tlabAllocationRegions, minFreeSpace << 1, compactedLiveBytes);
+        compactedLiveBytes = selectCompactionRegions(allocationRegions, minFreeSpace, compactedLiveBytes);
+        selectCompactionRegions(tlabAllocationRegions, minFreeSpace, compactedLiveBytes);
+        if (compactionRegions.isEmpty()) {
+            return false;
+        }
+        compactionRegions.sort();
+        if (TraceSweep) {
+            Log.print("Compacting ");
+            Log.print(compactionRegions.size());
+            Log.println(" regions");
+        }
+        return true;
+    }
+
+    /**
+     * Add the regions with free chunks of a list of allocation regions to the statistics used to select regions for compaction.
+     */
+    private void addCompactionStats(HeapRegionList regionList) {
+        regionInfoIterable.initialize(regionList);
+        regionInfoIterable.reset();
+        for (HeapRegionInfo regionInfo : regionInfoIterable) {
+            if (FREE_CHUNKS_REGION.isInState(regionInfo)) {
+                compactionStats.add(regionInfo);
+            }
+        }
+    }
+
+    /**
+     * Move from a list of allocation regions to the {@link #compactionRegions} list the regions with free chunks with at least the specified amount of free space.
+     * {@linkplain HeapRegionInfo#isPinned() Pinned} regions are never selected: their cells stay in place until the next compaction.
+     *
+     * @param regionList a list of regions available for allocation
+     * @param minFreeSpace minimum number of free bytes of a selected region
+     * @param compactedLiveBytes number of bytes occupied in the regions already selected
+     * @return the number of bytes occupied in the regions selected so far
+     */
+    private Size selectCompactionRegions(HeapRegionList regionList, int minFreeSpace, Size compactedLiveBytes) {
+        regionInfoIterable.initialize(regionList);
+        regionInfoIterable.reset();
+        for (HeapRegionInfo regionInfo : regionInfoIterable) {
+            if (compactionRegions.size() >= MaxCompactedRegions) {
+                break;
+            }
+            final int freeBytes = regionInfo.freeBytesInChunks();
+            if (!FREE_CHUNKS_REGION.isInState(regionInfo) || freeBytes < minFreeSpace || regionInfo.isPinned()) {
+                continue;
+            }
+            final Size liveBytes = compactedLiveBytes.plus(regionSizeInBytes - freeBytes);
+            if (liveBytes.greaterThan(allocationRegionsFreeSpace.minus(freeBytes).dividedBy(2))) {
+                continue;
+            }
+            regionInfoIterable.remove();
+            allocationRegionsFreeSpace = allocationRegionsFreeSpace.minus(freeBytes);
+            isCompactionRegion[regionInfo.toRegionID()] = true;
+            compactionRegions.append(regionInfo.toRegionID());
+            compactedLiveBytes = liveBytes;
+        }
+        return compactedLiveBytes;
+    }
+
+    /**
+     * Return the regions emptied by a compaction to the heap region manager.
+     * The remembered set is notified that each region is free space, so that it doesn't track any location in it anymore.
+     */
+    private void releaseCompactionRegions() {
+        regionInfoIterable.initialize(compactionRegions);
+        regionInfoIterable.reset();
+        for (HeapRegionInfo regionInfo : regionInfoIterable) {
+            final int regionID = regionInfo.toRegionID();
+            isCompactionRegion[regionID] = false;
+            deadSpaceListener.notifyCoalescing(regionInfo.regionStart(), Size.fromInt(regionSizeInBytes));
+            EMPTY_REGION.setState(regionInfo);
+            regionInfo.resetOccupancy();
+            heapAccount.free(regionID);
+        }
+        numRegionsInSpace -= compactionRegions.size();
+        compactionRegions.clear();
+    }
+
     @Override
     public Size increaseSize(Size delta) {
         int numRegions = delta.roundedUpBy(regionSizeInBytes).unsignedShiftedRight(log2RegionSizeInBytes).toInt();
         if (numRegions == 0) {
             numRegions = 1;
         }
+        if (numRegions > maxRegionsInSpace - numRegionsInSpace) {
+            numRegions = maxRegionsInSpace - numRegionsInSpace;
+        }
         int allocated = heapAccount.allocate(numRegions, allocationRegions, false, true, true, regionTag);
-        return Size.fromInt(allocated).shiftedLeft(log2RegionSizeInBytes);
+        // Keep the allocation regions address-ordered.
+        allocationRegions.sort();
+        numRegionsInSpace += allocated;
+        final Size allocatedSpace = Size.fromInt(allocated).shiftedLeft(log2RegionSizeInBytes);
+        allocationRegionsFreeSpace = allocationRegionsFreeSpace.plus(allocatedSpace);
+        return allocatedSpace;
     }
 
+    /**
+     * Shrink the space by returning empty allocation regions to the heap region manager, which uncommits their virtual memory.
+     * Only whole regions are returned, so the space shrinks by at most the requested number of bytes. Pinned regions and
+     * regions not yet swept are kept. Must be called at a safepoint. The space can grow back with {@link #increaseSize(Size)}.
+     *
+     * @param delta the maximum number of bytes to return
+     * @return the number of bytes returned to the heap region manager
+     */
     @Override
     public Size decreaseSize(Size delta) {
-        // TODO
-        return Size.zero();
+        final int maxRegions = delta.unsignedShiftedRight(log2RegionSizeInBytes).toInt();
+        int numRegions = 0;
+        regionInfoIterable.initialize(allocationRegions);
+        regionInfoIterable.reset();
+        for (HeapRegionInfo regionInfo : regionInfoIterable) {
+            if (numRegions >= maxRegions) {
+                break;
+            }
+            if (!regionInfo.isEmpty() || regionInfo.isPinned()) {
+                continue;
+            }
+            regionInfoIterable.remove();
+            deadSpaceListener.notifyCoalescing(regionInfo.regionStart(), Size.fromInt(regionSizeInBytes));
+            regionInfo.resetOccupancy();
+            heapAccount.free(regionInfo.toRegionID());
+            numRegions++;
+        }
+        numRegionsInSpace -= numRegions;
+        final Size releasedSpace = Size.fromInt(numRegions).shiftedLeft(log2RegionSizeInBytes);
+        allocationRegionsFreeSpace = allocationRegionsFreeSpace.minus(releasedSpace);
+        return releasedSpace;
     }
 
     private void iterateRegions(CellRangeVisitor visitor) {
@@ -710,6 +1251,8 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
         balance += tlabAllocationRegions.size();
         balance += allocationRegions.size();
         balance += unavailableRegions.size();
+        balance += sweepList.size();
+        balance += compactionRegions.size();
         FatalError.check(balance == numRegionsInSpace, "incorrect balance of regions in space");
     }
 
@@ -734,6 +1277,7 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
     }
 
     public int getAllocatingRegion() {
+        sweepForAllocationRegion();
         final int regionID = tlabAllocationRegionList().removeHead();
         if (regionID != INVALID_REGION_ID) {
             final HeapRegionInfo regionInfo = fromRegionID(regionID);
@@ -744,7 +1288,15 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
     }
 
     public int getAllocatingRegion(Size minFreeBytes, int maxFreeChunks) {
-        final int minFreeSpace = minFreeBytes.toInt();
+        int regionID = findAllocatingRegion(minFreeBytes.toInt(), maxFreeChunks);
+        while (regionID == INVALID_REGION_ID && hasUnsweptRegions()) {
+            sweepNextRegion();
+            regionID = findAllocatingRegion(minFreeBytes.toInt(), maxFreeChunks);
+        }
+        return regionID;
+    }
+
+    private int findAllocatingRegion(int minFreeSpace, int maxFreeChunks) {
         regionInfoIterable.initialize(allocationRegions);
         regionInfoIterable.reset();
         for (HeapRegionInfo regionInfo : regionInfoIterable) {
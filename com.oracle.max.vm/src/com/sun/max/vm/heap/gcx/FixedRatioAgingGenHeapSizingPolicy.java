@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.heap.gcx;
+
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.runtime.*;
+
+/**
+ * A fixed ratio sizing policy for a young generation made of an eden and two survivor spaces.
+ * The ratio of eden to a survivor space is fixed, like the ratio of young generation to total heap size.
+ */
+public class FixedRatioAgingGenHeapSizingPolicy extends FixedRatioGenHeapSizingPolicy implements AgingGenHeapSizingPolicy {
+    /**
+     * Ratio of eden size to the size of one survivor space.
+     */
+    final int survivorRatio;
+
+    public FixedRatioAgingGenHeapSizingPolicy(Size initHeapSize, Size maxHeapSize, int youngGenFixedHeapPercentage, int survivorRatio, int log2Alignment) {
+        super(initHeapSize, maxHeapSize, youngGenFixedHeapPercentage, log2Alignment);
+        FatalError.check(survivorRatio > 0, "Not a valid survivor ratio");
+        this.survivorRatio = survivorRatio;
+    }
+
+    @Override
+    public Size survivorSize() {
+        final Size youngGenSize = initialYoungGenSize();
+        final Size survivorSize = alignUp(youngGenSize.dividedBy(survivorRatio + 2));
+        if (survivorSize.times(2).plus(unitSize).greaterThan(youngGenSize)) {
+            // Not enough room left for eden.
+            return Size.zero();
+        }
+        return survivorSize;
+    }
+}
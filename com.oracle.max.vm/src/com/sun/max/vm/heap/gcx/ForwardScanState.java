@@ -205,6 +205,10 @@ final class ForwardScanState extends ColorMapScanState implements SpecialReferen
         return false;
     }
 
+    public void traceFromPreserved() {
+        heapMarker.visitGreyObjectsOfPreservedReferents();
+    }
+
     @Override
     public String toString() {
         return "forward scan";
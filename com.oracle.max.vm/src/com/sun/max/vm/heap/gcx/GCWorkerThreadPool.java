@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.heap.gcx;
+
+import com.sun.max.annotate.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.MaxineVM.Phase;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.monitor.modal.sync.*;
+import com.sun.max.vm.reference.*;
+import com.sun.max.vm.runtime.*;
+import com.sun.max.vm.thread.*;
+
+/**
+ * A pool of daemon threads helping the {@link VmOperationThread} with parallel garbage collection work.
+ * The pool comprises {@link #ParallelGCThreads} workers: the VM operation thread is always worker 0, and
+ * the other workers are dedicated {@link GCWorkerThread}s started during the {@link Phase#STARTING} phase.
+ * <p>
+ * GC worker threads are never stopped by {@link GCOperation}s (see {@link VmThread#isGCWorkerThread()}), and their stack
+ * is never scanned for roots. Hence, the worker threads and everything they reference from their stack are allocated in
+ * the immortal heap, and worker threads must not allocate while running a task.
+ */
+public final class GCWorkerThreadPool {
+    /**
+     * Number of threads taking part in parallel GC work, including the VM operation thread.
+     * A value of 1 disables parallel GC work.
+     */
+    static int ParallelGCThreads = 1;
+    static {
+        VMOptions.addFieldOption("-XX:", "ParallelGCThreads", GCWorkerThreadPool.class,
+                        "Number of threads used for parallel garbage collection work (1 to disable parallel work)", Phase.PRISTINE);
+    }
+
+    /**
+     * Work submitted to the GC worker threads.
+     */
+    public abstract static class Task {
+        /**
+         * Run the task on the current worker.
+         * @param workerId identifier of the worker running the task, between 0 and {@link GCWorkerThreadPool#numWorkers()} - 1.
+         */
+        public abstract void run(int workerId);
+    }
+
+    final class GCWorkerThread extends Thread {
+        final int workerId;
+
+        GCWorkerThread(int workerId) {
+            super("GCWorker-" + workerId);
+            setDaemon(true);
+            this.workerId = workerId;
+        }
+
+        @Override
+        public void run() {
+            // Immortal allocation is enabled per thread: the worker must enable it for itself, for its whole lifetime,
+            // so that whatever it allocates outside of tasks (e.g., when waiting on the pool's lock) isn't left in the heap.
+            Heap.enableImmortalMemoryAllocation();
+            VmThread.current().setAsGCWorkerThread();
+            int lastTaskEpoch = 0;
+            synchronized (LOCK) {
+                startedWorkers++;
+                LOCK.notifyAll();
+            }
+            while (true) {
+                final Task task;
+                synchronized (LOCK) {
+                    while (taskEpoch == lastTaskEpoch) {
+                        try {
+                            LOCK.wait();
+                        } catch (InterruptedException e) {
+                        }
+                    }
+                    lastTaskEpoch = taskEpoch;
+                    task = currentTask;
+                }
+                Heap.disableAllocationForCurrentThread();
+                task.run(workerId);
+                Heap.enableAllocationForCurrentThread();
+                decrementPendingWorkers();
+            }
+        }
+    }
+
+    private static final Object LOCK = JavaMonitorManager.newVmLock("GC_WORKERS_LOCK");
+
+    private static final GCWorkerThreadPool pool = new GCWorkerThreadPool();
+
+    /**
+     * The unique pool of GC worker threads.
+     */
+    public static GCWorkerThreadPool pool() {
+        return pool;
+    }
+
+    private int startedWorkers;
+
+    /**
+     * Number of workers, including the VM operation thread. Set once the GC worker threads are started.
+     */
+    private int numWorkers = 1;
+
+    private Task currentTask;
+
+    /**
+     * Incremented every time a task is submitted to the GC worker threads.
+     */
+    private int taskEpoch;
+
+    /**
+     * Number of GC worker threads that haven't completed the current task.
+     */
+    private volatile int pendingWorkers;
+
+    @FOLD
+    private static int pendingWorkersOffset() {
+        return ClassActor.fromJava(GCWorkerThreadPool.class).findLocalInstanceFieldActor("pendingWorkers").offset();
+    }
+
+    private GCWorkerThreadPool() {
+    }
+
+    private void decrementPendingWorkers() {
+        int oldValue;
+        do {
+            oldValue = pendingWorkers;
+        } while (Reference.fromJava(this).compareAndSwapInt(pendingWorkersOffset(), oldValue, oldValue - 1) != oldValue);
+    }
+
+    /**
+     * Maximum number of workers as specified by the {@link #ParallelGCThreads} option.
+     * This may be larger than the current {@link #numWorkers() number of workers} if the GC worker threads aren't started yet.
+     */
+    public static int maxWorkers() {
+        return ParallelGCThreads < 1 ? 1 : ParallelGCThreads;
+    }
+
+    /**
+     * Number of workers currently available to run tasks, including the VM operation thread.
+     */
+    public int numWorkers() {
+        return numWorkers;
+    }
+
+    /**
+     * Indicates whether the pool has more than one worker, i.e., whether tasks can be run in parallel.
+     */
+    public boolean isParallel() {
+        return numWorkers > 1;
+    }
+
+    /**
+     * Start the GC worker threads. Must be called once the VM reached the {@link Phase#STARTING} phase.
+     */
+    public void startWorkers() {
+        final int maxWorkers = maxWorkers();
+        if (maxWorkers == 1 || numWorkers > 1) {
+            return;
+        }
+        FatalError.check(MaxineVM.isRunning() || MaxineVM.isStarting(), "GC worker threads can only be started once the VM is starting");
+        // The threads and their VmThread must be immortal as they aren't visited by the GC.
+        // This only covers what the calling thread allocates: each worker enables immortal allocation for itself when it starts.
+        Heap.enableImmortalMemoryAllocation();
+        for (int workerId = 1; workerId < maxWorkers; workerId++) {
+            final GCWorkerThread worker = new GCWorkerThread(workerId);
+            synchronized (LOCK) {
+                worker.start();
+                while (startedWorkers < workerId) {
+                    try {
+                        LOCK.wait();
+                    } catch (InterruptedException e) {
+                    }
+                }
+            }
+        }
+        Heap.disableImmortalMemoryAllocation();
+        numWorkers = maxWorkers;
+    }
+
+    /**
+     * Run a task on all the workers of the pool and wait for all of them to complete it.
+     * Must be called by the VM operation thread. The VM operation thread runs the task as worker 0.
+     *
+     * @param task the task to run
+     */
+    public void execute(Task task) {
+        FatalError.check(VmThread.current().isVmOperationThread(), "GC tasks must be submitted by the VM operation thread");
+        if (numWorkers == 1) {
+            task.run(0);
+            return;
+        }
+        pendingWorkers = numWorkers - 1;
+        synchronized (LOCK) {
+            currentTask = task;
+            taskEpoch++;
+            LOCK.notifyAll();
+        }
+        task.run(0);
+        while (pendingWorkers > 0) {
+            Thread.yield();
+        }
+        currentTask = null;
+    }
+}
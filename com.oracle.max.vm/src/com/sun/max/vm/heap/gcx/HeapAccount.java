@@ -297,6 +297,23 @@ public class HeapAccount<T extends HeapAccountOwner>{
         add(regionID, uncommitted);
     }
 
+    /**
+     * Uncommit the memory of the specified region and return it to the heap region manager.
+     * The region no longer counts against the account, and may be allocated again to this or another account.
+     * This throws a FatalError if the region isn't allocated and committed to this account.
+     *
+     * @param regionID the region from this account to return to the heap region manager
+     */
+    public synchronized void free(int regionID) {
+        FatalError.check(committed.contains(regionID), "The region must be allocated and committed to this account");
+        theHeapRegionManager.regionAllocator().uncommit(regionID, 1);
+        theHeapRegionManager.free(regionID, 1);
+        committed.remove(regionID);
+        final HeapRegionInfo rinfo = RegionTable.theRegionTable().regionInfo(regionID);
+        rinfo.setOwner(null);
+        rinfo.setTag(0);
+    }
+
     /**
      * Commit the memory of the specified contiguous range of regions in virtual space.
      *
@@ -325,11 +342,11 @@ public class HeapAccount<T extends HeapAccountOwner>{
         int rangeHead = regionsRange.firstRegion();
         int numRegions = regionsRange.numRegions();
         if (numRegions == 1) {
-            commit(rangeHead);
+            uncommit(rangeHead);
             return;
         }
         int rangeTail = rangeHead +  numRegions - 1;
-        FatalError.check(uncommitted.containsRange(rangeHead, rangeTail), "The regions range must be allocated to this account");
+        FatalError.check(committed.containsRange(rangeHead, rangeTail), "The regions range must be allocated and committed to this account");
         theHeapRegionManager.regionAllocator().uncommit(regionsRange.firstRegion(), numRegions);
         committed.removeRange(rangeHead, rangeTail);
         addRange(rangeHead, rangeTail, uncommitted);
@@ -29,8 +29,10 @@ import static com.sun.max.vm.heap.gcx.HeapRegionState.*;
 import com.sun.max.annotate.*;
 import com.sun.max.unsafe.*;
 import com.sun.max.vm.*;
+import com.sun.max.vm.actor.holder.*;
 import com.sun.max.vm.heap.*;
 import com.sun.max.vm.reference.*;
+import com.sun.max.vm.runtime.*;
 /**
  * Descriptor of a heap region.
  * The information recorded is carefully crafted so that a zero-filled HeapRegionInfo
@@ -167,11 +169,22 @@ public class HeapRegionInfo {
      */
     private int liveData;
 
+    /**
+     * Number of pending pin requests on objects of the region. Heap spaces must not relocate the cells of a region with a non-zero pin count.
+     * Kept apart from the {@link #flags}, as the flags of a region are compared as a whole to determine its state.
+     */
+    private volatile int pinCount;
+
     /**
      * Owner of the region described by {@link HeapRegionInfo} instance.
      */
     HeapAccountOwner owner;
 
+    @FOLD
+    private static int pinCountOffset() {
+        return ClassActor.fromJava(HeapRegionInfo.class).findLocalInstanceFieldActor("pinCount").offset();
+    }
+
     public final boolean isEmpty() {
         return flags == EMPTY_REGION.flags;
     }
@@ -204,6 +217,32 @@ public class HeapRegionInfo {
         return IS_TAIL.isSet(flags);
     }
 
+    public final boolean isPinned() {
+        return pinCount != 0;
+    }
+
+    /**
+     * Atomically increment the pin count of the region.
+     */
+    public final void pin() {
+        int oldValue;
+        do {
+            oldValue = pinCount;
+            FatalError.check(oldValue >= 0, "Unbalance pinned request");
+        } while (Reference.fromJava(this).compareAndSwapInt(pinCountOffset(), oldValue, oldValue + 1) != oldValue);
+    }
+
+    /**
+     * Atomically decrement the pin count of the region.
+     */
+    public final void unpin() {
+        int oldValue;
+        do {
+            oldValue = pinCount;
+            FatalError.check(oldValue > 0, "Unbalance pinned request");
+        } while (Reference.fromJava(this).compareAndSwapInt(pinCountOffset(), oldValue, oldValue - 1) != oldValue);
+    }
+
     HeapRegionInfo() {
         // Not a class one can allocate. Allocation is the responsibility of the region table.
     }
@@ -243,6 +282,10 @@ public class HeapRegionInfo {
         Log.print(liveBytes());
         Log.print(" owner: ");
         Log.print(Reference.fromJava(owner).toOrigin());
+        if (pinCount != 0) {
+            Log.print(" #pins: ");
+            Log.print(pinCount);
+        }
         Log.print(" #free chunks: ");
         Log.print(numFreeChunks);
         if (numFreeChunks > 0) {
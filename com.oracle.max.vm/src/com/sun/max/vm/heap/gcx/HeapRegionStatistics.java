@@ -28,8 +28,50 @@ import com.sun.max.vm.runtime.*;
 
 /**
  * Statistics on heap regions free space and fragmentation.
+ * Also keeps global counters on the zeroing of heap space in the background (see {@link BackgroundZeroer}).
  */
 public final class HeapRegionStatistics {
+    /**
+     * Counters of the background zeroing of heap space. They are only updated by the background zeroer and allocating threads, without synchronization.
+     */
+    private static long zeroedChunks;
+    private static long zeroedBytes;
+    private static long abandonedChunks;
+    private static long zeroingNanos;
+    private static long allocationZeroingWaits;
+
+    static void recordZeroedChunk(Size size) {
+        zeroedChunks++;
+        zeroedBytes += size.toLong();
+    }
+
+    static void recordAbandonedChunk() {
+        abandonedChunks++;
+    }
+
+    static void recordZeroingTime(long nanos) {
+        zeroingNanos += nanos;
+    }
+
+    static void recordAllocationZeroingWait() {
+        allocationZeroingWaits++;
+    }
+
+    public static void reportZeroingStats() {
+        final boolean lockDisabledSafepoints = Log.lock();
+        Log.print("--Background zeroing, chunks: ");
+        Log.print(zeroedChunks);
+        Log.print(", bytes: ");
+        Log.print(zeroedBytes);
+        Log.print(", abandoned chunks: ");
+        Log.print(abandonedChunks);
+        Log.print(", time (us): ");
+        Log.print(zeroingNanos / 1000L);
+        Log.print(", allocation waits: ");
+        Log.println(allocationZeroingWaits);
+        Log.unlock(lockDisabledSafepoints);
+    }
+
     /**
      * Log2 of the smallest fragment size (smallest space reclaimable by the GC).
      */
@@ -81,7 +123,7 @@ public final class HeapRegionStatistics {
     }
 
     public void clear() {
-        for (int i = log2MinFragmentSize; i <= log2MinFragmentSize; i++) {
+        for (int i = 0; i <= log2LargestChunkSize; i++) {
             fragmentSizes[i] = 0;
             freeSpaceSizes[i] = 0;
         }
@@ -143,6 +185,28 @@ public final class HeapRegionStatistics {
         doFullStats(heapAccount.committedRegions());
     }
 
+    /**
+     * Returns the smallest amount of free space a region with free chunks must have to be among the specified number of sparsest regions
+     * recorded in the histogram of free space. Empty regions aren't counted.
+     * As the histogram only records the free space of regions to the nearest lower power of 2, more regions than specified may
+     * have that much free space.
+     *
+     * @param numRegions number of sparsest regions
+     * @return a number of bytes
+     */
+    public int sparsestRegionsMinFreeSpace(int numRegions) {
+        int count = 0;
+        int i = log2LargestChunkSize - 1;
+        while (i > log2MinFragmentSize) {
+            count += freeSpaceSizes[i];
+            if (count >= numRegions) {
+                break;
+            }
+            i--;
+        }
+        return 1 << i;
+    }
+
     public void dump() {
         Log.println("[ min, max ]      :  # fragments         # regions");
         for (int i = log2MinFragmentSize; i < log2LargestChunkSize; i++) {
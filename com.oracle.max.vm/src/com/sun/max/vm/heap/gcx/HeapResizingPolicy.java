@@ -36,6 +36,22 @@ public class HeapResizingPolicy {
      */
     final int maxFreeSpaceRatioForShrinking = 70;
 
+    /**
+     * Whether {@link #resizeAfterCollection(Size, ResizableSpace)} may shrink the heap.
+     */
+    final boolean shrinkAfterCollection;
+
+    public HeapResizingPolicy() {
+        this(true);
+    }
+
+    /**
+     * @param shrinkAfterCollection if false, the heap is only ever grown after a collection
+     */
+    public HeapResizingPolicy(boolean shrinkAfterCollection) {
+        this.shrinkAfterCollection = shrinkAfterCollection;
+    }
+
     /**
      * Resize the heap according to policy.
      *
@@ -64,11 +80,24 @@ public class HeapResizingPolicy {
             return !actualGrowth.isZero();
         }
         Size max = Size.fromLong((totalSpace.toLong() * maxFreeSpaceRatioForShrinking) / 100);
-        if (spaceLeftAfterGC.greaterThan(max)) {
+        if (shrinkAfterCollection && spaceLeftAfterGC.greaterThan(max)) {
             Size maxDesiredCapacity =  Size.fromLong((spaceUsedAfterGC.toLong() * 100) / (100 - maxFreeSpaceRatioForShrinking));
             Size shrinkage = totalSpace.minus(maxDesiredCapacity);
             return !heapSpace.decreaseSize(shrinkage).isZero();
         }
         return false;
     }
+
+    /**
+     * Amount of free space a heap space can give up without falling below the ratio of free space that triggers heap expansion.
+     *
+     * @param freeSpace the free space of the heap space
+     * @param heapSpace the heap space
+     * @return a number of bytes
+     */
+    public Size excessFreeSpace(Size freeSpace, ResizableSpace heapSpace) {
+        Size spaceUsed = heapSpace.totalSpace().minus(freeSpace);
+        Size minFreeSpace = Size.fromLong((spaceUsed.toLong() * minFreeSpaceRatioForExpansion) / (100 - minFreeSpaceRatioForExpansion));
+        return freeSpace.greaterThan(minFreeSpace) ? freeSpace.minus(minFreeSpace) : Size.zero();
+    }
 }
@@ -27,6 +27,7 @@ import com.sun.max.util.timer.*;
 import com.sun.max.vm.*;
 import com.sun.max.vm.heap.*;
 import com.sun.max.vm.log.VMLog.Record;
+import com.sun.max.vm.log.VMLogger.Interval;
 import com.sun.max.vm.log.hosted.*;
 import com.sun.max.vm.thread.*;
 
@@ -39,6 +40,7 @@ public class HeapSchemeLoggerAdaptor {
     @VMLoggerInterface(parent = HeapScheme.PhaseLogger.class)
     private interface PhaseLoggerInterface {
         void scanningThreadRoots(@VMLogParam(name = "vmThread") VmThread vmThread);
+        void preparingStackReferenceMaps(@VMLogParam(name = "interval") Interval interval);
     }
 
     public static final class PhaseLogger extends PhaseLoggerAuto {
@@ -52,6 +54,12 @@ public class HeapSchemeLoggerAdaptor {
             Log.print("Scanning thread local and stack roots for thread ");
             Log.printThread(vmThread, true);
         }
+
+        @Override
+        protected void tracePreparingStackReferenceMaps(Interval interval) {
+            Log.print(interval.name());
+            Log.println(": Preparing stack reference maps");
+        }
     }
 
     @HOSTED_ONLY
@@ -59,6 +67,9 @@ public class HeapSchemeLoggerAdaptor {
     private interface TimeLoggerInterface {
         void stackReferenceMapPreparationTime(
             @VMLogParam(name = "stackReferenceMapPreparationTime") long stackReferenceMapPreparationTime);
+        void parallelStackReferenceMapPreparationTime(
+            @VMLogParam(name = "numWorkers") int numWorkers,
+            @VMLogParam(name = "elapsedTime") long elapsedTime);
     }
 
     public static final class TimeLogger extends TimeLoggerAuto {
@@ -75,12 +86,21 @@ public class HeapSchemeLoggerAdaptor {
             Log.print(stackReferenceMapPreparationTime);
             Log.println(HZ_SUFFIX);
         }
+
+        @Override
+        protected void traceParallelStackReferenceMapPreparationTime(int numWorkers, long elapsedTime) {
+            Log.print("Parallel stack reference map preparation time (");
+            Log.print(numWorkers);
+            Log.print(" workers): ");
+            Log.print(elapsedTime);
+            Log.println(HZ_SUFFIX);
+        }
     }
 
 // START GENERATED CODE
     private static abstract class PhaseLoggerAuto extends com.sun.max.vm.heap.HeapScheme.PhaseLogger {
         public enum Operation {
-            ScanningThreadRoots;
+            PreparingStackReferenceMaps, ScanningThreadRoots;
 
             @SuppressWarnings("hiding")
             public static final Operation[] VALUES = values();
@@ -97,6 +117,12 @@ public class HeapSchemeLoggerAdaptor {
             return Operation.VALUES[opCode].name();
         }
 
+        @INLINE
+        public final void logPreparingStackReferenceMaps(Interval interval) {
+            log(Operation.PreparingStackReferenceMaps.ordinal(), intervalArg(interval));
+        }
+        protected abstract void tracePreparingStackReferenceMaps(Interval interval);
+
         @Override
         @INLINE
         public final void logScanningThreadRoots(VmThread vmThread) {
@@ -107,7 +133,11 @@ public class HeapSchemeLoggerAdaptor {
         @Override
         protected void trace(Record r) {
             switch (r.getOperation()) {
-                case 0: { //ScanningThreadRoots
+                case 0: { //PreparingStackReferenceMaps
+                    tracePreparingStackReferenceMaps(toInterval(r, 1));
+                    break;
+                }
+                case 1: { //ScanningThreadRoots
                     traceScanningThreadRoots(toVmThread(r, 1));
                     break;
                 }
@@ -117,7 +147,7 @@ public class HeapSchemeLoggerAdaptor {
 
     private static abstract class TimeLoggerAuto extends com.sun.max.vm.heap.HeapScheme.TimeLogger {
         public enum Operation {
-            StackReferenceMapPreparationTime;
+            ParallelStackReferenceMapPreparationTime, StackReferenceMapPreparationTime;
 
             @SuppressWarnings("hiding")
             public static final Operation[] VALUES = values();
@@ -134,6 +164,12 @@ public class HeapSchemeLoggerAdaptor {
             return Operation.VALUES[opCode].name();
         }
 
+        @INLINE
+        public final void logParallelStackReferenceMapPreparationTime(int numWorkers, long elapsedTime) {
+            log(Operation.ParallelStackReferenceMapPreparationTime.ordinal(), intArg(numWorkers), longArg(elapsedTime));
+        }
+        protected abstract void traceParallelStackReferenceMapPreparationTime(int numWorkers, long elapsedTime);
+
         @Override
         @INLINE
         public final void logStackReferenceMapPreparationTime(long stackReferenceMapPreparationTime) {
@@ -144,7 +180,11 @@ public class HeapSchemeLoggerAdaptor {
         @Override
         protected void trace(Record r) {
             switch (r.getOperation()) {
-                case 0: { //StackReferenceMapPreparationTime
+                case 0: { //ParallelStackReferenceMapPreparationTime
+                    traceParallelStackReferenceMapPreparationTime(toInt(r, 1), toLong(r, 2));
+                    break;
+                }
+                case 1: { //StackReferenceMapPreparationTime
                     traceStackReferenceMapPreparationTime(toLong(r, 1));
                     break;
                 }
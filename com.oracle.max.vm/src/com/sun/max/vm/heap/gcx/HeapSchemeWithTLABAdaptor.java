@@ -30,7 +30,10 @@ import com.sun.max.util.timer.*;
 import com.sun.max.vm.*;
 import com.sun.max.vm.MaxineVM.Phase;
 import com.sun.max.vm.heap.*;
+import com.sun.max.vm.layout.*;
+import com.sun.max.vm.reference.*;
 import com.sun.max.vm.runtime.*;
+import com.sun.max.vm.thread.*;
 
 /**
  * Adaptor for factoring a number of common boiler plate for HeapScheme implemented with components of the gcx package.
@@ -77,6 +80,42 @@ public abstract class HeapSchemeWithTLABAdaptor extends HeapSchemeWithTLAB {
         }
     }
     protected final TLABFiller tlabFiller = new TLABFiller();
+
+    /**
+     * Applies a {@link CallbackCellVisitor} to the cells of the ranges of heap space it visits, skipping free chunks and dark matter.
+     */
+    final class HeapWalker implements CellRangeVisitor {
+        CallbackCellVisitor visitor;
+
+        /**
+         * Set when the visitor aborts the walk.
+         */
+        boolean aborted;
+
+        public void visitCells(Address start, Address end) {
+            Pointer cell = start.asPointer();
+            while (!aborted && cell.lessThan(end)) {
+                final Pointer origin = Layout.cellToOrigin(cell);
+                final Reference hubRef = Layout.readHubReference(origin);
+                if (UnsafeCast.asHub(hubRef.toJava()) == HeapFreeChunk.heapFreeChunkHub()) {
+                    cell = cell.plus(HeapFreeChunk.getFreechunkSize(cell));
+                } else if (DarkMatter.isDarkMatterHub(hubRef.toOrigin())) {
+                    cell = cell.plus(Layout.size(origin));
+                } else {
+                    cell = visitor.visitCell(cell);
+                    aborted = cell.isZero();
+                }
+            }
+        }
+    }
+
+    private final HeapWalker heapWalker = new HeapWalker();
+
+    /**
+     * Prepares the stack reference maps of the threads stopped for a GC in parallel when there is more than one GC worker.
+     */
+    protected final ParallelStackReferenceMapPreparer stackReferenceMapPreparer = new ParallelStackReferenceMapPreparer();
+
     public HeapSchemeWithTLABAdaptor() {
         super();
     }
@@ -102,6 +141,9 @@ public abstract class HeapSchemeWithTLABAdaptor extends HeapSchemeWithTLAB {
             heapStartupTime.start();
             allocateHeapAndGCStorage();
             heapStartupTime.stop();
+        } else if (phase == MaxineVM.Phase.STARTING) {
+            GCWorkerThreadPool.pool().startWorkers();
+            stackReferenceMapPreparer.initialize();
         } else if (phase == MaxineVM.Phase.TERMINATING) {
             if (Heap.logGCTime()) {
                 heapStartupTime.report("allocateHeapAndGCStorage", Log.out);
@@ -117,6 +159,29 @@ public abstract class HeapSchemeWithTLABAdaptor extends HeapSchemeWithTLAB {
         return Size.G.toInt();
     }
 
+    /**
+     * Walks the immortal heap, the boot heap and the {@linkplain #visitHeapSpaces(CellRangeVisitor) heap spaces} of the scheme.
+     * The TLABs of all threads are filled with dead objects first so that the allocating regions are parsable.
+     * Must be called while mutators are stopped.
+     */
+    @Override
+    public void walkHeap(CallbackCellVisitor visitor) {
+        ImmortalHeap.visitCells(visitor);
+        Heap.bootHeapRegion.visitCells(visitor);
+        VmThreadMap.ACTIVE.forAllThreadLocals(null, tlabFiller);
+        heapWalker.visitor = visitor;
+        heapWalker.aborted = false;
+        visitHeapSpaces(heapWalker);
+        heapWalker.visitor = null;
+    }
+
+    /**
+     * Applies a cell range visitor to the heap spaces of the scheme, once their allocating regions are parsable.
+     * The default does nothing.
+     */
+    protected void visitHeapSpaces(CellRangeVisitor visitor) {
+    }
+
     @Override
     protected void doBeforeTLABRefill(Pointer tlabAllocationMark, Pointer tlabEnd) {
         fillTLABWithDeadObject(tlabAllocationMark, tlabEnd);
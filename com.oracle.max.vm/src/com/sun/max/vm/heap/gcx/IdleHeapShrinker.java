@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.heap.gcx;
+
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.MaxineVM.Phase;
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.runtime.*;
+
+/**
+ * Returns to the operating system the heap space left free while the application doesn't allocate.
+ * A daemon thread samples the heap's used space every {@link #HeapShrinkIdleMillis} milliseconds. If it didn't change over an entire
+ * interval, the application is deemed allocation-idle, and the shrinker is submitted as a VM operation that uncommits the free regions
+ * of the heap. This is done once per idle period: the daemon waits for the used space to change again before shrinking the heap anew.
+ * The operation neither allocates nor traces the heap. Heap schemes grow the heap back on demand.
+ */
+public abstract class IdleHeapShrinker extends VmOperation {
+    /**
+     * Interval of allocation inactivity, in milliseconds, after which the heap is shrunk. Zero disables idle heap shrinking.
+     */
+    static int HeapShrinkIdleMillis = 0;
+    static {
+        VMOptions.addFieldOption("-XX:", "HeapShrinkIdleMillis", IdleHeapShrinker.class,
+                        "Uncommit free heap regions after the application hasn't allocated for this many milliseconds (0 to disable)", Phase.PRISTINE);
+    }
+
+    /**
+     * Total number of bytes returned to the operating system so far.
+     */
+    private Size releasedSpace = Size.zero();
+
+    private IdleMonitor idleMonitor;
+
+    protected IdleHeapShrinker(String name) {
+        super(name, null, Mode.Safepoint);
+    }
+
+    /**
+     * Uncommit the heap space that can be returned to the operating system. Called at a safepoint.
+     *
+     * @return the number of bytes uncommitted
+     */
+    protected abstract Size releaseFreeSpace();
+
+    @Override
+    protected void doIt() {
+        final Size released = releaseFreeSpace();
+        releasedSpace = releasedSpace.plus(released);
+        if (Heap.verbose()) {
+            final boolean lockDisabledSafepoints = Log.lock();
+            Log.print("--Idle heap shrinking, uncommitted bytes: ");
+            Log.print(released.toLong());
+            Log.print(", total: ");
+            Log.println(releasedSpace.toLong());
+            Log.unlock(lockDisabledSafepoints);
+        }
+    }
+
+    public Size releasedSpace() {
+        return releasedSpace;
+    }
+
+    /**
+     * Thread detecting periods of allocation inactivity. The used space sampled is only updated at allocator refills,
+     * which is precise enough to detect idleness over intervals in the order of seconds.
+     */
+    private final class IdleMonitor extends Thread {
+        IdleMonitor() {
+            super("IdleHeapShrinker");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            long lastUsedSpace = Heap.reportUsedSpace();
+            boolean shrunk = false;
+            while (true) {
+                try {
+                    Thread.sleep(HeapShrinkIdleMillis);
+                } catch (InterruptedException e) {
+                }
+                final long usedSpace = Heap.reportUsedSpace();
+                if (usedSpace != lastUsedSpace) {
+                    lastUsedSpace = usedSpace;
+                    shrunk = false;
+                } else if (!shrunk) {
+                    submit();
+                    lastUsedSpace = Heap.reportUsedSpace();
+                    shrunk = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Start the thread monitoring allocation activity if {@link #HeapShrinkIdleMillis} is set. Must be called once the VM reached the {@link Phase#STARTING} phase.
+     */
+    public void start() {
+        if (HeapShrinkIdleMillis > 0 && idleMonitor == null) {
+            idleMonitor = new IdleMonitor();
+            idleMonitor.start();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.heap.gcx;
+
+import static com.sun.max.vm.heap.gcx.HeapRegionConstants.*;
+
+import com.sun.max.annotate.*;
+import com.sun.max.unsafe.*;
+
+/**
+ * Large objects of a {@link FirstFitMarkSweepSpace} that may be reclaimed by the next evacuation of the young generation,
+ * without waiting for a full collection of the space. See {@link FirstFitMarkSweepSpace#allocateReclaimableLarge(Size)}.
+ * <p>
+ * A candidate is allocated in regions of its own after the last evacuation of the young generation, so all references to it
+ * were stored since then: they are either in roots, in young objects, or in cards dirtied by the post-write barrier.
+ * An evacuation of the young generation visits all of these, and {@linkplain #markReferenced(Pointer) marks}
+ * the candidates it finds a reference to. The candidates left unreferenced once the evacuation is over are dead.
+ * <p>
+ * Candidates are identified by the region holding their origin, so that evacuators can look them up without allocating.
+ */
+public final class LargeObjectCandidates {
+    private static final byte NOT_CANDIDATE = 0;
+    private static final byte UNREFERENCED = 1;
+    private static final byte REFERENCED = 2;
+
+    /**
+     * State of each region of the heap region manager with respect to the candidate whose origin it holds.
+     */
+    private final byte[] regionStates;
+
+    /**
+     * First region of each candidate.
+     */
+    private final int[] firstRegions;
+
+    /**
+     * Number of regions of each candidate.
+     */
+    private final int[] numRegions;
+
+    /**
+     * Number of candidates.
+     */
+    private int size;
+
+    /**
+     * Creates an empty set of candidates.
+     *
+     * @param numHeapRegions number of regions of the heap region manager
+     */
+    LargeObjectCandidates(int numHeapRegions) {
+        regionStates = new byte[numHeapRegions];
+        firstRegions = new int[numHeapRegions];
+        numRegions = new int[numHeapRegions];
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Record a newly allocated large object as a candidate. Must be called with the space's refill lock held.
+     *
+     * @param firstRegion first region of the large object
+     * @param n number of regions of the large object
+     */
+    void add(int firstRegion, int n) {
+        firstRegions[size] = firstRegion;
+        numRegions[size] = n;
+        regionStates[firstRegion] = UNREFERENCED;
+        size++;
+    }
+
+    int firstRegion(int index) {
+        return firstRegions[index];
+    }
+
+    int numRegions(int index) {
+        return numRegions[index];
+    }
+
+    boolean isReferenced(int index) {
+        return regionStates[firstRegions[index]] == REFERENCED;
+    }
+
+    /**
+     * Mark the candidate an object reference points to as referenced, if any.
+     * Evacuators running in parallel may mark the same candidate concurrently, which is harmless.
+     *
+     * @param origin the origin of the referenced object
+     */
+    @INLINE
+    public void markReferenced(Pointer origin) {
+        final int regionID = RegionTable.theRegionTable().regionID(origin);
+        if (regionID != INVALID_REGION_ID && regionStates[regionID] == UNREFERENCED) {
+            regionStates[regionID] = REFERENCED;
+        }
+    }
+
+    /**
+     * Indicates whether an object reference points to a candidate that wasn't found referenced yet.
+     *
+     * @param origin the origin of the referenced object
+     */
+    public boolean isUnreferenced(Pointer origin) {
+        final int regionID = RegionTable.theRegionTable().regionID(origin);
+        return regionID != INVALID_REGION_ID && regionStates[regionID] == UNREFERENCED;
+    }
+
+    /**
+     * Remove all the candidates.
+     */
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            regionStates[firstRegions[i]] = NOT_CANDIDATE;
+        }
+        size = 0;
+    }
+}
@@ -26,6 +26,7 @@ import static com.sun.max.vm.VMOptions.*;
 
 import com.sun.max.annotate.*;
 import com.sun.max.memory.*;
+import com.sun.max.platform.*;
 import com.sun.max.unsafe.*;
 import com.sun.max.vm.*;
 import com.sun.max.vm.actor.holder.*;
@@ -35,18 +36,52 @@ import com.sun.max.vm.reference.*;
 import com.sun.max.vm.runtime.*;
 
 /**
- * Fixed size marking stack for heap tracer.
+ * Segmented marking stack for heap tracer.
  * Heap tracers specify an overflow handler to recover from overflow,
  * and a {@link CellVisitor} to be used when draining or flushing the stack.
  *
  * Currently, the marking stack drains itself when reaching end of capacity.
- * Overflows typically take place while the stack is draining.
+ * If it reaches the end of its capacity while draining, the stack grows by committing another chunk of {@link #markingStackSize()} references
+ * of a range of virtual memory reserved for up to {@link #markingStackMaxSize()} references.
+ * The overflow handler is only invoked when the reserved range is exhausted. Chunks committed by growth are released when the stack is reset.
+ * <p>
+ * Cells popped while draining go through a small FIFO queue of {@link #prefetchQueueLength()} cells before being visited:
+ * the header of a cell is prefetched when it enters the queue, so that it is likely to be in cache when the cell is visited.
  */
 public class MarkingStack {
     private static final VMIntOption markingStackSizeOption =
         register(new  VMIntOption("-XX:MarkingStackSize=", 16 * 1024, "Size of the marking stack in number of references."),
                         MaxineVM.Phase.PRISTINE);
 
+    /**
+     * Capacity of marking stacks, in number of references.
+     */
+    static int markingStackSize() {
+        return markingStackSizeOption.getValue();
+    }
+
+    private static final VMIntOption markingStackMaxSizeOption =
+        register(new  VMIntOption("-XX:MarkingStackMaxSize=", 1024 * 1024, "Maximum size the marking stack can grow to, in number of references."),
+                        MaxineVM.Phase.PRISTINE);
+
+    /**
+     * Maximum capacity of marking stacks, in number of references.
+     */
+    static int markingStackMaxSize() {
+        return markingStackMaxSizeOption.getValue();
+    }
+
+    private static final VMIntOption prefetchQueueLengthOption =
+        register(new  VMIntOption("-XX:MarkingPrefetchQueueLength=", 8, "Number of popped cells whose header is prefetched before they are visited (0 disables all prefetching while marking)."),
+                        MaxineVM.Phase.PRISTINE);
+
+    /**
+     * Length of the queue of cells popped from the marking stack and prefetched before they are visited.
+     */
+    static int prefetchQueueLength() {
+        return prefetchQueueLengthOption.getValue();
+    }
+
     abstract static class MarkingStackCellVisitor {
         abstract void visitPoppedCell(Pointer cell);
         abstract void visitFlushedCell(Pointer cell);
@@ -66,6 +101,34 @@ public class MarkingStack {
     private int topIndex = 0;
     private Pointer draining = Pointer.zero();
 
+    /**
+     * Number of references per chunk.
+     */
+    private int chunkLength;
+    /**
+     * Index of the last slot of the first chunk.
+     */
+    private int initialLast;
+    /**
+     * End of the virtual memory range reserved for the stack.
+     */
+    private Address reserveEnd;
+
+    /**
+     * Statistics since the last {@linkplain #resetStatistics() reset}: deepest stack reached, chunks committed by growth, and overflows.
+     */
+    private int peakDepth;
+    private int numGrowths;
+    private int numOverflows;
+
+    /**
+     * Ring buffer of cells popped and prefetched but not visited yet.
+     */
+    private Pointer prefetchQueue = Pointer.zero();
+    private int prefetchQueueCapacity;
+    private int prefetchQueueHead;
+    private int prefetchQueueSize;
+
     private OverflowHandler overflowHandler;
     private MarkingStackCellVisitor drainingCellVisitor;
 
@@ -82,17 +145,129 @@ public class MarkingStack {
 
     void initialize(MarkingStackCellVisitor cellVisitor) {
         drainingCellVisitor = cellVisitor;
+        if (!base.isZero()) {
+            return;
+        }
         // TODO (ld) a better solution might be to allocate this in the heap, outside of the covered area, as a reference array,
         // Root marking will skip it.
         // Same with the other GC data structures (i.e., rescan map and mark bitmap)
-        final int length = markingStackSizeOption.getValue();
-        final int size = length << Word.widthValue().log2numberOfBytes;
-        base = Memory.allocate(Size.fromInt(size));
-        if (base.isZero()) {
-            MaxineVM.reportPristineMemoryFailure("marking stack", "allocate", Size.fromInt(size));
+        final int log2WordSize = Word.widthValue().log2numberOfBytes;
+        final Size chunkSize = Size.fromInt(markingStackSize() << log2WordSize).alignUp(Platform.platform().pageSize);
+        Size reservedSize = Size.fromLong((long) markingStackMaxSize() << log2WordSize).roundedUpBy(chunkSize.toInt());
+        if (reservedSize.lessThan(chunkSize)) {
+            reservedSize = chunkSize;
+        }
+        base = VirtualMemory.reserveMemory(Address.zero(), reservedSize, VirtualMemory.Type.DATA);
+        if (base.isZero() || !VirtualMemory.commitMemory(base, chunkSize, VirtualMemory.Type.DATA)) {
+            MaxineVM.reportPristineMemoryFailure("marking stack", "allocate", reservedSize);
+        }
+        reserveEnd = base.plus(reservedSize);
+        chunkLength = chunkSize.unsignedShiftedRight(log2WordSize).toInt();
+        initialLast = chunkLength - 1;
+        last = initialLast;
+        drainThreshold = (chunkLength * 2) / 3;
+        prefetchQueueCapacity = prefetchQueueLength();
+        if (prefetchQueueCapacity > 0) {
+            final Size prefetchQueueSize = Size.fromInt(prefetchQueueCapacity << log2WordSize);
+            prefetchQueue = Memory.allocate(prefetchQueueSize);
+            if (prefetchQueue.isZero()) {
+                MaxineVM.reportPristineMemoryFailure("marking stack prefetch queue", "allocate", prefetchQueueSize);
+            }
         }
-        last = length - 1;
-        drainThreshold = (length * 2) / 3;
+    }
+
+    /**
+     * Visit the oldest cell of the prefetch queue.
+     */
+    private void visitQueuedCell() {
+        draining = prefetchQueue.getWord(prefetchQueueHead).asPointer();
+        if (++prefetchQueueHead == prefetchQueueCapacity) {
+            prefetchQueueHead = 0;
+        }
+        prefetchQueueSize--;
+        drainingCellVisitor.visitPoppedCell(draining);
+    }
+
+    /**
+     * Pop and visit cells until the stack is down to the specified number of cells.
+     * Popped cells are prefetched and queued, and only visited once the prefetch queue is full, or when no cells are left to pop.
+     * Visits may push more cells, or flush the stack and the queue to recover from an overflow.
+     *
+     * @param limit number of cells to leave on the stack
+     */
+    private void drainTo(int limit) {
+        while (true) {
+            if (topIndex > limit) {
+                final Pointer cell = base.asPointer().getWord(--topIndex).asPointer();
+                if (prefetchQueueCapacity == 0) {
+                    draining = cell;
+                    drainingCellVisitor.visitPoppedCell(cell);
+                    continue;
+                }
+                Intrinsics.prefetchRead(cell);
+                int tail = prefetchQueueHead + prefetchQueueSize;
+                if (tail >= prefetchQueueCapacity) {
+                    tail -= prefetchQueueCapacity;
+                }
+                prefetchQueue.setWord(tail, cell);
+                if (++prefetchQueueSize == prefetchQueueCapacity) {
+                    visitQueuedCell();
+                }
+            } else if (prefetchQueueSize > 0) {
+                visitQueuedCell();
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Commit one more chunk of the reserved range.
+     * @return true if the stack grew, false if the reserved range is exhausted
+     */
+    private boolean grow() {
+        final Address committedEnd = base.plus(Address.fromInt(last + 1).shiftedLeft(Word.widthValue().log2numberOfBytes));
+        final Size chunkSize = Size.fromInt(chunkLength).shiftedLeft(Word.widthValue().log2numberOfBytes);
+        if (committedEnd.plus(chunkSize).greaterThan(reserveEnd) || !VirtualMemory.commitMemory(committedEnd, chunkSize, VirtualMemory.Type.DATA)) {
+            return false;
+        }
+        last += chunkLength;
+        numGrowths++;
+        return true;
+    }
+
+    /**
+     * Uncommit the chunks committed by growth.
+     */
+    private void releaseGrownChunks() {
+        if (last > initialLast) {
+            final int log2WordSize = Word.widthValue().log2numberOfBytes;
+            final Address grownStart = base.plus(Address.fromInt(initialLast + 1).shiftedLeft(log2WordSize));
+            final Size grownSize = Size.fromInt(last - initialLast).shiftedLeft(log2WordSize);
+            VirtualMemory.uncommitMemory(grownStart, grownSize, VirtualMemory.Type.DATA);
+            last = initialLast;
+        }
+    }
+
+    void resetStatistics() {
+        peakDepth = 0;
+        numGrowths = 0;
+        numOverflows = 0;
+    }
+
+    /**
+     * Deepest the stack was, in number of references, since the last {@linkplain #resetStatistics() reset} of statistics.
+     */
+    int peakDepth() {
+        return peakDepth;
+    }
+
+    int numGrowths() {
+        return numGrowths;
+    }
+
+    int numOverflows() {
+        return numOverflows;
     }
 
     Size length() {
@@ -106,6 +281,10 @@ public class MarkingStack {
 
     final void reset() {
         topIndex = 0;
+        draining = Pointer.zero();
+        prefetchQueueHead = 0;
+        prefetchQueueSize = 0;
+        releaseGrownChunks();
     }
 
     void push(Pointer cell) {
@@ -116,6 +295,9 @@ public class MarkingStack {
         }
         if (topIndex < last) {
             base.asPointer().setWord(topIndex++, cell);
+            if (topIndex > peakDepth) {
+                peakDepth = topIndex;
+            }
             if (MaxineVM.isDebug() && Heap.logAllGC()) {
                 Log.print("MarkingStack.push(");
                 Log.print(cell);
@@ -124,6 +306,14 @@ public class MarkingStack {
             return;
         }
         if (!draining.isZero()) {
+            if (grow()) {
+                base.asPointer().setWord(topIndex++, cell);
+                if (topIndex > peakDepth) {
+                    peakDepth = topIndex;
+                }
+                return;
+            }
+            numOverflows++;
             if (MaxineVM.isDebug() && Heap.logAllGC()) {
                 Log.println("MarkingStack.push initiates overflow recovery");
             }
@@ -142,10 +332,7 @@ public class MarkingStack {
             draining = cell;
             drainingCellVisitor.visitPoppedCell(cell);
             // Drain further while we're at it.
-            while (topIndex > drainThreshold) {
-                draining = base.asPointer().getWord(--topIndex).asPointer();
-                drainingCellVisitor.visitPoppedCell(draining);
-            }
+            drainTo(drainThreshold);
             draining = Pointer.zero();
             if (MaxineVM.isDebug() && Heap.logAllGC()) {
                 Log.println("MarkingStack.push ends draining");
@@ -160,10 +347,7 @@ public class MarkingStack {
         if (MaxineVM.isDebug()) {
             FatalError.check(draining.isZero(), "Cannot drain an already draining marking stack");
         }
-        while (topIndex > 0) {
-            draining = base.asPointer().getWord(--topIndex).asPointer();
-            drainingCellVisitor.visitPoppedCell(draining);
-        }
+        drainTo(0);
         draining = Pointer.zero();
         if (MaxineVM.isDebug() && Heap.logAllGC()) {
             Log.println("MarkingStack ends draining");
@@ -175,6 +359,14 @@ public class MarkingStack {
             drainingCellVisitor.visitFlushedCell(draining);
             draining = Pointer.zero();
         }
+        while (prefetchQueueSize > 0) {
+            final Pointer cell = prefetchQueue.getWord(prefetchQueueHead).asPointer();
+            if (++prefetchQueueHead == prefetchQueueCapacity) {
+                prefetchQueueHead = 0;
+            }
+            prefetchQueueSize--;
+            drainingCellVisitor.visitFlushedCell(cell);
+        }
         while (topIndex > 0) {
             drainingCellVisitor.visitFlushedCell(base.asPointer().getWord(--topIndex).asPointer());
         }
@@ -119,6 +119,12 @@ public class NoAgingNurseryEvacuator extends EvacuatorToCardSpace {
         this.bootRegionDirtyCardClosure = new BootRegionDirtyCardEvacuationClosure();
     }
 
+    NoAgingNurseryEvacuator(NoAgingNurseryEvacuator coordinator) {
+        super(coordinator);
+        this.heapSpaceDirtyCardClosure = new DirtyCardEvacuationClosure();
+        this.bootRegionDirtyCardClosure = new BootRegionDirtyCardEvacuationClosure();
+    }
+
     @Override
     public void setGCOperation(GCOperation gcOperation) {
         super.setGCOperation(gcOperation);
@@ -131,13 +137,30 @@ public class NoAgingNurseryEvacuator extends EvacuatorToCardSpace {
         // NOTE: if immortal region happens to grow very large, it may be sensible to also scan it using the
         // card table, instead of just letting super-class Evacuator iterate over entire immortal memory.
         final BootHeapRegion bootHeapRegion = Heap.bootHeapRegion;
-        bootRegionDirtyCardClosure.initialize();
-        rset.cleanAndVisitCards(bootHeapRegion.start(), bootHeapRegion.end(), bootRegionDirtyCardClosure);
+        evacuateFromBootHeapDirtyCards(bootHeapRegion.start(), bootHeapRegion.end());
         bootHeapRegion.discoverSpecialReference();
     }
 
+    /**
+     * Evacuate the cells referenced from the dirty cards of a range of the boot heap.
+     * @param start start of the range
+     * @param end end of the range
+     */
+    final void evacuateFromBootHeapDirtyCards(Address start, Address end) {
+        bootRegionDirtyCardClosure.initialize();
+        rset.cleanAndVisitCards(start, end, bootRegionDirtyCardClosure);
+    }
+
     @Override
     protected void evacuateFromRSets() {
+        evacuateFromPinnedRanges();
+        evacuateFromDirtyCards();
+    }
+
+    /**
+     * Evacuate the cells referenced from the dirty cards of the old generation.
+     */
+    final void evacuateFromDirtyCards() {
         // Visit the dirty cards of the old gen (i.e., the toSpace).
         final boolean traceRSet = CardTableRSet.traceCardTableRSet();
         if (traceDirtyCardWalk()) {
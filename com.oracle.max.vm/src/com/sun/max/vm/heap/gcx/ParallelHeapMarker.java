@@ -0,0 +1,461 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.heap.gcx;
+
+import com.sun.max.annotate.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.code.*;
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.layout.*;
+import com.sun.max.vm.reference.*;
+import com.sun.max.vm.runtime.*;
+
+/**
+ * Parallel marking of the roots and of the objects reachable from them, for a {@link TricolorHeapMarker}.
+ * <p>
+ * Each {@link GCWorkerThreadPool GC worker} claims root scanning tasks (thread stacks and monitors, code, immortal heap,
+ * and chunks of the boot heap) until none are left, then traces the objects it marked grey using its own
+ * {@link WorkStealingMarkingStack}, stealing from other workers' stacks when its own is empty.
+ * Marks are set atomically in the color map shared by all workers: a reference is pushed on a marking stack
+ * only by the worker that successfully painted it grey, and a grey object is visited only by the worker that successfully painted it black.
+ * Unlike the sequential tracing, there is no finger: every grey object is on a marking stack, regardless of its position in the heap.
+ * <p>
+ * When a worker's marking stack overflows, the reference is left grey in the color map and the worker records the leftmost such reference.
+ * Once all workers are done, the heap marker recovers from the overflow with its sequential forward scan, starting from the leftmost overflowed reference
+ * (see {@link TricolorHeapMarker#visitGreyObjectsAfterParallelMarking()}).
+ * This reuses the heap marker's own overflow handling (e.g., its rescan map) should its marking stack overflow too.
+ */
+final class ParallelHeapMarker extends GCWorkerThreadPool.Task {
+    /**
+     * Size of the chunks of the boot heap the workers claim for root scanning. Multiple of the coverage of a word of the boot heap reference map.
+     */
+    private static final int LOG2_BOOT_HEAP_CHUNK_SIZE = 20;
+    private static final int BOOT_HEAP_CHUNK_SIZE = 1 << LOG2_BOOT_HEAP_CHUNK_SIZE;
+
+    private static final int THREADS_ROOTS_TASK = 0;
+    private static final int CODE_ROOTS_TASK = 1;
+    private static final int IMMORTAL_ROOTS_TASK = 2;
+    private static final int FIRST_BOOT_HEAP_ROOTS_TASK = 3;
+
+    static final class MarkingWorker extends PointerIndexVisitor implements CellVisitor {
+        final ParallelHeapMarker parallelHeapMarker;
+        final TricolorHeapMarker heapMarker;
+        final RootCellVisitor rootCellVisitor;
+        final WorkStealingMarkingStack markingStack = new WorkStealingMarkingStack();
+        final SequentialHeapRootsScanner heapRootsScanner;
+
+        /**
+         * This worker's part of the heap marker's class histogram.
+         */
+        final ClassHistogram classHistogram;
+
+        /**
+         * Number of references on the marking stack above which root scanning drains the marking stack.
+         */
+        private int drainThreshold;
+
+        /**
+         * Indicates whether the worker is draining its marking stack. Used to avoid nested draining during root scanning.
+         */
+        private boolean draining;
+
+        /**
+         * Rightmost cell marked by this worker.
+         */
+        Address rightmost;
+
+        /**
+         * Leftmost cell left grey in the color map because of a marking stack overflow.
+         */
+        Address leftmostOverflow;
+
+        /**
+         * Number of cells left grey in the color map because of a marking stack overflow.
+         */
+        int overflowCount;
+
+        MarkingWorker(ParallelHeapMarker parallelHeapMarker) {
+            this.parallelHeapMarker = parallelHeapMarker;
+            this.heapMarker = parallelHeapMarker.heapMarker;
+            this.rootCellVisitor = heapMarker.rootCellVisitor();
+            heapRootsScanner = new SequentialHeapRootsScanner(this);
+            classHistogram = heapMarker.classHistogram.newPart();
+            markingStack.initialize(MarkingStack.markingStackSize());
+            drainThreshold = (markingStack.capacity() * 2) / 3;
+        }
+
+        void reset() {
+            markingStack.reset();
+            rightmost = heapMarker.coveredAreaStart;
+            leftmostOverflow = heapMarker.coveredAreaEnd;
+            overflowCount = 0;
+            draining = false;
+        }
+
+        @INLINE
+        private void markObjectGrey(Pointer cell) {
+            // Note: the first test also acts as a null pointer filter.
+            if (cell.greaterEqual(rootCellVisitor.bottom) && rootCellVisitor.isNonNullCovered(cell) && heapMarker.atomicMarkGreyIfWhite(cell)) {
+                if (cell.greaterThan(rightmost)) {
+                    rightmost = cell;
+                }
+                if (!markingStack.push(cell)) {
+                    // Leave the cell grey in the color map. It will be visited by the recovery scan that follows parallel marking.
+                    overflowCount++;
+                    if (cell.lessThan(leftmostOverflow)) {
+                        leftmostOverflow = cell;
+                    }
+                } else if (!draining && markingStack.size() > drainThreshold) {
+                    draining = true;
+                    drain(drainThreshold >> 1);
+                    draining = false;
+                }
+            }
+        }
+
+        @INLINE
+        private void markRefGrey(Reference ref) {
+            markObjectGrey(Layout.originToCell(ref.toOrigin()));
+        }
+
+        @Override
+        public void visit(Pointer pointer, int wordIndex) {
+            markRefGrey(pointer.getReference(wordIndex));
+        }
+
+        private void visitReferences(Pointer cell, Pointer origin, Hub hub) {
+            final SpecificLayout specificLayout = hub.specificLayout;
+            if (specificLayout.isTupleLayout()) {
+                TupleReferenceMap.visitReferences(hub, origin, this);
+                if (hub.isJLRReference) {
+                    parallelHeapMarker.discoverSpecialReference(cell);
+                }
+            } else if (specificLayout.isHybridLayout()) {
+                TupleReferenceMap.visitReferences(hub, origin, this);
+            } else if (specificLayout.isReferenceArrayLayout()) {
+                final int length = Layout.readArrayLength(origin);
+                for (int index = 0; index < length; index++) {
+                    markRefGrey(Layout.getReference(origin, index));
+                }
+            }
+        }
+
+        /**
+         * Visits a root cell outside of the area covered by the heap marker (i.e., in the code region or the immortal heap).
+         */
+        @Override
+        public Pointer visitCell(Pointer cell) {
+            if (MaxineVM.isDebug() && Heap.logRootScanning()) {
+                TricolorHeapMarker.printVisitedCell(cell, "Visiting root cell ");
+            }
+            final Pointer origin = Layout.cellToOrigin(cell);
+            final Reference hubRef = Layout.readHubReference(origin);
+            markRefGrey(hubRef);
+            final Hub hub = UnsafeCast.asHub(hubRef.toJava());
+            visitReferences(cell, origin, hub);
+            return cell.plus(Layout.size(origin));
+        }
+
+        /**
+         * Visit a cell popped or stolen from a marking stack. The cell is visited only if this worker is the one that paints it black.
+         */
+        private void visitGreyCell(Pointer cell) {
+            final int bitIndex = heapMarker.bitIndexOf(cell);
+            if (!heapMarker.atomicMarkBlackFromGrey(bitIndex)) {
+                return;
+            }
+            heapMarker.traceBlackMark(cell, bitIndex);
+            final Pointer origin = Layout.cellToOrigin(cell);
+            final Reference hubRef = Layout.readHubReference(origin);
+            markRefGrey(hubRef);
+            final Hub hub = UnsafeCast.asHub(hubRef.toJava());
+            if (MaxineVM.isDebug()) {
+                FatalError.check(hub != null && hub != HeapFreeChunk.heapFreeChunkHub(), "Invalid hub for grey cell");
+            }
+            visitReferences(cell, origin, hub);
+            classHistogram.record(hub, Layout.size(origin));
+        }
+
+        private void drain(int limit) {
+            while (markingStack.size() > limit) {
+                final Pointer cell = markingStack.pop();
+                if (cell.isZero()) {
+                    return;
+                }
+                visitGreyCell(cell);
+            }
+        }
+
+        private void scanRoots(int task) {
+            switch (task) {
+                case THREADS_ROOTS_TASK:
+                    heapRootsScanner.run();
+                    break;
+                case CODE_ROOTS_TASK:
+                    // References in the boot code region are immutable and only ever refer
+                    // to objects in the boot heap region.
+                    Code.visitCells(this, false);
+                    break;
+                case IMMORTAL_ROOTS_TASK:
+                    ImmortalHeap.visitCells(this);
+                    break;
+                default:
+                    final Address start = parallelHeapMarker.bootHeapStart.plus(Address.fromInt(task - FIRST_BOOT_HEAP_ROOTS_TASK).shiftedLeft(LOG2_BOOT_HEAP_CHUNK_SIZE));
+                    final Address end = start.plus(BOOT_HEAP_CHUNK_SIZE);
+                    Heap.bootHeapRegion.visitReferences(start, end.lessThan(parallelHeapMarker.bootHeapLimit) ? end : parallelHeapMarker.bootHeapLimit, this);
+            }
+        }
+
+        /**
+         * Drain the marking stack and steal references from other workers until all workers run out of grey objects.
+         */
+        private void trace() {
+            draining = true;
+            while (true) {
+                drain(0);
+                final Pointer cell = parallelHeapMarker.steal(this);
+                if (!cell.isZero()) {
+                    visitGreyCell(cell);
+                } else if (parallelHeapMarker.offerTermination()) {
+                    return;
+                }
+            }
+        }
+
+        void run() {
+            int task = parallelHeapMarker.claimRootTask();
+            while (task >= 0) {
+                scanRoots(task);
+                task = parallelHeapMarker.claimRootTask();
+            }
+            trace();
+        }
+    }
+
+    final TricolorHeapMarker heapMarker;
+
+    private MarkingWorker[] workers;
+
+    /**
+     * Number of workers taking part in the current marking.
+     */
+    private int numWorkers;
+
+    private Address bootHeapStart;
+    private Address bootHeapLimit;
+    private int numRootTasks;
+
+    private volatile int nextRootTask;
+
+    /**
+     * Number of workers that haven't yet run out of work. Used for termination of the parallel tracing.
+     */
+    private volatile int activeWorkers;
+
+    /**
+     * Serializes discovery of special references, as the {@link SpecialReferenceManager} isn't thread-safe.
+     */
+    private final SpinLock discoveryLock = new SpinLock();
+
+    /**
+     * Rightmost cell marked by all workers.
+     */
+    Address rightmost;
+
+    /**
+     * Leftmost cell left grey by a marking stack overflow.
+     */
+    Address leftmostOverflow;
+
+    /**
+     * Number of references left grey because of marking stack overflows.
+     */
+    int overflowCount;
+
+    @FOLD
+    private static int nextRootTaskOffset() {
+        return ClassActor.fromJava(ParallelHeapMarker.class).findLocalInstanceFieldActor("nextRootTask").offset();
+    }
+
+    @FOLD
+    private static int activeWorkersOffset() {
+        return ClassActor.fromJava(ParallelHeapMarker.class).findLocalInstanceFieldActor("activeWorkers").offset();
+    }
+
+    ParallelHeapMarker(TricolorHeapMarker heapMarker) {
+        this.heapMarker = heapMarker;
+    }
+
+    /**
+     * Allocate the state of the workers. Must be called at VM startup, once the heap marker is initialized.
+     */
+    void initialize() {
+        final int maxWorkers = GCWorkerThreadPool.maxWorkers();
+        if (maxWorkers == 1 || workers != null) {
+            return;
+        }
+        Heap.enableImmortalMemoryAllocation();
+        workers = new MarkingWorker[maxWorkers];
+        for (int workerId = 0; workerId < maxWorkers; workerId++) {
+            workers[workerId] = new MarkingWorker(this);
+        }
+        Heap.disableImmortalMemoryAllocation();
+    }
+
+    boolean canMarkInParallel() {
+        return workers != null && GCWorkerThreadPool.pool().isParallel();
+    }
+
+    private int atomicIncrement(int offset) {
+        int oldValue;
+        do {
+            oldValue = Reference.fromJava(this).readInt(offset);
+        } while (Reference.fromJava(this).compareAndSwapInt(offset, oldValue, oldValue + 1) != oldValue);
+        return oldValue;
+    }
+
+    private void atomicDecrement(int offset) {
+        int oldValue;
+        do {
+            oldValue = Reference.fromJava(this).readInt(offset);
+        } while (Reference.fromJava(this).compareAndSwapInt(offset, oldValue, oldValue - 1) != oldValue);
+    }
+
+    /**
+     * Claim the next root scanning task.
+     * @return a task number, or -1 if all tasks have been claimed
+     */
+    int claimRootTask() {
+        if (nextRootTask >= numRootTasks) {
+            return -1;
+        }
+        final int task = atomicIncrement(nextRootTaskOffset());
+        return task < numRootTasks ? task : -1;
+    }
+
+    void discoverSpecialReference(Pointer cell) {
+        discoveryLock.lock();
+        SpecialReferenceManager.discoverSpecialReference(cell);
+        discoveryLock.unlock();
+    }
+
+    /**
+     * Steal a reference from the marking stack of another worker.
+     * @param thief the worker attempting the steal
+     * @return a cell, or zero if no reference could be stolen
+     */
+    Pointer steal(MarkingWorker thief) {
+        for (int i = 0; i < numWorkers; i++) {
+            final MarkingWorker victim = workers[i];
+            if (victim != thief) {
+                final Pointer cell = victim.markingStack.steal();
+                if (!cell.isZero()) {
+                    return cell;
+                }
+            }
+        }
+        return Pointer.zero();
+    }
+
+    private boolean hasStealableWork() {
+        for (int i = 0; i < numWorkers; i++) {
+            if (!workers[i].markingStack.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Called by a worker that ran out of work. Waits until either all workers ran out of work, or some work becomes available.
+     * A worker only becomes inactive when its marking stack is empty and only inactive workers can observe that all workers are inactive,
+     * so no marking stack can be non-empty at that point.
+     *
+     * @return true if all workers ran out of work, false if the worker should try to steal work again.
+     */
+    boolean offerTermination() {
+        atomicDecrement(activeWorkersOffset());
+        while (true) {
+            if (activeWorkers == 0) {
+                return true;
+            }
+            if (hasStealableWork()) {
+                atomicIncrement(activeWorkersOffset());
+                return false;
+            }
+            Thread.yield();
+        }
+    }
+
+    @Override
+    public void run(int workerId) {
+        workers[workerId].run();
+    }
+
+    /**
+     * Mark grey all objects reachable from the roots in parallel, and paint black all of them but those left grey by marking stack overflows.
+     * Must be called by the VM operation thread, with the color map cleared and the root cell visitor of the heap marker reset.
+     */
+    void mark() {
+        final GCWorkerThreadPool pool = GCWorkerThreadPool.pool();
+        numWorkers = pool.numWorkers();
+        bootHeapStart = Heap.bootHeapRegion.start();
+        bootHeapLimit = Heap.bootHeapRegion.lastMutableReferenceAddress().plus(Word.size());
+        final int numBootHeapChunks = bootHeapLimit.minus(bootHeapStart).plus(BOOT_HEAP_CHUNK_SIZE - 1).unsignedShiftedRight(LOG2_BOOT_HEAP_CHUNK_SIZE).toInt();
+        numRootTasks = FIRST_BOOT_HEAP_ROOTS_TASK + numBootHeapChunks;
+        nextRootTask = 0;
+        activeWorkers = numWorkers;
+        for (int i = 0; i < numWorkers; i++) {
+            workers[i].reset();
+        }
+        // Scanning the boot heap by chunks doesn't discover its special references. Do it here.
+        Heap.bootHeapRegion.discoverSpecialReference();
+
+        pool.execute(this);
+
+        rightmost = heapMarker.coveredAreaStart;
+        leftmostOverflow = heapMarker.coveredAreaEnd;
+        overflowCount = 0;
+        for (int i = 0; i < numWorkers; i++) {
+            final MarkingWorker worker = workers[i];
+            FatalError.check(worker.markingStack.isEmpty(), "Parallel marking stack must be empty after parallel marking");
+            if (worker.rightmost.greaterThan(rightmost)) {
+                rightmost = worker.rightmost;
+            }
+            if (worker.leftmostOverflow.lessThan(leftmostOverflow)) {
+                leftmostOverflow = worker.leftmostOverflow;
+            }
+            overflowCount += worker.overflowCount;
+        }
+        if (Heap.logGCPhases()) {
+            final boolean lockDisabledSafepoints = Log.lock();
+            Log.print("Parallel marking with ");
+            Log.print(numWorkers);
+            Log.print(" workers, marking stack overflows: ");
+            Log.println(overflowCount);
+            Log.unlock(lockDisabledSafepoints);
+        }
+    }
+}
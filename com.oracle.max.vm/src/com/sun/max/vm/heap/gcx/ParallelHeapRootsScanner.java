@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.heap.gcx;
+
+import static com.sun.max.vm.VMConfiguration.*;
+
+import com.sun.max.annotate.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.reference.*;
+import com.sun.max.vm.thread.*;
+
+/**
+ * Scans the same GC roots as a {@link SequentialHeapRootsScanner}, but splits the work among {@link GCWorkerThreadPool GC workers}.
+ * Each worker runs its own {@link Scanner}, which claims roots one at a time: the first claim is for the references held by the
+ * monitor scheme, and the following ones are for the thread locals and stack of the active threads, in the order of the
+ * {@link VmThreadMap#ACTIVE active thread list}. Since every scanner walks the list in the same order and claims increasing positions,
+ * each root is scanned exactly once.
+ */
+public final class ParallelHeapRootsScanner {
+    private static final int MONITOR_ROOTS = 0;
+
+    /**
+     * Next root to claim.
+     */
+    private volatile int nextRoot;
+
+    @FOLD
+    private static int nextRootOffset() {
+        return ClassActor.fromJava(ParallelHeapRootsScanner.class).findLocalInstanceFieldActor("nextRoot").offset();
+    }
+
+    /**
+     * Per-worker scanner. The scanner of each worker must be allocated ahead of root scanning.
+     */
+    public final class Scanner implements Pointer.Procedure {
+        private final PointerIndexVisitor pointerIndexVisitor;
+
+        /**
+         * Position of the next thread in the active thread list.
+         */
+        private int position;
+
+        /**
+         * Last root claimed by the scanner.
+         */
+        private int claimed;
+
+        Scanner(PointerIndexVisitor pointerIndexVisitor) {
+            this.pointerIndexVisitor = pointerIndexVisitor;
+        }
+
+        public void run(Pointer tla) {
+            if (position == claimed) {
+                if (Heap.logGCPhases()) {
+                    Heap.phaseLogger.logScanningThreadRoots(VmThread.fromTLA(tla));
+                }
+                VmThreadLocal.scanReferences(tla, pointerIndexVisitor);
+                claimed = claim();
+            }
+            position++;
+        }
+
+        /**
+         * Scan roots until there are none left to claim.
+         */
+        public void run() {
+            claimed = claim();
+            if (claimed == MONITOR_ROOTS) {
+                vmConfig().monitorScheme().scanReferences(pointerIndexVisitor);
+                claimed = claim();
+            }
+            position = MONITOR_ROOTS + 1;
+            VmThreadMap.ACTIVE.forAllThreadLocals(null, this);
+        }
+    }
+
+    public ParallelHeapRootsScanner() {
+    }
+
+    public Scanner createScanner(PointerIndexVisitor pointerIndexVisitor) {
+        return new Scanner(pointerIndexVisitor);
+    }
+
+    private int claim() {
+        int oldValue;
+        do {
+            oldValue = nextRoot;
+        } while (Reference.fromJava(this).compareAndSwapInt(nextRootOffset(), oldValue, oldValue + 1) != oldValue);
+        return oldValue;
+    }
+
+    /**
+     * Make all roots claimable again. Must be called before the workers start scanning roots.
+     */
+    public void reset() {
+        nextRoot = MONITOR_ROOTS;
+    }
+}
@@ -0,0 +1,664 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.heap.gcx;
+
+import com.sun.max.annotate.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.heap.gcx.EvacuationTimers.TIMED_OPERATION;
+import com.sun.max.vm.heap.gcx.rset.ctbl.*;
+import com.sun.max.vm.layout.*;
+import com.sun.max.vm.reference.*;
+import com.sun.max.vm.runtime.*;
+
+/**
+ * A nursery evacuator that splits the evacuation work among the {@link GCWorkerThreadPool GC workers}.
+ * The evacuator is the GC worker 0 and creates a helper evacuator for each of the other workers. Each helper has its own
+ * evacuation buffer (ELAB) and survivor ranges. Evacuation buffers are refilled from, and retired to, the evacuation buffer provider
+ * under a lock.
+ * <p>
+ * The evacuation phases that scan roots in parallel are:
+ * <ul>
+ * <li>thread stacks and monitors: workers claim threads one at a time (see {@link ParallelHeapRootsScanner}),</li>
+ * <li>the dirty cards of the boot heap: workers claim fixed-size chunks of the boot heap,</li>
+ * <li>the dirty cards of the old generation: workers claim segments of dirty cards recorded before evacuation begins (see below).</li>
+ * </ul>
+ * Code and immortal heap roots, and the processing of special references, remain sequential.
+ * During the copy phases, each worker processes its own survivor ranges, and steals survivor ranges from other workers when it runs out of them.
+ * <p>
+ * Workers race to evacuate the same cell: each copies the cell in its evacuation buffer, then tries to install its copy as the forwarding reference
+ * with a compare-and-swap (see {@link EvacuatorToCardSpace#evacuateAtomically(Pointer)}). Losers discard their copy.
+ * <p>
+ * The old generation's dirty cards may overlap free space that workers allocate evacuation buffers from. Whereas the sequential evacuator
+ * only needs to skip its own allocation hand, cells being copied by other workers cannot be parsed safely.
+ * Thus, dirty cards of the old generation are cleaned before evacuation begins and recorded as segments of cells that exclude free chunks.
+ * If the number of segments exceeds the capacity of the segment buffer, the remaining dirty cards are evacuated sequentially
+ * before any other evacuation work begins.
+ */
+public final class ParallelNurseryEvacuator extends NoAgingNurseryEvacuator {
+    /**
+     * Size of the chunks of the boot heap the workers claim when scanning its dirty cards.
+     */
+    private static final int LOG2_BOOT_HEAP_CHUNK_SIZE = 20;
+    private static final int BOOT_HEAP_CHUNK_SIZE = 1 << LOG2_BOOT_HEAP_CHUNK_SIZE;
+
+    /**
+     * Maximum number of segments of old generation dirty cards recorded before evacuation.
+     */
+    private static final int MAX_DIRTY_CARD_SEGMENTS = 4096;
+
+    /**
+     * Number of words describing a dirty card segment: first cell, start and end of the segment.
+     */
+    private static final int DIRTY_CARD_SEGMENT_WORDS = 3;
+
+    /**
+     * Evacuation buffer provider that serializes refills and retirements of evacuation buffers of multiple evacuators.
+     */
+    static final class SynchronizedEvacuationBufferProvider implements EvacuationBufferProvider {
+        private final EvacuationBufferProvider provider;
+        /**
+         * Serializes allocation in the to-space.
+         */
+        final SpinLock lock = new SpinLock();
+
+        SynchronizedEvacuationBufferProvider(EvacuationBufferProvider provider) {
+            this.provider = provider;
+        }
+
+        @Override
+        public Address refillEvacuationBuffer() {
+            lock.lock();
+            final Address chunk = provider.refillEvacuationBuffer();
+            lock.unlock();
+            return chunk;
+        }
+
+        @Override
+        public void retireEvacuationBuffer(Address startOfSpaceLeft, Address endOfSpaceLeft) {
+            lock.lock();
+            provider.retireEvacuationBuffer(startOfSpaceLeft, endOfSpaceLeft);
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records the dirty cards of the old generation as segments of cells that don't comprise free chunks.
+     * Cards are cleaned as they are recorded. If the segment buffer is full, the cards of the segments that couldn't be recorded are dirtied again.
+     */
+    final class DirtyCardSegmentRecorder implements CellRangeVisitor, OverlappingCellVisitor {
+        private Address rangeStart;
+        private Address rangeEnd;
+        private Pointer segmentFirstCell;
+        private Address segmentStart;
+        boolean overflow;
+
+        void reset() {
+            rangeStart = Address.zero();
+            rangeEnd = Address.zero();
+            segmentFirstCell = Pointer.zero();
+            overflow = false;
+            numDirtyCardSegments = 0;
+        }
+
+        private void closeSegment(Address segmentEnd) {
+            if (segmentFirstCell.isZero()) {
+                return;
+            }
+            if (numDirtyCardSegments == MAX_DIRTY_CARD_SEGMENTS) {
+                overflow = true;
+                rset.setCards(CardTableRSet.alignDownToCard(segmentStart), CardTableRSet.alignUpToCard(segmentEnd), CardState.DIRTY_CARD);
+            } else {
+                final int index = numDirtyCardSegments * DIRTY_CARD_SEGMENT_WORDS;
+                dirtyCardSegments[index] = segmentFirstCell.toLong();
+                dirtyCardSegments[index + 1] = segmentStart.toLong();
+                dirtyCardSegments[index + 2] = segmentEnd.toLong();
+                numDirtyCardSegments++;
+            }
+            segmentFirstCell = Pointer.zero();
+        }
+
+        void flush() {
+            closeSegment(rangeEnd);
+        }
+
+        public void visitCells(Address start, Address end) {
+            rset.cleanAndVisitCards(start, end, this);
+        }
+
+        public Pointer visitCell(Pointer cell, Address start, Address end) {
+            if (!start.equals(rangeStart) || !end.equals(rangeEnd)) {
+                // Beginning of a new range of dirty cards.
+                closeSegment(rangeEnd);
+                rangeStart = start;
+                rangeEnd = end;
+            }
+            final Pointer origin = Layout.cellToOrigin(cell);
+            if (HeapFreeChunk.isHeapFreeChunkOrigin(origin)) {
+                closeSegment(cell);
+                return cell.plus(HeapFreeChunk.getFreechunkSize(cell));
+            }
+            if (segmentFirstCell.isZero()) {
+                segmentFirstCell = cell;
+                segmentStart = cell.greaterThan(start) ? cell : start;
+            }
+            return cell.plus(Layout.size(origin));
+        }
+    }
+
+    /**
+     * Evacuation work run by each GC worker.
+     */
+    final class EvacuationTask extends GCWorkerThreadPool.Task {
+        TIMED_OPERATION operation;
+
+        @Override
+        public void run(int workerId) {
+            workers[workerId].runEvacuationTask(operation);
+        }
+    }
+
+    /**
+     * The evacuator coordinating the evacuation. This is the evacuator of GC worker 0.
+     */
+    private final ParallelNurseryEvacuator coordinator;
+
+    private final SynchronizedEvacuationBufferProvider synchronizedEvacuationBufferProvider;
+
+    /**
+     * Scanner of this evacuator for the thread and monitor roots.
+     */
+    private final ParallelHeapRootsScanner.Scanner threadRootsScanner;
+
+    /**
+     * Indicates whether the current evacuation is performed in parallel.
+     */
+    private boolean parallel;
+
+    // The following fields are only used by the coordinator.
+
+    private final ParallelHeapRootsScanner heapRootsScanner;
+
+    private final EvacuationTask evacuationTask;
+
+    private final DirtyCardSegmentRecorder dirtyCardSegmentRecorder;
+
+    /**
+     * Serializes discovery of special references, as the {@link SpecialReferenceManager} isn't thread-safe.
+     */
+    private final SpinLock discoveryLock;
+
+    /**
+     * Whether evacuation can be split among the GC workers.
+     */
+    private boolean parallelEvacuationEnabled = true;
+
+    /**
+     * Evacuators of all the GC workers. Null if evacuation is always sequential.
+     */
+    private ParallelNurseryEvacuator[] workers;
+
+    /**
+     * Number of workers taking part in the current evacuation.
+     */
+    private int numWorkers;
+
+    private long[] dirtyCardSegments;
+    private int numDirtyCardSegments;
+
+    private Address bootHeapStart;
+    private Address bootHeapLimit;
+    private int numBootHeapChunks;
+
+    /**
+     * Next work item to claim in the current parallel phase (a chunk of the boot heap, or a dirty card segment).
+     */
+    private volatile int nextWorkItem;
+
+    /**
+     * Number of workers that haven't yet run out of survivor ranges. Used for termination of the copy phases.
+     */
+    private volatile int activeWorkers;
+
+    @FOLD
+    private static int nextWorkItemOffset() {
+        return ClassActor.fromJava(ParallelNurseryEvacuator.class).findLocalInstanceFieldActor("nextWorkItem").offset();
+    }
+
+    @FOLD
+    private static int activeWorkersOffset() {
+        return ClassActor.fromJava(ParallelNurseryEvacuator.class).findLocalInstanceFieldActor("activeWorkers").offset();
+    }
+
+    public ParallelNurseryEvacuator(EvacuatingSpace fromSpace, HeapSpace toSpace, EvacuationBufferProvider evacuationBufferProvider, CardTableRSet rset, String name) {
+        super(fromSpace, toSpace, new SynchronizedEvacuationBufferProvider(evacuationBufferProvider), rset, name);
+        coordinator = this;
+        synchronizedEvacuationBufferProvider = (SynchronizedEvacuationBufferProvider) evacuationBufferProvider();
+        heapRootsScanner = new ParallelHeapRootsScanner();
+        threadRootsScanner = heapRootsScanner.createScanner(this);
+        evacuationTask = new EvacuationTask();
+        dirtyCardSegmentRecorder = new DirtyCardSegmentRecorder();
+        discoveryLock = new SpinLock();
+    }
+
+    /**
+     * Creates the evacuator of a GC worker other than worker 0.
+     */
+    private ParallelNurseryEvacuator(ParallelNurseryEvacuator coordinator) {
+        super(coordinator);
+        this.coordinator = coordinator;
+        synchronizedEvacuationBufferProvider = coordinator.synchronizedEvacuationBufferProvider;
+        heapRootsScanner = null;
+        threadRootsScanner = coordinator.heapRootsScanner.createScanner(this);
+        evacuationTask = null;
+        dirtyCardSegmentRecorder = null;
+        discoveryLock = null;
+        setPhaseLogger(coordinator.phaseLogger);
+        setDetailLogger(coordinator.detailLogger);
+        setDumper(coordinator.dumper);
+    }
+
+    /**
+     * Makes evacuation always sequential, regardless of the number of GC workers. Must be called before the evacuator is initialized.
+     */
+    public void disableParallelEvacuation() {
+        parallelEvacuationEnabled = false;
+    }
+
+    @Override
+    public void initialize(int maxSurvivorRanges, boolean alwaysRefill, Size minRefillThreshold, boolean retireAfterEvacuation) {
+        super.initialize(maxSurvivorRanges, alwaysRefill, minRefillThreshold, retireAfterEvacuation);
+        final int maxWorkers = GCWorkerThreadPool.maxWorkers();
+        if (maxWorkers == 1 || !isCoordinator() || !parallelEvacuationEnabled) {
+            return;
+        }
+        enableSurvivorRangesStealing();
+        workers = new ParallelNurseryEvacuator[maxWorkers];
+        workers[0] = this;
+        for (int workerId = 1; workerId < maxWorkers; workerId++) {
+            final ParallelNurseryEvacuator helper = new ParallelNurseryEvacuator(this);
+            helper.initialize(maxSurvivorRanges, alwaysRefill, minRefillThreshold, retireAfterEvacuation);
+            helper.enableSurvivorRangesStealing();
+            workers[workerId] = helper;
+        }
+        dirtyCardSegments = new long[MAX_DIRTY_CARD_SEGMENTS * DIRTY_CARD_SEGMENT_WORDS];
+    }
+
+    private boolean isCoordinator() {
+        return coordinator == this;
+    }
+
+    @Override
+    public void setGCOperation(GCOperation gcOperation) {
+        super.setGCOperation(gcOperation);
+        if (isCoordinator() && workers != null) {
+            for (int workerId = 1; workerId < workers.length; workerId++) {
+                workers[workerId].setGCOperation(gcOperation);
+            }
+        }
+    }
+
+    @Override
+    public void setDumper(HeapRangeDumper dumper) {
+        super.setDumper(dumper);
+        if (isCoordinator() && workers != null) {
+            for (int workerId = 1; workerId < workers.length; workerId++) {
+                workers[workerId].setDumper(dumper);
+            }
+        }
+    }
+
+    @Override
+    public void setPromotedCellsMarker(TricolorHeapMarker heapMarker) {
+        super.setPromotedCellsMarker(heapMarker);
+        if (isCoordinator() && workers != null) {
+            for (int workerId = 1; workerId < workers.length; workerId++) {
+                workers[workerId].setPromotedCellsMarker(heapMarker);
+            }
+        }
+    }
+
+    @Override
+    public void setLargeObjectCandidates(LargeObjectCandidates largeObjectCandidates) {
+        super.setLargeObjectCandidates(largeObjectCandidates);
+        if (isCoordinator() && workers != null) {
+            for (int workerId = 1; workerId < workers.length; workerId++) {
+                workers[workerId].setLargeObjectCandidates(largeObjectCandidates);
+            }
+        }
+    }
+
+    @Override
+    public void setAgingNursery(AgingRegionalizedNursery agingNursery) {
+        super.setAgingNursery(agingNursery);
+        if (isCoordinator() && workers != null) {
+            for (int workerId = 1; workerId < workers.length; workerId++) {
+                workers[workerId].setAgingNursery(agingNursery);
+            }
+        }
+    }
+
+    @Override
+    public void setEvacuationSpace(EvacuatingSpace fromSpace,  HeapSpace toSpace) {
+        super.setEvacuationSpace(fromSpace, toSpace);
+        if (isCoordinator() && workers != null) {
+            for (int workerId = 1; workerId < workers.length; workerId++) {
+                workers[workerId].setEvacuationSpace(fromSpace, toSpace);
+            }
+        }
+    }
+
+    @Override
+    public void enableDarkMatterRefCheck(boolean b) {
+        super.enableDarkMatterRefCheck(b);
+        if (isCoordinator() && workers != null) {
+            for (int workerId = 1; workerId < workers.length; workerId++) {
+                workers[workerId].enableDarkMatterRefCheck(b);
+            }
+        }
+    }
+
+    @Override
+    public Size evacuatedBytes() {
+        Size evacuatedBytes = super.evacuatedBytes();
+        if (isCoordinator() && workers != null) {
+            for (int workerId = 1; workerId < workers.length; workerId++) {
+                evacuatedBytes = evacuatedBytes.plus(workers[workerId].evacuatedBytes());
+            }
+        }
+        return evacuatedBytes;
+    }
+
+    @Override
+    public void doBeforeGC() {
+        super.doBeforeGC();
+        if (isCoordinator() && workers != null) {
+            for (int workerId = 1; workerId < workers.length; workerId++) {
+                workers[workerId].doBeforeGC();
+            }
+        }
+    }
+
+    private int atomicIncrement(int offset) {
+        int oldValue;
+        do {
+            oldValue = Reference.fromJava(this).readInt(offset);
+        } while (Reference.fromJava(this).compareAndSwapInt(offset, oldValue, oldValue + 1) != oldValue);
+        return oldValue;
+    }
+
+    private void atomicDecrement(int offset) {
+        int oldValue;
+        do {
+            oldValue = Reference.fromJava(this).readInt(offset);
+        } while (Reference.fromJava(this).compareAndSwapInt(offset, oldValue, oldValue - 1) != oldValue);
+    }
+
+    /**
+     * Claim the next work item of the current parallel phase.
+     * @param numWorkItems number of work items of the phase
+     * @return the index of a work item, or -1 if all work items have been claimed
+     */
+    private int claimWorkItem(int numWorkItems) {
+        if (nextWorkItem >= numWorkItems) {
+            return -1;
+        }
+        final int workItem = atomicIncrement(nextWorkItemOffset());
+        return workItem < numWorkItems ? workItem : -1;
+    }
+
+    private void executeInParallel(TIMED_OPERATION operation) {
+        nextWorkItem = 0;
+        activeWorkers = numWorkers;
+        evacuationTask.operation = operation;
+        GCWorkerThreadPool.pool().execute(evacuationTask);
+    }
+
+    @Override
+    protected void doBeforeEvacuation() {
+        final GCWorkerThreadPool pool = GCWorkerThreadPool.pool();
+        parallel = workers != null && pool.isParallel();
+        super.doBeforeEvacuation();
+        if (!parallel) {
+            return;
+        }
+        numWorkers = pool.numWorkers();
+        for (int workerId = 1; workerId < numWorkers; workerId++) {
+            final ParallelNurseryEvacuator helper = workers[workerId];
+            helper.parallel = true;
+            helper.initializeEvacuationBuffer();
+        }
+        // Record the dirty cards of the old generation before any cell is copied into the evacuation buffers.
+        dirtyCardSegmentRecorder.reset();
+        toSpace.visit(dirtyCardSegmentRecorder);
+        dirtyCardSegmentRecorder.flush();
+        if (dirtyCardSegmentRecorder.overflow) {
+            // Only this evacuator allocates at this point, so the sequential walk over the remaining dirty cards is safe.
+            evacuateFromDirtyCards();
+        }
+    }
+
+    @Override
+    protected void doAfterEvacuation() {
+        if (parallel) {
+            // Helpers release their evacuation buffers before the evacuated space is notified of the end of the evacuation.
+            for (int workerId = 1; workerId < numWorkers; workerId++) {
+                final ParallelNurseryEvacuator helper = workers[workerId];
+                helper.releaseEvacuationBuffer();
+                helper.parallel = false;
+            }
+            parallel = false;
+        }
+        super.doAfterEvacuation();
+    }
+
+    @Override
+    Pointer evacuate(Pointer fromOrigin) {
+        if (parallel) {
+            return evacuateAtomically(fromOrigin);
+        }
+        return super.evacuate(fromOrigin);
+    }
+
+    @Override
+    protected Pointer overflowAllocate(Size size) {
+        final SpinLock lock = synchronizedEvacuationBufferProvider.lock;
+        lock.lock();
+        final Pointer cell = super.overflowAllocate(size);
+        lock.unlock();
+        return cell;
+    }
+
+    @Override
+    protected void discoverSpecialReference(Pointer origin) {
+        if (parallel) {
+            final SpinLock lock = coordinator.discoveryLock;
+            lock.lock();
+            super.discoverSpecialReference(origin);
+            lock.unlock();
+        } else {
+            super.discoverSpecialReference(origin);
+        }
+    }
+
+    @Override
+    void evacuateFromRoots() {
+        if (parallel) {
+            heapRootsScanner.reset();
+            executeInParallel(TIMED_OPERATION.ROOT_SCAN);
+        } else {
+            super.evacuateFromRoots();
+        }
+    }
+
+    @Override
+    protected void evacuateFromBootHeap() {
+        if (parallel) {
+            final BootHeapRegion bootHeapRegion = Heap.bootHeapRegion;
+            bootHeapStart = bootHeapRegion.start();
+            bootHeapLimit = bootHeapRegion.lastMutableReferenceAddress().plus(Word.size());
+            numBootHeapChunks = bootHeapLimit.minus(bootHeapStart).plus(BOOT_HEAP_CHUNK_SIZE - 1).unsignedShiftedRight(LOG2_BOOT_HEAP_CHUNK_SIZE).toInt();
+            executeInParallel(TIMED_OPERATION.BOOT_HEAP_SCAN);
+            bootHeapRegion.discoverSpecialReference();
+        } else {
+            super.evacuateFromBootHeap();
+        }
+    }
+
+    @Override
+    protected void evacuateFromRSets() {
+        if (parallel) {
+            // Pinned ranges are few and small: scan them before the dirty cards are shared among the workers.
+            evacuateFromPinnedRanges();
+            executeInParallel(TIMED_OPERATION.RSET_SCAN);
+        } else {
+            super.evacuateFromRSets();
+        }
+    }
+
+    @Override
+    protected void evacuateReachables() {
+        if (parallel) {
+            final boolean refDiscoveryEnabled = isSpecialRefDiscoveryEnabled();
+            for (int workerId = 1; workerId < numWorkers; workerId++) {
+                if (refDiscoveryEnabled) {
+                    workers[workerId].enableSpecialRefDiscovery();
+                } else {
+                    workers[workerId].disableSpecialRefDiscovery();
+                }
+            }
+            executeInParallel(TIMED_OPERATION.COPY);
+        } else {
+            super.evacuateReachables();
+        }
+    }
+
+    private void evacuateBootHeapChunks() {
+        final ParallelNurseryEvacuator c = coordinator;
+        int chunk = c.claimWorkItem(c.numBootHeapChunks);
+        while (chunk >= 0) {
+            final Address start = c.bootHeapStart.plus(Address.fromInt(chunk).shiftedLeft(LOG2_BOOT_HEAP_CHUNK_SIZE));
+            // The last chunk extends to the end of the boot heap so that it covers the card holding the last mutable reference.
+            final Address end = chunk == c.numBootHeapChunks - 1 ? Heap.bootHeapRegion.end() : start.plus(BOOT_HEAP_CHUNK_SIZE);
+            evacuateFromBootHeapDirtyCards(start, end);
+            chunk = c.claimWorkItem(c.numBootHeapChunks);
+        }
+    }
+
+    private void evacuateDirtyCardSegments() {
+        final ParallelNurseryEvacuator c = coordinator;
+        final long[] segments = c.dirtyCardSegments;
+        int segment = c.claimWorkItem(c.numDirtyCardSegments);
+        while (segment >= 0) {
+            final int index = segment * DIRTY_CARD_SEGMENT_WORDS;
+            Pointer cell = Pointer.fromLong(segments[index]);
+            final Address start = Address.fromLong(segments[index + 1]);
+            final Address end = Address.fromLong(segments[index + 2]);
+            if (MaxineVM.isDebug() && isCoordinator() && dumper != null && HeapRangeDumper.DumpOnError) {
+                // The dumper is shared by all workers; only the VM operation thread can use it.
+                dumper.setRange(start, end);
+                FatalError.setOnVMOpError(dumper);
+            }
+            do {
+                cell = scanCellForEvacuatees(cell, start, end);
+            } while (cell.lessThan(end));
+            segment = c.claimWorkItem(c.numDirtyCardSegments);
+        }
+        if (MaxineVM.isDebug() && isCoordinator()) {
+            FatalError.setOnVMOpError(null);
+        }
+    }
+
+    private boolean hasStealableSurvivorRanges() {
+        final ParallelNurseryEvacuator c = coordinator;
+        for (int workerId = 0; workerId < c.numWorkers; workerId++) {
+            if (c.workers[workerId].hasSurvivorRanges()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean stealSurvivorRange() {
+        final ParallelNurseryEvacuator c = coordinator;
+        for (int workerId = 0; workerId < c.numWorkers; workerId++) {
+            final ParallelNurseryEvacuator victim = c.workers[workerId];
+            if (victim != this && stealSurvivorRange(victim)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Called by a worker that ran out of survivor ranges. Waits until either all workers ran out of survivor ranges, or some become available for stealing.
+     * A worker has no unrecorded survivors when it runs out of survivor ranges, and only active workers can add survivor ranges,
+     * so no survivor ranges can be left once all workers are inactive.
+     *
+     * @return true if all workers ran out of survivor ranges, false if the worker should try stealing again.
+     */
+    private boolean offerTermination() {
+        final ParallelNurseryEvacuator c = coordinator;
+        c.atomicDecrement(activeWorkersOffset());
+        while (true) {
+            if (c.activeWorkers == 0) {
+                return true;
+            }
+            if (hasStealableSurvivorRanges()) {
+                c.atomicIncrement(activeWorkersOffset());
+                return false;
+            }
+            Thread.yield();
+        }
+    }
+
+    private void evacuateReachablesInParallel() {
+        while (true) {
+            super.evacuateReachables();
+            if (!stealSurvivorRange() && offerTermination()) {
+                return;
+            }
+        }
+    }
+
+    void runEvacuationTask(TIMED_OPERATION operation) {
+        switch (operation) {
+            case ROOT_SCAN:
+                threadRootsScanner.run();
+                break;
+            case BOOT_HEAP_SCAN:
+                evacuateBootHeapChunks();
+                break;
+            case RSET_SCAN:
+                evacuateDirtyCardSegments();
+                break;
+            case COPY:
+                evacuateReachablesInParallel();
+                break;
+            default:
+                FatalError.unexpected("not a parallel evacuation operation");
+        }
+    }
+}
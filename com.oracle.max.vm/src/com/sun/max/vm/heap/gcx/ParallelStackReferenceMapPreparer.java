@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.heap.gcx;
+
+import com.sun.max.annotate.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.util.timer.*;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.log.VMLogger.Interval;
+import com.sun.max.vm.reference.*;
+import com.sun.max.vm.runtime.*;
+import com.sun.max.vm.thread.*;
+
+/**
+ * Prepares the stack reference maps of the threads frozen by a {@link GCOperation} in parallel, instead of one thread at a time
+ * on the VM operation thread as each thread freezes. Each {@link GCWorkerThreadPool GC worker} walks the
+ * {@link VmThreadMap#ACTIVE active thread list} and claims threads one at a time, in the same way as a {@link ParallelHeapRootsScanner}.
+ * The stack of a claimed thread is walked with that thread's own {@link com.sun.max.vm.stack.StackReferenceMapPreparer} and stack
+ * frame walker, so workers never share walking state.
+ * <p>
+ * GC operations using this preparer must {@linkplain GCOperation#defersStackReferenceMapPreparation() defer} stack reference map
+ * preparation and delegate {@link GCOperation#prepareFrozenStackReferenceMaps()} to {@link #prepare(GCOperation)}.
+ */
+public final class ParallelStackReferenceMapPreparer extends GCWorkerThreadPool.Task {
+    /**
+     * Next thread to claim, as a position in the active thread list.
+     */
+    private volatile int nextThread;
+
+    @FOLD
+    private static int nextThreadOffset() {
+        return ClassActor.fromJava(ParallelStackReferenceMapPreparer.class).findLocalInstanceFieldActor("nextThread").offset();
+    }
+
+    /**
+     * Per-worker preparer. Allocated ahead of time as workers must not allocate while running a task.
+     */
+    final class Preparer implements Pointer.Procedure {
+        /**
+         * Position of the next thread in the active thread list.
+         */
+        private int position;
+
+        /**
+         * Last thread claimed by the preparer.
+         */
+        private int claimed;
+
+        /**
+         * Cumulated time spent preparing the stack reference maps of the claimed threads.
+         */
+        long preparationTime;
+
+        public void run(Pointer tla) {
+            if (position == claimed) {
+                preparationTime += GCOperation.prepareFrozenStackReferenceMap(tla);
+                claimed = claim();
+            }
+            position++;
+        }
+
+        void run() {
+            preparationTime = 0L;
+            position = 0;
+            claimed = claim();
+            VmThreadMap.ACTIVE.forAllThreadLocals(operation.frozenThreadPredicate(), this);
+        }
+    }
+
+    private Preparer[] preparers;
+
+    /**
+     * The operation whose frozen threads are being prepared.
+     */
+    private GCOperation operation;
+
+    private final Timer timer = new SingleUseTimer(HeapScheme.GC_TIMING_CLOCK);
+
+    public ParallelStackReferenceMapPreparer() {
+    }
+
+    /**
+     * Allocate the state of the workers. Must be called at VM startup.
+     */
+    public void initialize() {
+        final int maxWorkers = GCWorkerThreadPool.maxWorkers();
+        if (maxWorkers == 1 || preparers != null) {
+            return;
+        }
+        Heap.enableImmortalMemoryAllocation();
+        preparers = new Preparer[maxWorkers];
+        for (int workerId = 0; workerId < maxWorkers; workerId++) {
+            preparers[workerId] = new Preparer();
+        }
+        Heap.disableImmortalMemoryAllocation();
+    }
+
+    /**
+     * Indicates whether stack reference maps are prepared in parallel, i.e., whether the {@link GCWorkerThreadPool} has more than one worker.
+     */
+    public boolean isParallel() {
+        return preparers != null && GCWorkerThreadPool.pool().isParallel();
+    }
+
+    private int claim() {
+        int oldValue;
+        do {
+            oldValue = nextThread;
+        } while (Reference.fromJava(this).compareAndSwapInt(nextThreadOffset(), oldValue, oldValue + 1) != oldValue);
+        return oldValue;
+    }
+
+    @Override
+    public void run(int workerId) {
+        preparers[workerId].run();
+    }
+
+    /**
+     * Prepares the stack reference maps of all the threads frozen by a GC operation, using all the GC workers.
+     * Must be called by the VM operation thread.
+     *
+     * @param operation the GC operation that froze the threads
+     * @return the cumulated time taken by all the workers to prepare the reference maps
+     */
+    public long prepare(GCOperation operation) {
+        final boolean traceGCPhases = Heap.logGCPhases();
+        final boolean traceGCTimes = Heap.logGCTime();
+        final GCWorkerThreadPool pool = GCWorkerThreadPool.pool();
+        if (traceGCPhases) {
+            HeapSchemeLoggerAdaptor.phaseLogger.logPreparingStackReferenceMaps(Interval.BEGIN);
+        }
+        if (traceGCTimes) {
+            timer.start();
+        }
+        this.operation = operation;
+        nextThread = 0;
+        pool.execute(this);
+        this.operation = null;
+        if (traceGCTimes) {
+            timer.stop();
+            HeapSchemeLoggerAdaptor.timeLogger.logParallelStackReferenceMapPreparationTime(pool.numWorkers(), timer.getLastElapsedTime());
+        }
+        if (traceGCPhases) {
+            HeapSchemeLoggerAdaptor.phaseLogger.logPreparingStackReferenceMaps(Interval.END);
+        }
+        long preparationTime = 0L;
+        for (int i = 0; i < pool.numWorkers(); i++) {
+            preparationTime += preparers[i].preparationTime;
+        }
+        return preparationTime;
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.heap.gcx;
+
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.runtime.*;
+
+/**
+ * A sizing policy for a generational heap with an aging young generation that resizes the generations after each collection
+ * to meet a pause time goal and a throughput goal.
+ * <p>
+ * The initial sizes of the generations are those of the {@linkplain FixedRatioAgingGenHeapSizingPolicy fixed ratio policy}. The policy
+ * keeps decaying averages of the minor and full collection pause times, of the bytes evacuated by minor collections, and of the
+ * fraction of time spent in GC. After each collection, it applies the first of the following rules that the averages trigger:
+ * <ol>
+ * <li>if minor pauses exceed the pause goal, eden is shrunk, as minor pauses grow with the amount of survivors;</li>
+ * <li>if the fraction of time spent in GC exceeds the throughput goal, the generation responsible for most of the GC time is grown:
+ * eden, to lower the frequency of minor collections, or the old generation, to lower the frequency of full collections.</li>
+ * </ol>
+ * Eden only grows while the old generation can absorb the worst case evacuation of the larger young generation, growing the old generation
+ * if it needs to. Generations never grow beyond the reserve of regions their heap account got from the {@link HeapRegionManager}.
+ * Full pauses are dominated by the amount of live data in the old generation, which resizing doesn't change.
+ * So the policy doesn't act on them, and the old generation is never shrunk.
+ */
+public class PauseGoalGenHeapSizingPolicy extends FixedRatioAgingGenHeapSizingPolicy {
+    /**
+     * Percentage of the current size eden is grown by to meet the throughput goal.
+     */
+    static final int YOUNG_GEN_INCREMENT_PERCENT = 20;
+    /**
+     * Percentage of the current size eden is shrunk by to meet the pause goal.
+     */
+    static final int YOUNG_GEN_DECREMENT_PERCENT = 10;
+    /**
+     * Percentage of the current size the old generation is grown by to meet the throughput goal.
+     */
+    static final int OLD_GEN_INCREMENT_PERCENT = 20;
+    /**
+     * Weight, in percent, of the last sample in the decaying averages.
+     */
+    static final int SAMPLE_WEIGHT_PERCENT = 25;
+
+    /**
+     * Pause time goal, in nanoseconds.
+     */
+    final long pauseGoal;
+
+    /**
+     * Maximum percentage of time spent in GC.
+     */
+    final double gcTimeGoal;
+
+    private double averageMinorPause;
+    private double averageFullPause;
+    private double averageEvacuatedBytes;
+    private double averageGCTimeFraction;
+    /**
+     * Decaying average of the fraction of GC time spent in full collections.
+     */
+    private double averageFullGCTimeFraction;
+
+    private long collectionStart;
+    private long fullCollectionStart;
+    private long fullCollectionTime;
+    private long lastCollectionEnd;
+
+    /**
+     * Create a pause goal sizing policy.
+     *
+     * @param maxPauseMillis pause time goal, in milliseconds
+     * @param gcTimeRatio throughput goal: at most <code>1 / (1 + gcTimeRatio)</code> of the time should be spent in GC
+     */
+    public PauseGoalGenHeapSizingPolicy(Size initHeapSize, Size maxHeapSize, int youngGenFixedHeapPercentage, int survivorRatio, int log2Alignment,
+                    int maxPauseMillis, int gcTimeRatio) {
+        super(initHeapSize, maxHeapSize, youngGenFixedHeapPercentage, survivorRatio, log2Alignment);
+        FatalError.check(maxPauseMillis > 0, "Not a valid pause time goal");
+        FatalError.check(gcTimeRatio > 0, "Not a valid GC time ratio");
+        pauseGoal = maxPauseMillis * 1000000L;
+        gcTimeGoal = 1.0 / (1 + gcTimeRatio);
+        lastCollectionEnd = System.nanoTime();
+    }
+
+    private static double sample(double average, double value) {
+        return (average * (100 - SAMPLE_WEIGHT_PERCENT) + value * SAMPLE_WEIGHT_PERCENT) / 100;
+    }
+
+    /**
+     * Notify the policy of the beginning of a collection.
+     */
+    public void beginCollection() {
+        collectionStart = System.nanoTime();
+        fullCollectionTime = 0L;
+    }
+
+    /**
+     * Notify the policy of the end of the evacuation of the young generation.
+     * @param evacuatedBytes number of bytes evacuated from the young generation
+     */
+    public void endMinorCollection(Size evacuatedBytes) {
+        averageMinorPause = sample(averageMinorPause, System.nanoTime() - collectionStart);
+        averageEvacuatedBytes = sample(averageEvacuatedBytes, evacuatedBytes.toLong());
+    }
+
+    /**
+     * Notify the policy of the beginning of a collection of the old generation.
+     */
+    public void beginFullCollection() {
+        fullCollectionStart = System.nanoTime();
+    }
+
+    /**
+     * Notify the policy of the end of a collection of the old generation.
+     */
+    public void endFullCollection() {
+        fullCollectionTime = System.nanoTime() - fullCollectionStart;
+        averageFullPause = sample(averageFullPause, fullCollectionTime);
+    }
+
+    private static Size percent(Size size, int percentage) {
+        return size.times(percentage).dividedBy(100);
+    }
+
+    /**
+     * Resize the generations after a collection to meet the goals.
+     * Must be called at the end of the collection, when the young generation has been evacuated.
+     *
+     * @param youngGen the young generation
+     * @param oldGen the old generation
+     * @return true if the heap was resized
+     */
+    public boolean resizeAfterCollection(HeapSpace youngGen, HeapSpace oldGen) {
+        final long now = System.nanoTime();
+        final long gcTime = now - collectionStart;
+        final long elapsed = now - lastCollectionEnd;
+        lastCollectionEnd = now;
+        if (elapsed > 0) {
+            averageGCTimeFraction = sample(averageGCTimeFraction, (double) gcTime / elapsed);
+        }
+        if (gcTime > 0) {
+            averageFullGCTimeFraction = sample(averageFullGCTimeFraction, (double) fullCollectionTime / gcTime);
+        }
+
+        boolean resized = false;
+        if (averageMinorPause > pauseGoal) {
+            resized = !youngGen.decreaseSize(alignUp(percent(youngGen.totalSpace(), YOUNG_GEN_DECREMENT_PERCENT))).isZero();
+        } else if (averageGCTimeFraction > gcTimeGoal) {
+            if (averageFullGCTimeFraction > 0.5) {
+                resized = !oldGen.increaseSize(alignUp(percent(oldGen.totalSpace(), OLD_GEN_INCREMENT_PERCENT))).isZero();
+            } else {
+                resized = growYoungGen(youngGen, oldGen);
+            }
+        }
+        if (Heap.verbose()) {
+            final boolean lockDisabledSafepoints = Log.lock();
+            Log.print("--Pause goal sizing: minor pause avg ");
+            Log.print((long) averageMinorPause / 1000);
+            Log.print(" us, full pause avg ");
+            Log.print((long) averageFullPause / 1000);
+            Log.print(" us, evacuated avg ");
+            Log.print((long) averageEvacuatedBytes >> 10);
+            Log.print(" K, GC time ");
+            final int gcTimePerMille = (int) (averageGCTimeFraction * 1000);
+            Log.print(gcTimePerMille / 10);
+            Log.print('.');
+            Log.print(gcTimePerMille % 10);
+            Log.print("%, young gen ");
+            Log.print(youngGen.totalSpace().unsignedShiftedRight(10).toLong());
+            Log.print(" K, old gen ");
+            Log.print(oldGen.totalSpace().unsignedShiftedRight(10).toLong());
+            Log.println(resized ? " K (resized)" : " K");
+            Log.unlock(lockDisabledSafepoints);
+        }
+        return resized;
+    }
+
+    /**
+     * Grow the young generation, provided the old generation can be grown to absorb the worst case evacuation of the larger young generation.
+     */
+    private boolean growYoungGen(HeapSpace youngGen, HeapSpace oldGen) {
+        final Size delta = alignUp(percent(youngGen.totalSpace(), YOUNG_GEN_INCREMENT_PERCENT));
+        final Size worstCaseEvac = youngGen.totalSpace().plus(delta);
+        final Size freeSpace = oldGen.freeSpace();
+        if (worstCaseEvac.greaterThan(freeSpace)) {
+            final Size missing = worstCaseEvac.minus(freeSpace);
+            if (oldGen.capacity().minus(oldGen.totalSpace()).lessThan(missing) || oldGen.increaseSize(missing).lessThan(missing)) {
+                return false;
+            }
+        }
+        return !youngGen.increaseSize(delta).isZero();
+    }
+}
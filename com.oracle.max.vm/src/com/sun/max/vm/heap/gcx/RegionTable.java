@@ -196,7 +196,7 @@ public final class RegionTable {
         return toHeapRegionInfo(table().plus(regionID * regionInfoSize));
     }
 
-    HeapRegionInfo inHeapAddressRegionInfo(Address addr) {
+    public HeapRegionInfo inHeapAddressRegionInfo(Address addr) {
         return regionInfo(inHeapAddressRegionID(addr));
     }
 
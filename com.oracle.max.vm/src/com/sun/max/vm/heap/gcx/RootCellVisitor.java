@@ -74,7 +74,7 @@ abstract class RootCellVisitor extends PointerIndexVisitor implements CellVisito
 
     final void markExternalRoot(Pointer cell) {
         // Note: the first test also acts as a null pointer filter.
-        if (cell.greaterEqual(bottom) && isNonNullCovered(cell)) {
+        if (cell.greaterEqual(bottom) && isNonNullCovered(cell) && heapMarker.isTraced(cell)) {
             heapMarker.markGrey(cell);
             if (cell.lessThan(leftmost)) {
                 leftmost = cell;
@@ -96,6 +96,20 @@ abstract class RootCellVisitor extends PointerIndexVisitor implements CellVisito
      */
     @Override
     public Pointer visitCell(Pointer cell) {
+        return visitCell(cell, true);
+    }
+
+    /**
+     * Visits a cell of the survivor spaces of a nursery excluded from the trace. Same as {@link #visitCell(Pointer)},
+     * except that the referent of a special reference is marked as a strong root, as the cell may move before the referent is processed.
+     *
+     * @param cell a cell in the survivor spaces of a nursery
+     */
+    final Pointer visitSurvivorCell(Pointer cell) {
+        return visitCell(cell, false);
+    }
+
+    private Pointer visitCell(Pointer cell, boolean discoverSpecialReferences) {
         if (MaxineVM.isDebug() && Heap.logRootScanning()) {
             TricolorHeapMarker.printVisitedCell(cell, "Visiting root cell ");
         }
@@ -111,7 +125,11 @@ abstract class RootCellVisitor extends PointerIndexVisitor implements CellVisito
         if (specificLayout == Layout.tupleLayout()) {
             TupleReferenceMap.visitReferences(hub, origin, this);
             if (hub.isJLRReference) {
-                SpecialReferenceManager.discoverSpecialReference(cell);
+                if (discoverSpecialReferences) {
+                    heapMarker.discoverSpecialReference(cell, this);
+                } else {
+                    visit(origin, SpecialReferenceManager.referentIndex());
+                }
             }
             return cell.plus(hub.tupleSize);
         }
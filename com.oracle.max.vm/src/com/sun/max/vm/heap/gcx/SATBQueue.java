@@ -0,0 +1,378 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.heap.gcx;
+
+import static com.sun.max.platform.Platform.*;
+import static com.sun.max.vm.runtime.amd64.AMD64SafepointPoll.*;
+import static com.sun.max.vm.thread.VmThread.*;
+import static com.sun.max.vm.thread.VmThreadLocal.*;
+
+import com.sun.cri.ci.*;
+import com.sun.cri.ci.CiAddress.Scale;
+import com.sun.cri.xir.*;
+import com.sun.cri.xir.CiXirAssembler.XirConstant;
+import com.sun.cri.xir.CiXirAssembler.XirLabel;
+import com.sun.cri.xir.CiXirAssembler.XirOperand;
+import com.sun.max.annotate.*;
+import com.sun.max.memory.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.compiler.*;
+import com.sun.max.vm.heap.XirWriteBarrierSpecification.XirRuntimeCallStubs;
+import com.sun.max.vm.layout.*;
+import com.sun.max.vm.reference.*;
+import com.sun.max.vm.runtime.*;
+import com.sun.max.vm.thread.*;
+import com.sun.max.vm.thread.VmThreadLocal.Nature;
+
+/**
+ * Snapshot-at-the-beginning (SATB) queue for concurrent marking.
+ * <p>
+ * While a concurrent marking cycle is active, the pre-write barrier of reference stores records the reference about to be overwritten
+ * so that the marker can trace every object that was reachable when the cycle began, even if the mutator disconnects it
+ * while the marker runs. References are recorded on per-thread buffers allocated off virtual memory, in the same way
+ * as the {@link com.sun.max.vm.heap.TLABLog}. A buffer occupies a page, so that its header can be found by masking the
+ * buffer's tail, and ends with a self-pointing sentinel, so that the barrier can test for a full buffer with a single load.
+ * Full buffers are handed over to a global list of completed buffers that the marker drains while the mutators run.
+ * <p>
+ * The barrier is implemented twice: in Java, for the VM's own reference stores (see {@link #preWrite(Reference)}),
+ * and in XIR for the code compiled by the optimizing compiler (see {@link #genTuplePreWriteBarrier}).
+ * Both share the same out-of-line slow path.
+ */
+public final class SATBQueue {
+    public static final String SATB_QUEUE_TAIL_THREAD_LOCAL_NAME = "SATB_QUEUE_TAIL";
+
+    /**
+     * Tail of the thread-local SATB buffer of a thread. If zero, the thread wasn't allocated a buffer yet.
+     */
+    public static final VmThreadLocal SATB_QUEUE_TAIL
+        = new VmThreadLocal(SATB_QUEUE_TAIL_THREAD_LOCAL_NAME, false, "SATBQueue: tail of the thread's snapshot-at-the-beginning buffer", Nature.Single);
+
+    public static final int BUFFER_SIZE = platform().pageSize;
+    private static final long BUFFER_HEAD_MASK = ~((long) BUFFER_SIZE - 1);
+
+    /**
+     * Index of the header word linking the buffer to the next one in the list of completed or free buffers.
+     */
+    private static final int LINK_WORD_INDEX = 0;
+    /**
+     * Index of the header word holding the end of the recorded references of a completed buffer.
+     */
+    private static final int END_WORD_INDEX = 1;
+    private static final int BUFFER_HEADER_SIZE = 2 * Word.size();
+
+    /**
+     * Non-zero while a concurrent marking cycle requires the recording of overwritten references.
+     * Only changed when mutators are stopped.
+     */
+    private static int active;
+
+    private static final SpinLock lock = new SpinLock();
+
+    /**
+     * List of buffers filled by mutators and not yet drained.
+     */
+    private static Pointer completedBuffers = Pointer.zero();
+
+    /**
+     * List of buffers available for reuse.
+     */
+    private static Pointer freeBuffers = Pointer.zero();
+
+    private SATBQueue() {
+    }
+
+    @FOLD
+    private static int activeOffset() {
+        return ClassActor.fromJava(SATBQueue.class).findLocalStaticFieldActor("active").offset();
+    }
+
+    @INLINE
+    public static boolean isActive() {
+        return active != 0;
+    }
+
+    @INLINE
+    private static Pointer bufferHead(Pointer tail) {
+        return tail.and(BUFFER_HEAD_MASK);
+    }
+
+    @INLINE
+    private static Pointer bufferStart(Pointer head) {
+        return head.plus(BUFFER_HEADER_SIZE);
+    }
+
+    /**
+     * Pre-write barrier for the VM's own reference stores. Must only be called when the queue {@linkplain #isActive() is active}.
+     * @param previous the reference about to be overwritten
+     */
+    @INLINE
+    public static void preWrite(Reference previous) {
+        if (!previous.isZero()) {
+            enqueue(previous);
+        }
+    }
+
+    /**
+     * Slow path of the XIR pre-write barrier, taken when the current thread's buffer is full or not allocated yet.
+     * @param previous a non-null reference about to be overwritten
+     */
+    public static void recordPreviousValue(Object previous) {
+        enqueue(Reference.fromJava(previous));
+    }
+
+    @NEVER_INLINE
+    static void enqueue(Reference previous) {
+        final Pointer etla = ETLA.load(currentTLA());
+        Pointer tail = SATB_QUEUE_TAIL.load(etla);
+        if (tail.isZero() || tail.getWord().asPointer().equals(tail)) {
+            final boolean wasDisabled = SafepointPoll.disable();
+            if (!tail.isZero()) {
+                complete(tail);
+            }
+            tail = bufferStart(allocateBuffer());
+            if (!wasDisabled) {
+                SafepointPoll.enable();
+            }
+        }
+        tail.setWord(previous.toOrigin());
+        SATB_QUEUE_TAIL.store(etla, tail.plus(Word.size()));
+    }
+
+    /**
+     * Get a buffer from the free list, or allocate a new one if the free list is empty.
+     * Must be called with safepoints disabled.
+     * @return the head of a buffer
+     */
+    private static Pointer allocateBuffer() {
+        lock.lock();
+        Pointer head = freeBuffers;
+        if (!head.isZero()) {
+            freeBuffers = head.getWord(LINK_WORD_INDEX).asPointer();
+        }
+        lock.unlock();
+        if (head.isZero()) {
+            head = VirtualMemory.allocate(Size.fromInt(BUFFER_SIZE), VirtualMemory.Type.DATA);
+            if (head.isZero()) {
+                throw FatalError.unexpected("Failed to allocate SATB buffer");
+            }
+            final Pointer sentinel = head.plus(BUFFER_SIZE - Word.size());
+            sentinel.setWord(sentinel);
+        }
+        return head;
+    }
+
+    /**
+     * Hand over a buffer to the list of completed buffers.
+     * @param tail the tail of the buffer
+     */
+    private static void complete(Pointer tail) {
+        final Pointer head = bufferHead(tail);
+        head.setWord(END_WORD_INDEX, tail);
+        lock.lock();
+        head.setWord(LINK_WORD_INDEX, completedBuffers);
+        completedBuffers = head;
+        lock.unlock();
+    }
+
+    private static void release(Pointer head) {
+        lock.lock();
+        head.setWord(LINK_WORD_INDEX, freeBuffers);
+        freeBuffers = head;
+        lock.unlock();
+    }
+
+    /**
+     * Retire the buffer of a thread, handing its recorded references over to the list of completed buffers.
+     * @param etla the thread's TLA
+     */
+    private static void retire(Pointer etla) {
+        final Pointer tail = SATB_QUEUE_TAIL.load(etla);
+        if (!tail.isZero()) {
+            SATB_QUEUE_TAIL.store(etla, Pointer.zero());
+            if (tail.equals(bufferStart(bufferHead(tail)))) {
+                release(bufferHead(tail));
+            } else {
+                complete(tail);
+            }
+        }
+    }
+
+    /**
+     * Retire the buffer of the current thread. Called when the thread detaches from the VM.
+     */
+    public static void retireCurrentThread() {
+        final boolean wasDisabled = SafepointPoll.disable();
+        retire(ETLA.load(currentTLA()));
+        if (!wasDisabled) {
+            SafepointPoll.enable();
+        }
+    }
+
+    private static final Pointer.Procedure bufferRetirer = new Pointer.Procedure() {
+        public void run(Pointer tla) {
+            retire(ETLA.load(tla));
+        }
+    };
+
+    /**
+     * Retire the buffers of all threads. Must be called when mutators are stopped.
+     */
+    public static void flushAll() {
+        VmThreadMap.ACTIVE.forAllThreadLocals(null, bufferRetirer);
+    }
+
+    /**
+     * Apply a procedure to the origins of the references recorded in completed buffers, and recycle the buffers.
+     *
+     * @param procedure procedure applied to each recorded origin
+     * @return true if at least one buffer was drained
+     */
+    public static boolean drain(Pointer.Procedure procedure) {
+        boolean drained = false;
+        do {
+            lock.lock();
+            final Pointer head = completedBuffers;
+            if (!head.isZero()) {
+                completedBuffers = head.getWord(LINK_WORD_INDEX).asPointer();
+            }
+            lock.unlock();
+            if (head.isZero()) {
+                return drained;
+            }
+            final Pointer end = head.getWord(END_WORD_INDEX).asPointer();
+            Pointer p = bufferStart(head);
+            while (p.lessThan(end)) {
+                procedure.run(p.getWord().asPointer());
+                p = p.plus(Word.size());
+            }
+            release(head);
+            drained = true;
+        } while (true);
+    }
+
+    /**
+     * Discard all recorded references. Must be called when mutators are stopped.
+     */
+    private static void discardAll() {
+        flushAll();
+        lock.lock();
+        Pointer head = completedBuffers;
+        completedBuffers = Pointer.zero();
+        lock.unlock();
+        while (!head.isZero()) {
+            final Pointer next = head.getWord(LINK_WORD_INDEX).asPointer();
+            release(head);
+            head = next;
+        }
+    }
+
+    /**
+     * Start recording overwritten references. Must be called when mutators are stopped.
+     */
+    public static void activate() {
+        // Discard references that may have been recorded by barriers that raced with the end of the previous cycle.
+        discardAll();
+        active = 1;
+    }
+
+    /**
+     * Stop recording overwritten references and discard those not drained. Must be called when mutators are stopped.
+     */
+    public static void deactivate() {
+        active = 0;
+        discardAll();
+    }
+
+    /**
+     * Generate the test of the active flag shared by the XIR pre-write barriers.
+     */
+    @HOSTED_ONLY
+    private static void genActiveCheck(CiXirAssembler asm, XirLabel done) {
+        final XirOperand isActive = asm.createTemp("satbActive", CiKind.Int);
+        final XirOperand staticTuple = asm.createConstant(CiConstant.forObject(ClassActor.fromJava(SATBQueue.class).staticTuple()));
+        asm.pload(CiKind.Int, isActive, staticTuple, asm.i(activeOffset()), false);
+        asm.jeq(done, isActive, asm.i(0));
+    }
+
+    /**
+     * Generate the recording of a previous value on the current thread's SATB buffer.
+     * The fast path stores the value inline; the slow path, taken when the buffer is full or not allocated yet, calls {@link #recordPreviousValue(Object)}.
+     */
+    @HOSTED_ONLY
+    private static void genEnqueue(CiXirAssembler asm, XirRuntimeCallStubs stubs, XirOperand previous, XirLabel done) {
+        final XirLabel slowPath = asm.createOutOfLineLabel("satbSlowPath");
+        final XirOperand tla = asm.createRegisterTemp("TLA", WordUtil.archKind(), LATCH_REGISTER);
+        final XirOperand etla = asm.createTemp("ETLA", WordUtil.archKind());
+        final XirOperand tail = asm.createTemp("satbTail", WordUtil.archKind());
+        final XirOperand endMark = asm.createTemp("satbEndMark", WordUtil.archKind());
+        final XirConstant offsetToTail = asm.i(SATB_QUEUE_TAIL.offset);
+
+        asm.jeq(done, previous, asm.o(null));
+        asm.pload(WordUtil.archKind(), etla, tla, asm.i(ETLA.offset), false);
+        asm.pload(WordUtil.archKind(), tail, etla, offsetToTail, false);
+        asm.jeq(slowPath, tail, asm.i(0));
+        asm.pload(WordUtil.archKind(), endMark, tail, false);
+        asm.jeq(slowPath, endMark, tail);
+        asm.pstore(CiKind.Object, tail, previous, false);
+        asm.add(tail, tail, asm.i(Word.size()));
+        asm.pstore(WordUtil.archKind(), etla, offsetToTail, tail, false);
+        asm.bindInline(done);
+        asm.bindOutOfLine(slowPath);
+        stubs.callRuntimeThroughStub(asm, SATBQueue.class, "recordPreviousValue", null, previous);
+        asm.jmp(done);
+    }
+
+    /**
+     * Generate the SATB pre-write barrier of a store to a reference field.
+     * @param asm
+     * @param stubs runtime call stubs
+     * @param tuple the object whose field is updated
+     * @param fieldOffset offset of the updated field
+     */
+    @HOSTED_ONLY
+    public static void genTuplePreWriteBarrier(CiXirAssembler asm, XirRuntimeCallStubs stubs, XirOperand tuple, XirOperand fieldOffset) {
+        final XirLabel done = asm.createInlineLabel("satbDone");
+        final XirOperand previous = asm.createTemp("previous", CiKind.Object);
+        genActiveCheck(asm, done);
+        asm.pload(CiKind.Object, previous, tuple, fieldOffset, true);
+        genEnqueue(asm, stubs, previous, done);
+    }
+
+    /**
+     * Generate the SATB pre-write barrier of a store to an element of a reference array.
+     * @param asm
+     * @param stubs runtime call stubs
+     * @param array the updated array
+     * @param index index of the updated element
+     */
+    @HOSTED_ONLY
+    public static void genArrayPreWriteBarrier(CiXirAssembler asm, XirRuntimeCallStubs stubs, XirOperand array, XirOperand index) {
+        final XirLabel done = asm.createInlineLabel("satbDone");
+        final XirOperand previous = asm.createTemp("previous", CiKind.Object);
+        genActiveCheck(asm, done);
+        final int disp = Layout.referenceArrayLayout().getElementOffsetFromOrigin(0).toInt();
+        asm.pload(CiKind.Object, previous, array, index, disp, Scale.fromInt(Word.size()), true);
+        genEnqueue(asm, stubs, previous, done);
+    }
+}
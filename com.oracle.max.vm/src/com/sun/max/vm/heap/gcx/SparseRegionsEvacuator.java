@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.heap.gcx;
+
+import static com.sun.max.vm.heap.gcx.HeapRegionConstants.*;
+
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.heap.gcx.rset.ctbl.*;
+import com.sun.max.vm.layout.*;
+
+/**
+ * An evacuator that compacts the regions of a {@link FirstFitMarkSweepSpace} selected by {@link FirstFitMarkSweepSpace#beginCompaction()} after
+ * a full collection. The live objects of the selected regions are evacuated to the other regions of the space.
+ * <p>
+ * Regions have no remembered sets. Instead, references to the evacuated regions are found by visiting all the cells that the heap marker marked black
+ * in the committed regions of the space's heap account, in addition to the roots, boot heap, code and immortal heap scanned by any evacuation.
+ * Evacuation must therefore take place right after marking, while the color map is still valid. Dead cells aren't visited, and so may keep
+ * references to the evacuated regions.
+ * <p>
+ * Special references are treated as strong references, as the heap marker already processed them: referents it kept alive must not be cleared.
+ * Cards covering an evacuated cell that may refer to the nursery are dirtied on the copy, so that the next young collection finds these references.
+ */
+public final class SparseRegionsEvacuator extends EvacuatorToCardSpace {
+    /**
+     * Space whose regions are compacted.
+     */
+    private final FirstFitMarkSweepSpace<? extends HeapAccountOwner> space;
+
+    /**
+     * Heap marker whose color map identifies the live cells that may refer to the evacuated regions.
+     */
+    private final TricolorHeapMarker heapMarker;
+
+    private final HeapRegionInfoIterable regionInfoIterable;
+
+    public SparseRegionsEvacuator(FirstFitMarkSweepSpace<? extends HeapAccountOwner> space, TricolorHeapMarker heapMarker,
+                    EvacuationBufferProvider evacuationBufferProvider, CardTableRSet rset, String name) {
+        super(space.compactedRegions(), space, evacuationBufferProvider, rset, name);
+        this.space = space;
+        this.heapMarker = heapMarker;
+        this.regionInfoIterable = new HeapRegionInfoIterable();
+    }
+
+    @Override
+    protected void doBeforeEvacuation() {
+        super.doBeforeEvacuation();
+        disableSpecialRefDiscovery();
+    }
+
+    /**
+     * Visit the black cells of all the committed regions of the space's heap account but the evacuated ones.
+     * This includes the regions of other spaces sharing the heap account (e.g., the survivors of a nursery).
+     */
+    @Override
+    protected void evacuateFromRSets() {
+        regionInfoIterable.initialize(space.heapAccount().committedRegions());
+        regionInfoIterable.reset();
+        while (regionInfoIterable.hasNext()) {
+            final Address regionStart = regionInfoIterable.next().regionStart();
+            if (!inEvacuatedArea(regionStart.asPointer())) {
+                heapMarker.visitBlackCells(regionStart, regionStart.plus(regionSizeInBytes), this);
+            }
+        }
+    }
+
+    @Override
+    Pointer evacuate(Pointer fromOrigin) {
+        final Pointer fromCell = Layout.originToCell(fromOrigin);
+        final Pointer toOrigin = super.evacuate(fromOrigin);
+        final Pointer toCell = Layout.originToCell(toOrigin);
+        final Size size = Layout.size(toOrigin);
+        final Address fromCardsEnd = CardTableRSet.alignUpToCard(fromCell.plus(size).minus(Word.size()));
+        if (rset.countCardInState(fromCell, fromCardsEnd, CardState.DIRTY_CARD) > 0) {
+            rset.setCards(toCell, CardTableRSet.alignUpToCard(toCell.plus(size).minus(Word.size())), CardState.DIRTY_CARD);
+        }
+        return toOrigin;
+    }
+}
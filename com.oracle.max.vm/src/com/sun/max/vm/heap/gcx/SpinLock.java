@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.heap.gcx;
+
+import com.sun.max.annotate.*;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.reference.*;
+
+/**
+ * A non-reentrant spin lock for short critical sections shared by {@link GCWorkerThreadPool GC workers}.
+ * Unlike VM locks, it never blocks the thread, and can therefore be used while GC workers run a task.
+ */
+final class SpinLock {
+    private volatile int locked;
+
+    @FOLD
+    private static int lockedOffset() {
+        return ClassActor.fromJava(SpinLock.class).findLocalInstanceFieldActor("locked").offset();
+    }
+
+    void lock() {
+        while (locked != 0 || Reference.fromJava(this).compareAndSwapInt(lockedOffset(), 0, 1) != 0) {
+            // spin
+        }
+    }
+
+    void unlock() {
+        locked = 0;
+    }
+}
@@ -37,7 +37,7 @@ import com.sun.max.vm.runtime.*;
 import com.sun.max.vm.type.*;
 
 /**
- * A marking algorithm that uses a tricolor mark-bitmap with a fixed-size marking stack, an (optional) rescan map.
+ * A marking algorithm that uses a tricolor mark-bitmap with a segmented marking stack (see {@link MarkingStack}), an (optional) rescan map.
  * The marking algorithm follows a strategy similar to Detlef & Printezis ISMM 2000 (see {@link ForwardScanState}
  * for details).
  * <p>
@@ -195,6 +195,7 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
         SCAN_BOOT_HEAP("B", "Marking roots from boot heap"),
         SCAN_CODE("C", "Marking roots from code"),
         SCAN_IMMORTAL("I", "Marking roots from immortal heap"),
+        PARALLEL_MARK("P", "Parallel marking of roots and grey objects"),
         VISIT_GREY_FORWARD("V", "Tracing grey objects"),
         SPECIAL_REF("W", "Processing special references"),
         DONE("D", "");
@@ -320,6 +321,7 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
     private final TimerMetric codeScanTimer = new TimerMetric(new SingleUseTimer(HeapScheme.GC_TIMING_CLOCK));
     private final TimerMetric immortalSpaceScanTimer = new TimerMetric(new SingleUseTimer(HeapScheme.GC_TIMING_CLOCK));
     private final TimerMetric heapMarkingTimer = new TimerMetric(new SingleUseTimer(HeapScheme.GC_TIMING_CLOCK));
+    private final TimerMetric parallelMarkingTimer = new TimerMetric(new SingleUseTimer(HeapScheme.GC_TIMING_CLOCK));
     final TimerMetric recoveryScanTimer = new TimerMetric(new SingleUseTimer(HeapScheme.GC_TIMING_CLOCK));
     private final TimerMetric weakRefTimer = new TimerMetric(new SingleUseTimer(HeapScheme.GC_TIMING_CLOCK));
 
@@ -333,6 +335,11 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
 
     MARK_PHASE markPhase = MARK_PHASE.DONE;
 
+    /**
+     * Live objects per class, recorded as they are marked black.
+     */
+    final ClassHistogram classHistogram = new ClassHistogram("marking");
+
 
     private static String colorName(long color) {
         return COLOR_NAMES[(int) color & 0x3];
@@ -435,6 +442,8 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
         Log.print(bootHeapScanTimer.getLastElapsedTime());
         Log.print(", code scan=");
         Log.print(codeScanTimer.getLastElapsedTime());
+        Log.print(", parallel marking=");
+        Log.print(parallelMarkingTimer.getLastElapsedTime());
         Log.print(", marking=");
         Log.print(heapMarkingTimer.getLastElapsedTime());
         Log.print(", marking stack overflow (");
@@ -443,6 +452,12 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
         Log.print(recoveryScanTimer.getElapsedTime());
         Log.print(", weak refs=");
         Log.print(weakRefTimer.getLastElapsedTime());
+        Log.print(", marking stack peak depth=");
+        Log.print(markingStack.peakDepth());
+        Log.print(", grown chunks=");
+        Log.print(markingStack.numGrowths());
+        Log.print(", overflows=");
+        Log.print(markingStack.numOverflows());
     }
 
     public void reportTotalElapsedTimes() {
@@ -452,6 +467,8 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
         Log.print(bootHeapScanTimer.getElapsedTime());
         Log.print(", code scan=");
         Log.print(codeScanTimer.getElapsedTime());
+        Log.print(", parallel marking=");
+        Log.print(parallelMarkingTimer.getElapsedTime());
         Log.print(", marking=");
         Log.print(heapMarkingTimer.getElapsedTime());
         Log.print(", marking stack overflow (");
@@ -524,6 +541,7 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
         heapRootsScanner = null;
         overflowLinearScanState = null;
         overflowScanWithRescanMapState = null;
+        parallelHeapMarker = null;
         initialize(start, end, bitmapStorage, bitmapSize);
     }
 
@@ -544,6 +562,7 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
         heapRootsScanner = new SequentialHeapRootsScanner(rootCellVisitor);
         overflowLinearScanState = new OverflowLinearScanState(this);
         overflowScanWithRescanMapState = new OverflowScanWithRescanMapState(this);
+        parallelHeapMarker = new ParallelHeapMarker(this);
     }
 
     @FOLD
@@ -583,6 +602,7 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
                 overflowScanState = overflowLinearScanState;
             }
             overflowScanState.initialize();
+            parallelHeapMarker.initialize();
         }
     }
 
@@ -744,6 +764,65 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
         markBlackFromGrey(bitIndex);
     }
 
+    /**
+     * Atomically paint grey a white color location that may span words. Used by parallel marking only.
+     * Note that when the color span words, another marker may see the location black until its grey bit is set.
+     *
+     * @param bitIndex
+     * @return true if the location was white and was painted grey by the caller, false otherwise.
+     */
+    final boolean atomicMarkGreyIfWhite(int bitIndex) {
+        final Pointer bitmapWordPointer = bitmapWordPointerAt(bitIndex);
+        final int bitIndexInWord = bitIndexInWord(bitIndex);
+        final long blackBit = bitmaskFor(bitIndexInWord);
+        final boolean colorSpanWords = bitIndexInWord == LAST_BIT_INDEX_IN_WORD;
+        final long greyBits = colorSpanWords ? blackBit : GREY << bitIndexInWord;
+        long bitmapWord;
+        do {
+            bitmapWord = bitmapWordPointer.getLong();
+            if ((bitmapWord & blackBit) != 0L) {
+                return false;
+            }
+        } while (bitmapWordPointer.compareAndSwapLong(0, bitmapWord, bitmapWord | greyBits) != bitmapWord);
+        if (colorSpanWords) {
+            final Pointer nextBitmapWordPointer = bitmapWordPointer.plus(Word.size());
+            do {
+                bitmapWord = nextBitmapWordPointer.getLong();
+            } while (nextBitmapWordPointer.compareAndSwapLong(0, bitmapWord, bitmapWord | 1L) != bitmapWord);
+        }
+        return true;
+    }
+
+    @INLINE
+    final boolean atomicMarkGreyIfWhite(Pointer cell) {
+        final int bitIndex = bitIndexOf(cell);
+        if (isWhite(bitIndex) && atomicMarkGreyIfWhite(bitIndex)) {
+            traceGreyMark(cell, bitIndex);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Atomically paint black a grey color location. Used by parallel marking only.
+     *
+     * @param bitIndex
+     * @return true if the location was grey and was painted black by the caller, false otherwise.
+     */
+    final boolean atomicMarkBlackFromGrey(int bitIndex) {
+        final int greyBitIndex = bitIndex + 1;
+        final Pointer bitmapWordPointer = bitmapWordPointerAt(greyBitIndex);
+        final long greyBit = bitmaskFor(bitIndexInWord(greyBitIndex));
+        long bitmapWord;
+        do {
+            bitmapWord = bitmapWordPointer.getLong();
+            if ((bitmapWord & greyBit) == 0L) {
+                return false;
+            }
+        } while (bitmapWordPointer.compareAndSwapLong(0, bitmapWord, bitmapWord & ~greyBit) != bitmapWord);
+        return true;
+    }
+
     final boolean isGrey(int bitIndex) {
         int bitIndexInWord = bitIndexInWord(bitIndex);
         if (bitIndexInWord == LAST_BIT_INDEX_IN_WORD) {
@@ -935,6 +1014,9 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
          */
         @INLINE
         private void markObjectGrey(Pointer cell) {
+            if (!heapMarker.isTraced(cell)) {
+                return;
+            }
             if (cell.greaterThan(finger)) {
                 // Object is after the finger. Mark grey and update rightmost if white.
                 if (heapMarker.markGreyIfWhite(cell) && cell.greaterThan(rightmost)) {
@@ -988,7 +1070,7 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
             if (specificLayout.isTupleLayout()) {
                 TupleReferenceMap.visitReferences(hub, origin, this);
                 if (hub.isJLRReference) {
-                    SpecialReferenceManager.discoverSpecialReference(cell);
+                    heapMarker.discoverSpecialReference(cell, this);
                 }
             } else if (specificLayout.isHybridLayout()) {
                 TupleReferenceMap.visitReferences(hub, origin, this);
@@ -998,6 +1080,7 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
                     markRefGrey(Layout.getReference(origin, index));
                 }
             }
+            heapMarker.classHistogram.record(origin);
             heapMarker.traceBlackMark(cell, bitIndex);
             heapMarker.markBlackFromGrey(bitIndex);
         }
@@ -1098,6 +1181,9 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
          */
         @INLINE
         private void markObjectGrey(Pointer cell) {
+            if (!heapMarker.isTraced(cell)) {
+                return;
+            }
             if (cell.greaterThan(finger)) {
                 // Object is after the finger. Mark grey and update rightmost if white.
                 if (heapMarker.markGreyIfWhite(cell) && cell.greaterThan(rightmost)) {
@@ -1152,9 +1238,10 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
                     // allows for a single call only). We need to protect against this, so we test here if
                     // the object wasn't set black already.
                     if (!heapMarker.isBlackWhenNotWhite(origin)) {
-                        SpecialReferenceManager.discoverSpecialReference(cell);
+                        heapMarker.discoverSpecialReference(cell, this);
                     }
                 }
+                heapMarker.classHistogram.record(hub, hub.tupleSize);
                 return cell.plus(hub.tupleSize);
             }
             if (specificLayout.isReferenceArrayLayout()) {
@@ -1162,12 +1249,15 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
             } else if (specificLayout.isHybridLayout()) {
                 TupleReferenceMap.visitReferences(hub, origin, this);
             }
-            return cell.plus(Layout.size(origin));
+            final Size size = Layout.size(origin);
+            heapMarker.classHistogram.record(hub, size);
+            return cell.plus(size);
         }
 
         abstract  int rightmostBitmapWordIndex();
 
         final Pointer markAndVisitCell(Pointer cell) {
+            heapMarker.yieldPoint();
             finger = cell;
             final Pointer endOfCell = visitGreyCell(cell);
             heapMarker.markBlackFromGrey(cell);
@@ -1175,6 +1265,7 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
         }
 
         void markAndVisitPoppedCell(Pointer cell) {
+            heapMarker.yieldPoint();
             int bitIndex = heapMarker.bitIndexOf(cell);
             // Due to how grey mark are being scanned, we may end up with black objects on the marking stack.
             // We filter them out here. See comments in visitGreyObjects
@@ -1191,12 +1282,15 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
 
         /**
          * Visit all grey objects whose mark is within the specified range of words of the color map.
+         * Unless {@linkplain MarkingStack#prefetchQueueLength() prefetching} is disabled, the header of the next grey object
+         * whose mark is in the same word of the color map is prefetched before visiting a grey object.
          *
          * @param bitmapWordIndex
          * @param rightmostBitmapWordIndex
          */
         protected final void visitGreyObjects(int bitmapWordIndex, int rightmostBitmapWordIndex) {
             final Pointer colorMapBase = heapMarker.base.asPointer();
+            final boolean prefetch = MarkingStack.prefetchQueueLength() > 0;
             while (bitmapWordIndex <= rightmostBitmapWordIndex) {
                 long bitmapWord = colorMapBase.getLong(bitmapWordIndex);
                 if (bitmapWord != 0L) {
@@ -1212,6 +1306,14 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
                         // First grey mark is the least set bit.
                         final int bitIndexInWord = Pointer.fromLong(greyMarksInWord).leastSignificantBitSet();
                         final int bitIndexOfGreyCell = (bitmapWordIndex << Word.widthValue().log2numberOfBits) + bitIndexInWord;
+                        if (prefetch) {
+                            // Clear both bits of the grey mark to find the next one.
+                            final long nextGreyMarksInWord = greyMarksInWord & ~(3L << bitIndexInWord);
+                            if (nextGreyMarksInWord != 0L) {
+                                final int bitIndexOfNextGreyCell = bitIndexOfGreyCell - bitIndexInWord + Pointer.fromLong(nextGreyMarksInWord).leastSignificantBitSet();
+                                Intrinsics.prefetchRead(heapMarker.addressOf(bitIndexOfNextGreyCell).asPointer());
+                            }
+                        }
                         final Pointer p = markAndVisitCell(heapMarker.addressOf(bitIndexOfGreyCell).asPointer());
                         // Get bitmap word index at the end of the object. This may avoid reading multiple mark bitmap words
                         // when marking objects crossing multiple mark bitmap words.
@@ -1264,6 +1366,12 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
      */
     private final SequentialHeapRootsScanner heapRootsScanner;
 
+    /**
+     * Parallel marking of roots and grey objects, used instead of {@link #markRoots()} when the
+     * {@link GCWorkerThreadPool} has more than one worker.
+     */
+    private final ParallelHeapMarker parallelHeapMarker;
+
     void markBootHeap() {
         Heap.bootHeapRegion.visitReferences(rootCellVisitor);
     }
@@ -1337,6 +1445,29 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
         markPhase.traceEnd(traceGCPhases);
     }
 
+    /**
+     * Indicates whether roots and grey objects are marked in parallel.
+     */
+    private boolean markInParallel() {
+        return parallelHeapMarker != null && parallelHeapMarker.canMarkInParallel();
+    }
+
+    /**
+     * Marking of roots and tracing of grey objects by the GC worker threads.
+     * On return, all marked objects are black, except those left grey by overflow of the workers' marking stacks.
+     * @see ParallelHeapMarker
+     */
+    private void markRootsAndTraceInParallel() {
+        final boolean traceGCPhases = Heap.logGCPhases();
+        rootCellVisitor.reset();
+        markPhase = MARK_PHASE.PARALLEL_MARK;
+        markPhase.traceBegin(traceGCPhases);
+        startTimer(parallelMarkingTimer);
+        parallelHeapMarker.mark();
+        stopTimer(parallelMarkingTimer);
+        markPhase.traceEnd(traceGCPhases);
+    }
+
     /*
      * Helper instance variables for debugging purposes only.
      * Easier to track than local variables when under the inspector.
@@ -1490,6 +1621,35 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
         forwardScanState.visitGreyObjects(regionRanges);
     }
 
+    /**
+     * Region ranges {@link #visitGreyObjectsOfPreservedReferents()} iterates over, or null if the heap is a single contiguous space.
+     */
+    private HeapRegionRangeIterable preservedReferentsRegionsRanges;
+
+    /**
+     * Process the discovered special references, tracing the referents the special reference manager preserves
+     * (see {@link #visitGreyObjectsOfPreservedReferents()}).
+     *
+     * @param regionsRanges an enumeration of the heap region ranges holding objects to trace, or null if the heap is a single contiguous space
+     */
+    private void processSpecialReferences(HeapRegionRangeIterable regionsRanges) {
+        preservedReferentsRegionsRanges = regionsRanges;
+        SpecialReferenceManager.processDiscoveredSpecialReferences(forwardScanState);
+        preservedReferentsRegionsRanges = null;
+    }
+
+    /**
+     * Trace the referents preserved by the special reference manager, which are marked grey.
+     */
+    void visitGreyObjectsOfPreservedReferents() {
+        if (preservedReferentsRegionsRanges == null) {
+            visitGreyObjects();
+        } else {
+            preservedReferentsRegionsRanges.reset();
+            visitGreyObjects(preservedReferentsRegionsRanges);
+        }
+    }
+
     /**
      * Visit all objects marked grey during root marking that resides in list of memory region ranges.
      * Regions are numbered from 0, where in the address to the first bytes of region 0 coincide with
@@ -1510,6 +1670,234 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
         visitGreyObjects();
     }
 
+    /**
+     * Concurrent marker driving this heap marker, or null if the heap marker is only used for stop-the-world marking.
+     * See {@link ConcurrentMarker}.
+     */
+    ConcurrentMarker concurrentMarker;
+
+    /**
+     * Start of an area of the covered area whose cells are never marked. The area is empty when both bounds are zero.
+     * Concurrent marking uses it to exclude from the trace a nursery evacuated by young collections taking place while the old generation is being marked.
+     */
+    private Address untracedAreaStart = Address.zero();
+
+    /**
+     * End of the area whose cells are never marked.
+     */
+    private Address untracedAreaEnd = Address.zero();
+
+    void setUntracedArea(Address start, Address end) {
+        untracedAreaStart = start;
+        untracedAreaEnd = end;
+    }
+
+    void clearUntracedArea() {
+        untracedAreaStart = Address.zero();
+        untracedAreaEnd = Address.zero();
+    }
+
+    @INLINE
+    final boolean isTraced(Address cell) {
+        return cell.lessThan(untracedAreaStart) || cell.greaterEqual(untracedAreaEnd);
+    }
+
+    /**
+     * Hand over a special reference discovered by the trace to the {@link SpecialReferenceManager}, unless the concurrent marker
+     * defers discovery until the end of the trace. If the concurrent marker runs out of room for deferred references, the referent is
+     * traced as if strongly reachable.
+     *
+     * @param cell cell of the special reference
+     * @param referentVisitor visitor tracing the referent when the special reference cannot be deferred
+     */
+    final void discoverSpecialReference(Pointer cell, PointerIndexVisitor referentVisitor) {
+        if (concurrentMarker != null && concurrentMarker.defersSpecialReferences()) {
+            if (!concurrentMarker.deferSpecialReference(cell)) {
+                referentVisitor.visit(Layout.cellToOrigin(cell), SpecialReferenceManager.referentIndex());
+            }
+            return;
+        }
+        SpecialReferenceManager.discoverSpecialReference(cell);
+    }
+
+    /**
+     * Let the concurrent marker yield to a pending stop-the-world pause. Called before visiting each grey cell.
+     */
+    @INLINE
+    final void yieldPoint() {
+        if (concurrentMarker != null) {
+            concurrentMarker.yieldIfPauseRequested();
+        }
+    }
+
+    /**
+     * Atomically paint black a cell allocated in the covered area while a concurrent marking cycle is in progress, so that the sweep ending the cycle
+     * doesn't reclaim it. The cell must be white or black. Used by the evacuators of young collections that promote cells to the marked space.
+     *
+     * @param cell a cell allocated after the initial marking of the current concurrent marking cycle.
+     */
+    final void atomicMarkBlack(Pointer cell) {
+        final int bitIndex = bitIndexOf(cell);
+        final Pointer bitmapWordPointer = bitmapWordPointerAt(bitIndex);
+        final long blackBit = bitmaskFor(bitIndexInWord(bitIndex));
+        long bitmapWord;
+        do {
+            bitmapWord = bitmapWordPointer.getLong();
+            if ((bitmapWord & blackBit) != 0L) {
+                return;
+            }
+        } while (bitmapWordPointer.compareAndSwapLong(0, bitmapWord, bitmapWord | blackBit) != bitmapWord);
+        traceBlackMark(cell, bitIndex);
+    }
+
+    /**
+     * Initial marking of a concurrent marking cycle: clear the color map and mark grey the cells referenced from the roots.
+     * Must be called with mutator threads stopped.
+     */
+    void markRootsOfConcurrentCycle() {
+        markRootsOfConcurrentCycle(null);
+    }
+
+    /**
+     * Same as {@link #markRootsOfConcurrentCycle()}, but the survivors of an aging nursery excluded from the trace are also treated as roots,
+     * since cells of the marked space may only be reachable from them.
+     *
+     * @param nursery an aging nursery excluded from the trace, or null
+     */
+    void markRootsOfConcurrentCycle(AgingRegionalizedNursery nursery) {
+        traceGCTimes = Heap.logGCTime();
+        markingStack.reset();
+        markingStack.resetStatistics();
+        clearColorMap();
+        classHistogram.begin();
+        markRoots();
+        if (nursery != null) {
+            nursery.visitSurvivors(survivorRootsVisitor);
+        }
+        initAfterRootMarking();
+        markPhase = MARK_PHASE.VISIT_GREY_FORWARD;
+    }
+
+    /**
+     * Marks the cells referenced from a range of survivors of a nursery excluded from the trace.
+     */
+    private final CellRangeVisitor survivorRootsVisitor = new CellRangeVisitor() {
+        public void visitCells(Address start, Address end) {
+            Pointer cell = start.asPointer();
+            while (cell.lessThan(end)) {
+                cell = rootCellVisitor.visitSurvivorCell(cell);
+            }
+        }
+    };
+
+    /**
+     * Visit grey objects from the finger of the forward scan to the rightmost grey object. Used both by the concurrent passes of a
+     * concurrent marking cycle and by its final pass.
+     *
+     * @param regionsRanges an enumeration of the heap region ranges holding objects to trace.
+     */
+    void visitGreyObjectsFromFinger(HeapRegionRangeIterable regionsRanges) {
+        overflowScanState.setHeapRegionsRanges(regionsRanges);
+        visitGreyObjects(regionsRanges);
+    }
+
+    /**
+     * Marks grey the white cells of the traced area that are recorded in SATB buffers, tracking the leftmost and rightmost of them.
+     */
+    private final class SATBEntryMarker implements Pointer.Procedure {
+        Address leftmost;
+        Address rightmost;
+
+        public void run(Pointer origin) {
+            final Pointer cell = Layout.originToCell(origin);
+            if (isCovered(cell) && isTraced(cell) && markGreyIfWhite(cell)) {
+                if (cell.lessThan(leftmost)) {
+                    leftmost = cell;
+                }
+                if (cell.greaterThan(rightmost)) {
+                    rightmost = cell;
+                }
+            }
+        }
+    }
+
+    private final SATBEntryMarker satbEntryMarker = new SATBEntryMarker();
+
+    /**
+     * Mark grey the cells referenced from the completed {@link SATBQueue SATB buffers}, and move the finger of the forward scan
+     * back so that the next {@linkplain #visitGreyObjectsFromFinger(HeapRegionRangeIterable) pass} visits them.
+     *
+     * @return true if at least one cell was marked grey
+     */
+    boolean markSATBEntriesGrey() {
+        satbEntryMarker.leftmost = coveredAreaEnd;
+        satbEntryMarker.rightmost = coveredAreaStart;
+        SATBQueue.drain(satbEntryMarker);
+        if (satbEntryMarker.rightmost.lessThan(satbEntryMarker.leftmost)) {
+            return false;
+        }
+        if (satbEntryMarker.leftmost.lessThan(forwardScanState.finger)) {
+            forwardScanState.finger = satbEntryMarker.leftmost;
+        }
+        if (satbEntryMarker.rightmost.greaterThan(forwardScanState.rightmost)) {
+            forwardScanState.rightmost = satbEntryMarker.rightmost;
+        }
+        return true;
+    }
+
+    /**
+     * Final step of a concurrent marking cycle, once the trace has reached its fixed point: process the special references discovered
+     * during the cycle and trace what they keep alive. Must be called with mutator threads stopped.
+     *
+     * @param regionsRanges an enumeration of the heap region ranges holding objects to trace.
+     */
+    void processSpecialReferencesOfConcurrentCycle(HeapRegionRangeIterable regionsRanges) {
+        final boolean traceGCPhases = Heap.logGCPhases();
+        markPhase = MARK_PHASE.SPECIAL_REF;
+        markPhase.traceBegin(traceGCPhases);
+        startTimer(weakRefTimer);
+        processSpecialReferences(regionsRanges);
+        stopTimer(weakRefTimer);
+        markPhase.traceEnd(traceGCPhases);
+        markPhase = MARK_PHASE.DONE;
+        classHistogram.end();
+    }
+
+    /**
+     * Initialize the forward scan state after parallel marking.
+     * @return true if parallel marking left grey objects behind, i.e., a forward scan is needed to complete marking.
+     */
+    private boolean initAfterParallelMarking() {
+        forwardScanState.rightmost = parallelHeapMarker.rightmost;
+        forwardScanState.numMarkinkgStackOverflow = 0;
+        overflowScanState.numMarkinkgStackOverflow = 0;
+        if (parallelHeapMarker.overflowCount == 0) {
+            forwardScanState.finger = forwardScanState.rightmost;
+            return false;
+        }
+        forwardScanState.finger = parallelHeapMarker.leftmostOverflow;
+        return true;
+    }
+
+    /**
+     * Visit all objects left grey by parallel marking, i.e., objects that overflowed the marking stack of a worker.
+     */
+    void visitGreyObjectsAfterParallelMarking() {
+        if (initAfterParallelMarking()) {
+            visitGreyObjects();
+        }
+    }
+
+    /**
+     * Visit all objects left grey by parallel marking that reside in the list of memory region ranges.
+     * @param regionsRanges an enumeration of the heap region ranges holding objects to trace.
+     */
+    void visitGreyObjectsAfterParallelMarking(HeapRegionRangeIterable regionsRanges) {
+        if (initAfterParallelMarking()) {
+            visitGreyObjects(regionsRanges);
+        }
+    }
+
 
     /**
      * Find the first black mark in the specified range of the color map.
@@ -1537,6 +1925,49 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
         return -1;
     }
 
+    /**
+     * Visit the black cells starting in the specified range of the covered area. Only used when tracing is completed.
+     * Cells are found using the color map only, so the range doesn't need to be iterable.
+     *
+     * @param start start of the range, which must be aligned to a word of the color map (e.g., the start of a heap region)
+     * @param end end of the range (exclusive)
+     * @param visitor visitor applied to each black cell
+     */
+    public void visitBlackCells(Address start, Address end, CellVisitor visitor) {
+        final Pointer colorMapBase = base.asPointer();
+        final int rightmostBitIndex = bitIndexOf(end) - 1;
+        final int rightmostBitmapWordIndex = bitmapWordIndex(rightmostBitIndex);
+        int bitmapWordIndex = bitmapWordIndex(start);
+
+        while (bitmapWordIndex <= rightmostBitmapWordIndex) {
+            long bitmapWord = colorMapBase.getLong(bitmapWordIndex);
+            if (bitmapWord != 0) {
+                int bitIndexInWord = 0;
+                final int bitmapWordFirstBitIndex = bitmapWordIndex << Word.widthValue().log2numberOfBits;
+                Pointer nextBitmapWordLimit = addressOf(bitmapWordFirstBitIndex + Word.widthValue().numberOfBits).asPointer();
+                long w = bitmapWord;
+                do {
+                    bitIndexInWord += Pointer.fromLong(w).leastSignificantBitSet();
+                    final int bitIndexOfBlackMark = bitmapWordFirstBitIndex + bitIndexInWord;
+                    if (bitIndexOfBlackMark > rightmostBitIndex) {
+                        return;
+                    }
+                    final Pointer endOfLastVisitedCell = visitor.visitCell(addressOf(bitIndexOfBlackMark).asPointer());
+                    if (endOfLastVisitedCell.greaterEqual(nextBitmapWordLimit)) {
+                        nextBitmapWordLimit = endOfLastVisitedCell;
+                        break;
+                    }
+                    // Skip the mark bits of the visited cell and look for the next black cell within this word.
+                    bitIndexInWord += 2;
+                    w = bitmapWord >>> bitIndexInWord;
+                } while(w != 0L);
+                bitmapWordIndex = bitmapWordIndex(nextBitmapWordLimit);
+            } else {
+                bitmapWordIndex++;
+            }
+        }
+    }
+
     private void preciseSweep(Sweeper sweeper, int leftmostBitIndex, int rightmostBitIndex) {
         final Pointer colorMapBase = base.asPointer();
         final int rightmostBitmapWordIndex = bitmapWordIndex(rightmostBitIndex);
@@ -1637,18 +2068,33 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
      * This can server region-based heap as well as contiguous heap, wherein a single region is passed in this case.
      */
     public void sweep(HeapRegionSweeper regionsSweeper, boolean doImprecise) {
-        final Address endOfRightmostLiveObject = endOfCell(forwardScanState.rightmost);
-        do {
-            assert regionsSweeper.hasNextSweepingRegion();
-            regionsSweeper.beginSweep();
-            if (doImprecise) {
-                impreciseRegionSweep(regionsSweeper);
-            } else {
-                preciseRegionSweep(regionsSweeper);
-            }
-            regionsSweeper.endSweep();
-        } while(regionsSweeper.endOfSweepingRegion().lessThan(endOfRightmostLiveObject));
+        while (sweepNextRegion(regionsSweeper, doImprecise)) {
+            // keep sweeping
+        }
+    }
+
+    /**
+     * Sweep the next region of a heap region sweeper. Same as {@link #sweep(HeapRegionSweeper, boolean)}, but one region at a time.
+     * This allows sweeping lazily, after marking completes, as long as the color map is left untouched until all regions are swept.
+     *
+     * @param regionsSweeper the sweeper of the regions
+     * @param doImprecise true if sweeping should be imprecise
+     * @return true if there are more regions to sweep, false if the sweeper {@linkplain HeapRegionSweeper#reachedRightmostLiveRegion() reached the rightmost live region}
+     */
+    public boolean sweepNextRegion(HeapRegionSweeper regionsSweeper, boolean doImprecise) {
+        assert regionsSweeper.hasNextSweepingRegion();
+        regionsSweeper.beginSweep();
+        if (doImprecise) {
+            impreciseRegionSweep(regionsSweeper);
+        } else {
+            preciseRegionSweep(regionsSweeper);
+        }
+        regionsSweeper.endSweep();
+        if (regionsSweeper.endOfSweepingRegion().lessThan(endOfCell(forwardScanState.rightmost))) {
+            return true;
+        }
         regionsSweeper.reachedRightmostLiveRegion();
+        return false;
     }
 
     /**
@@ -1784,14 +2230,25 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
             recoveryScanTimer.reset();
         }
         FatalError.check(markingStack.isEmpty(), "Marking stack must be empty");
+        markingStack.resetStatistics();
 
         clearColorMap();
-        markRoots();
+        classHistogram.begin();
+        final boolean markInParallel = markInParallel();
+        if (markInParallel) {
+            markRootsAndTraceInParallel();
+        } else {
+            markRoots();
+        }
 
         markPhase = MARK_PHASE.VISIT_GREY_FORWARD;
         markPhase.traceBegin(traceGCPhases);
         startTimer(heapMarkingTimer);
-        visitGreyObjectsAfterRootMarking();
+        if (markInParallel) {
+            visitGreyObjectsAfterParallelMarking();
+        } else {
+            visitGreyObjectsAfterRootMarking();
+        }
         stopTimer(heapMarkingTimer);
         markPhase.traceEnd(traceGCPhases);
 
@@ -1807,8 +2264,7 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
         markPhase = MARK_PHASE.SPECIAL_REF;
         markPhase.traceBegin(traceGCPhases);
         startTimer(weakRefTimer);
-        SpecialReferenceManager.processDiscoveredSpecialReferences(forwardScanState);
-        visitGreyObjects();
+        processSpecialReferences(null);
         stopTimer(weakRefTimer);
         markPhase.traceEnd(traceGCPhases);
 
@@ -1816,6 +2272,7 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
             verifyHasNoGreyMarks(coveredAreaStart, forwardScanState.endOfRightmostVisitedObject());
         }
         markPhase = MARK_PHASE.DONE;
+        classHistogram.end();
     }
 
     /**
@@ -1829,15 +2286,26 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
             recoveryScanTimer.reset();
         }
         markingStack.reset();
+        markingStack.resetStatistics();
         clearColorMap();
+        classHistogram.begin();
         overflowScanState.setHeapRegionsRanges(regionsRanges);
 
-        markRoots();
+        final boolean markInParallel = markInParallel();
+        if (markInParallel) {
+            markRootsAndTraceInParallel();
+        } else {
+            markRoots();
+        }
 
         markPhase = MARK_PHASE.VISIT_GREY_FORWARD;
         markPhase.traceBegin(traceGCPhases);
         startTimer(heapMarkingTimer);
-        visitGreyObjectsAfterRootMarking(regionsRanges);
+        if (markInParallel) {
+            visitGreyObjectsAfterParallelMarking(regionsRanges);
+        } else {
+            visitGreyObjectsAfterRootMarking(regionsRanges);
+        }
         stopTimer(heapMarkingTimer);
         markPhase.traceEnd(traceGCPhases);
 
@@ -1899,16 +2367,15 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
         markPhase = MARK_PHASE.SPECIAL_REF;
         markPhase.traceBegin(traceGCPhases);
         startTimer(weakRefTimer);
-        SpecialReferenceManager.processDiscoveredSpecialReferences(forwardScanState);
         // Note: the VISIT_GREY_FORWARD has already visited the whole heap, so any additional grey reference added by the special reference
         // manager are on the marking stack. Draining that stack may nevertheless add new grey reference after the finger, so we still
         // need to iterate over the region ranges past the finger, hence the reset.
-        regionsRanges.reset();
-        visitGreyObjects(regionsRanges);
+        processSpecialReferences(regionsRanges);
         stopTimer(weakRefTimer);
         markPhase.traceEnd(traceGCPhases);
         FatalError.check(markingStack.isEmpty(), "Marking Stack must be empty after special references are processed.");
         markPhase = MARK_PHASE.DONE;
+        classHistogram.end();
     }
 
     /**
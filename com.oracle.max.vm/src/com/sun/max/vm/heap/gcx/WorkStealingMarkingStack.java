@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.heap.gcx;
+
+import com.oracle.max.cri.intrinsics.*;
+import com.sun.max.annotate.*;
+import com.sun.max.memory.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.reference.*;
+
+/**
+ * Fixed size marking stack of a parallel heap marker's worker.
+ * The owner of the stack pushes and pops cells at the bottom of the stack, whereas other workers
+ * may steal cells from the top of the stack (see Chase and Lev, "Dynamic circular work-stealing deque", SPAA 2005).
+ * The stack doesn't grow: a push on a full stack fails and leaves it to the caller to handle the overflow.
+ */
+final class WorkStealingMarkingStack {
+    private Pointer base;
+    private int mask;
+
+    /**
+     * Index of the next cell to steal. Only ever incremented.
+     */
+    private volatile int top;
+
+    /**
+     * Index of the next free slot. Only updated by the owner of the stack.
+     */
+    private volatile int bottom;
+
+    @FOLD
+    private static int topOffset() {
+        return ClassActor.fromJava(WorkStealingMarkingStack.class).findLocalInstanceFieldActor("top").offset();
+    }
+
+    WorkStealingMarkingStack() {
+    }
+
+    /**
+     * Allocate the backing storage of the stack.
+     * @param length requested number of references the stack can hold, rounded up to a power of 2
+     */
+    void initialize(int length) {
+        final int capacity = Integer.highestOneBit(length) == length ? length : Integer.highestOneBit(length) << 1;
+        final Size size = Size.fromInt(capacity).shiftedLeft(Word.widthValue().log2numberOfBytes);
+        base = Memory.allocate(size);
+        if (base.isZero()) {
+            MaxineVM.reportPristineMemoryFailure("parallel marking stack", "allocate", size);
+        }
+        mask = capacity - 1;
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    int size() {
+        return bottom - top;
+    }
+
+    @INLINE
+    boolean isEmpty() {
+        return bottom <= top;
+    }
+
+    void reset() {
+        top = 0;
+        bottom = 0;
+    }
+
+    /**
+     * Push a cell at the bottom of the stack. Must only be called by the owner of the stack.
+     * @param cell a cell
+     * @return true if the cell was pushed, false if the stack is full.
+     */
+    boolean push(Pointer cell) {
+        final int b = bottom;
+        if (b - top > mask) {
+            return false;
+        }
+        base.setWord(b & mask, cell);
+        bottom = b + 1;
+        return true;
+    }
+
+    /**
+     * Pop a cell from the bottom of the stack. Must only be called by the owner of the stack.
+     * @return a cell, or zero if the stack is empty
+     */
+    Pointer pop() {
+        final int b = bottom - 1;
+        bottom = b;
+        MemoryBarriers.barrier(MemoryBarriers.STORE_LOAD);
+        final int t = top;
+        if (t > b) {
+            // Empty stack.
+            bottom = t;
+            return Pointer.zero();
+        }
+        Pointer cell = base.getWord(b & mask).asPointer();
+        if (t == b) {
+            // Last cell: race with thieves for it.
+            if (Reference.fromJava(this).compareAndSwapInt(topOffset(), t, t + 1) != t) {
+                cell = Pointer.zero();
+            }
+            bottom = t + 1;
+        }
+        return cell;
+    }
+
+    /**
+     * Steal a cell from the top of the stack. May be called by any worker.
+     * @return a cell, or zero if the stack is empty or if the steal failed because of contention.
+     */
+    Pointer steal() {
+        final int t = top;
+        final int b = bottom;
+        if (t >= b) {
+            return Pointer.zero();
+        }
+        final Pointer cell = base.getWord(t & mask).asPointer();
+        if (Reference.fromJava(this).compareAndSwapInt(topOffset(), t, t + 1) != t) {
+            return Pointer.zero();
+        }
+        return cell;
+    }
+}
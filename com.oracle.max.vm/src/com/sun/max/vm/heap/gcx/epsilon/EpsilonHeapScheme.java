@@ -0,0 +1,310 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.heap.gcx.epsilon;
+
+import com.sun.max.annotate.*;
+import com.sun.max.memory.*;
+import com.sun.max.platform.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.code.*;
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.heap.debug.*;
+import com.sun.max.vm.heap.gcx.*;
+import com.sun.max.vm.reference.*;
+import com.sun.max.vm.runtime.*;
+import com.sun.max.vm.thread.*;
+
+/**
+ * A heap scheme that never collects garbage. TLABs are bump-allocated from a single contiguous range reserved at startup,
+ * and an {@link OutOfMemoryError} is raised once the range is exhausted. Meant for short-lived jobs that complete
+ * before exhausting the heap, and for measuring the cost of other heap schemes.
+ * <p>
+ * Objects never move and memory is never reused, so there are no write barriers, pinning is free, and allocated memory
+ * needs no zeroing as it is fresh from the operating system.
+ * The end of the range is kept in reserve so that the first {@link OutOfMemoryError} can be allocated and thrown, and
+ * so that its handlers can run. A preallocated {@link OutOfMemoryError} is thrown once the reserve is exhausted too.
+ */
+public final class EpsilonHeapScheme extends HeapSchemeWithTLABAdaptor {
+
+    /**
+     * Minimum amount of memory reserved to throw an {@link OutOfMemoryError}.
+     */
+    private static final int MIN_SAFETY_ZONE_SIZE = 64 * 1024;
+
+    /**
+     * The range objects are allocated from.
+     */
+    private final LinearAllocatorRegion heapSpace = new LinearAllocatorRegion("Heap");
+
+    /**
+     * Thrown when the heap is exhausted after the safety zone was opened.
+     */
+    private static final OutOfMemoryError outOfMemoryError = new OutOfMemoryError();
+
+    /**
+     * Allocation limit, which excludes the safety zone until an {@link OutOfMemoryError} is thrown.
+     * Moved to the end of the heap only once, with a compare-and-swap.
+     */
+    private volatile Address top;
+
+    @FOLD
+    private static int topOffset() {
+        return ClassActor.fromJava(EpsilonHeapScheme.class).findLocalInstanceFieldActor("top").offset();
+    }
+
+    private final AtomicPinCounter pinnedCounter = MaxineVM.isDebug() ? new AtomicPinCounter() : null;
+
+    @HOSTED_ONLY
+    public EpsilonHeapScheme() {
+        pinningSupportFlags = PIN_SUPPORT_FLAG.makePinSupportFlags(true, false, true);
+    }
+
+    /**
+     * Reserve and commit the whole heap, right after the immortal heap.
+     */
+    @Override
+    protected void allocateHeapAndGCStorage() {
+        final Size reservedSpace = Size.K.times(reservedVirtualSpaceKB());
+        final Size maxSize = Heap.maxSize();
+        final int pageSize = Platform.platform().pageSize;
+
+        FatalError.check(Heap.bootHeapRegion.start() == Heap.startOfReservedVirtualSpace(),
+                        "Boot heap region must be mapped at start of reserved virtual space");
+
+        final Address endOfCodeRegion = Code.getCodeManager().getRuntimeOptCodeRegion().end();
+        final Address endOfReservedSpace = Heap.bootHeapRegion.start().plus(reservedSpace);
+        final Address immortalStart = endOfCodeRegion.alignUp(pageSize);
+        // Relocate immortal memory immediately after the end of the code region.
+        ImmortalMemoryRegion immortalRegion = ImmortalHeap.getImmortalHeap();
+        FatalError.check(immortalRegion.used().isZero(), "Immortal heap must be unused");
+        VirtualMemory.deallocate(immortalRegion.start(), immortalRegion.size(), VirtualMemory.Type.HEAP);
+        immortalRegion.setStart(immortalStart);
+        immortalRegion.mark.set(immortalStart);
+        final Address firstUnusedByteAddress = immortalRegion.end();
+
+        final Address heapStart = firstUnusedByteAddress.roundedUpBy(pageSize);
+        final Address leftoverStart = heapStart.plus(maxSize).roundedUpBy(pageSize);
+        if (leftoverStart.greaterThan(endOfReservedSpace)) {
+            MaxineVM.reportPristineMemoryFailure("heap", "reserve", maxSize);
+        }
+
+        try {
+            Heap.enableImmortalMemoryAllocation();
+            if (!Heap.AvoidsAnonOperations) {
+                if (!VirtualMemory.commitMemory(heapStart, maxSize, VirtualMemory.Type.HEAP)) {
+                    MaxineVM.reportPristineMemoryFailure("heap", "commit", maxSize);
+                }
+            }
+            heapSpace.setStart(heapStart);
+            heapSpace.setSize(maxSize);
+            heapSpace.setMark(heapStart);
+
+            final Size safetyZoneSize = Size.fromInt(Math.max(MIN_SAFETY_ZONE_SIZE, initialTlabSize().toInt()));
+            FatalError.check(safetyZoneSize.lessThan(maxSize), "Heap too small");
+            top = heapSpace.end().minus(safetyZoneSize);
+
+            // Free reserved space we will not be using.
+            Size leftoverSize = endOfReservedSpace.minus(leftoverStart).asSize();
+            if (!Heap.AvoidsAnonOperations) {
+                if (!VirtualMemory.uncommitMemory(leftoverStart, leftoverSize,  VirtualMemory.Type.DATA)) {
+                    MaxineVM.reportPristineMemoryFailure("reserved space leftover", "uncommit", leftoverSize);
+                }
+            }
+            if (VirtualMemory.deallocate(leftoverStart, leftoverSize, VirtualMemory.Type.DATA).isZero()) {
+                MaxineVM.reportPristineMemoryFailure("reserved space leftover", "deallocate", leftoverSize);
+            }
+
+            // From now on, we can allocate.
+            HeapScheme.Inspect.init(true);
+            HeapScheme.Inspect.notifyHeapRegions(heapSpace);
+        } finally {
+            Heap.disableImmortalMemoryAllocation();
+        }
+    }
+
+    /**
+     * Never collects. Explicit requests are ignored, other requests are satisfied only if the heap has enough space left.
+     */
+    public boolean collectGarbage() {
+        final GCRequest gcRequest = VmThread.current().gcRequest;
+        if (gcRequest.explicit) {
+            return true;
+        }
+        return top.minus(heapSpace.mark()).asSize().greaterEqual(gcRequest.requestedBytes);
+    }
+
+    public boolean contains(Address address) {
+        return heapSpace.contains(address);
+    }
+
+    public Size reportFreeSpace() {
+        return heapSpace.end().minus(heapSpace.mark()).asSize();
+    }
+
+    public Size reportUsedSpace() {
+        return heapSpace.used();
+    }
+
+    @INLINE
+    public boolean pin(Object object) {
+        // Objects never relocate. So this is always safe.
+        if (MaxineVM.isDebug()) {
+            pinnedCounter.increment();
+        }
+        return true;
+    }
+
+    @INLINE
+    public void unpin(Object object) {
+        if (MaxineVM.isDebug()) {
+            pinnedCounter.decrement();
+        }
+    }
+
+    @Override
+    protected void visitHeapSpaces(CellRangeVisitor visitor) {
+        visitor.visitCells(heapSpace.start(), heapSpace.mark());
+    }
+
+    private static final class EpsilonGCRequest extends GCRequest {
+        protected EpsilonGCRequest(VmThread thread) {
+            super(thread);
+        }
+    }
+
+    public GCRequest createThreadLocalGCRequest(VmThread vmThread) {
+        return new EpsilonGCRequest(vmThread);
+    }
+
+    /**
+     * Allocates a cell from the heap, using compare-and-swap to resolve any thread race condition.
+     *
+     * @param size the requested cell size to be allocated
+     * @param adjustForDebugTag specifies if an extra word is to be reserved before the cell for the debug tag word
+     * @return the allocated chunk, which is zero as memory is never reused
+     * @throws OutOfMemoryError if the heap is exhausted
+     */
+    @NEVER_INLINE
+    @NO_SAFEPOINT_POLLS("heap up to allocation mark must be verifiable if debug tagging")
+    private Pointer allocate(Size size, boolean adjustForDebugTag) {
+        Pointer oldAllocationMark;
+        Pointer cell;
+        Address end;
+        do {
+            final Address limit = top;
+            oldAllocationMark = heapSpace.mark();
+            cell = adjustForDebugTag ? DebugHeap.adjustForDebugTag(oldAllocationMark) : oldAllocationMark;
+            end = cell.plus(size);
+            if (end.greaterThan(limit)) {
+                throw outOfMemory(limit);
+            }
+        } while (heapSpace.mark.compareAndSwap(oldAllocationMark, end) != oldAllocationMark);
+        return cell;
+    }
+
+    /**
+     * Gets the {@link OutOfMemoryError} to raise when the heap is exhausted.
+     * The first thread to exhaust the heap opens the safety zone to allocate a new error. Any other thread, including
+     * threads racing with it, gets the preallocated error.
+     *
+     * @param limit the allocation limit the heap was found exhausted against
+     */
+    private OutOfMemoryError outOfMemory(Address limit) {
+        final Address end = heapSpace.end();
+        if (limit.equals(end) || !Reference.fromJava(this).toOrigin().compareAndSwapWord(topOffset(), limit, end).equals(limit)) {
+            return outOfMemoryError;
+        }
+        if (Heap.verbose()) {
+            Log.println("Throwing OutOfMemoryError");
+        }
+        return new OutOfMemoryError();
+    }
+
+    private void allocateAndRefillTLAB(Pointer etla, Size tlabSize) {
+        final Pointer tlab = allocate(tlabSize, false);
+        refillTLAB(etla, tlab, tlabSize.minus(tlabHeadroom()));
+    }
+
+    @Override
+    protected Pointer customAllocate(Pointer customAllocator, Size size) {
+        // Default is to use the immortal heap.
+        return ImmortalHeap.allocate(size, true);
+    }
+
+    /**
+     * Handling of TLAB Overflow. This may refill the TLAB or allocate memory directly from the heap.
+     * Allocates directly from the heap when what is left of it is too small for a TLAB.
+     *
+     * @param size the allocation size requested to the tlab
+     * @param etla
+     * @param tlabMark allocation mark of the tlab
+     * @param tlabEnd soft limit in the tlab to trigger overflow
+     * @throws OutOfMemoryError if the allocation request cannot be satisfied.
+     */
+    @Override
+    protected Pointer handleTLABOverflow(Size size, Pointer etla, Pointer tlabMark, Pointer tlabEnd) {
+        // Should we refill the TLAB ?
+        final TLABRefillPolicy refillPolicy = TLABRefillPolicy.getForCurrentThread(etla);
+        if (refillPolicy == null) {
+            // No policy yet for the current thread. This must be the first time this thread uses a TLAB (it does not have one yet).
+            FatalError.check(tlabMark.isZero(), "thread must not have a TLAB yet");
+            if (!usesTLAB()) {
+                // We're not using TLAB. So let's assign the never refill tlab policy.
+                TLABRefillPolicy.setForCurrentThread(etla, NEVER_REFILL_TLAB);
+                return allocate(size, true);
+            }
+            // Allocate an initial TLAB and a refill policy. For simplicity, this one is allocated from the TLAB (see comment below).
+            final Size tlabSize = initialTlabSize();
+            allocateAndRefillTLAB(etla, tlabSize);
+            // Let's do a bit of meta-circularity. The TLAB is refilled, and no-one except the current thread can use it.
+            // So the TLAB allocation is going to succeed here
+            TLABRefillPolicy.setForCurrentThread(etla, newTLABRefillPolicy(tlabSize));
+            // Now, address the initial request. Note that we may recurse down to handleTLABOverflow again here if the
+            // request is larger than the TLAB size. However, this second call will succeed and allocate outside of the TLAB.
+            return tlabAllocate(size);
+        }
+        final Size nextTLABSize = refillPolicy.nextTlabSize();
+        if (size.greaterThan(nextTLABSize) || !refillPolicy.shouldRefill(size, tlabMark)) {
+            return allocate(size, true);
+        }
+        if (top.minus(heapSpace.mark()).lessThan(nextTLABSize)) {
+            // Don't waste what is left of the heap on a TLAB that may not fit.
+            return allocate(size, true);
+        }
+        // Refill TLAB and allocate (we know the request can be satisfied with a fresh TLAB and will therefore succeed).
+        allocateAndRefillTLAB(etla, nextTLABSize);
+        return tlabAllocate(size);
+    }
+
+    @Override
+    public PhaseLogger phaseLogger() {
+        return HeapSchemeLoggerAdaptor.phaseLogger;
+    }
+
+    @Override
+    public TimeLogger timeLogger() {
+        return HeapSchemeLoggerAdaptor.timeLogger;
+    }
+}
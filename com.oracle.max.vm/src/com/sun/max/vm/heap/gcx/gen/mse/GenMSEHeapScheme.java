@@ -29,6 +29,7 @@ import static com.sun.max.vm.intrinsics.MaxineIntrinsicIDs.*;
 
 import com.sun.cri.xir.*;
 import com.sun.cri.xir.CiXirAssembler.XirOperand;
+import com.sun.management.GarbageCollectorMXBean;
 import com.sun.max.annotate.*;
 import com.sun.max.memory.*;
 import com.sun.max.platform.*;
@@ -38,17 +39,33 @@ import com.sun.max.vm.*;
 import com.sun.max.vm.MaxineVM.Phase;
 import com.sun.max.vm.code.*;
 import com.sun.max.vm.heap.*;
+import com.sun.max.vm.heap.debug.*;
 import com.sun.max.vm.heap.gcx.*;
 import com.sun.max.vm.heap.gcx.rset.*;
 import com.sun.max.vm.heap.gcx.rset.ctbl.*;
 import com.sun.max.vm.layout.*;
 import com.sun.max.vm.reference.*;
 import com.sun.max.vm.runtime.*;
+import com.sun.max.vm.stack.*;
 import com.sun.max.vm.thread.*;
 
 
 /**
- * Generational Heap Scheme with a mark-sweep old generation and a simple copying collector nursery.
+ * Generational Heap Scheme with a mark-sweep old generation and a copying collector nursery.
+ * Young collections are sequential and promote all survivors to the old generation, unless {@code -XX:+ParallelAgingNursery} is specified,
+ * in which case the GC workers evacuate the nursery in parallel (see {@link ParallelNurseryEvacuator}), and survivors are kept in survivor
+ * spaces until they are old enough to be promoted (see {@link AgingRegionalizedNursery}).
+ * Full collections may compact the sparsest regions of the old generation (see {@link FirstFitMarkSweepSpace#beginCompaction()}).
+ * Objects are pinned by pinning the heap region holding them: compaction skips pinned regions of the old generation, and young collections keep
+ * in place the cells of pinned regions of eden. Objects of the survivor spaces can't be pinned.
+ * Generations are sized as a fixed ratio of the heap, unless a pause time goal is specified with {@code -XX:MaxGCPauseMillis}, in which case
+ * they are resized after each collection by a {@link PauseGoalGenHeapSizingPolicy}.
+ * With {@code -XX:+ConcurrentMarking}, the old generation is marked concurrently with the application (see {@link ConcurrentMarker}).
+ * This requires the SATB pre-write barrier, which is only compiled in if the boot image is built with {@code -Dmax.heap.gcx.genmse.satb=true}.
+ * With {@code -XX:ConcurrentRefinementThreads}, the cards dirtied by mutators are refined concurrently so that young collections
+ * scan fewer cards (see {@link ConcurrentCardRefiner}).
+ * With {@code -XX:+EagerReclaimLargeObjects}, objects of at least a region are allocated directly in the old generation, in regions of their own,
+ * and reclaimed by the next young collection if it finds no reference to them (see {@link LargeObjectCandidates}).
  */
 final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implements HeapAccountOwner, XirWriteBarrierSpecification, RSetCoverage, EvacuationBufferProvider {
     private static final int WORDS_COVERED_PER_BIT = 1;
@@ -56,10 +73,56 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
      * Knob for the fixed ratio resizing policy.
      */
     static int YoungGenHeapPercent = 30;
+    /**
+     * Ratio of the size of eden to the size of each survivor space.
+     */
+    static int SurvivorRatio = 8;
     static Size ELABSize = Size.K.times(64);
+    /**
+     * Name of the system property that compiles reference stores with the SATB pre-write barrier concurrent marking requires.
+     */
+    private static final String SATB_BARRIER_PROPERTY = "max.heap.gcx.genmse.satb";
+    /**
+     * Whether reference stores are compiled with the SATB pre-write barrier. Fixed when the boot image is built, so that
+     * images that don't mark concurrently only pay for the card-marking post-write barrier.
+     */
+    static final boolean SATB_BARRIER = Boolean.getBoolean(SATB_BARRIER_PROPERTY);
+    /**
+     * Knobs for concurrent marking of the old generation.
+     */
+    static boolean ConcurrentMarking = false;
+    static int ConcurrentMarkingInitiatingOccupancyPercent = 45;
+    /**
+     * Knobs for the pause goal sizing policy, used instead of the fixed ratio policy if a pause goal is specified.
+     */
+    static int MaxGCPauseMillis = 0;
+    static int GCTimeRatio = 99;
+    /**
+     * Knob for the eager reclamation of large objects by young collections.
+     */
+    static boolean EagerReclaimLargeObjects = false;
+    /**
+     * Knob selecting the young generation with survivor spaces evacuated by the GC workers, instead of the
+     * young generation promoting all its survivors with a sequential evacuation.
+     */
+    static boolean ParallelAgingNursery = false;
     static {
         VMOptions.addFieldOption("-XX:", "YoungGenHeapPercent", GenMSEHeapScheme.class, "Fixed percentage of heap size that must be used by young gen", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "SurvivorRatio", GenMSEHeapScheme.class, "Ratio of eden size to the size of each survivor space of the young gen", Phase.PRISTINE);
         VMOptions.addFieldOption("-XX:", "ELABSize", GenMSEHeapScheme.class, "Size of evacuation buffers for young gen evacuation to old gen", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "ConcurrentMarking", GenMSEHeapScheme.class, "Mark the old generation concurrently with the application", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "ConcurrentMarkingInitiatingOccupancyPercent", GenMSEHeapScheme.class,
+                        "Percentage of the old generation in use that initiates a concurrent marking cycle", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "MaxGCPauseMillis", GenMSEHeapScheme.class,
+                        "Pause time goal, in milliseconds, generations are resized to meet (0 for fixed ratio sizing)", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "GCTimeRatio", GenMSEHeapScheme.class,
+                        "Throughput goal of pause goal sizing: at most 1 / (1 + GCTimeRatio) of the time is spent in GC", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "EagerReclaimLargeObjects", GenMSEHeapScheme.class,
+                        "Allocate objects of at least a region in the old generation and reclaim them at the next young collection if unreferenced " +
+                        "(ignored with concurrent marking or concurrent refinement)", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "ParallelAgingNursery", GenMSEHeapScheme.class,
+                        "Age survivors of young collections in survivor spaces and evacuate the young generation with the GC workers " +
+                        "(otherwise, young collections are sequential and promote all survivors)", Phase.PRISTINE);
     }
 
     public enum GenMSEHeapRegionTag {
@@ -82,7 +145,7 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
      * Young generation.
      */
     @INSPECTED
-    private final NoAgingRegionalizedNursery youngSpace;
+    private final AgingRegionalizedNursery youngSpace;
     /**
      * Tenured generation.
      */
@@ -92,7 +155,12 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
     /**
      * Policy for resizing the heap after each GC.
      */
-    private GenHeapSizingPolicy heapResizingPolicy;
+    private AgingGenHeapSizingPolicy heapResizingPolicy;
+
+    /**
+     * Policy resizing the generations after each GC to meet the pause and throughput goals, null if generations have a fixed size.
+     */
+    private PauseGoalGenHeapSizingPolicy pauseGoalSizingPolicy;
 
     /**
      * Card-table based remembered set for the nursery.
@@ -102,7 +170,20 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
     /**
      * Implementation of young space evacuation. Used by minor collection operations.
      */
-    private final NoAgingNurseryEvacuator youngSpaceEvacuator;
+    private final ParallelNurseryEvacuator youngSpaceEvacuator;
+
+    /**
+     * Evacuator compacting the sparsest regions of the old generation after a full collection.
+     */
+    private final SparseRegionsEvacuator oldSpaceCompactor;
+
+    private final EvacuationTimers evacTimers = new EvacuationTimers();
+
+    private final EvacuationTimers compactionTimers = new EvacuationTimers();
+
+    private final Evacuator.PhaseLogger evacuationPhaseLogger = new Evacuator.PhaseLogger();
+
+    private final DebugHeap.DetailLogger detailLogger = new DebugHeap.DetailLogger();
 
     /**
      * Operation to submit to the {@link VmOperationThread} to perform a generational collection.
@@ -114,6 +195,31 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
      */
     private final TricolorHeapMarker heapMarker;
 
+    /**
+     * Concurrent marking of the old generation. Only used if {@link #ConcurrentMarking} is enabled.
+     */
+    private final ConcurrentMarker concurrentMarker;
+
+    /**
+     * Returns free regions to the operating system when the application is allocation-idle.
+     */
+    private final GenMSEIdleHeapShrinker idleHeapShrinker;
+
+    /**
+     * Refines the cards dirtied by mutators. Only used if concurrent refinement is enabled.
+     */
+    private final ConcurrentCardRefiner cardRefiner;
+
+    /**
+     * Zeroes the free space of eden in the background. Only created if {@code -XX:+BackgroundZeroing} is enabled.
+     */
+    private BackgroundZeroer backgroundZeroer;
+
+    /**
+     * Total number of bytes of unreferenced large objects reclaimed by young collections.
+     */
+    private long reclaimedLargeObjectBytes;
+
     /**
      * Support for heap verification.
      */
@@ -124,8 +230,10 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
     public GenMSEHeapScheme() {
         heapAccount = new HeapAccount<GenMSEHeapScheme>(this);
         heapMarker = new TricolorHeapMarker(WORDS_COVERED_PER_BIT, new HeapAccounRootCellVisitor(this));
+        concurrentMarker = new ConcurrentMarker(heapMarker, heapAccount);
         cardTableRSet = new CardTableRSet();
-        youngSpace = new NoAgingRegionalizedNursery(heapAccount, YOUNG.tag());
+        youngSpace = new AgingRegionalizedNursery(heapAccount, YOUNG.tag());
+        cardRefiner = new ConcurrentCardRefiner(cardTableRSet, youngSpace);
 
         final ChunkListAllocator<RegionChunkListRefillManager> tlabAllocator =
             new ChunkListAllocator<RegionChunkListRefillManager>(new RegionChunkListRefillManager(cardTableRSet));
@@ -133,16 +241,41 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
             new CardSpaceAllocator<RegionOverflowAllocatorRefiller>(new RegionOverflowAllocatorRefiller(cardTableRSet), cardTableRSet);
 
         oldSpace = new FirstFitMarkSweepSpace<GenMSEHeapScheme>(heapAccount, tlabAllocator, overflowAllocator, true, cardTableRSet, OLD.tag());
-        youngSpaceEvacuator = new NoAgingNurseryEvacuator(youngSpace, oldSpace, this, cardTableRSet, "Young");
+        youngSpaceEvacuator = new ParallelNurseryEvacuator(youngSpace, oldSpace, this, cardTableRSet, "Young");
+        youngSpaceEvacuator.setTimers(evacTimers);
+        youngSpaceEvacuator.setPhaseLogger(evacuationPhaseLogger);
+        if (MaxineVM.isDebug()) {
+            youngSpaceEvacuator.setDetailLogger(detailLogger);
+        }
+        oldSpaceCompactor = new SparseRegionsEvacuator(oldSpace, heapMarker, this, cardTableRSet, "Compaction");
+        oldSpaceCompactor.setTimers(compactionTimers);
+        oldSpaceCompactor.setPhaseLogger(evacuationPhaseLogger);
+        if (MaxineVM.isDebug()) {
+            oldSpaceCompactor.setDetailLogger(detailLogger);
+        }
         noYoungReferencesVerifier = new NoEvacuatedSpaceReferenceVerifier(cardTableRSet, youngSpace);
         fotVerifier = new FOTVerifier(cardTableRSet);
         genCollection = new GenCollection();
+        idleHeapShrinker = new GenMSEIdleHeapShrinker();
+        pinningSupportFlags = PIN_SUPPORT_FLAG.makePinSupportFlags(true, true, true);
     }
 
     @Override
     public void initialize(MaxineVM.Phase phase) {
         super.initialize(phase);
         cardTableRSet.initialize(phase);
+        if (phase == MaxineVM.Phase.STARTING) {
+            oldSpace.startBackgroundSweeper();
+            if (ConcurrentMarking) {
+                concurrentMarker.start();
+            }
+            idleHeapShrinker.start();
+            cardRefiner.start();
+            if (BackgroundZeroer.isEnabled()) {
+                backgroundZeroer = new BackgroundZeroer(youngSpace);
+                backgroundZeroer.startIfEnabled();
+            }
+        }
     }
 
     /**
@@ -232,17 +365,34 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
                 MaxineVM.reportPristineMemoryFailure("reserved space leftover", "deallocate", leftoverSize);
             }
 
-            heapResizingPolicy = new FixedRatioGenHeapSizingPolicy(initSize, maxSize, YoungGenHeapPercent, log2RegionSizeInBytes);
+            if (MaxGCPauseMillis > 0) {
+                pauseGoalSizingPolicy = new PauseGoalGenHeapSizingPolicy(initSize, maxSize, YoungGenHeapPercent, SurvivorRatio, log2RegionSizeInBytes,
+                                MaxGCPauseMillis, GCTimeRatio);
+                heapResizingPolicy = pauseGoalSizingPolicy;
+            } else {
+                heapResizingPolicy = new FixedRatioAgingGenHeapSizingPolicy(initSize, maxSize, YoungGenHeapPercent, SurvivorRatio, log2RegionSizeInBytes);
+            }
             if (!heapAccount().open(numberOfRegions(applicationHeapMaxSize))) {
                 FatalError.unexpected("Failed to create application heap");
             }
-            youngSpace.initialize(heapResizingPolicy);
+            FatalError.check(!ConcurrentMarking || SATB_BARRIER, "-XX:+ConcurrentMarking requires a boot image built with -D" + SATB_BARRIER_PROPERTY + "=true");
+            youngSpace.initialize(heapResizingPolicy, ParallelAgingNursery);
             oldSpace.initialize(heapResizingPolicy.initialOldGenSize(), heapResizingPolicy.maxOldGenSize());
+            // Cards cleaned by concurrent refinement and old objects allocated while concurrently marking would make unreferenced candidates
+            // undistinguishable from live ones.
+            if (EagerReclaimLargeObjects && !ConcurrentMarking && !ConcurrentCardRefiner.isEnabled()) {
+                oldSpace.enableLargeObjectCandidates();
+            }
 
             // FIXME: the capacity of the survivor range queues should be dynamic. Its upper bound could be computed based on the
             // worst case evacuation and the number of fragments of old space available for allocation.
             // Same with the lab size. In non parallel evacuators, this should be all the space available for allocation in a region.
+            if (!ParallelAgingNursery) {
+                youngSpaceEvacuator.disableParallelEvacuation();
+            }
             youngSpaceEvacuator.initialize(1000, false, oldSpace.minReclaimableSpace(), false);
+            youngSpaceEvacuator.setAgingNursery(youngSpace);
+            oldSpaceCompactor.initialize(1000, false, oldSpace.minReclaimableSpace(), true);
 
             if (HeapRangeDumper.DumpOnError) {
                 MemoryRegion dumpingCoverage = new MemoryRegion();
@@ -264,6 +414,66 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
         theHeapRegionManager().checkOutgoingReferences();
     }
 
+    /**
+     * Uncommits the end of eden the allocator hasn't reached yet and the empty regions of the old generation, keeping enough
+     * free space in the old generation for the worst case evacuation of the young generation at its size before shrinking.
+     * Eden is grown back by the next minor collection, and the old generation on demand.
+     */
+    final class GenMSEIdleHeapShrinker extends IdleHeapShrinker {
+        /**
+         * Space uncommitted from eden and not grown back yet.
+         */
+        Size releasedEdenSpace = Size.zero();
+        /**
+         * Space uncommitted from the old generation and not grown back yet.
+         */
+        Size releasedOldSpace = Size.zero();
+
+        GenMSEIdleHeapShrinker() {
+            super("GenMSEIdleHeapShrinker");
+        }
+
+        @Override
+        protected Size releaseFreeSpace() {
+            if (concurrentMarker.isMarking()) {
+                return Size.zero();
+            }
+            final Size worstCaseEvac = youngSpace.totalSpace().plus(releasedEdenSpace);
+            final Size releasedEden = youngSpace.uncommitUnusedEden();
+            releasedEdenSpace = releasedEdenSpace.plus(releasedEden);
+            final Size freeSpace = oldSpace.freeSpace();
+            if (freeSpace.lessEqual(worstCaseEvac)) {
+                return releasedEden;
+            }
+            final Size releasedOld = oldSpace.decreaseSize(freeSpace.minus(worstCaseEvac));
+            releasedOldSpace = releasedOldSpace.plus(releasedOld);
+            return releasedEden.plus(releasedOld);
+        }
+
+        /**
+         * Grow eden back to its size before it was shrunk. Must be called right after a minor collection emptied eden.
+         */
+        void restoreEden() {
+            if (!releasedEdenSpace.isZero()) {
+                releasedEdenSpace = releasedEdenSpace.minus(youngSpace.increaseSize(releasedEdenSpace));
+            }
+        }
+
+        /**
+         * Grow the old generation back by up to the specified amount of space, without exceeding its size before it was shrunk.
+         *
+         * @return the number of bytes the old generation was grown by
+         */
+        Size restoreOldSpace(Size delta) {
+            if (releasedOldSpace.isZero()) {
+                return Size.zero();
+            }
+            final Size growth = oldSpace.increaseSize(delta.lessThan(releasedOldSpace) ? delta : releasedOldSpace);
+            releasedOldSpace = growth.greaterThan(releasedOldSpace) ? Size.zero() : releasedOldSpace.minus(growth);
+            return growth;
+        }
+    }
+
     final class GenMSEGCRequest  extends GCRequest {
         protected GenMSEGCRequest(VmThread vmThread) {
             super(vmThread);
@@ -285,6 +495,39 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
             super("GenCollection");
             regionsRangeIterable = new HeapRegionRangeIterable();
         }
+
+        @Override
+        protected boolean defersStackReferenceMapPreparation() {
+            return stackReferenceMapPreparer.isParallel();
+        }
+
+        @Override
+        protected long prepareFrozenStackReferenceMaps() {
+            return stackReferenceMapPreparer.prepare(this);
+        }
+
+        /**
+         * Selects the references to the nursery, which must not be found below a {@linkplain StackWatermark stack watermark}.
+         */
+        private final class NurseryReferencePredicate implements Pointer.Predicate {
+            public boolean evaluate(Pointer pointer) {
+                return youngSpace.inNursery(pointer);
+            }
+        }
+
+        /**
+         * Installs stack watermarks on the stacks of the threads stopped by the collection.
+         */
+        private final class StackWatermarkInstaller implements Pointer.Procedure {
+            private final NurseryReferencePredicate nurseryReferencePredicate = new NurseryReferencePredicate();
+
+            public void run(Pointer tla) {
+                StackWatermark.install(tla, nurseryReferencePredicate);
+            }
+        }
+
+        private final StackWatermarkInstaller stackWatermarkInstaller = new StackWatermarkInstaller();
+
         private void verifyAfterEvacuation() {
             // Verify that:
             // 1. offset table is correctly setup
@@ -304,14 +547,73 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
             regionsRangeIterable.initialize(heapAccount.committedRegions());
             HeapScheme.Inspect.notifyHeapPhaseChange(HeapPhase.ANALYZING);
             heapMarker.markAll(regionsRangeIterable);
+            youngSpace.clearDeadPinnedCells(heapMarker);
+            HeapScheme.Inspect.notifyHeapPhaseChange(HeapPhase.RECLAIMING);
+            // Only sweep what the next young collection may need in the worst case. The rest is swept lazily.
+            oldSpace.sweepLazily(heapMarker, false, youngSpace.totalSpace());
+            compactOldGen();
+            oldSpace.doAfterGC();
+            youngSpaceEvacuator.doAfterGC();
+            fullCollectionCount++;
+            HeapScheme.Inspect.notifyHeapPhaseChange(HeapPhase.MUTATING);
+        }
+
+        /**
+         * Compact the sparsest regions of the old generation, if enabled. This must be done right after the old generation is marked and swept,
+         * as the compaction relies on the color map to find the references to the compacted regions.
+         * As the emptied regions are returned to the heap region manager, the old generation is grown back if it is left with less free space
+         * than the worst case evacuation of the young generation.
+         */
+        private void compactOldGen() {
+            if (!oldSpace.beginCompaction()) {
+                return;
+            }
+            if (Heap.verbose()) {
+                Log.println("--Begin old generation compaction");
+            }
+            compactionTimers.resetTrackTime();
+            oldSpaceCompactor.setGCOperation(this);
+            oldSpaceCompactor.evacuate(Heap.logGCPhases());
+            oldSpaceCompactor.setGCOperation(null);
+            final Size worstCaseEvac = youngSpace.totalSpace();
+            final Size freeSpace = oldSpace.freeSpace();
+            if (worstCaseEvac.greaterThan(freeSpace)) {
+                oldSpace.increaseSize(worstCaseEvac.minus(freeSpace));
+            }
+            if (Heap.verbose()) {
+                Log.print("--End   old generation compaction, evacuated bytes: ");
+                Log.println(oldSpaceCompactor.evacuatedBytes().toLong());
+            }
+        }
+
+        /**
+         * Complete the concurrent marking cycle of the old generation and sweep it. This is done after the young generation has been fully evacuated.
+         */
+        private void doRemarkAndSweep() {
+            youngSpaceEvacuator.doBeforeGC();
+            youngSpace.doBeforeGC();
+            oldSpace.doBeforeGC();
+            HeapScheme.Inspect.notifyHeapPhaseChange(HeapPhase.ANALYZING);
+            concurrentMarker.remark(youngSpaceEvacuator);
             HeapScheme.Inspect.notifyHeapPhaseChange(HeapPhase.RECLAIMING);
-            oldSpace.sweep(heapMarker, false);
+            oldSpace.sweepLazily(heapMarker, false, youngSpace.totalSpace());
             oldSpace.doAfterGC();
             youngSpaceEvacuator.doAfterGC();
             fullCollectionCount++;
             HeapScheme.Inspect.notifyHeapPhaseChange(HeapPhase.MUTATING);
         }
 
+        @Override
+        protected void doItEpilogue(boolean nested) {
+            super.doItEpilogue(nested);
+            if (!nested) {
+                oldSpace.notifyBackgroundSweeper();
+                if (backgroundZeroer != null) {
+                    backgroundZeroer.notifyZeroer();
+                }
+            }
+        }
+
         @Override
         protected void collect(int invocationCount) {
             // Collector proceeds as follows:
@@ -324,30 +626,67 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
             // This requires evacuating all of its objects somehow. Rather that doing a full GC covering both
             // the old and young gen and somehow reclaim enough regions for a fresh nursery, we just perform a nursery evacuation.
             // The full GC is thereafter just a old gen GC with an empty young gen.
-            VmThreadMap.ACTIVE.forAllThreadLocals(null, tlabFiller);
+            if (pauseGoalSizingPolicy != null) {
+                pauseGoalSizingPolicy.beginCollection();
+            }
+            resetTLABsBeforeGC(tlabFiller);
             vmConfig().monitorScheme().beforeGarbageCollection();
+            collectionCount++;
+            concurrentMarker.pauseTracing();
+            cardRefiner.discardRecordedCards();
             if (Heap.verbose()) {
                 Log.println("--Begin nursery evacuation");
             }
             youngSpaceEvacuator.setGCOperation(this);
+            evacTimers.resetTrackTime();
             HeapScheme.Inspect.notifyHeapPhaseChange(HeapPhase.ANALYZING);
+            // Old objects neither move nor need tracing while evacuating the nursery, except when concurrently marking the old generation.
+            StackWatermark.setSkipsWatermarkedFrames(StackWatermark.StackWatermarks && !concurrentMarker.isMarking());
+            youngSpaceEvacuator.setLargeObjectCandidates(oldSpace.largeObjectCandidates());
             youngSpaceEvacuator.evacuate(Heap.logGCPhases());
+            youngSpaceEvacuator.setLargeObjectCandidates(null);
+            StackWatermark.setSkipsWatermarkedFrames(false);
             HeapScheme.Inspect.notifyHeapPhaseChange(HeapPhase.RECLAIMING);
             youngSpaceEvacuator.setGCOperation(null);
+            final Size reclaimedLargeObjectSpace = oldSpace.reclaimUnreferencedLargeObjects();
+            reclaimedLargeObjectBytes += reclaimedLargeObjectSpace.toLong();
             if (Heap.verbose()) {
+                if (!reclaimedLargeObjectSpace.isZero()) {
+                    Log.print("--Reclaimed unreferenced large objects: ");
+                    Log.print(reclaimedLargeObjectSpace.toLong());
+                    Log.println(" bytes");
+                }
                 Log.println("--End nursery evacuation");
             }
+            if (pauseGoalSizingPolicy != null) {
+                pauseGoalSizingPolicy.endMinorCollection(youngSpaceEvacuator.evacuatedBytes());
+            }
             if (VerifyAfterGC) {
                 verifyAfterEvacuation();
             }
+            idleHeapShrinker.restoreEden();
             Size worstCaseEvac = youngSpace.totalSpace();
-            Size freeSpace = oldSpace.freeSpace();
+            Size freeSpace = oldSpace.sweepForFreeSpace(worstCaseEvac);
+            if (worstCaseEvac.greaterThan(freeSpace)) {
+                // Grow back what was uncommitted from the old generation while the application was idle before resorting to a full collection.
+                freeSpace = freeSpace.plus(idleHeapShrinker.restoreOldSpace(worstCaseEvac.minus(freeSpace)));
+            }
             HeapScheme.Inspect.notifyHeapPhaseChange(HeapPhase.MUTATING);
             if (worstCaseEvac.greaterThan(freeSpace)) {
+                if (concurrentMarker.isMarking()) {
+                    // Not enough space to wait for the end of the concurrent marking cycle.
+                    concurrentMarker.abort(youngSpaceEvacuator);
+                }
                 if (Heap.verbose()) {
                     Log.println("--Begin old geneneration collection");
                 }
+                if (pauseGoalSizingPolicy != null) {
+                    pauseGoalSizingPolicy.beginFullCollection();
+                }
                 doOldGenCollection();
+                if (pauseGoalSizingPolicy != null) {
+                    pauseGoalSizingPolicy.endFullCollection();
+                }
                 if (Heap.verbose()) {
                     Log.println("--End   old geneneration collection");
                 }
@@ -360,6 +699,31 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
                     // TODO: 3 and 4.
                     FatalError.unimplemented();
                 }
+            } else if (concurrentMarker.isFinished()) {
+                if (Heap.verbose()) {
+                    Log.println("--Begin concurrent marking remark");
+                }
+                doRemarkAndSweep();
+                if (Heap.verbose()) {
+                    Log.println("--End   concurrent marking remark");
+                }
+            } else if (ConcurrentMarking && !concurrentMarker.isMarking() &&
+                            oldSpace.usedSpace().toLong() * 100 >= oldSpace.totalSpace().toLong() * ConcurrentMarkingInitiatingOccupancyPercent) {
+                if (Heap.verbose()) {
+                    Log.println("--Concurrent marking initial mark");
+                }
+                // The initial mark clears the color map the lazy sweep relies on.
+                oldSpace.completeSweep();
+                HeapScheme.Inspect.notifyHeapPhaseChange(HeapPhase.ANALYZING);
+                concurrentMarker.initialMark(youngSpace, youngSpaceEvacuator);
+                HeapScheme.Inspect.notifyHeapPhaseChange(HeapPhase.MUTATING);
+            }
+            if (pauseGoalSizingPolicy != null) {
+                pauseGoalSizingPolicy.resizeAfterCollection(youngSpace, oldSpace);
+            }
+            concurrentMarker.resumeTracing();
+            if (StackWatermark.StackWatermarks) {
+                VmThreadMap.ACTIVE.forAllThreadLocals(frozenThreadPredicate(), stackWatermarkInstaller);
             }
             final GCRequest gcRequest = callingThread().gcRequest;
             gcRequest.lastInvocationCount = invocationCount;
@@ -371,6 +735,20 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
         return theHeapRegionManager().contains(address);
     }
 
+    /**
+     * Indicates whether young collections reclaim unreferenced large objects (see {@link #EagerReclaimLargeObjects}).
+     */
+    public boolean reclaimsLargeObjectsEagerly() {
+        return oldSpace.largeObjectCandidatesEnabled();
+    }
+
+    /**
+     * Gets the total number of bytes of unreferenced large objects reclaimed by young collections so far.
+     */
+    public long reclaimedLargeObjectBytes() {
+        return reclaimedLargeObjectBytes;
+    }
+
     @Override
     public boolean collectGarbage() {
         genCollection.submit();
@@ -387,20 +765,104 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
         return oldSpace.usedSpace().plus(youngSpace.usedSpace());
     }
 
+    /**
+     * Minor collections occur when the nursery is full, and the old generation only grows to the maximum heap size on demand.
+     * The heap's current free space would thus make soft references be cleared far too eagerly, so
+     * size the lifetime of softly reachable referents on the space the heap can still grow into instead.
+     */
+    @Override
+    public SoftReferencePolicy softReferencePolicy() {
+        return SoftReferencePolicy.LRU_MAX_HEAP;
+    }
+
+    @Override
+    public GarbageCollectorMXBean getGarbageCollectorMXBean() {
+        return new GenMSEGarbageCollectorMXBean();
+    }
+
+    private final class GenMSEGarbageCollectorMXBean extends HeapSchemeAdaptor.GarbageCollectorMXBeanAdaptor {
+        private GenMSEGarbageCollectorMXBean() {
+            super("GenMSE");
+            add(new HeapSpaceMemoryPoolMXBean("Young Generation", youngSpace, this));
+            add(new HeapSpaceMemoryPoolMXBean("Old Generation", oldSpace, this));
+        }
+    }
+
+    @Override
+    protected void visitHeapSpaces(CellRangeVisitor visitor) {
+        // Regions left unswept by a lazy sweep still hold the dead objects of the last collection. Sweep them so that
+        // walks only visit objects that were live at the last collection or allocated since.
+        oldSpace.completeSweep();
+        oldSpace.visit(visitor);
+        youngSpace.visit(visitor);
+    }
+
+    /**
+     * Pin an object by pinning the heap region holding it. Objects outside of the heap regions (e.g., in the boot heap) never relocate.
+     * Objects in the survivor spaces can't be pinned.
+     */
     @Override
     public boolean pin(Object object) {
-        return false;
+        final Pointer origin = Reference.fromJava(object).toOrigin();
+        if (!contains(origin)) {
+            return true;
+        }
+        if (youngSpace.inSurvivorSpaces(origin)) {
+            return false;
+        }
+        RegionTable.theRegionTable().inHeapAddressRegionInfo(origin).pin();
+        return true;
     }
 
     @Override
     public void unpin(Object object) {
-        throw new UnsupportedOperationException();
+        final Pointer origin = Reference.fromJava(object).toOrigin();
+        if (contains(origin)) {
+            RegionTable.theRegionTable().inHeapAddressRegionInfo(origin).unpin();
+        }
+    }
+
+    @Override
+    public boolean isPinned(Object object) {
+        final Pointer origin = Reference.fromJava(object).toOrigin();
+        return !contains(origin) || RegionTable.theRegionTable().inHeapAddressRegionInfo(origin).isPinned();
     }
 
     @INLINE
     @Override
     public boolean needsBarrier(IntBitSet<WriteBarrierSpecification.WriteBarrierSpec> writeBarrierSpec) {
-        return writeBarrierSpec.isSet(WriteBarrierSpec.POST_WRITE);
+        return writeBarrierSpec.isSet(WriteBarrierSpec.POST_WRITE) || (SATB_BARRIER && writeBarrierSpec.isSet(WriteBarrierSpec.PRE_WRITE));
+    }
+
+    @INLINE
+    @Override
+    public void preWriteBarrier(Reference ref, Offset offset, Reference value) {
+        if (SATB_BARRIER && SATBQueue.isActive()) {
+            SATBQueue.preWrite(ref.readReference(offset));
+        }
+    }
+
+    @INLINE
+    @Override
+    public void preWriteBarrier(Reference ref,  int displacement, int index, Reference value) {
+        if (SATB_BARRIER && SATBQueue.isActive()) {
+            SATBQueue.preWrite(ref.getReference(displacement, index));
+        }
+    }
+
+    @INLINE
+    @Override
+    public void referentReadBarrier(Reference referent) {
+        if (SATB_BARRIER && SATBQueue.isActive()) {
+            SATBQueue.preWrite(referent);
+        }
+    }
+
+    @Override
+    public void notifyCurrentThreadDetach() {
+        super.notifyCurrentThreadDetach();
+        SATBQueue.retireCurrentThread();
+        DirtyCardQueue.retireCurrentThread();
     }
 
     @INLINE
@@ -426,6 +888,16 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
         refillTLAB(etla, tlab, effectiveSize);
     }
 
+    /**
+     * Allocate outside of a TLAB. Objects that are large candidates for eager reclamation are allocated in the old generation.
+     */
+    private Pointer allocateDirect(Size size) {
+        if (oldSpace.isReclaimableLarge(size)) {
+            return oldSpace.allocateReclaimableLarge(size);
+        }
+        return youngSpace.allocate(size);
+    }
+
     @Override
     @NEVER_INLINE
     protected Pointer handleTLABOverflow(Size size, Pointer etla, Pointer tlabMark, Pointer tlabEnd) {
@@ -437,14 +909,14 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
             if (!usesTLAB()) {
                 // We're not using TLAB. So let's assign the never refill tlab policy.
                 TLABRefillPolicy.setForCurrentThread(etla, NEVER_REFILL_TLAB);
-                return youngSpace.allocate(size);
+                return allocateDirect(size);
             }
             // Allocate an initial TLAB and a refill policy. For simplicity, this one is allocated from the TLAB (see comment below).
             final Size tlabSize = initialTlabSize();
             allocateAndRefillTLAB(etla, tlabSize);
             // Let's do a bit of meta-circularity. The TLAB is refilled, and no-one except the current thread can use it.
             // So the TLAB allocation is going to succeed here
-            TLABRefillPolicy.setForCurrentThread(etla, new SimpleTLABRefillPolicy(tlabSize));
+            TLABRefillPolicy.setForCurrentThread(etla, newTLABRefillPolicy(tlabSize));
             // Now, address the initial request. Note that we may recurse down to handleTLABOverflow again here if the
             // request is larger than the TLAB size. However, this second call will succeed and allocate outside of the TLAB.
             return tlabAllocate(size);
@@ -454,7 +926,7 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
             // This couldn't be allocated in a TLAB, so go directly to direct allocation routine.
             // NOTE: this is where we always go if we don't use TLABs (the "never refill" TLAB policy
             // always return zero for the next TLAB size.
-            return youngSpace.allocate(size);
+            return allocateDirect(size);
         }
         if (!refillPolicy.shouldRefill(size, tlabMark)) {
             // Size would fit in a new tlab, but the policy says we shouldn't refill the TLAB yet, so allocate directly in the young generation.
@@ -467,6 +939,10 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
 
     @Override
     protected Pointer customAllocate(Pointer customAllocator, Size size) {
+        if (customAllocator.equals(Word.allOnes())) {
+            // See Heap.enableImmortalMemoryAllocation()
+            return ImmortalHeap.allocate(size, true);
+        }
         return BaseAtomicBumpPointerAllocator.asBumpPointerAllocator(Reference.fromOrigin(Layout.cellToOrigin(customAllocator)).toJava()).allocateCleared(size);
     }
 
@@ -476,19 +952,39 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
     }
 
     @HOSTED_ONLY
-    public XirWriteBarrierGenerator barrierGenerator(IntBitSet<WriteBarrierSpecification.WriteBarrierSpec> writeBarrierSpec) {
-        if (writeBarrierSpec.equals(TUPLE_POST_BARRIER)) {
+    public XirWriteBarrierGenerator barrierGenerator(IntBitSet<WriteBarrierSpecification.WriteBarrierSpec> writeBarrierSpec, final XirRuntimeCallStubs runtimeCallStubs) {
+        if (writeBarrierSpec.equals(TUPLE_PRE_BARRIER)) {
+            if (!SATB_BARRIER) {
+                return XirWriteBarrierSpecification.NULL_WRITE_BARRIER_GEN;
+            }
+            return new XirWriteBarrierGenerator() {
+                @Override
+                public void genWriteBarrier(CiXirAssembler asm, XirOperand ... operands) {
+                    SATBQueue.genTuplePreWriteBarrier(asm, runtimeCallStubs, operands[0], operands[1]);
+                }
+            };
+        } else if (writeBarrierSpec.equals(ARRAY_PRE_BARRIER)) {
+            if (!SATB_BARRIER) {
+                return XirWriteBarrierSpecification.NULL_WRITE_BARRIER_GEN;
+            }
+            return new XirWriteBarrierGenerator() {
+                @Override
+                public void genWriteBarrier(CiXirAssembler asm, XirOperand ... operands) {
+                    SATBQueue.genArrayPreWriteBarrier(asm, runtimeCallStubs, operands[0], operands[1]);
+                }
+            };
+        } else if (writeBarrierSpec.equals(TUPLE_POST_BARRIER)) {
             return new XirWriteBarrierGenerator() {
                 @Override
                 public void genWriteBarrier(CiXirAssembler asm, XirOperand ... operands) {
-                    cardTableRSet.genTuplePostWriteBarrier(asm, operands[0]);
+                    cardTableRSet.genTuplePostWriteBarrier(asm, runtimeCallStubs, operands[0]);
                 }
             };
         } else if (writeBarrierSpec.equals(ARRAY_POST_BARRIER)) {
             return new XirWriteBarrierGenerator() {
                 @Override
                 public void genWriteBarrier(CiXirAssembler asm, XirOperand ... operands) {
-                    cardTableRSet.genArrayPostWriteBarrier(asm, operands[0], operands[1]);
+                    cardTableRSet.genArrayPostWriteBarrier(asm, runtimeCallStubs, operands[0], operands[1]);
                 }
             };
         }
@@ -25,11 +25,14 @@ package com.sun.max.vm.heap.gcx.gen.mse;
 import com.sun.max.config.*;
 import com.sun.max.vm.*;
 import com.sun.max.vm.heap.*;
+import com.sun.max.vm.heap.gcx.*;
 
 public class Package extends BootImagePackage {
 
     public Package() {
         registerScheme(HeapScheme.class, GenMSEHeapScheme.class);
+        registerThreadLocal(SATBQueue.class, SATBQueue.SATB_QUEUE_TAIL_THREAD_LOCAL_NAME);
+        registerThreadLocal(DirtyCardQueue.class, DirtyCardQueue.DIRTY_CARD_QUEUE_TAIL_THREAD_LOCAL_NAME);
     }
     @Override
     public boolean isPartOfMaxineVM(VMConfiguration vmConfiguration) {
@@ -219,6 +219,16 @@ public final class MSHeapScheme extends HeapSchemeWithTLABAdaptor {
             super("MSCollection");
         }
 
+        @Override
+        protected boolean defersStackReferenceMapPreparation() {
+            return stackReferenceMapPreparer.isParallel();
+        }
+
+        @Override
+        protected long prepareFrozenStackReferenceMaps() {
+            return stackReferenceMapPreparer.prepare(this);
+        }
+
         private final TimerMetric reclaimTimer = new TimerMetric(new SingleUseTimer(HeapScheme.GC_TIMING_CLOCK));
         private final TimerMetric totalPauseTime = new TimerMetric(new SingleUseTimer(HeapScheme.GC_TIMING_CLOCK));
 
@@ -278,7 +288,7 @@ public final class MSHeapScheme extends HeapSchemeWithTLABAdaptor {
         public void collect(int invocationCount) {
             traceGCTimes = Heap.logGCTime();
             startTimer(totalPauseTime);
-            VmThreadMap.ACTIVE.forAllThreadLocals(null, tlabFiller);
+            resetTLABsBeforeGC(tlabFiller);
 
             HeapScheme.Inspect.notifyHeapPhaseChange(HeapPhase.ANALYZING);
 
@@ -400,7 +410,7 @@ public final class MSHeapScheme extends HeapSchemeWithTLABAdaptor {
             allocateAndRefillTLAB(etla, tlabSize);
             // Let's do a bit of dirty meta-circularity. The TLAB is refilled, and no-one except the current thread can use it.
             // So the tlab allocation is going to succeed here
-            TLABRefillPolicy.setForCurrentThread(etla, new SimpleTLABRefillPolicy(tlabSize));
+            TLABRefillPolicy.setForCurrentThread(etla, newTLABRefillPolicy(tlabSize));
             // Now, address the initial request. Note that we may recurse down to handleTLABOverflow again here if the
             // request is larger than the TLAB size. However, this second call will succeed and allocate outside of the tlab.
             return tlabAllocate(size);
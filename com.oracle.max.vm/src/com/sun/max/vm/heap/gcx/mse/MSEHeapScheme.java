@@ -26,6 +26,7 @@ import static com.sun.max.vm.VMConfiguration.*;
 import static com.sun.max.vm.heap.gcx.HeapRegionManager.*;
 import static com.sun.max.vm.intrinsics.MaxineIntrinsicIDs.*;
 
+import com.sun.management.GarbageCollectorMXBean;
 import com.sun.max.annotate.*;
 import com.sun.max.memory.*;
 import com.sun.max.platform.*;
@@ -72,6 +73,11 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
 
     final MarkSweepCollection collect = new MarkSweepCollection();
 
+    /**
+     * Returns free regions to the operating system when the application is allocation-idle.
+     */
+    private final MSEIdleHeapShrinker idleHeapShrinker = new MSEIdleHeapShrinker();
+
     /**
      * An instance of an after mark sweep verifier to use for heap verification after a mark sweep.
      * @see Sweeper
@@ -102,6 +108,9 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
     @Override
     public void initialize(MaxineVM.Phase phase) {
         super.initialize(phase);
+        if (phase == MaxineVM.Phase.STARTING) {
+            idleHeapShrinker.start();
+        }
     }
 
     /**
@@ -241,6 +250,11 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
         return markSweepSpace.usedSpace();
     }
 
+    @Override
+    protected void visitHeapSpaces(CellRangeVisitor visitor) {
+        markSweepSpace.visit(visitor);
+    }
+
     @INLINE
     public boolean pin(Object object) {
         // Objects never relocate. So this is always safe.
@@ -261,6 +275,32 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
     public void writeBarrier(Reference from, Reference to) {
     }
 
+    /**
+     * Uncommits the empty regions of the heap beyond the free space below which the next collection would grow the heap back.
+     */
+    final class MSEIdleHeapShrinker extends IdleHeapShrinker {
+        MSEIdleHeapShrinker() {
+            super("MSEIdleHeapShrinker");
+        }
+
+        @Override
+        protected Size releaseFreeSpace() {
+            return markSweepSpace.decreaseSize(collect.heapResizingPolicy.excessFreeSpace(markSweepSpace.freeSpace(), markSweepSpace));
+        }
+    }
+
+    @Override
+    public GarbageCollectorMXBean getGarbageCollectorMXBean() {
+        return new MSEGarbageCollectorMXBean();
+    }
+
+    private final class MSEGarbageCollectorMXBean extends HeapSchemeAdaptor.GarbageCollectorMXBeanAdaptor {
+        private MSEGarbageCollectorMXBean() {
+            super("MSE");
+            add(new HeapSpaceMemoryPoolMXBean("Mark Sweep Space", markSweepSpace, this));
+        }
+    }
+
     /**
      * Class implementing the garbage collection routine.
      * This is the {@link VmOperationThread}'s entry point to garbage collection.
@@ -270,6 +310,16 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
             super("MarkSweepCollection");
         }
 
+        @Override
+        protected boolean defersStackReferenceMapPreparation() {
+            return stackReferenceMapPreparer.isParallel();
+        }
+
+        @Override
+        protected long prepareFrozenStackReferenceMaps() {
+            return stackReferenceMapPreparer.prepare(this);
+        }
+
         private final TimerMetric reclaimTimer = new TimerMetric(new SingleUseTimer(HeapScheme.GC_TIMING_CLOCK));
         private final TimerMetric totalPauseTime = new TimerMetric(new SingleUseTimer(HeapScheme.GC_TIMING_CLOCK));
 
@@ -306,14 +356,17 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
             Log.unlock(lockDisabledSafepoints);
         }
 
-        private HeapResizingPolicy heapResizingPolicy = new HeapResizingPolicy();
+        /**
+         * Only grows the heap: shrinking is left to the {@link MSEIdleHeapShrinker}.
+         */
+        private HeapResizingPolicy heapResizingPolicy = new HeapResizingPolicy(false);
 
         @Override
         protected void collect(int invocationCount) {
             final boolean traceGCPhases = Heap.logGCPhases();
             traceGCTimes = Heap.logGCTime();
             startTimer(totalPauseTime);
-            VmThreadMap.ACTIVE.forAllThreadLocals(null, tlabFiller);
+            resetTLABsBeforeGC(tlabFiller);
 
             HeapScheme.Inspect.notifyHeapPhaseChange(HeapPhase.ANALYZING);
 
@@ -429,6 +482,10 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
 
     @Override
     protected Pointer customAllocate(Pointer customAllocator, Size size) {
+        if (customAllocator.equals(Word.allOnes())) {
+            // See Heap.enableImmortalMemoryAllocation()
+            return ImmortalHeap.allocate(size, true);
+        }
         return BaseAtomicBumpPointerAllocator.asBumpPointerAllocator(Reference.fromOrigin(Layout.cellToOrigin(customAllocator)).toJava()).allocateCleared(size);
     }
 
@@ -449,7 +506,7 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
             allocateAndRefillTLAB(etla, tlabSize);
             // Let's do a bit of dirty meta-circularity. The TLAB is refilled, and no-one except the current thread can use it.
             // So the tlab allocation is going to succeed here
-            TLABRefillPolicy.setForCurrentThread(etla, new SimpleTLABRefillPolicy(tlabSize));
+            TLABRefillPolicy.setForCurrentThread(etla, newTLABRefillPolicy(tlabSize));
             // Now, address the initial request. Note that we may recurse down to handleTLABOverflow again here if the
             // request is larger than the TLAB size. However, this second call will succeed and allocate outside of the tlab.
             return tlabAllocate(size);
@@ -24,10 +24,13 @@ package com.sun.max.vm.heap.gcx.rset.ctbl;
 
 /**
  * Two value card-state.
+ * The transient {@link #REFINING_CARD} state is only set by {@linkplain com.sun.max.vm.heap.gcx.ConcurrentCardRefiner concurrent refinement}
+ * while it scans a dirty card, and is never observed at a safepoint.
  */
 public enum CardState {
     CLEAN_CARD(0xff),
-    DIRTY_CARD(0);
+    DIRTY_CARD(0),
+    REFINING_CARD(1);
 
     final byte value;
 
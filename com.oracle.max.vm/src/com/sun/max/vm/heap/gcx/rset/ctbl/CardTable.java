@@ -24,6 +24,7 @@ package com.sun.max.vm.heap.gcx.rset.ctbl;
 
 import static com.sun.max.vm.heap.gcx.rset.ctbl.CardState.*;
 
+import com.sun.max.lang.*;
 import com.sun.max.unsafe.*;
 /**
  * Card table implementation, when cards can have two states only: clean and dirty (@see {@link CardState}).
@@ -91,9 +92,39 @@ public final class CardTable extends  Log2RegionToByteMapTable {
     /**
      * Dirty the entry in the card table corresponding to the card of the covered heap address.
      * @param coveredAddress an address in heap covered by the card table
+     * @return true if the card wasn't already dirty
      */
-    void dirtyCovered(Address coveredAddress) {
+    boolean dirtyCovered(Address coveredAddress) {
+        final boolean wasDirty = unsafeGet(coveredAddress) == DIRTY_CARD.value();
         unsafeSet(coveredAddress, DIRTY_CARD.value());
+        return !wasDirty;
+    }
+
+    /**
+     * Atomically set the card at the specified index to a new state if it is in the expected state.
+     * Cards are updated with a compare-and-swap of the aligned int holding the card's entry. The swap is retried when
+     * other entries of that int change concurrently, so that it only fails if the card itself is no longer in the expected state.
+     *
+     * @param index a card index
+     * @param expected the expected state of the card
+     * @param newState the new state of the card
+     * @return true if the card was set to the new state
+     */
+    boolean compareAndSwap(int index, CardState expected, CardState newState) {
+        final int intOffset = index & ~(Ints.SIZE - 1);
+        // Card entries are laid out in little-endian order within the int.
+        final int shift = (index - intOffset) * Bytes.WIDTH;
+        final int mask = 0xff << shift;
+        while (true) {
+            final int word = tableAddress.readInt(intOffset);
+            if ((byte) ((word & mask) >>> shift) != expected.value()) {
+                return false;
+            }
+            final int newWord = (word & ~mask) | ((newState.value() & 0xff) << shift);
+            if (tableAddress.compareAndSwapInt(intOffset, word, newWord) == word) {
+                return true;
+            }
+        }
     }
 
     /**
@@ -30,6 +30,7 @@ import com.sun.cri.ci.CiAddress.Scale;
 import com.sun.cri.ci.*;
 import com.sun.cri.xir.*;
 import com.sun.cri.xir.CiXirAssembler.XirConstant;
+import com.sun.cri.xir.CiXirAssembler.XirLabel;
 import com.sun.cri.xir.CiXirAssembler.XirOperand;
 import com.sun.max.annotate.*;
 import com.sun.max.memory.*;
@@ -41,6 +42,7 @@ import com.sun.max.vm.code.*;
 import com.sun.max.vm.compiler.*;
 import com.sun.max.vm.heap.*;
 import com.sun.max.vm.heap.HeapScheme.BootRegionMappingConstraint;
+import com.sun.max.vm.heap.XirWriteBarrierSpecification.XirRuntimeCallStubs;
 import com.sun.max.vm.heap.gcx.*;
 import com.sun.max.vm.heap.gcx.rset.*;
 import com.sun.max.vm.hosted.*;
@@ -243,33 +245,40 @@ public final class CardTableRSet extends DeadSpaceListener implements HeapManage
         return constant;
     }
 
+    /**
+     * Generate the dirtying of the card whose index is in the specified temp, and the recording of the card on the
+     * {@link DirtyCardQueue} if it wasn't already dirty.
+     */
     @HOSTED_ONLY
-    public void genTuplePostWriteBarrier(CiXirAssembler asm, XirOperand tupleCell) {
-        final XirOperand temp = asm.createTemp("temp", WordUtil.archKind());
-        asm.shr(temp, tupleCell, asm.i(CardTableRSet.LOG2_CARD_SIZE));
+    private void genDirtyCard(CiXirAssembler asm, XirRuntimeCallStubs stubs, XirOperand temp) {
         // Watch out: this create a reference literal that will not point to an object!
         // The GC will need to carefully skip reference table entries holding the biased base of the card table.
         // final XirConstant biasedCardTableAddress = asm.createConstant(CiConstant.forObject(dummyCardTable));
         final XirConstant biasedCardTableAddress = biasedCardTableAddressXirConstant(asm);
+        final XirOperand previousState = asm.createTemp("previousCardState", CiKind.Int);
+        final XirLabel done = asm.createInlineLabel("cardDirtied");
+        asm.pload(CiKind.Byte, previousState, biasedCardTableAddress, temp, false);
         asm.pstore(CiKind.Byte, biasedCardTableAddress, temp, asm.i(CardState.DIRTY_CARD.value()), false);
+        asm.jeq(done, previousState, asm.i(CardState.DIRTY_CARD.value()));
+        asm.lea(temp, biasedCardTableAddress, temp, 0, Scale.Times1);
+        DirtyCardQueue.genEnqueue(asm, stubs, temp, done);
+    }
 
-        // FIXME: remove this temp debug code
-        if (MaxineVM.isDebug()) {
-            // Just so that we get the address of the card entry in a register when inspecting...
-            asm.lea(temp, biasedCardTableAddress, temp, 0, Scale.Times1);
-        }
+    @HOSTED_ONLY
+    public void genTuplePostWriteBarrier(CiXirAssembler asm, XirRuntimeCallStubs stubs, XirOperand tupleCell) {
+        final XirOperand temp = asm.createTemp("temp", WordUtil.archKind());
+        asm.shr(temp, tupleCell, asm.i(CardTableRSet.LOG2_CARD_SIZE));
+        genDirtyCard(asm, stubs, temp);
     }
 
     @HOSTED_ONLY
-    public void genArrayPostWriteBarrier(CiXirAssembler asm, XirOperand arrayCell, XirOperand elemIndex) {
+    public void genArrayPostWriteBarrier(CiXirAssembler asm, XirRuntimeCallStubs stubs, XirOperand arrayCell, XirOperand elemIndex) {
         final XirOperand temp = asm.createTemp("temp", WordUtil.archKind());
         final Scale scale = Scale.fromInt(Word.size());
         final int disp = Layout.referenceArrayLayout().getElementOffsetInCell(0).toInt();
         asm.lea(temp, arrayCell, elemIndex, disp, scale);
         asm.shr(temp, temp, asm.i(CardTableRSet.LOG2_CARD_SIZE));
-        // final XirConstant biasedCardTableAddress = asm.createConstant(CiConstant.forObject(dummyCardTable));
-        final XirConstant biasedCardTableAddress = biasedCardTableAddressXirConstant(asm);
-        asm.pstore(CiKind.Byte, biasedCardTableAddress, temp, asm.i(CardState.DIRTY_CARD.value()), false);
+        genDirtyCard(asm, stubs, temp);
     }
 
     /**
@@ -278,7 +287,7 @@ public final class CardTableRSet extends DeadSpaceListener implements HeapManage
      * @param offset the offset from the origin of the cell to the updated reference.
      */
     public void record(Reference ref, Offset offset) {
-        cardTable.dirtyCovered(ref.toOrigin().plus(offset));
+        recordCard(ref.toOrigin().plus(offset));
     }
 
     /**
@@ -288,7 +297,51 @@ public final class CardTableRSet extends DeadSpaceListener implements HeapManage
      * @param index a word index to the updated reference
      */
     public void record(Reference ref,  int displacement, int index) {
-        cardTable.dirtyCovered(ref.toOrigin().plus(Address.fromInt(index).shiftedLeft(Word.widthValue().log2numberOfBytes).plus(displacement)));
+        recordCard(ref.toOrigin().plus(Address.fromInt(index).shiftedLeft(Word.widthValue().log2numberOfBytes).plus(displacement)));
+    }
+
+    @INLINE
+    private void recordCard(Address updatedSlot) {
+        if (cardTable.dirtyCovered(updatedSlot) && DirtyCardQueue.isActive()) {
+            DirtyCardQueue.enqueue(cardTable.tableAddress.plus(cardTable.tableEntryIndex(updatedSlot)));
+        }
+    }
+
+    /**
+     * Refine a card recorded on the {@link DirtyCardQueue}: clean the card if the words it covers don't refer to the specified young generation range.
+     * The card is conservatively scanned word by word, so that it can be refined concurrently with the mutators and the sweeper without parsing cells.
+     * A word that happens to look like a young reference only leaves the card dirty.
+     * The card is set to the transient {@link CardState#REFINING_CARD} state while it is scanned;
+     * a mutator store to the card sets it back to dirty, which makes the final transition fail and leaves the card dirty.
+     * This relies on the mutator's reference store being visible before its card store (as with the total store order of x86).
+     * Must be called with safepoints disabled.
+     *
+     * @param cardEntry address of the card table entry of the card
+     * @param youngStart start of the young generation (inclusive)
+     * @param youngEnd end of the young generation (exclusive)
+     * @return true if the card was cleaned
+     */
+    public boolean refineCard(Pointer cardEntry, Address youngStart, Address youngEnd) {
+        final int cardIndex = cardEntry.minus(cardTable.tableAddress).toInt();
+        final Address start = cardTable.rangeStart(cardIndex);
+        if (start.greaterEqual(youngStart) && start.lessThan(youngEnd)) {
+            return false;
+        }
+        if (!cardTable.compareAndSwap(cardIndex, CardState.DIRTY_CARD, CardState.REFINING_CARD)) {
+            return false;
+        }
+        Pointer p = start.asPointer();
+        final Pointer end = p.plus(CARD_SIZE);
+        while (p.lessThan(end)) {
+            final Address value = p.getWord().asAddress();
+            if (value.greaterEqual(youngStart) && value.lessThan(youngEnd)) {
+                // A plain store: the card must end up dirty whether or not a mutator dirtied it meanwhile.
+                cardTable.dirty(cardIndex);
+                return false;
+            }
+            p = p.plus(Word.size());
+        }
+        return cardTable.compareAndSwap(cardIndex, CardState.REFINING_CARD, CardState.CLEAN_CARD);
     }
 
     /**
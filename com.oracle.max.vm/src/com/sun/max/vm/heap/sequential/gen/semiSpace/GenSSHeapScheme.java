@@ -732,7 +732,7 @@ public final class GenSSHeapScheme extends HeapSchemeWithTLABAdaptor implements
         if (OldSpaceDirtyCardsStats) {
             countOldSpaceDirtyCards("before minor collection");
         }
-        VmThreadMap.ACTIVE.forAllThreadLocals(null, tlabFiller);
+        resetTLABsBeforeGC(tlabFiller);
         Heap.invokeGCCallbacks(GCCallbackPhase.BEFORE);
         if (MaxineVM.isDebug() && Heap.verbose()) {
             Log.println("--Begin nursery evacuation");
@@ -1023,7 +1023,7 @@ public final class GenSSHeapScheme extends HeapSchemeWithTLABAdaptor implements
             allocateAndRefillTLAB(etla, tlabSize);
             // Let's do a bit of meta-circularity. The TLAB is refilled, and no-one except the current thread can use it.
             // So the TLAB allocation is going to succeed here
-            TLABRefillPolicy.setForCurrentThread(etla, new SimpleTLABRefillPolicy(tlabSize));
+            TLABRefillPolicy.setForCurrentThread(etla, newTLABRefillPolicy(tlabSize));
             // Now, address the initial request. Note that we may recurse down to handleTLABOverflow again here if the
             // request is larger than the TLAB size. However, this second call will succeed and allocate outside of the TLAB.
             return tlabAllocate(size);
@@ -1076,19 +1076,19 @@ public final class GenSSHeapScheme extends HeapSchemeWithTLABAdaptor implements
     }
 
     @HOSTED_ONLY
-    public XirWriteBarrierGenerator barrierGenerator(IntBitSet<WriteBarrierSpecification.WriteBarrierSpec> writeBarrierSpec) {
+    public XirWriteBarrierGenerator barrierGenerator(IntBitSet<WriteBarrierSpecification.WriteBarrierSpec> writeBarrierSpec, final XirRuntimeCallStubs runtimeCallStubs) {
         if (writeBarrierSpec.equals(TUPLE_POST_BARRIER)) {
             return new XirWriteBarrierGenerator() {
                 @Override
                 public void genWriteBarrier(CiXirAssembler asm, XirOperand ... operands) {
-                    cardTableRSet.genTuplePostWriteBarrier(asm, operands[0]);
+                    cardTableRSet.genTuplePostWriteBarrier(asm, runtimeCallStubs, operands[0]);
                 }
             };
         } else if (writeBarrierSpec.equals(ARRAY_POST_BARRIER)) {
             return new XirWriteBarrierGenerator() {
                 @Override
                 public void genWriteBarrier(CiXirAssembler asm, XirOperand ... operands) {
-                    cardTableRSet.genArrayPostWriteBarrier(asm, operands[0], operands[1]);
+                    cardTableRSet.genArrayPostWriteBarrier(asm, runtimeCallStubs, operands[0], operands[1]);
                 }
             };
         }
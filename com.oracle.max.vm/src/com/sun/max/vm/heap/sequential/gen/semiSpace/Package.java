@@ -25,11 +25,12 @@ package com.sun.max.vm.heap.sequential.gen.semiSpace;
 import com.sun.max.config.*;
 import com.sun.max.vm.*;
 import com.sun.max.vm.heap.*;
-
+import com.sun.max.vm.heap.gcx.*;
 
 public class Package extends BootImagePackage {
     public Package() {
         registerScheme(HeapScheme.class, GenSSHeapScheme.class);
+        registerThreadLocal(DirtyCardQueue.class, DirtyCardQueue.DIRTY_CARD_QUEUE_TAIL_THREAD_LOCAL_NAME);
     }
 
     @Override
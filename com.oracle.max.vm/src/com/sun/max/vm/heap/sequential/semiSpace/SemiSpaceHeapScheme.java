@@ -304,6 +304,10 @@ public class SemiSpaceHeapScheme extends HeapSchemeWithTLAB implements CellVisit
         public boolean mayRelocateLiveObjects() {
             return true;
         }
+
+        public void traceFromPreserved() {
+            // Nothing to do: preserve() moves everything reachable from the preserved reference.
+        }
     }
 
     /**
@@ -338,7 +342,7 @@ public class SemiSpaceHeapScheme extends HeapSchemeWithTLAB implements CellVisit
         @Override
         public void collect(int invocationCount) {
             try {
-                VmThreadMap.ACTIVE.forAllThreadLocals(null, resetTLAB);
+                resetTLABsBeforeGC(resetTLAB);
 
                 Heap.invokeGCCallbacks(GCCallbackPhase.BEFORE);
                 // Pre-verification of the heap.
@@ -871,7 +875,7 @@ public class SemiSpaceHeapScheme extends HeapSchemeWithTLAB implements CellVisit
             allocateAndRefillTLAB(etla, tlabSize);
             // Let's do a bit of meta-circularity. The TLAB is refilled, and no-one except the current thread can use it.
             // So the TLAB allocation is going to succeed here
-            TLABRefillPolicy.setForCurrentThread(etla, new SimpleTLABRefillPolicy(tlabSize));
+            TLABRefillPolicy.setForCurrentThread(etla, newTLABRefillPolicy(tlabSize));
             // Now, address the initial request. Note that we may recurse down to handleTLABOverflow again here if the
             // request is larger than the TLAB size. However, this second call will succeed and allocate outside of the TLAB.
             return tlabAllocate(size);
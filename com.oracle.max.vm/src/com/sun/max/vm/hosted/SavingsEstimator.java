@@ -28,6 +28,9 @@ import java.io.*;
 import java.util.*;
 
 import com.sun.max.lang.*;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.layout.*;
+import com.sun.max.vm.layout.ohm.*;
 
 /**
  * This class is useful for prototyping refactorings aimed at reducing the size of the image.
@@ -44,8 +47,57 @@ public class SavingsEstimator {
         if (platform().wordWidth() == WordWidth.BITS_64) {
             reportCompressRefsSavings(printStream);
         }
+        if (Layout.tupleLayout() instanceof OhmTupleLayout) {
+            reportFieldPackingSavings(printStream, (OhmTupleLayout) Layout.tupleLayout());
+        }
     }
 
+    /**
+     * Reports the bytes saved by the tuples of each class with {@linkplain OhmTupleLayout#packsFields() packed} fields,
+     * compared to laying out the fields class by class. Nothing is saved unless the boot image is built with packed fields.
+     */
+    private void reportFieldPackingSavings(PrintStream printStream, OhmTupleLayout tupleLayout) {
+        printStream.println("Savings from packed fields (" + (tupleLayout.packsFields() ? "enabled" : "disabled") + ")...");
+        long totalSavings = 0;
+        final Map<Class, Long> classSavings = new IdentityHashMap<Class, Long>();
+        for (Object o : graphStats.graphPrototype.objects) {
+            if (o instanceof StaticTuple) {
+                continue;
+            }
+            final ClassActor classActor = ClassActor.fromJava(o.getClass());
+            if (!classActor.isTupleClass()) {
+                continue;
+            }
+            final int savings = tupleLayout.unpackedTupleSize(classActor) - classActor.dynamicTupleSize().toInt();
+            if (savings != 0) {
+                totalSavings += savings;
+                final Long saved = classSavings.get(o.getClass());
+                classSavings.put(o.getClass(), saved == null ? savings : saved + savings);
+            }
+        }
+        printTopClasses(printStream, classSavings);
+        printStream.println("Savings from packed fields (" + classSavings.size() + " classes) = " + totalSavings + " bytes");
+    }
+
+    private static void printTopClasses(PrintStream printStream, Map<Class, Long> classSavings) {
+        final List<Map.Entry<Class, Long>> entries = new ArrayList<Map.Entry<Class, Long>>(classSavings.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<Class, Long>>() {
+            public int compare(Map.Entry<Class, Long> e1, Map.Entry<Class, Long> e2) {
+                return e2.getValue().compareTo(e1.getValue());
+            }
+        });
+        final int topClasses = Math.min(TOP_CLASSES, entries.size());
+        for (int i = 0; i < topClasses; i++) {
+            final Map.Entry<Class, Long> entry = entries.get(i);
+            printStream.println("    " + entry.getKey().getName() + ": " + entry.getValue() + " bytes");
+        }
+    }
+
+    /**
+     * Number of classes whose instances save the most listed in the report.
+     */
+    private static final int TOP_CLASSES = 20;
+
     private void reportCompressRefsSavings(PrintStream printStream) {
         Collection<GraphPrototype.ClassInfo> cstats = graphStats.graphPrototype.classInfos.values();
         printStream.println("Estimating savings from compressed references, ignoring alignment...");
@@ -86,6 +86,19 @@ public class MaxineIntrinsicIDs {
      */
     public static final String PAUSE = p + "PAUSE";
 
+    /**
+     * If the CPU supports it, then this intrinsic issues an instruction that prefetches into the cache the memory at a given address,
+     * in anticipation of a read. The prefetch is only a hint: it never faults, even if the address isn't mapped.
+     *
+     * If the CPU does not support such an instruction, then nothing is emitted for this intrinsic.
+     * <p>
+     * The method definition must have the following form:
+     * <pre>
+     * static void m(Pointer address)
+     * </pre>
+     */
+    public static final String PREFETCH_READ = p + "PREFETCH_READ";
+
     /**
      * Inserts machine code to generate a breakpoint trap.
      * <p>
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.jdk;
+
+import static com.sun.max.vm.VMConfiguration.*;
+
+import com.sun.max.annotate.*;
+import com.sun.max.vm.reference.*;
+
+/**
+ * Substitutions for java.lang.ref.Reference.
+ */
+@METHOD_SUBSTITUTIONS(java.lang.ref.Reference.class)
+final class JDK_java_lang_ref_Reference {
+
+    private JDK_java_lang_ref_Reference() {
+    }
+
+    @ALIAS(declaringClass = java.lang.ref.Reference.class)
+    private Object referent;
+
+    /**
+     * Returns the referent, after applying the heap scheme's {@linkplain com.sun.max.vm.heap.HeapScheme#referentReadBarrier(Reference) referent read barrier}.
+     */
+    @SUBSTITUTE
+    public Object get() {
+        final Object r = referent;
+        vmConfig().heapScheme().referentReadBarrier(Reference.fromJava(r));
+        return r;
+    }
+}
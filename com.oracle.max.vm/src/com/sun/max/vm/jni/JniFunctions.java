@@ -4584,7 +4584,7 @@ public final class JniFunctions {
 
         try {
             final Object arrayObject = array.unhand();
-            if (Heap.releasedDirectPointer(arrayObject)) {
+            if (elements.equals(Reference.fromJava(arrayObject).toOrigin().plus(Layout.byteArrayLayout().getElementOffsetFromOrigin(0))) && Heap.releasedDirectPointer(arrayObject)) {
                 return;
             }
             if (arrayObject instanceof boolean[]) {
@@ -1684,7 +1684,7 @@ public final class JniFunctionsSource {
     @VM_ENTRY_POINT
     private static void ReleasePrimitiveArrayCritical(Pointer env, JniHandle array, Pointer elements, int mode) {
         final Object arrayObject = array.unhand();
-        if (Heap.releasedDirectPointer(arrayObject)) {
+        if (elements.equals(Reference.fromJava(arrayObject).toOrigin().plus(Layout.byteArrayLayout().getElementOffsetFromOrigin(0))) && Heap.releasedDirectPointer(arrayObject)) {
             return;
         }
         if (arrayObject instanceof boolean[]) {
@@ -458,6 +458,20 @@ public final class Layout {
         generalLayout().writeForwardRef(origin, forwardRef);
     }
 
+    /**
+     * Atomically installs a forwarding reference in an object if its header still holds the specified value.
+     *
+     * @param origin location of an object
+     * @param suspectedRef the expected value of the header word holding the forwarding reference (i.e., the hub of a non-forwarded object)
+     * @param forwardRef the forwarding reference to install
+     * @return the value of the header word before the operation; the operation succeeded if it is equal to {@code suspectedRef}
+     */
+    @ACCESSOR(Pointer.class)
+    @INLINE
+    public static Reference compareAndSwapForwardRef(Pointer origin, Reference suspectedRef, Reference forwardRef) {
+        return generalLayout().compareAndSwapForwardRef(origin, suspectedRef, forwardRef);
+    }
+
     /**
      * Access to <strong>byte array object</strong> layout information in the
      * context of the current {@linkplain VMConfiguration VM configuration}.
@@ -22,6 +22,8 @@
  */
 package com.sun.max.vm.layout.ohm;
 
+import java.util.*;
+
 import com.sun.max.annotate.*;
 import com.sun.max.lang.*;
 import com.sun.max.unsafe.*;
@@ -72,6 +74,18 @@ public final class OhmTupleLayout extends OhmGeneralLayout implements TupleLayou
         return fieldActor.offset();
     }
 
+    /**
+     * Name of the system property that selects the {@linkplain #layoutPackedFields packed} field layout when the boot image is built.
+     * The layout selected is recorded in the boot image, so classes loaded at run time are laid out the same way.
+     */
+    private static final String PACK_FIELDS_PROPERTY = "max.vm.layout.ohm.pack";
+
+    private final boolean packFields;
+
+    public OhmTupleLayout() {
+        packFields = Boolean.getBoolean(PACK_FIELDS_PROPERTY);
+    }
+
     private static final int INVALID_OFFSET = -1;
 
     private static boolean setInvalidOffsets(FieldActor[] fieldActors) {
@@ -116,6 +130,9 @@ public final class OhmTupleLayout extends OhmGeneralLayout implements TupleLayou
     }
 
     Size layoutFields(ClassActor superClassActor, FieldActor[] fieldActors, int headerSize) {
+        if (packFields) {
+            return layoutPackedFields(superClassActor, fieldActors, headerSize);
+        }
         setInvalidOffsets(fieldActors);
         final int nAlignmentBytes = Word.size();
         int offset;
@@ -144,6 +161,145 @@ public final class OhmTupleLayout extends OhmGeneralLayout implements TupleLayou
         return layoutFields(superClassActor, fieldActors, headerSize());
     }
 
+    private static boolean hasSuperClassFields(ClassActor superClassActor) {
+        return !(superClassActor == null || superClassActor.typeDescriptor == JavaTypeDescriptor.OBJECT || superClassActor.typeDescriptor == JavaTypeDescriptor.HYBRID);
+    }
+
+    /**
+     * Gets the alignment of a field, i.e., its size, capped to a word.
+     */
+    private static int alignment(FieldActor fieldActor) {
+        return Math.min(fieldActor.kind.width.numberOfBytes, Word.size());
+    }
+
+    /**
+     * Gets the offset following the last byte of the instance fields of a class and of its superclasses.
+     * Unlike the {@linkplain ClassActor#dynamicTupleSize() tuple size} of the class, this isn't rounded up to a word.
+     */
+    private static int endOfInstanceFields(ClassActor classActor, int headerSize) {
+        int end = headerSize;
+        for (ClassActor c = classActor; c != null; c = c.superClassActor) {
+            for (FieldActor fieldActor : c.localInstanceFieldActors()) {
+                end = Math.max(end, fieldActor.offset() + fieldActor.kind.width.numberOfBytes);
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Gets a map of the bytes below a given offset that are taken by the header or by the instance fields of a class and of its superclasses.
+     */
+    private static boolean[] occupiedBytes(ClassActor classActor, int headerSize, int end) {
+        final boolean[] occupied = new boolean[end];
+        Arrays.fill(occupied, 0, headerSize, true);
+        for (ClassActor c = classActor; c != null; c = c.superClassActor) {
+            for (FieldActor fieldActor : c.localInstanceFieldActors()) {
+                final int offset = fieldActor.offset();
+                Arrays.fill(occupied, offset, Math.min(offset + fieldActor.kind.width.numberOfBytes, end), true);
+            }
+        }
+        return occupied;
+    }
+
+    /**
+     * Finds the lowest free, suitably aligned, range of a given size in a map of occupied bytes and marks it occupied.
+     *
+     * @return the offset of the range or -1 if there is none
+     */
+    private static int allocateHole(boolean[] occupied, int size, int alignment) {
+        for (int offset = 0; offset + size <= occupied.length; offset += alignment) {
+            int i = offset;
+            while (i < offset + size && !occupied[i]) {
+                i++;
+            }
+            if (i == offset + size) {
+                Arrays.fill(occupied, offset, offset + size, true);
+                return offset;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Lays out fields so as to leave as little padding as possible across a class hierarchy, and so that the references of each class
+     * follow one another.
+     * <p>
+     * The fields narrower than a word first fill the holes left by the fields of the superclasses, including the padding that rounds
+     * the superclass' tuple size up to a word. The fields of a class may thus be placed below the tuple size of its superclass.
+     * The remaining fields are laid out from the first offset aligned for the widest of them, the references first, then the other
+     * fields by decreasing size. All fields are naturally aligned, up to a word.
+     * <p>
+     * A reference never goes into a hole, as there is no hole wide enough, so the references declared by a class occupy consecutive words
+     * and the references of a class are above those of its superclasses. When a superclass declares no other fields of its own after
+     * its references, the {@linkplain com.sun.max.vm.heap.TupleReferenceMap reference map} of its subclasses is a single range of words.
+     */
+    private Size layoutPackedFields(ClassActor superClassActor, FieldActor[] fieldActors, int headerSize) {
+        setInvalidOffsets(fieldActors);
+        final int nAlignmentBytes = Word.size();
+        final ClassActor fieldsClassActor = hasSuperClassFields(superClassActor) ? superClassActor : null;
+        final int end = endOfInstanceFields(fieldsClassActor, headerSize);
+        int maxAlignment = 1;
+        for (FieldActor fieldActor : fieldActors) {
+            maxAlignment = Math.max(maxAlignment, alignment(fieldActor));
+        }
+        int offset = Ints.roundUp(end, maxAlignment);
+        if (offset > headerSize) {
+            final boolean[] occupied = occupiedBytes(fieldsClassActor, headerSize, offset);
+            for (int scale = nAlignmentBytes >> 1; scale >= 1; scale >>= 1) {
+                for (FieldActor fieldActor : fieldActors) {
+                    if (fieldActor.offset() == INVALID_OFFSET && fieldActor.kind.width.numberOfBytes == scale) {
+                        final int hole = allocateHole(occupied, scale, scale);
+                        if (hole < 0) {
+                            break;
+                        }
+                        fieldActor.setOffset(hole);
+                    }
+                }
+            }
+        }
+        for (FieldActor fieldActor : fieldActors) {
+            if (fieldActor.offset() == INVALID_OFFSET && fieldActor.kind.isReference) {
+                fieldActor.setOffset(offset);
+                offset += nAlignmentBytes;
+            }
+        }
+        for (int scale = 8; scale >= 1; scale >>= 1) {
+            for (FieldActor fieldActor : fieldActors) {
+                if (fieldActor.offset() == INVALID_OFFSET && fieldActor.kind.width.numberOfBytes == scale) {
+                    fieldActor.setOffset(offset);
+                    offset += scale;
+                }
+            }
+        }
+        assert hasValidOffsets(fieldActors);
+        offset = Ints.roundUp(offset, nAlignmentBytes);
+        return Size.fromInt(offset);
+    }
+
+    /**
+     * Indicates whether fields are laid out {@linkplain #layoutPackedFields packed}.
+     */
+    public boolean packsFields() {
+        return packFields;
+    }
+
+    /**
+     * Computes the tuple size a class would have if its fields and those of its superclasses were laid out class by class,
+     * without {@linkplain #layoutPackedFields packing}. Each class then starts at the tuple size of its superclass and
+     * lays out its fields by decreasing size, so the only padding is the one rounding the size of each class up to a word.
+     */
+    @HOSTED_ONLY
+    public int unpackedTupleSize(ClassActor classActor) {
+        if (!hasSuperClassFields(classActor)) {
+            return headerSize;
+        }
+        int offset = unpackedTupleSize(classActor.superClassActor);
+        for (FieldActor fieldActor : classActor.localInstanceFieldActors()) {
+            offset += fieldActor.kind.width.numberOfBytes;
+        }
+        return Ints.roundUp(offset, Word.size());
+    }
+
     @HOSTED_ONLY
     private void visitFields(ObjectCellVisitor visitor, Object tuple, FieldActor[] fieldActors) {
         for (FieldActor fieldActor : fieldActors) {
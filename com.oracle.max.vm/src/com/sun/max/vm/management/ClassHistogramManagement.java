@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.management;
+
+import java.lang.management.*;
+import java.util.*;
+
+import javax.management.*;
+
+import com.sun.max.vm.*;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.heap.*;
+
+/**
+ * Maxine implementation of the {@link ClassHistogramMXBean}, registered with the platform MBean server when
+ * class histograms are enabled.
+ */
+public class ClassHistogramManagement implements ClassHistogramMXBean {
+
+    private static final String OBJECT_NAME = "com.sun.max.vm:type=ClassHistogram";
+
+    private ClassHistogramManagement() {
+    }
+
+    /**
+     * Registers the class histogram MXBean with the platform MBean server.
+     */
+    public static void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new ClassHistogramManagement(), ObjectName.getInstance(OBJECT_NAME));
+        } catch (Exception e) {
+            Log.println("Could not register the class histogram MXBean: " + e);
+        }
+    }
+
+    public long getHistogramCount() {
+        return ClassHistogram.publicationCount();
+    }
+
+    public String getCollector() {
+        return ClassHistogram.lastPublisherName();
+    }
+
+    public List<ClassHistogramEntry> getHistogram() {
+        final long[][] histogram = ClassHistogram.copyLastHistogram();
+        final long[] counts = histogram[0];
+        final long[] bytes = histogram[1];
+        final List<ClassHistogramEntry> entries = new ArrayList<ClassHistogramEntry>();
+        for (int id = 0; id < counts.length && id < bytes.length; id++) {
+            if (counts[id] != 0L) {
+                final ClassActor classActor = ClassIDManager.toClassActor(id);
+                if (classActor != null) {
+                    entries.add(new ClassHistogramEntry(classActor.name(), counts[id], bytes[id]));
+                }
+            }
+        }
+        Collections.sort(entries, new Comparator<ClassHistogramEntry>() {
+            public int compare(ClassHistogramEntry e1, ClassHistogramEntry e2) {
+                return e1.getBytes() < e2.getBytes() ? 1 : e1.getBytes() > e2.getBytes() ? -1 : 0;
+            }
+        });
+        return entries;
+    }
+
+    public ObjectName getObjectName() {
+        try {
+            return ObjectName.getInstance(OBJECT_NAME);
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+}
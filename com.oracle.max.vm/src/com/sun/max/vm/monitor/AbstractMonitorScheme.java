@@ -69,4 +69,8 @@ public abstract class AbstractMonitorScheme extends AbstractVMScheme implements
         return hashCode & ~0x80000000;
     }
 
+    public boolean hasSpareMiscBitsForGCAge() {
+        return false;
+    }
+
 }
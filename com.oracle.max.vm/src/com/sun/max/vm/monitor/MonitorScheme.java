@@ -100,4 +100,10 @@ public interface MonitorScheme extends VMScheme {
     void afterGarbageCollection();
 
     boolean threadHoldsMonitor(Object object, VmThread thread);
+
+    /**
+     * Indicates whether the misc word of objects not bound to an inflated monitor has spare bits the heap scheme
+     * can use to record the number of collections an object survived (see {@link com.sun.max.vm.monitor.modal.modehandlers.lightweight.LightweightLockword64#getGCAge()}).
+     */
+    boolean hasSpareMiscBitsForGCAge();
 }
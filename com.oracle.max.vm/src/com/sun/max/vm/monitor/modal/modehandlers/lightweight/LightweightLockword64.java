@@ -42,6 +42,8 @@ public class LightweightLockword64 extends HashableLockword64 {
      *     [ r. count ][ util  ][  thread ID ][ hash ][m][0]     Lightweight
      *     [                 Undefined               ][m][1]     Inflated
      *
+     * Lock words that leave the 'util' field unused let the heap scheme record the age of an object in its low
+     * GC_AGE_FIELD_WIDTH bits (see {@link #getGCAge()}).
      */
 
     protected static final int RCOUNT_FIELD_WIDTH = 5; // Must be <= 8 (see incrementCount())
@@ -58,6 +60,11 @@ public class LightweightLockword64 extends HashableLockword64 {
 
     protected static final Address RCOUNT_INC_WORD = Address.zero().bitSet(64 - RCOUNT_FIELD_WIDTH);
 
+    public static final int GC_AGE_FIELD_WIDTH = 4;
+    protected static final int GC_AGE_SHIFT = UTIL_SHIFT;
+    protected static final Address GC_AGE_SHIFTED_MASK = Word.allOnes().asAddress().unsignedShiftedRight(64 - GC_AGE_FIELD_WIDTH);
+    protected static final Address GC_AGE_MASK = GC_AGE_SHIFTED_MASK.shiftedLeft(GC_AGE_SHIFT);
+
     @HOSTED_ONLY
     public LightweightLockword64(long value) {
         super(value);
@@ -166,4 +173,26 @@ public class LightweightLockword64 extends HashableLockword64 {
     public final int getRecursionCount() {
         return asAddress().unsignedShiftedRight(RCOUNT_SHIFT).toInt();
     }
+
+    /**
+     * Gets the age of the object recorded by the heap scheme in the low bits of this lock word's util field.
+     * Only meaningful if the monitor scheme {@linkplain com.sun.max.vm.monitor.MonitorScheme#hasSpareMiscBitsForGCAge() leaves these bits unused}.
+     *
+     * @return the GC age field value
+     */
+    @INLINE
+    public final int getGCAge() {
+        return asAddress().unsignedShiftedRight(GC_AGE_SHIFT).and(GC_AGE_SHIFTED_MASK).toInt();
+    }
+
+    /**
+     * Returns a copy of this lock word with the given value in its GC age field.
+     *
+     * @param age the new age, less than 2<sup>{@link #GC_AGE_FIELD_WIDTH}</sup>
+     * @return a copy lock word with the new age
+     */
+    @INLINE
+    public final LightweightLockword64 asWithGCAge(int age) {
+        return LightweightLockword64.from(asAddress().and(GC_AGE_MASK.not()).or(Address.fromInt(age).shiftedLeft(GC_AGE_SHIFT)));
+    }
 }
@@ -37,6 +37,14 @@ public class ThinInflatedMonitorScheme extends ModalMonitorScheme {
         super(ThinLockModeHandler.asFastPath(InflatedMonitorModeHandler.asThinLockDelegate()));
     }
 
+    /**
+     * Thin lock words never use their util field.
+     */
+    @Override
+    public boolean hasSpareMiscBitsForGCAge() {
+        return true;
+    }
+
     @Override
     public ModalLockwordDecoder getModalLockwordDecoder() {
         return new ModalLockwordDecoder() {
@@ -50,6 +50,14 @@ public abstract class GCOperation extends VmOperation {
         return true;
     }
 
+    /**
+     * GC worker threads take part in the collection and must therefore not be stopped.
+     */
+    @Override
+    protected boolean operateOnThread(VmThread thread) {
+        return !thread.isGCWorkerThread();
+    }
+
     /**
      * Stops the current mutator thread for a garbage collection. Just before stopping, the
      * thread prepares its own stack reference map up to the trap frame. The remainder of the
@@ -83,32 +91,91 @@ public abstract class GCOperation extends VmOperation {
 
     @Override
     public void doAfterFrozen(VmThread vmThread) {
+        if (defersStackReferenceMapPreparation()) {
+            // The stack reference map is prepared by prepareFrozenStackReferenceMaps() once all threads are frozen.
+            return;
+        }
+        stackReferenceMapPreparationTime += prepareFrozenStackReferenceMap(vmThread.tla());
+    }
 
-        Pointer tla = vmThread.tla();
-
+    /**
+     * Prepares the part of the stack reference map of a frozen thread that the thread did not prepare itself.
+     * The thread's own {@link StackReferenceMapPreparer} and stack frame walker are used, so the maps of different
+     * threads can be prepared concurrently by the threads helping the VM operation thread.
+     *
+     * @param tla the VM thread locals of a frozen thread
+     * @return the amount of time (in the resolution specified by {@link HeapScheme#GC_TIMING_CLOCK}) taken to prepare the reference map
+     */
+    public static long prepareFrozenStackReferenceMap(Pointer tla) {
         final boolean threadWasInNative = LOWEST_ACTIVE_STACK_SLOT_ADDRESS.load(tla).isZero();
         if (threadWasInNative) {
             if (VmOperationThread.TraceVmOperations) {
+                final boolean lockDisabledSafepoints = Log.lock();
                 Log.print("Building full stack reference map for ");
                 Log.printThread(VmThread.fromTLA(tla), true);
+                Log.unlock(lockDisabledSafepoints);
             }
             // Since this thread is in native code it did not get an opportunity to prepare any of its stack reference map,
             // so we will take care of that for it now:
-            stackReferenceMapPreparationTime += VmThreadLocal.prepareStackReferenceMap(tla);
-        } else {
-            // Threads that hit a safepoint in Java code have prepared *most* of their stack reference map themselves.
-            // The part of the stack between the trap stub frame and the frame of the JNI stub that enters into the
-            // native code for blocking on VmThreadMap.ACTIVE's monitor is not yet prepared. Do it now:
-            if (VmOperationThread.TraceVmOperations) {
-                Log.print("Building partial stack reference map for ");
-                Log.printThread(VmThread.fromTLA(tla), true);
-            }
-            final StackReferenceMapPreparer stackReferenceMapPreparer = vmThread.stackReferenceMapPreparer();
-            stackReferenceMapPreparer.completeStackReferenceMap(tla);
-            stackReferenceMapPreparationTime += stackReferenceMapPreparer.preparationTime();
+            return VmThreadLocal.prepareStackReferenceMap(tla);
         }
+        // Threads that hit a safepoint in Java code have prepared *most* of their stack reference map themselves.
+        // The part of the stack between the trap stub frame and the frame of the JNI stub that enters into the
+        // native code for blocking on VmThreadMap.ACTIVE's monitor is not yet prepared. Do it now:
+        if (VmOperationThread.TraceVmOperations) {
+            final boolean lockDisabledSafepoints = Log.lock();
+            Log.print("Building partial stack reference map for ");
+            Log.printThread(VmThread.fromTLA(tla), true);
+            Log.unlock(lockDisabledSafepoints);
+        }
+        final StackReferenceMapPreparer stackReferenceMapPreparer = VmThread.fromTLA(tla).stackReferenceMapPreparer();
+        stackReferenceMapPreparer.completeStackReferenceMap(tla);
+        return stackReferenceMapPreparer.preparationTime();
     }
 
+    /**
+     * Determines if the stack reference maps of the frozen threads are prepared all at once by
+     * {@link #prepareFrozenStackReferenceMaps()} when the operation starts, instead of one at a time
+     * by the VM operation thread as soon as each thread is frozen.
+     */
+    protected boolean defersStackReferenceMapPreparation() {
+        return false;
+    }
+
+    /**
+     * Prepares the stack reference maps of all the frozen threads when {@linkplain #defersStackReferenceMapPreparation() deferred}.
+     * This implementation prepares them in sequence on the VM operation thread. Subclasses may split the work among several
+     * threads, each applying {@link #prepareFrozenStackReferenceMap(Pointer)} to the threads selected by {@link #frozenThreadPredicate()}.
+     *
+     * @return the cumulated time taken to prepare the reference maps
+     */
+    protected long prepareFrozenStackReferenceMaps() {
+        return frozenStackReferenceMapsPreparer.prepareAll();
+    }
+
+    /**
+     * Selects the threads of the {@linkplain VmThreadMap#ACTIVE active thread list} frozen by this operation.
+     */
+    public final Pointer.Predicate frozenThreadPredicate() {
+        return threadPredicate;
+    }
+
+    private final class FrozenStackReferenceMapsPreparer implements Pointer.Procedure {
+        private long preparationTime;
+
+        public void run(Pointer tla) {
+            preparationTime += prepareFrozenStackReferenceMap(tla);
+        }
+
+        long prepareAll() {
+            preparationTime = 0L;
+            VmThreadMap.ACTIVE.forAllThreadLocals(threadPredicate, this);
+            return preparationTime;
+        }
+    }
+
+    private final FrozenStackReferenceMapsPreparer frozenStackReferenceMapsPreparer = new FrozenStackReferenceMapsPreparer();
+
     @Override
     protected void doBeforeThawingThread(VmThread thread) {
         // Indicates that the stack reference map for the thread is once-again unprepared.
@@ -140,8 +207,8 @@ public abstract class GCOperation extends VmOperation {
     protected void doItEpilogue(boolean nested) {
         if (Heap.logGCTime()) {
             Heap.timeLogger.logStackReferenceMapPreparationTime(stackReferenceMapPreparationTime);
-            stackReferenceMapPreparationTime = 0;
         }
+        stackReferenceMapPreparationTime = 0;
 
         if (!nested) {
             // Notify the reference handler thread so it can process any pending references.
@@ -156,9 +223,12 @@ public abstract class GCOperation extends VmOperation {
 
     @Override
     public void doIt() {
+        if (defersStackReferenceMapPreparation()) {
+            stackReferenceMapPreparationTime += prepareFrozenStackReferenceMaps();
+        }
         // The next 2 statements *must* be adjacent as the reference map for this frame must
         // be the same at both calls.
-        stackReferenceMapPreparationTime = VmThreadLocal.prepareCurrentStackReferenceMap();
+        stackReferenceMapPreparationTime += VmThreadLocal.prepareCurrentStackReferenceMap();
         collect();
     }
 
@@ -34,6 +34,7 @@ import com.sun.max.vm.MaxineVM.Phase;
 import com.sun.max.vm.actor.holder.*;
 import com.sun.max.vm.actor.member.*;
 import com.sun.max.vm.compiler.target.*;
+import com.sun.max.vm.heap.*;
 import com.sun.max.vm.jdk.*;
 import com.sun.max.vm.jdk.JDK_java_lang_Throwable.Backtrace;
 import com.sun.max.vm.object.*;
@@ -153,6 +154,9 @@ public final class Throw {
                 }
             }
         }
+        if (HprofHeapDumper.HeapDumpOnOutOfMemoryError && throwable instanceof OutOfMemoryError) {
+            HprofHeapDumper.dumpOnOutOfMemoryError();
+        }
         if (FatalOutOfMemory && throwable instanceof OutOfMemoryError) {
             Log.print("Failing fast on ");
             Log.println(throwable);
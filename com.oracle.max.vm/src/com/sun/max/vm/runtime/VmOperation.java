@@ -391,7 +391,7 @@ public class VmOperation {
      * to filter out the VM operation thread and all threads for which {@link #operateOnThread(VmThread)} returns
      * {@code false}.
      */
-    private final Pointer.Predicate threadPredicate = new Pointer.Predicate() {
+    final Pointer.Predicate threadPredicate = new Pointer.Predicate() {
         @Override
         public boolean evaluate(Pointer tla) {
             VmThread vmThread = VmThread.fromTLA(tla);
@@ -244,7 +244,8 @@ public abstract class StackFrameWalker {
                 proceed = true;
             } else {
                 targetMethod.prepareReferenceMap(current, callee, preparer);
-                Pointer limit = preparer.completingReferenceMapLimit();
+                preparer.selectWatermarkCandidate(current, callee);
+                Pointer limit = preparer.walkLimit();
                 if (!limit.isZero() && current.sp().greaterEqual(limit)) {
                     proceed = false;
                 }
@@ -252,6 +253,7 @@ public abstract class StackFrameWalker {
         } else if (purpose == Purpose.EXCEPTION_HANDLING) {
             // walk the frame for exception handling
             Throwable throwable = ((StackUnwindingContext) context).throwable;
+            StackWatermark.unwindingTo(current.sp());
             targetMethod.catchException(current, callee, throwable);
         } else if (MaxineVM.isHosted() && purpose == Purpose.INSPECTING) {
             // walk the frame for inspecting (Java frames)
@@ -583,6 +585,13 @@ public abstract class StackFrameWalker {
 
         TargetMethod tm = targetMethodForReturnAddress(retAddr);
 
+        // Rescue a return address that has been patched with the return barrier of a stack watermark
+        if (isReturnBarrierStubEntry(ip, tm)) {
+            Pointer originalReturnAddress = readPointer(StackWatermark.STACK_WATERMARK_RETURN_ADDRESS);
+            tm = targetMethodForReturnAddress(originalReturnAddress);
+            ip = originalReturnAddress;
+        }
+
         // Rescue a return address that has been patched for deoptimization
         if (isDeoptStubEntry(ip, tm)) {
             // Since 'ip' denotes the start of a deopt stub, then we're dealing with a patched return address
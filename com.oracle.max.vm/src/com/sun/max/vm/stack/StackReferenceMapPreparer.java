@@ -122,6 +122,24 @@ public final class StackReferenceMapPreparer extends FrameReferenceMapVisitor {
      */
     private boolean ignoreCurrentFrame;
 
+    /**
+     * The stack pointer of the {@linkplain StackWatermark watermark} frame at which the current walk stops, or zero if the walk covers the whole stack.
+     */
+    private Pointer watermark;
+
+    /**
+     * Number of Java frames walked so far while selecting a {@linkplain StackWatermark watermark} frame, or -1 if the current walk doesn't select one.
+     */
+    private int watermarkDepth = -1;
+
+    /**
+     * The watermark frame selected during the last preparation of the stack reference map, as the stack pointers of the frame and its caller
+     * and the address of the return address slot of its callee. Consumed by {@link StackWatermark#install(Pointer, Pointer.Predicate)}.
+     */
+    Pointer watermarkCandidate;
+    Pointer watermarkCandidateLimit;
+    Pointer watermarkCandidatePatch;
+
     public StackReferenceMapPreparer(boolean verify, boolean prepare) {
         this.verify = verify;
         this.prepare = prepare;
@@ -294,14 +312,27 @@ public final class StackReferenceMapPreparer extends FrameReferenceMapVisitor {
             FatalError.unexpected("Cannot use stack reference map preparer of another thread");
         }
 
+        clearWatermarkCandidate();
+        Pointer highestPreparedSlot = highestStackSlot;
+        final Pointer watermarkLimit = prepare ? StackWatermark.limit(tla) : Pointer.zero();
+        if (!watermarkLimit.isZero()) {
+            // The frames below the watermark frame haven't run since their part of the reference map was prepared.
+            watermark = StackWatermark.watermark(tla);
+            highestPreparedSlot = watermarkLimit.minus(Word.size());
+        } else if (StackWatermark.StackWatermarks && prepare && !ignoreTopFrame && StackWatermark.isEligible(vmThread)) {
+            watermarkDepth = 0;
+        }
+
         // clear the reference map covering the stack contents
-        clearReferenceMapRange(tla, stackPointer, highestStackSlot);
+        clearReferenceMapRange(tla, stackPointer, highestPreparedSlot);
 
         boolean lockDisabledSafepoints = logStackRootScanStart(stackPointer, highestStackSlot, vmThread);
 
         // walk the stack and prepare references for each stack frame
         StackFrameWalker sfw = vmThread.referenceMapPreparingStackFrameWalker();
         sfw.prepareReferenceMap(instructionPointer.toPointer(), stackPointer, framePointer, this);
+        watermark = Pointer.zero();
+        watermarkDepth = -1;
 
         logStackRootScanEnd(lockDisabledSafepoints);
 
@@ -409,6 +440,55 @@ public final class StackReferenceMapPreparer extends FrameReferenceMapVisitor {
         return completingReferenceMapLimit;
     }
 
+    /**
+     * Gets the stack address at which the current walk stops, i.e., the walk stops after the frame whose stack pointer is at or above
+     * this address. This is either the {@linkplain #completingReferenceMapLimit() limit} of the reference map being completed or the
+     * stack pointer of the thread's {@linkplain StackWatermark watermark} frame. A zero return value indicates that the walk covers the whole stack.
+     */
+    public Pointer walkLimit() {
+        return completingReferenceMapLimit.isZero() ? watermark : completingReferenceMapLimit;
+    }
+
+    /**
+     * Selects the {@linkplain StackWatermark watermark} frame of the stack as its frames are walked, i.e., the first frame
+     * at least {@link StackWatermark#StackWatermarkDepth} Java frames below the top of the stack whose callee's return address can be patched.
+     * The limit of the watermark is the stack pointer of the next frame walked.
+     *
+     * @param current the frame whose reference map was just prepared
+     * @param callee the callee of {@code current}
+     */
+    void selectWatermarkCandidate(StackFrameCursor current, StackFrameCursor callee) {
+        if (watermarkDepth < 0) {
+            return;
+        }
+        if (!watermarkCandidate.isZero()) {
+            watermarkCandidateLimit = current.sp();
+            watermarkDepth = -1;
+            return;
+        }
+        final TargetMethod tm = current.targetMethod();
+        if (tm.classMethodActor == null || tm instanceof Stub || tm instanceof Adapter) {
+            return;
+        }
+        if (watermarkDepth < StackWatermark.StackWatermarkDepth) {
+            watermarkDepth++;
+            return;
+        }
+        if (StackWatermark.canPatch(current, callee)) {
+            watermarkCandidate = current.sp();
+            watermarkCandidatePatch = callee.targetMethod().returnAddressPointer(callee);
+        }
+    }
+
+    /**
+     * Discards the watermark frame selected during the last preparation of the stack reference map.
+     */
+    void clearWatermarkCandidate() {
+        watermarkCandidate = Pointer.zero();
+        watermarkCandidateLimit = Pointer.zero();
+        watermarkCandidatePatch = Pointer.zero();
+    }
+
     public void setReferenceMapBit(Pointer slotAddress) {
         referenceMap.setBit(referenceMapBitIndex(lowestStackSlot, slotAddress));
     }
@@ -422,6 +502,7 @@ public final class StackReferenceMapPreparer extends FrameReferenceMapVisitor {
         Pointer etla = ETLA.load(tla);
         Pointer anchor = LAST_JAVA_FRAME_ANCHOR.load(etla);
         if (anchor.isZero()) {
+            clearWatermarkCandidate();
             // This is a thread that has returned from VmThread.run() but has not
             // yet been terminated via a call to VmThread.detach(). In this state,
             // it has no Java stack frames that need scanning.
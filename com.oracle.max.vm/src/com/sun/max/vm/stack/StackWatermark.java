@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.stack;
+
+import static com.sun.max.vm.MaxineVM.*;
+import static com.sun.max.vm.thread.VmThreadLocal.*;
+
+import com.sun.max.annotate.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.compiler.target.*;
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.thread.*;
+import com.sun.max.vm.thread.VmThreadLocal.Nature;
+
+/**
+ * Stack watermarks spare collections the cost of re-preparing and re-scanning the stack reference map of the
+ * part of a thread's stack that has not run since the previous collection.
+ * <p>
+ * When a collection completes, the frame {@code F} found {@linkplain #StackWatermarkDepth at least a few} Java frames
+ * below the top of a stopped thread's stack becomes the thread's watermark frame if none of the references in the frames
+ * below it (i.e., the frames of {@code F}'s caller {@code G} and beyond) points into the young generation.
+ * The return address of {@code F}'s callee is then patched with the entry of a {@linkplain Stubs#returnBarrierStub() return barrier},
+ * in the same way that {@linkplain com.sun.max.vm.compiler.deopt.Deoptimization deoptimization} patches return addresses.
+ * As long as the barrier is not hit, {@code F} and all the frames below it stay suspended at the same call sites,
+ * so the part of the reference map covering the frames from {@code G} down to the bottom of the stack remains valid
+ * and the stack reference map preparer stops walking the stack after {@code F}. Frame {@code F} itself is always
+ * prepared again, as its callee may update the outgoing arguments it passes on the stack.
+ * <p>
+ * The return barrier clears the watermark of the thread before resuming execution in {@code F}. So does unwinding
+ * {@code F}'s callee when raising an exception. The watermark is also {@linkplain #remove(Pointer) removed} before
+ * the return addresses on a thread's stack are patched for deoptimization or code eviction.
+ * <p>
+ * A heap scheme may {@linkplain #setSkipsWatermarkedFrames(boolean) request} that root scanning skip the frames
+ * below the watermark when the objects they refer to don't move and need not be traced, e.g., during a minor collection.
+ */
+public final class StackWatermark {
+
+    /**
+     * Enables stack watermarks.
+     */
+    public static boolean StackWatermarks;
+
+    /**
+     * Minimum number of Java frames above the watermark frame.
+     */
+    public static int StackWatermarkDepth = 8;
+
+    static {
+        VMOptions.addFieldOption("-XX:", "StackWatermarks", StackWatermark.class,
+            "Install a return barrier in the stack of each thread stopped by a garbage collection so that the cold frames of the stack " +
+            "are not rescanned by subsequent minor collections.");
+        VMOptions.addFieldOption("-XX:", "StackWatermarkDepth", StackWatermark.class,
+            "Minimum number of Java frames above the frame of a stack watermark.");
+    }
+
+    /**
+     * The stack pointer of the watermark frame, or zero if the thread has no watermark.
+     */
+    public static final VmThreadLocal STACK_WATERMARK
+        = new VmThreadLocal("STACK_WATERMARK", false, "Stack pointer of the frame of the stack watermark, zero if none", Nature.Single);
+
+    /**
+     * The stack pointer of the caller of the watermark frame. The part of the stack reference map covering the stack from this
+     * address to the bottom of the stack is not prepared again while the watermark is set.
+     */
+    public static final VmThreadLocal STACK_WATERMARK_LIMIT
+        = new VmThreadLocal("STACK_WATERMARK_LIMIT", false, "Lowest stack slot not prepared again while a stack watermark is set", Nature.Single);
+
+    /**
+     * The return address replaced by the return barrier.
+     */
+    public static final VmThreadLocal STACK_WATERMARK_RETURN_ADDRESS
+        = new VmThreadLocal("STACK_WATERMARK_RETURN_ADDRESS", false, "Return address replaced by the return barrier of a stack watermark", Nature.Single);
+
+    /**
+     * The address of the return address slot patched with the return barrier.
+     */
+    public static final VmThreadLocal STACK_WATERMARK_PATCH
+        = new VmThreadLocal("STACK_WATERMARK_PATCH", false, "Return address slot patched with the return barrier of a stack watermark", Nature.Single);
+
+    /**
+     * Indicates whether root scanning skips the frames below the watermarks.
+     */
+    private static boolean skipsWatermarkedFrames;
+
+    private StackWatermark() {
+    }
+
+    /**
+     * Sets whether {@linkplain VmThreadLocal#scanReferences(Pointer, PointerIndexVisitor) root scanning} skips the frames below the watermarks.
+     * This is only valid while the objects these frames refer to are neither moved nor traced by the collector.
+     * Must be called by the VM operation thread.
+     */
+    public static void setSkipsWatermarkedFrames(boolean flag) {
+        skipsWatermarkedFrames = flag;
+    }
+
+    /**
+     * Indicates whether root scanning skips the frames below the watermarks.
+     */
+    @INLINE
+    public static boolean skipsWatermarkedFrames() {
+        return skipsWatermarkedFrames;
+    }
+
+    /**
+     * Gets the stack pointer of the watermark frame of a thread.
+     *
+     * @param tla the VM thread locals of the thread
+     * @return zero if the thread has no watermark
+     */
+    @INLINE
+    public static Pointer watermark(Pointer tla) {
+        return STACK_WATERMARK.load(ETLA.load(tla));
+    }
+
+    /**
+     * Gets the address of the lowest stack slot below the watermark of a thread.
+     *
+     * @param tla the VM thread locals of the thread
+     * @return zero if the thread has no watermark
+     */
+    public static Pointer limit(Pointer tla) {
+        final Pointer etla = ETLA.load(tla);
+        if (STACK_WATERMARK.load(etla).isZero()) {
+            return Pointer.zero();
+        }
+        return STACK_WATERMARK_LIMIT.load(etla);
+    }
+
+    /**
+     * Determines if the stack of a given thread may get a watermark. The stacks of the threads running the collector don't.
+     */
+    static boolean isEligible(VmThread vmThread) {
+        return !vmThread.isVmOperationThread() && !vmThread.isGCWorkerThread();
+    }
+
+    /**
+     * Determines if the return address of a callee frame can be patched with the return barrier.
+     *
+     * @param current the candidate watermark frame
+     * @param callee the callee of {@code current}
+     */
+    static boolean canPatch(StackFrameCursor current, StackFrameCursor callee) {
+        final TargetMethod calleeTM = callee.targetMethod();
+        if (calleeTM == null || calleeTM.classMethodActor == null || calleeTM instanceof Stub || calleeTM instanceof Adapter) {
+            return false;
+        }
+        if (current.targetMethod().invalidated() != null) {
+            return false;
+        }
+        // The return address must not already be patched, e.g., for deoptimization
+        return calleeTM.returnAddressPointer(callee).readWord(0).equals(current.ipAsPointer());
+    }
+
+    /**
+     * Checks that none of the references in a range of the stack reference map is a young reference.
+     */
+    private static final class YoungReferenceFinder extends PointerIndexVisitor {
+        Pointer.Predicate youngReference;
+        boolean found;
+
+        @Override
+        public void visit(Pointer pointer, int wordIndex) {
+            if (youngReference.evaluate(pointer.getWord(wordIndex).asPointer())) {
+                found = true;
+            }
+        }
+    }
+
+    private static final YoungReferenceFinder youngReferenceFinder = new YoungReferenceFinder();
+
+    /**
+     * Installs a watermark on the stack of a thread stopped by a garbage collection, at the frame selected while its
+     * stack reference map was prepared. The watermark isn't installed if the thread already has one, or if any of
+     * the frames below the selected frame holds a young reference.
+     * Must be called by the VM operation thread at the end of the collection, before the thread resumes.
+     *
+     * @param tla the VM thread locals of a thread stopped by the current collection
+     * @param youngReference selects the young references, which must not be found below the watermark
+     * @return true if a watermark was installed
+     */
+    public static boolean install(Pointer tla, Pointer.Predicate youngReference) {
+        final StackReferenceMapPreparer preparer = VmThread.fromTLA(tla).stackReferenceMapPreparer();
+        final Pointer watermark = preparer.watermarkCandidate;
+        final Pointer limit = preparer.watermarkCandidateLimit;
+        final Pointer patch = preparer.watermarkCandidatePatch;
+        preparer.clearWatermarkCandidate();
+
+        final Pointer etla = ETLA.load(tla);
+        if (limit.isZero() || !STACK_WATERMARK.load(etla).isZero()) {
+            return false;
+        }
+        final Pointer lowestActiveSlot = LOWEST_ACTIVE_STACK_SLOT_ADDRESS.load(tla);
+        if (lowestActiveSlot.isZero() || lowestActiveSlot.greaterThan(watermark)) {
+            // The stack reference map doesn't cover the frames below the candidate.
+            return false;
+        }
+        youngReferenceFinder.youngReference = youngReference;
+        youngReferenceFinder.found = false;
+        StackReferenceMapPreparer.scanReferenceMapRange(tla, limit, HIGHEST_STACK_SLOT_ADDRESS.load(tla), youngReferenceFinder);
+        youngReferenceFinder.youngReference = null;
+        if (youngReferenceFinder.found) {
+            return false;
+        }
+        STACK_WATERMARK_RETURN_ADDRESS.store(etla, patch.readWord(0));
+        STACK_WATERMARK_PATCH.store(etla, patch);
+        STACK_WATERMARK_LIMIT.store(etla, limit);
+        STACK_WATERMARK.store(etla, watermark);
+        patch.writeWord(0, vm().stubs.returnBarrierStub().codeStart().toAddress());
+        return true;
+    }
+
+    /**
+     * Removes the watermark of a thread, if any, and restores the return address patched with the return barrier.
+     * Must be called while the thread is stopped, before anything else patches or relocates the return addresses on its stack.
+     *
+     * @param tla the VM thread locals of the thread
+     */
+    public static void remove(Pointer tla) {
+        final Pointer etla = ETLA.load(tla);
+        if (STACK_WATERMARK.load(etla).isZero()) {
+            return;
+        }
+        final Pointer patch = STACK_WATERMARK_PATCH.load(etla);
+        if (patch.readWord(0).equals(vm().stubs.returnBarrierStub().codeStart().toAddress())) {
+            patch.writeWord(0, STACK_WATERMARK_RETURN_ADDRESS.load(etla));
+        }
+        STACK_WATERMARK.store(etla, Address.zero());
+    }
+
+    /**
+     * Clears the watermark of the current thread if an exception being raised unwinds the callee of the watermark frame.
+     *
+     * @param sp the stack pointer of the frame the exception is being dispatched to
+     */
+    static void unwindingTo(Pointer sp) {
+        final Pointer etla = ETLA.load(VmThread.currentTLA());
+        final Pointer watermark = STACK_WATERMARK.load(etla);
+        if (!watermark.isZero() && sp.greaterEqual(watermark)) {
+            STACK_WATERMARK.store(etla, Address.zero());
+        }
+    }
+}
@@ -295,6 +295,11 @@ public class VmThread {
      */
     private boolean jvmtiAgent;
 
+    /**
+     * Marks this as a GC worker thread. These are never stopped by {@link GCOperation}s and their stack is not scanned for roots.
+     */
+    private boolean gcWorker;
+
     /**
      * Holds the exception object for the exception currently being raised. This value will only be
      * non-null during the unwinding process between calls to {@link #storeExceptionForHandler(Throwable, TargetMethod, int)}
@@ -1130,6 +1135,17 @@ public class VmThread {
         jvmtiAgent = true;
     }
 
+    /**
+     * Determines if this is a thread helping the {@link VmOperationThread} to perform parallel garbage collection work.
+     */
+    public final boolean isGCWorkerThread() {
+        return gcWorker;
+    }
+
+    public final void setAsGCWorkerThread() {
+        gcWorker = true;
+    }
+
     /**
      * Bind the given {@code Thread} to this VmThread.
      * @param javaThread thread to be bound
@@ -536,6 +536,10 @@ public class VmThreadLocal implements FormatWithToString {
         VMLog.scanLogs(tla, wordPointerIndexVisitor);
 
         Pointer anchor = JavaFrameAnchor.from(tla);
+        if (thread.isGCWorkerThread()) {
+            // GC worker threads aren't stopped during GC and only refer to immortal objects from their stack.
+            anchor = Pointer.zero();
+        }
         if (!anchor.isZero()) {
             final Pointer lastJavaCallerStackPointer = JavaFrameAnchor.SP.get(anchor);
             final Pointer lowestActiveSlot = LOWEST_ACTIVE_STACK_SLOT_ADDRESS.load(tla);
@@ -551,10 +555,18 @@ public class VmThreadLocal implements FormatWithToString {
                 Throw.stackDump("Stack trace for thread:", JavaFrameAnchor.PC.get(anchor), lastJavaCallerStackPointer, JavaFrameAnchor.FP.get(anchor));
                 FatalError.unexpected("Stack reference map does not cover all active slots");
             }
+            Pointer highestScannedSlot = highestSlot;
+            if (StackWatermark.skipsWatermarkedFrames()) {
+                final Pointer watermarkLimit = StackWatermark.limit(tla);
+                if (!watermarkLimit.isZero()) {
+                    // The frames below the watermark don't need scanning.
+                    highestScannedSlot = watermarkLimit.minus(Word.size());
+                }
+            }
             if (tracing) {
-                StackReferenceMapPreparer.stackRootScanLogger.logThreadSlotRange(highestSlot, lowestActiveSlot, lowestSlot);
+                StackReferenceMapPreparer.stackRootScanLogger.logThreadSlotRange(highestScannedSlot, lowestActiveSlot, lowestSlot);
             }
-            StackReferenceMapPreparer.scanReferenceMapRange(tla, lowestActiveSlot, highestSlot, wordPointerIndexVisitor);
+            StackReferenceMapPreparer.scanReferenceMapRange(tla, lowestActiveSlot, highestScannedSlot, wordPointerIndexVisitor);
         } else {
             if (tracing) {
                 StackReferenceMapPreparer.stackRootScanLogger.logThreadSlotRange(Pointer.zero(), Pointer.zero(), Pointer.zero());